@@ -4,6 +4,7 @@ import vfd.IP;
 import vproxy.component.proxy.Session;
 import vproxy.component.secure.SecurityGroup;
 import vproxy.component.secure.SecurityGroupRule;
+import vproxy.dns.DNSRecursiveCache;
 import vproxyapp.app.Application;
 import vproxyapp.app.cmd.handle.resource.*;
 import vproxybase.Config;
@@ -11,6 +12,7 @@ import vproxybase.dns.Cache;
 import vproxybase.util.Callback;
 import vproxybase.util.LogType;
 import vproxybase.util.Logger;
+import vproxybase.util.ringbuffer.DirectBufferPool;
 import vswitch.IPMac;
 import vswitch.iface.Iface;
 
@@ -461,6 +463,26 @@ public class Command {
                         throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
                 }
                 break;
+            case bufferpool: // buffer-pool
+                switch (cmd.action) {
+                    case a:
+                    case r:
+                    case R:
+                        // modification not supported for buffer-pool statistics
+                        throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                    case L:
+                    case l:
+                        // can be found in event-loop
+                        if (targetResource == null)
+                            throw new Exception("cannot find " + cmd.resource.type.fullname + " on top level");
+                        if (targetResource.type != ResourceType.el)
+                            throw new Exception(targetResource.type.fullname + " does not contain " + cmd.resource.type.fullname);
+                        EventLoopHandle.checkEventLoop(targetResource);
+                        break;
+                    default:
+                        throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
+                }
+                break;
             case el: // event loop
                 switch (cmd.action) {
                     case a:
@@ -834,6 +856,16 @@ public class Command {
                         long acc = StatisticHandle.acceptedConnCount(targetResource);
                         return new CmdResult(acc, acc, "" + acc);
                 }
+            case bufferpool:
+                switch (action) {
+                    case l:
+                        String memPerConn = StatisticHandle.bufferPoolMemoryPerConnection(targetResource);
+                        return new CmdResult(memPerConn, memPerConn, memPerConn);
+                    case L:
+                        List<DirectBufferPool.Stat> poolStats = StatisticHandle.bufferPool(targetResource);
+                        List<String> poolStatStrList = poolStats.stream().map(Object::toString).collect(Collectors.toList());
+                        return new CmdResult(poolStats, poolStatStrList, utilJoinList(poolStats));
+                }
             case svr: // can only be retrieved from server group
                 switch (action) {
                     case l:
@@ -887,9 +919,12 @@ public class Command {
             case el: // can only be retrieved from event loop group
                 switch (action) {
                     case l:
-                    case L:
                         List<String> elNames = EventLoopHandle.names(targetResource);
                         return new CmdResult(elNames, elNames, utilJoinList(elNames));
+                    case L:
+                        List<EventLoopHandle.EventLoopRef> elRefList = EventLoopHandle.details(targetResource);
+                        List<String> elRefStrList = elRefList.stream().map(EventLoopHandle.EventLoopRef::toString).collect(Collectors.toList());
+                        return new CmdResult(elRefList, elRefStrList, utilJoinList(elRefList));
                     case a:
                         EventLoopHandle.add(this);
                         return new CmdResult();
@@ -1044,9 +1079,19 @@ public class Command {
             case dnscache:
                 switch (action) {
                     case l:
-                        int cacheCnt = DnsCacheHandle.count();
+                        int cacheCnt = DnsCacheHandle.count(targetResource);
                         return new CmdResult(cacheCnt, cacheCnt, "" + cacheCnt);
                     case L:
+                        if (targetResource.type == ResourceType.dns) {
+                            List<DNSRecursiveCache.CachedResponse> entries = DnsCacheHandle.recursiveDetail(targetResource);
+                            List<Object> entryStrList = entries.stream().map(e -> Arrays.asList(
+                                e.key.qname,
+                                e.key.qtype.name(),
+                                e.isNegative() ? "negative" : "positive",
+                                e.ttlLeft()
+                            )).collect(Collectors.toList());
+                            return new CmdResult(entries, entryStrList, utilJoinList(entries));
+                        }
                         List<Cache> caches = DnsCacheHandle.detail();
                         List<Object> cacheStrList = caches.stream().map(c -> Arrays.asList(
                             c.host,
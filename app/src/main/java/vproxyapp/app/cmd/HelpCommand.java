@@ -692,7 +692,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.up, "set server status to UP after succeeded for `${up}` times"),
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times"),
                         new ResActParamMan(ParamMan.protocol, "the protocol used for checking the servers, you may choose `tcp`, `none`", "tcp"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "wrr"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `maglev`, `ringhash`", "wrr"),
                         new ResActParamMan(ParamMan.annotations, "extra info for the server-group, such as host info, health check url. Must be a json and values must be strings", "{}"),
                         new ResActParamMan(ParamMan.eventloopgroup, "choose a event-loop-group for the server group. health check operations will be performed on the event loop group", Application.DEFAULT_CONTROL_EVENT_LOOP_GROUP_NAME)
                     ),
@@ -749,7 +749,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times", "not changed"),
                         new ResActParamMan(ParamMan.protocol, "the protocol used for checking the servers, you may choose `tcp`, `none`. " +
                             "Note: this field will be set to `tcp` as default when updating other hc options", "not changed"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "not changed"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `maglev`, `ringhash`", "not changed"),
                         new ResActParamMan(ParamMan.weight, "the weight of group in the upstream resource (only available for server-group in upstream)", "not changed"),
                         new ResActParamMan(ParamMan.annotations, "annotation of the group itself, or the group in the upstream", "not changed")
                     ),
@@ -794,7 +794,8 @@ public class HelpCommand {
                             "\"OK\""
                         )
                     )),
-                new ResActMan(ActMan.list, "retrieve names of all event loops in a event loop group",
+                new ResActMan(ActMan.list, "retrieve names of all event loops in a event loop group, "
+                    + "the detailed info contains time costs and queue depths of the loop, and the slowest callbacks",
                     Collections.emptyList(),
                     Arrays.asList(
                         new Tuple<>(
@@ -803,7 +804,7 @@ public class HelpCommand {
                         ),
                         new Tuple<>(
                             "list-detail event-loop in event-loop-group elg0",
-                            "1) \"el0\""
+                            "1) \"el0 -> rounds 1532 busy-us 48211 max-busy-us 2305 last-busy-us 12 saturation 0.0016 run-on-loop-us 1204 timer-us 3820 handling-us 43187 select-us 30125532 selected-keys 2871 max-selected-keys 9 run-on-loop-depth 0 max-run-on-loop-depth 4 timer-backlog 0 max-timer-backlog 3 blocked-ms 0 slow-callbacks [vproxy.component.proxy.Proxy$ProxyNetServerHandler -> count 310 total-us 9842 max-us 2290, vproxybase.connection.NetEventLoop$HandlerForConnection -> count 2561 total-us 33345 max-us 731]\""
                         )
                     )),
                 new ResActMan(ActMan.removefrom, "remove a event loop from event loop group",
@@ -820,7 +821,7 @@ public class HelpCommand {
                 new ResActMan(ActMan.addto, "specify name, remote ip:port, weight, and attach the server into the server group",
                     Arrays.asList(
                         new ResActParamMan(ParamMan.address, "remote address, ip:port"),
-                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by wrr, wlc and source algorithm", "10")
+                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by wrr, wlc, source, maglev and ringhash algorithm", "10")
                     ),
                     Collections.singletonList(
                         new Tuple<>(
@@ -982,14 +983,19 @@ public class HelpCommand {
                         )
                     ))
             )),
-        dnscache("dns-cache", null, "The dns record cache. It's a host -> ipv4List, ipv6List map. It can only be accessed from the (default) dns resolver",
+        dnscache("dns-cache", null, "The dns record cache. In the (default) dns resolver, it's a host -> ipv4List, ipv6List map. " +
+            "In a dns-server, it's the cache of responses of recursive lookups",
             Arrays.asList(
                 new ResActMan(ActMan.list, "count current cache",
                     Collections.emptyList(),
-                    Collections.singletonList(
+                    Arrays.asList(
                         new Tuple<>(
                             "list dns-cache in resolver (default)",
                             "(integer) 1"
+                        ),
+                        new Tuple<>(
+                            "list dns-cache in dns-server dns0",
+                            "(integer) 2"
                         )
                     )),
                 new ResActMan(ActMan.listdetail, "list detailed info of dns cache.\n" +
@@ -998,22 +1004,45 @@ public class HelpCommand {
                     "\n" +
                     "host.\n" +
                     "ipv4 ip list.\n" +
-                    "ipv6 ip list",
+                    "ipv6 ip list.\n" +
+                    "\n" +
+                    "For dns-server, the return values are:\n" +
+                    "\n" +
+                    "qname.\n" +
+                    "qtype.\n" +
+                    "positive or negative.\n" +
+                    "ttl left in seconds",
                     Collections.emptyList(),
-                    Collections.singletonList(
+                    Arrays.asList(
                         new Tuple<>(
                             "list-detail dns-cache in resolver (default)",
                             "1) 1) \"localhost\"\n" +
                                 "   2) 1) \"127.0.0.1\"\n" +
                                 "   3) 1) \"[0000:0000:0000:0000:0000:0000:0000:0001]\""
+                        ),
+                        new Tuple<>(
+                            "list-detail dns-cache in dns-server dns0",
+                            "1) 1) \"example.com\"\n" +
+                                "   2) \"A\"\n" +
+                                "   3) \"positive\"\n" +
+                                "   4) (integer) 3492\n" +
+                                "2) 1) \"nonexist.example.com\"\n" +
+                                "   2) \"AAAA\"\n" +
+                                "   3) \"negative\"\n" +
+                                "   4) (integer) 891"
                         )
                     )),
-                new ResActMan(ActMan.forceremove, "specify the host and remove the dns cache",
+                new ResActMan(ActMan.forceremove, "specify the host and remove the dns cache. " +
+                    "For dns-server, all cached responses of the host are removed, use `*` to flush the whole cache",
                     Collections.emptyList(),
-                    Collections.singletonList(
+                    Arrays.asList(
                         new Tuple<>(
                             "force-remove dns-cache localhost from resolver (default)",
                             "\"OK\""
+                        ),
+                        new Tuple<>(
+                            "force-remove dns-cache * from dns-server dns0",
+                            "\"OK\""
                         )
                     ))
             )),
@@ -1207,6 +1236,30 @@ public class HelpCommand {
                         )
                     ))
             )),
+        bufferpool("buffer-pool", null, "Statistics: the direct memory pool of an event loop",
+            Arrays.asList(
+                new ResActMan(ActMan.list, "get connection count, leased bytes and memory per connection of the event loop",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list buffer-pool in el el0 in elg elg0",
+                            "\"connections 1000 leased-bytes 327680 bytes-per-connection 327\""
+                        )
+                    )),
+                new ResActMan(ActMan.listdetail, "get leased/free/high-water segment count of each size class",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list-detail buffer-pool in el el0 in elg elg0",
+                            "" +
+                                "1) \"size-class 4096 -> leased 0 free 0 high-water 0 total 0\"\n" +
+                                "2) \"size-class 8192 -> leased 0 free 0 high-water 0 total 0\"\n" +
+                                "3) \"size-class 16384 -> leased 12 free 52 high-water 20 total 64\"\n" +
+                                "4) \"size-class 32768 -> leased 0 free 0 high-water 0 total 0\"\n" +
+                                "5) \"size-class 65536 -> leased 0 free 0 high-water 0 total 0\""
+                        )
+                    ))
+            )),
         sw("switch", "sw", "a switch for vproxy wrapped vxlan packets",
             Arrays.asList(
                 new ResActMan(ActMan.add, "create a switch",
@@ -15,6 +15,7 @@ public enum ResourceType {
     bin("bytes-in"),
     bout("bytes-out"),
     acceptedconncount("accepted-conn-count"),
+    bufferpool("buffer-pool"),
     secg("security-group"),
     secgr("security-group-rule"),
     resolver("resolver"),
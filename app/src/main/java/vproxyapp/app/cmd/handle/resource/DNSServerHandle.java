@@ -109,7 +109,10 @@ public class DNSServerHandle {
                 + " bind " + dnsServer.bindAddress.getAddress().formatToIPString() + ":" + dnsServer.bindAddress.getPort()
                 + " rrsets " + dnsServer.rrsets.alias
                 + " ttl " + dnsServer.ttl
-                + " security-group " + dnsServer.securityGroup.alias;
+                + " security-group " + dnsServer.securityGroup.alias
+                + " cache-hit " + dnsServer.recursiveCache.getHitCount()
+                + " cache-miss " + dnsServer.recursiveCache.getMissCount()
+                + " cache-coalesce " + dnsServer.recursiveCache.getCoalesceCount();
         }
     }
 }
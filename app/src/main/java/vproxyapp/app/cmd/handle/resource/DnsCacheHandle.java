@@ -1,5 +1,6 @@
 package vproxyapp.app.cmd.handle.resource;
 
+import vproxy.dns.DNSRecursiveCache;
 import vproxyapp.app.cmd.Command;
 import vproxyapp.app.cmd.Resource;
 import vproxyapp.app.cmd.ResourceType;
@@ -16,23 +17,45 @@ public class DnsCacheHandle {
     public static void checkDnsCacheParent(Resource parent) throws Exception {
         if (parent == null)
             throw new Exception("cannot find " + ResourceType.dnscache.fullname + " on top level");
+        if (parent.type == ResourceType.dns) {
+            DNSServerHandle.get(parent);
+            return;
+        }
         ResolverHandle.checkResolver(parent);
     }
 
-    public static int count() {
+    public static int count(Resource parent) throws Exception {
+        if (parent.type == ResourceType.dns) {
+            return DNSServerHandle.get(parent).recursiveCache.size();
+        }
         Resolver resolver = Resolver.getDefault();
         return resolver.cacheCount();
     }
 
+    public static List<DNSRecursiveCache.CachedResponse> recursiveDetail(Resource parent) throws Exception {
+        List<DNSRecursiveCache.CachedResponse> entries = new LinkedList<>();
+        DNSServerHandle.get(parent).recursiveCache.copyEntries(entries);
+        return entries;
+    }
+
     public static List<Cache> detail() {
         List<Cache> caches = new LinkedList<>();
         Resolver.getDefault().copyCache(caches);
         return caches;
     }
 
-    public static void remove(Command cmd) {
-        List<Cache> caches = detail();
+    public static void remove(Command cmd) throws Exception {
         String host = cmd.resource.alias;
+        if (cmd.prepositionResource.type == ResourceType.dns) {
+            DNSRecursiveCache cache = DNSServerHandle.get(cmd.prepositionResource).recursiveCache;
+            if (host.equals("*")) {
+                cache.clear();
+            } else {
+                cache.remove(host);
+            }
+            return;
+        }
+        List<Cache> caches = detail();
         for (Cache c : caches) {
             if (c.host.equals(host)) {
                 c.remove();
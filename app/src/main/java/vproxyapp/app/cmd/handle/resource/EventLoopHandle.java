@@ -6,11 +6,15 @@ import vproxyapp.app.cmd.Resource;
 import vproxyapp.app.cmd.ResourceType;
 import vproxybase.component.elgroup.EventLoopGroup;
 import vproxybase.component.elgroup.EventLoopWrapper;
+import vproxybase.selector.EventLoopProfiler;
 import vproxybase.util.exception.XException;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class EventLoopHandle {
+    public static final int SLOW_CALLBACKS_LIMIT = 10;
+
     private EventLoopHandle() {
     }
 
@@ -32,6 +36,11 @@ public class EventLoopHandle {
         return g.names();
     }
 
+    public static List<EventLoopRef> details(Resource targetResource) throws Exception {
+        EventLoopGroup g = EventLoopGroupHandle.get(targetResource);
+        return g.list().stream().map(EventLoopRef::new).collect(Collectors.toList());
+    }
+
     public static void add(Command cmd) throws Exception {
         EventLoopGroup g = EventLoopGroupHandle.get(cmd.prepositionResource);
         if (Application.isDefaultEventLoopGroupName(g.alias))
@@ -45,4 +54,19 @@ public class EventLoopHandle {
             throw new XException("cannot modify the default event loop group " + g.alias);
         g.remove(cmd.resource.alias);
     }
+
+    public static class EventLoopRef {
+        public final EventLoopWrapper el;
+
+        public EventLoopRef(EventLoopWrapper el) {
+            this.el = el;
+        }
+
+        @Override
+        public String toString() {
+            EventLoopProfiler profiler = el.getSelectorEventLoop().profiler;
+            return el.alias + " -> " + profiler.stat()
+                + " slow-callbacks " + profiler.slowCallbacks(SLOW_CALLBACKS_LIMIT);
+        }
+    }
 }
@@ -45,9 +45,9 @@ public class ServerSockHandle {
         if (parent.type == ResourceType.el) {
             return EventLoopHandle.get(parent).serverCount();
         } else if (parent.type == ResourceType.tl) {
-            return TcpLBHandle.get(parent).acceptorGroup.list().size();
+            return TcpLBHandle.get(parent).listenerGroup().list().size();
         } else if (parent.type == ResourceType.socks5) {
-            return Socks5ServerHandle.get(parent).acceptorGroup.list().size();
+            return Socks5ServerHandle.get(parent).listenerGroup().list().size();
         } else {
             assert parent.type == ResourceType.vpc;
             return VpcHandle.get(parent).conntrack.countListenEntry();
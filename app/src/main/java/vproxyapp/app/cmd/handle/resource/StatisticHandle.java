@@ -2,6 +2,10 @@ package vproxyapp.app.cmd.handle.resource;
 
 import vproxyapp.app.cmd.Resource;
 import vproxyapp.app.cmd.ResourceType;
+import vproxybase.component.elgroup.EventLoopWrapper;
+import vproxybase.util.ringbuffer.DirectBufferPool;
+
+import java.util.List;
 
 public class StatisticHandle {
     private StatisticHandle() {
@@ -33,4 +37,17 @@ public class StatisticHandle {
         ServerSockHandle.ServerSock2 sock = ServerSockHandle.get(parent);
         return sock.getHistoryAcceptedConnectionCount();
     }
+
+    public static List<DirectBufferPool.Stat> bufferPool(Resource parent) throws Exception {
+        return EventLoopHandle.get(parent).getSelectorEventLoop().bufferPool.stats();
+    }
+
+    public static String bufferPoolMemoryPerConnection(Resource parent) throws Exception {
+        EventLoopWrapper el = EventLoopHandle.get(parent);
+        int conns = el.connectionCount();
+        long bytes = el.getSelectorEventLoop().bufferPool.leasedBytes();
+        return "connections " + conns
+            + " leased-bytes " + bytes
+            + " bytes-per-connection " + (conns == 0 ? 0 : bytes / conns);
+    }
 }
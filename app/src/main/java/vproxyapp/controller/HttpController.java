@@ -19,6 +19,7 @@ import vproxybase.util.*;
 import vproxybase.util.exception.AlreadyExistException;
 import vproxybase.util.exception.NotFoundException;
 import vproxybase.util.exception.XException;
+import vproxybase.util.metrics.Metrics;
 import vserver.HttpServer;
 import vserver.RoutingContext;
 import vserver.RoutingHandler;
@@ -57,6 +58,7 @@ public class HttpController {
 
         // hc
         server.get("/healthz", ctx -> ctx.response().end("OK"));
+        server.get("/metrics", ctx -> ctx.response().header("Content-Type", "text/plain; version=0.0.4").end(Metrics.scrape()));
         // html
         server.get(htmlBase, ctx -> ctx.response().status(302).header("Location", "/html/index.html").end());
         server.get(htmlBase + "/*", ctx -> {
@@ -138,7 +140,7 @@ public class HttpController {
             .build()));
         server.del(moduleBase + "/dns-server/:dns", wrapAsync(this::deleteDNSServer));
         // event-loop
-        server.get(moduleBase + "/event-loop-group/:elg/event-loop/:el/detail", wrapAsync(this::getEventLoop));
+        server.get(moduleBase + "/event-loop-group/:elg/event-loop/:el/detail", wrapAsync(this::getEventLoopDetail));
         server.get(moduleBase + "/event-loop-group/:elg/event-loop/:el", wrapAsync(this::getEventLoop));
         server.get(moduleBase + "/event-loop-group/:elg/event-loop", wrapAsync(this::listEventLoop));
         server.pst(moduleBase + "/event-loop-group/:elg/event-loop", wrapAsync(this::createEventLoop, new ObjectBuilder()
@@ -619,6 +621,11 @@ public class HttpController {
         cb.succeeded(utils.formatEventLoop(el));
     }
 
+    private void getEventLoopDetail(RoutingContext rctx, Callback<JSON.Instance, Throwable> cb) throws NotFoundException {
+        var el = Application.get().eventLoopGroupHolder.get(rctx.param("elg")).get(rctx.param("el"));
+        cb.succeeded(utils.formatEventLoopDetail(el));
+    }
+
     private void listEventLoop(RoutingContext rctx, Callback<JSON.Instance, Throwable> cb) throws NotFoundException {
         var elg = Application.get().eventLoopGroupHolder.get(rctx.param("elg"));
         var list = elg.list();
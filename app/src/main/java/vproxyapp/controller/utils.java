@@ -17,12 +17,14 @@ import vproxy.dns.DNSServer;
 import vproxyapp.app.Application;
 import vproxyapp.app.cmd.CmdResult;
 import vproxyapp.app.cmd.Command;
+import vproxyapp.app.cmd.handle.resource.EventLoopHandle;
 import vproxybase.Config;
 import vproxybase.component.elgroup.EventLoopGroup;
 import vproxybase.component.elgroup.EventLoopWrapper;
 import vproxybase.component.svrgroup.ServerGroup;
 import vproxybase.connection.Connection;
 import vproxybase.connection.ServerSock;
+import vproxybase.selector.EventLoopProfiler;
 import vproxybase.util.Callback;
 import vproxybase.util.LogType;
 import vproxybase.util.Logger;
@@ -409,6 +411,36 @@ class utils {
             .build();
     }
 
+    static JSON.Object formatEventLoopDetail(EventLoopWrapper el) {
+        EventLoopProfiler profiler = el.getSelectorEventLoop().profiler;
+        EventLoopProfiler.Stat stat = profiler.stat();
+        return new ObjectBuilder()
+            .put("name", el.alias)
+            .put("rounds", stat.rounds)
+            .put("busyMicros", stat.busyMicros)
+            .put("maxBusyMicros", stat.maxBusyMicros)
+            .put("lastBusyMicros", stat.lastBusyMicros)
+            .put("saturation", stat.saturation())
+            .put("runOnLoopMicros", stat.runOnLoopMicros)
+            .put("timerMicros", stat.timerMicros)
+            .put("handlingMicros", stat.handlingMicros)
+            .put("selectMicros", stat.selectMicros)
+            .put("selectedKeys", stat.selectedKeys)
+            .put("maxSelectedKeys", stat.maxSelectedKeys)
+            .put("runOnLoopDepth", stat.runOnLoopDepth)
+            .put("maxRunOnLoopDepth", stat.maxRunOnLoopDepth)
+            .put("timerBacklog", stat.timerBacklog)
+            .put("maxTimerBacklog", stat.maxTimerBacklog)
+            .put("blockedMillis", stat.blockedMillis)
+            .putArray("slowCallbacks", arr -> profiler.slowCallbacks(EventLoopHandle.SLOW_CALLBACKS_LIMIT).forEach(cb -> arr.addInst(new ObjectBuilder()
+                .put("class", cb.cls.getName())
+                .put("count", cb.count())
+                .put("totalMicros", cb.totalMicros())
+                .put("maxMicros", cb.maxMicros())
+                .build())))
+            .build();
+    }
+
     static JSON.Object formatSocks5Server(Socks5Server socks5) {
         return new ObjectBuilder()
             .put("name", socks5.alias)
@@ -15,6 +15,7 @@
 
 
     #include <sys/socket.h>
+    #include <sys/uio.h>
     #include <netinet/ip.h>
 
     #define V_AF_INET      AF_INET
@@ -89,10 +90,14 @@
         #define v_close       ff_close
         #define v_read        ff_read
         #define v_write       ff_write
+        #define v_readv       ff_readv
+        #define v_writev      ff_writev
     #else
         #define v_close       close
         #define v_read        read
         #define v_write       write
+        #define v_readv       readv
+        #define v_writev      writev
         #define v_pipe        pipe
     #endif
     typedef struct sockaddr_in  v_sockaddr_in;
@@ -1,3 +1,7 @@
+#ifdef __linux__
+    // for recvmmsg, sendmmsg, pipe2 and splice
+    #define _GNU_SOURCE
+#endif
 #include "vfd_posix_GeneralPosix.h"
 #include "vfd_posix.h"
 #include "exception.h"
@@ -699,6 +703,314 @@ JNIEXPORT jobject JNICALL Java_vfd_posix_GeneralPosix_recvfromIPv6
     return ret;
 }
 
+#define MAX_MMSG 64
+
+#if defined(__linux__) && !defined(FSTACK)
+    #define HAVE_MMSG 1
+#endif
+
+typedef union {
+    v_sockaddr_in  v4;
+    v_sockaddr_in6 v6;
+} v_mmsg_sockaddr;
+
+int buildIOVecs(JNIEnv* env, struct iovec* iovs, jobjectArray directBuffers, jintArray offs, jint* cLens, jint vlen) {
+    jint cOffs[MAX_MMSG];
+    (*env)->GetIntArrayRegion(env, offs, 0, vlen, cOffs);
+    for (int i = 0; i < vlen; ++i) {
+        jobject directBuffer = (*env)->GetObjectArrayElement(env, directBuffers, i);
+        byte* buf = (*env)->GetDirectBufferAddress(env, directBuffer);
+        (*env)->DeleteLocalRef(env, directBuffer);
+        if (buf == NULL) {
+            throwIOException(env, "not a direct buffer");
+            return -1;
+        }
+        iovs[i].iov_base = buf + cOffs[i];
+        iovs[i].iov_len = cLens[i];
+    }
+    return 0;
+}
+
+// receive at most vlen datagrams, the received lengths are written back into lens
+// return count of received datagrams
+int recvmmsgInternal(JNIEnv* env, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint vlen,
+                     v_mmsg_sockaddr* names, unsigned int namelen) {
+    jint cLens[MAX_MMSG];
+    struct iovec iovs[MAX_MMSG];
+    (*env)->GetIntArrayRegion(env, lens, 0, vlen, cLens);
+    if (buildIOVecs(env, iovs, directBuffers, offs, cLens, vlen) < 0) {
+        return 0;
+    }
+    int res;
+    #ifdef HAVE_MMSG
+        struct mmsghdr msgs[MAX_MMSG];
+        memset(msgs, 0, sizeof(struct mmsghdr) * vlen);
+        for (int i = 0; i < vlen; ++i) {
+            msgs[i].msg_hdr.msg_iov = &iovs[i];
+            msgs[i].msg_hdr.msg_iovlen = 1;
+            msgs[i].msg_hdr.msg_name = &names[i];
+            msgs[i].msg_hdr.msg_namelen = namelen;
+        }
+        res = recvmmsg(fd, msgs, vlen, 0, NULL);
+        if (res < 0) {
+            if (errno == V_EAGAIN || errno == V_EWOULDBLOCK) {
+                return 0;
+            }
+            throwIOExceptionBasedOnErrno(env);
+            return 0;
+        }
+        for (int i = 0; i < res; ++i) {
+            cLens[i] = msgs[i].msg_len;
+        }
+    #else
+        // fallback to one recvfrom call for each datagram
+        for (res = 0; res < vlen; ++res) {
+            unsigned int foo = namelen;
+            int n = v_recvfrom(fd, iovs[res].iov_base, iovs[res].iov_len, 0, (v_sockaddr*) &names[res], &foo);
+            if (n < 0) {
+                if (res == 0 && errno != V_EAGAIN && errno != V_EWOULDBLOCK) {
+                    throwIOExceptionBasedOnErrno(env);
+                    return 0;
+                }
+                break; // the error will be raised by the next call
+            }
+            cLens[res] = n;
+        }
+    #endif
+    (*env)->SetIntArrayRegion(env, lens, 0, res, cLens);
+    return res;
+}
+
+// send at most vlen datagrams
+// return count of sent datagrams
+int sendmmsgInternal(JNIEnv* env, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint vlen,
+                     v_mmsg_sockaddr* names, unsigned int namelen) {
+    jint cLens[MAX_MMSG];
+    struct iovec iovs[MAX_MMSG];
+    (*env)->GetIntArrayRegion(env, lens, 0, vlen, cLens);
+    if (buildIOVecs(env, iovs, directBuffers, offs, cLens, vlen) < 0) {
+        return 0;
+    }
+    int res;
+    #ifdef HAVE_MMSG
+        struct mmsghdr msgs[MAX_MMSG];
+        memset(msgs, 0, sizeof(struct mmsghdr) * vlen);
+        for (int i = 0; i < vlen; ++i) {
+            msgs[i].msg_hdr.msg_iov = &iovs[i];
+            msgs[i].msg_hdr.msg_iovlen = 1;
+            msgs[i].msg_hdr.msg_name = &names[i];
+            msgs[i].msg_hdr.msg_namelen = namelen;
+        }
+        res = sendmmsg(fd, msgs, vlen, 0);
+        return handleWriteIOOperationResult(env, res);
+    #else
+        // fallback to one sendto call for each datagram
+        for (res = 0; res < vlen; ++res) {
+            int n = v_sendto(fd, iovs[res].iov_base, iovs[res].iov_len, 0, (v_sockaddr*) &names[res], namelen);
+            if (n < 0) {
+                if (res == 0 && errno != V_EAGAIN && errno != V_EWOULDBLOCK) {
+                    throwIOExceptionBasedOnErrno(env);
+                    return 0;
+                }
+                break; // the error will be raised by the next call
+            }
+        }
+        return res;
+    #endif
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_recvmmsgIPv4
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint vlen, jintArray addrsHostOrder, jintArray ports) {
+    if (vlen > MAX_MMSG) {
+        vlen = MAX_MMSG;
+    }
+    if (vlen <= 0) {
+        return 0;
+    }
+    v_mmsg_sockaddr names[MAX_MMSG];
+    int res = recvmmsgInternal(env, fd, directBuffers, offs, lens, vlen, names, sizeof(v_sockaddr_in));
+    if (res <= 0) {
+        return 0;
+    }
+    jint cAddrs[MAX_MMSG];
+    jint cPorts[MAX_MMSG];
+    for (int i = 0; i < res; ++i) {
+        cAddrs[i] = v_ntohl(names[i].v4.sin_addr.s_addr);
+        cPorts[i] = v_ntohs(names[i].v4.sin_port);
+    }
+    (*env)->SetIntArrayRegion(env, addrsHostOrder, 0, res, cAddrs);
+    (*env)->SetIntArrayRegion(env, ports, 0, res, cPorts);
+    return res;
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_recvmmsgIPv6
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint vlen, jbyteArray addrs, jintArray ports) {
+    if (vlen > MAX_MMSG) {
+        vlen = MAX_MMSG;
+    }
+    if (vlen <= 0) {
+        return 0;
+    }
+    v_mmsg_sockaddr names[MAX_MMSG];
+    int res = recvmmsgInternal(env, fd, directBuffers, offs, lens, vlen, names, sizeof(v_sockaddr_in6));
+    if (res <= 0) {
+        return 0;
+    }
+    jint cPorts[MAX_MMSG];
+    for (int i = 0; i < res; ++i) {
+        (*env)->SetByteArrayRegion(env, addrs, i * 16, 16, (jbyte*) names[i].v6.sin6_addr.s6_addr);
+        cPorts[i] = v_ntohs(names[i].v6.sin6_port);
+    }
+    (*env)->SetIntArrayRegion(env, ports, 0, res, cPorts);
+    return res;
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendmmsgIPv4
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint vlen, jintArray addrsHostOrder, jintArray ports) {
+    if (vlen > MAX_MMSG) {
+        vlen = MAX_MMSG;
+    }
+    if (vlen <= 0) {
+        return 0;
+    }
+    jint cAddrs[MAX_MMSG];
+    jint cPorts[MAX_MMSG];
+    (*env)->GetIntArrayRegion(env, addrsHostOrder, 0, vlen, cAddrs);
+    (*env)->GetIntArrayRegion(env, ports, 0, vlen, cPorts);
+    v_mmsg_sockaddr names[MAX_MMSG];
+    for (int i = 0; i < vlen; ++i) {
+        j2cSockAddrIPv4(&names[i].v4, cAddrs[i], cPorts[i]);
+    }
+    return sendmmsgInternal(env, fd, directBuffers, offs, lens, vlen, names, sizeof(v_sockaddr_in));
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendmmsgIPv6
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint vlen, jbyteArray addrs, jintArray ports) {
+    if (vlen > MAX_MMSG) {
+        vlen = MAX_MMSG;
+    }
+    if (vlen <= 0) {
+        return 0;
+    }
+    jint cPorts[MAX_MMSG];
+    (*env)->GetIntArrayRegion(env, ports, 0, vlen, cPorts);
+    v_mmsg_sockaddr names[MAX_MMSG];
+    for (int i = 0; i < vlen; ++i) {
+        v_bzero(&names[i].v6, sizeof(v_sockaddr_in6));
+        names[i].v6.sin6_family = V_AF_INET6;
+        names[i].v6.sin6_port = v_htons(cPorts[i]);
+        (*env)->GetByteArrayRegion(env, addrs, i * 16, 16, (jbyte*) names[i].v6.sin6_addr.s6_addr);
+    }
+    return sendmmsgInternal(env, fd, directBuffers, offs, lens, vlen, names, sizeof(v_sockaddr_in6));
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_readv
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint vlen) {
+    if (vlen > MAX_MMSG) {
+        vlen = MAX_MMSG;
+    }
+    if (vlen <= 0) {
+        return 0;
+    }
+    jint cLens[MAX_MMSG];
+    (*env)->GetIntArrayRegion(env, lens, 0, vlen, cLens);
+    struct iovec iovs[MAX_MMSG];
+    if (buildIOVecs(env, iovs, directBuffers, offs, cLens, vlen) < 0) {
+        return 0;
+    }
+    int res = v_readv(fd, iovs, vlen);
+    return handleReadIOOperationResult(env, res);
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_writev
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint vlen) {
+    if (vlen > MAX_MMSG) {
+        vlen = MAX_MMSG;
+    }
+    if (vlen <= 0) {
+        return 0;
+    }
+    jint cLens[MAX_MMSG];
+    (*env)->GetIntArrayRegion(env, lens, 0, vlen, cLens);
+    struct iovec iovs[MAX_MMSG];
+    if (buildIOVecs(env, iovs, directBuffers, offs, cLens, vlen) < 0) {
+        return 0;
+    }
+    int res = v_writev(fd, iovs, vlen);
+    return handleWriteIOOperationResult(env, res);
+}
+
+#if defined(__linux__) && !defined(FSTACK)
+    #define HAVE_SPLICE 1
+    #include <poll.h>
+#endif
+
+JNIEXPORT jboolean JNICALL Java_vfd_posix_GeneralPosix_spliceSupported
+  (JNIEnv* env, jobject self) {
+    #ifdef HAVE_SPLICE
+        return JNI_TRUE;
+    #else
+        return JNI_FALSE;
+    #endif
+}
+
+JNIEXPORT jintArray JNICALL Java_vfd_posix_GeneralPosix_openSplicePipe
+  (JNIEnv* env, jobject self, jint size) {
+    #ifdef HAVE_SPLICE
+        int pipes[2];
+        int res = pipe2(pipes, O_NONBLOCK | O_CLOEXEC);
+        if (res < 0) {
+            throwIOExceptionBasedOnErrno(env);
+            return NULL;
+        }
+        if (size > 0) {
+            // the pipe keeps the default size if it cannot be changed
+            fcntl(pipes[1], F_SETPIPE_SZ, size);
+        }
+        jintArray ret = (*env)->NewIntArray(env, 2);
+        jint elems[] = { pipes[0], pipes[1] };
+        (*env)->SetIntArrayRegion(env, ret, 0, 2, elems);
+        return ret;
+    #else
+        throwIOException(env, "unsupported on current platform");
+        return NULL;
+    #endif
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_splice
+  (JNIEnv* env, jobject self, jint fdIn, jint fdOut, jint len) {
+    #ifdef HAVE_SPLICE
+        if (len == 0) {
+            return 0;
+        }
+        ssize_t res = splice(fdIn, NULL, fdOut, NULL, len, SPLICE_F_MOVE | SPLICE_F_NONBLOCK);
+        return handleReadIOOperationResult(env, (int) res);
+    #else
+        throwIOException(env, "unsupported on current platform");
+        return 0;
+    #endif
+}
+
+JNIEXPORT jboolean JNICALL Java_vfd_posix_GeneralPosix_pipeFull
+  (JNIEnv* env, jobject self, jint writeFD) {
+    #ifdef HAVE_SPLICE
+        // the write end of a pipe is writable as long as there's a free slot
+        struct pollfd pfd;
+        pfd.fd = writeFD;
+        pfd.events = POLLOUT;
+        pfd.revents = 0;
+        int res = poll(&pfd, 1, 0);
+        if (res < 0) {
+            throwIOExceptionBasedOnErrno(env);
+            return JNI_FALSE;
+        }
+        return (pfd.revents & POLLOUT) ? JNI_FALSE : JNI_TRUE;
+    #else
+        throwIOException(env, "unsupported on current platform");
+        return JNI_FALSE;
+    #endif
+}
+
 JNIEXPORT jlong JNICALL Java_vfd_posix_GeneralPosix_currentTimeMillis
   (JNIEnv* env, jobject self) {
     v_timeval tv;
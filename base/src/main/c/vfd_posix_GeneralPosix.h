@@ -375,6 +375,86 @@ JNIEXPORT jobject JNICALL Java_vfd_posix_GeneralPosix_recvfromIPv4
 JNIEXPORT jobject JNICALL Java_vfd_posix_GeneralPosix_recvfromIPv6
   (JNIEnv *, jobject, jint, jobject, jint, jint);
 
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    recvmmsgIPv4
+ * Signature: (I[Ljava/nio/ByteBuffer;[I[II[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_recvmmsgIPv4
+  (JNIEnv *, jobject, jint, jobjectArray, jintArray, jintArray, jint, jintArray, jintArray);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    recvmmsgIPv6
+ * Signature: (I[Ljava/nio/ByteBuffer;[I[II[B[I)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_recvmmsgIPv6
+  (JNIEnv *, jobject, jint, jobjectArray, jintArray, jintArray, jint, jbyteArray, jintArray);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    sendmmsgIPv4
+ * Signature: (I[Ljava/nio/ByteBuffer;[I[II[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendmmsgIPv4
+  (JNIEnv *, jobject, jint, jobjectArray, jintArray, jintArray, jint, jintArray, jintArray);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    sendmmsgIPv6
+ * Signature: (I[Ljava/nio/ByteBuffer;[I[II[B[I)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendmmsgIPv6
+  (JNIEnv *, jobject, jint, jobjectArray, jintArray, jintArray, jint, jbyteArray, jintArray);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    readv
+ * Signature: (I[Ljava/nio/ByteBuffer;[I[II)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_readv
+  (JNIEnv *, jobject, jint, jobjectArray, jintArray, jintArray, jint);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    writev
+ * Signature: (I[Ljava/nio/ByteBuffer;[I[II)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_writev
+  (JNIEnv *, jobject, jint, jobjectArray, jintArray, jintArray, jint);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    spliceSupported
+ * Signature: ()Z
+ */
+JNIEXPORT jboolean JNICALL Java_vfd_posix_GeneralPosix_spliceSupported
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    openSplicePipe
+ * Signature: (I)[I
+ */
+JNIEXPORT jintArray JNICALL Java_vfd_posix_GeneralPosix_openSplicePipe
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    splice
+ * Signature: (III)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_splice
+  (JNIEnv *, jobject, jint, jint, jint);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    pipeFull
+ * Signature: (I)Z
+ */
+JNIEXPORT jboolean JNICALL Java_vfd_posix_GeneralPosix_pipeFull
+  (JNIEnv *, jobject, jint);
+
 /*
  * Class:     vfd_posix_GeneralPosix
  * Method:    currentTimeMillis
@@ -24,6 +24,7 @@ module vproxy.base {
     exports vproxybase.util;
     exports vproxybase.util.ringbuffer;
     exports vproxybase.util.ringbuffer.ssl;
+    exports vproxybase.util.metrics;
     exports vproxybase.util.crypto;
     exports vproxybase.util.ex;
     exports vproxybase.util.io;
@@ -1,4 +1,47 @@
 package vfd;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 public interface DatagramFD extends AbstractDatagramFD<IPPort> {
+    /**
+     * receive multiple datagrams, one datagram for each buffer
+     *
+     * @param bufs    buffers to store the datagrams
+     * @param remotes the remote addresses of the received datagrams
+     * @return count of received datagrams, the first n elements of bufs and remotes are filled
+     * @throws IOException any io exception
+     */
+    default int receive(ByteBuffer[] bufs, IPPort[] remotes) throws IOException {
+        int n = 0;
+        while (n < bufs.length) {
+            IPPort remote = receive(bufs[n]);
+            if (remote == null) {
+                break;
+            }
+            remotes[n] = remote;
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * send multiple datagrams, each buffer is sent as one datagram
+     *
+     * @param bufs    buffers to send
+     * @param remotes the remote addresses of the datagrams
+     * @param count   count of datagrams to send
+     * @return count of sent datagrams
+     * @throws IOException any io exception
+     */
+    default int send(ByteBuffer[] bufs, IPPort[] remotes, int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            ByteBuffer buf = bufs[i];
+            int len = buf.limit() - buf.position();
+            if (send(buf, remotes[i]) < len) {
+                return i;
+            }
+        }
+        return count;
+    }
 }
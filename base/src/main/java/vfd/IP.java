@@ -86,6 +86,14 @@ public abstract class IP {
         return ret;
     }
 
+    /**
+     * @param index bit index, starting from the highest bit of the first byte
+     * @return 0 or 1
+     */
+    public int bitAt(int index) {
+        return (bytes[index >> 3] >> (7 - (index & 7))) & 1;
+    }
+
     public InetAddress toInetAddress() {
         return l3addr(getAddress());
     }
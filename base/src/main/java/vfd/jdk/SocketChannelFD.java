@@ -5,9 +5,11 @@ import vfd.SocketFD;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.SocketChannel;
 
-public class SocketChannelFD extends ChannelFD implements SocketFD {
+public class SocketChannelFD extends ChannelFD implements SocketFD, ScatteringByteChannel, GatheringByteChannel {
     private final SocketChannel channel;
 
     public SocketChannelFD(SocketChannel channel) {
@@ -60,6 +62,26 @@ public class SocketChannelFD extends ChannelFD implements SocketFD {
         return channel.write(src);
     }
 
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        return channel.read(dsts, offset, length);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return channel.read(dsts);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        return channel.write(srcs, offset, length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return channel.write(srcs);
+    }
+
     @Override
     public SocketChannel getChannel() {
         return channel;
@@ -144,6 +144,36 @@ public class GeneralPosix implements Posix {
     @Override
     native public UDPRecvResult recvfromIPv6(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    @Override
+    native public int recvmmsgIPv4(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen, int[] addrsHostOrder, int[] ports) throws IOException;
+
+    @Override
+    native public int recvmmsgIPv6(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen, byte[] addrs, int[] ports) throws IOException;
+
+    @Override
+    native public int sendmmsgIPv4(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen, int[] addrsHostOrder, int[] ports) throws IOException;
+
+    @Override
+    native public int sendmmsgIPv6(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen, byte[] addrs, int[] ports) throws IOException;
+
+    @Override
+    native public int readv(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen) throws IOException;
+
+    @Override
+    native public int writev(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen) throws IOException;
+
+    @Override
+    native public boolean spliceSupported();
+
+    @Override
+    native public int[] openSplicePipe(int size) throws IOException;
+
+    @Override
+    native public int splice(int fdIn, int fdOut, int len) throws IOException;
+
+    @Override
+    native public boolean pipeFull(int writeFD) throws IOException;
+
     @Override
     native public long currentTimeMillis();
 
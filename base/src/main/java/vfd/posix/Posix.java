@@ -98,6 +98,38 @@ public interface Posix {
 
     UDPRecvResult recvfromIPv6(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    // the batch operations handle at most 64 datagrams in one call
+    // lens are the capacities when receiving, and are set to the received lengths when returning
+    // ipv6 addresses are stored in 16 bytes for each datagram
+    // return count of datagrams received/sent
+
+    int recvmmsgIPv4(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen, int[] addrsHostOrder, int[] ports) throws IOException;
+
+    int recvmmsgIPv6(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen, byte[] addrs, int[] ports) throws IOException;
+
+    int sendmmsgIPv4(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen, int[] addrsHostOrder, int[] ports) throws IOException;
+
+    int sendmmsgIPv6(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen, byte[] addrs, int[] ports) throws IOException;
+
+    // scatter/gather io on at most 64 direct buffers
+    // return -1 for EOF when reading, 0 if the operation would block
+
+    int readv(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen) throws IOException;
+
+    int writev(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int vlen) throws IOException;
+
+    boolean spliceSupported();
+
+    // a non-blocking pipe for splice, return {readFD, writeFD}
+    int[] openSplicePipe(int size) throws IOException;
+
+    // move at most len bytes from fdIn to fdOut inside the kernel, one of the fds must be a pipe
+    // return -1 for EOF of fdIn, 0 if the operation would block
+    int splice(int fdIn, int fdOut, int len) throws IOException;
+
+    // whether the pipe has no free slot for more data
+    boolean pipeFull(int writeFD) throws IOException;
+
     long currentTimeMillis();
 
     boolean tapNonBlockingSupported() throws IOException;
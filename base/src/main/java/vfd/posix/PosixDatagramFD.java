@@ -6,8 +6,17 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 public class PosixDatagramFD extends PosixInetNetworkFD implements DatagramFD {
+    private static final int MAX_BATCH = 64; // same as the native code
     private boolean bond = false;
 
+    // arrays for batch operations, created when first used
+    private ByteBuffer[] batchBufs;
+    private int[] batchOffs;
+    private int[] batchLens;
+    private int[] batchIPv4s;
+    private byte[] batchIPv6s;
+    private int[] batchPorts;
+
     public PosixDatagramFD(Posix posix) {
         super(posix);
     }
@@ -162,4 +171,137 @@ public class PosixDatagramFD extends PosixInetNetworkFD implements DatagramFD {
         }
         return l4addr.toIPPort();
     }
+
+    private void ensureBatchArrays() {
+        if (batchBufs != null) {
+            return;
+        }
+        batchBufs = new ByteBuffer[MAX_BATCH];
+        batchOffs = new int[MAX_BATCH];
+        batchLens = new int[MAX_BATCH];
+        batchPorts = new int[MAX_BATCH];
+        if (ipv4) {
+            batchIPv4s = new int[MAX_BATCH];
+        } else {
+            batchIPv6s = new byte[MAX_BATCH * 16];
+        }
+    }
+
+    private static boolean allDirect(ByteBuffer[] bufs, int count) {
+        for (int i = 0; i < count; ++i) {
+            if (!bufs[i].isDirect()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int receive(ByteBuffer[] bufs, IPPort[] remotes) throws IOException {
+        checkFD();
+        checkNotClosed();
+        if (!bond) {
+            throw new IOException("not bond");
+        }
+        if (!allDirect(bufs, bufs.length)) {
+            return DatagramFD.super.receive(bufs, remotes);
+        }
+        ensureBatchArrays();
+
+        int total = 0;
+        while (total < bufs.length) {
+            int vlen = Math.min(MAX_BATCH, bufs.length - total);
+            for (int i = 0; i < vlen; ++i) {
+                ByteBuffer buf = bufs[total + i];
+                batchBufs[i] = buf;
+                batchOffs[i] = buf.position();
+                batchLens[i] = buf.limit() - buf.position();
+            }
+            int n;
+            try {
+                if (ipv4) {
+                    n = posix.recvmmsgIPv4(fd, batchBufs, batchOffs, batchLens, vlen, batchIPv4s, batchPorts);
+                } else {
+                    n = posix.recvmmsgIPv6(fd, batchBufs, batchOffs, batchLens, vlen, batchIPv6s, batchPorts);
+                }
+            } finally {
+                for (int i = 0; i < vlen; ++i) {
+                    batchBufs[i] = null;
+                }
+            }
+            for (int i = 0; i < n; ++i) {
+                ByteBuffer buf = bufs[total + i];
+                buf.position(buf.position() + batchLens[i]);
+                IP ip;
+                if (ipv4) {
+                    ip = IP.from(IP.ipv4Int2Bytes(batchIPv4s[i]));
+                } else {
+                    byte[] b = new byte[16];
+                    System.arraycopy(batchIPv6s, i * 16, b, 0, 16);
+                    ip = IP.from(b);
+                }
+                remotes[total + i] = new IPPort(ip, batchPorts[i]);
+            }
+            total += n;
+            if (n < vlen) {
+                break; // no more datagrams
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int send(ByteBuffer[] bufs, IPPort[] remotes, int count) throws IOException {
+        if (fd == -1 || connected || !allDirect(bufs, count)) {
+            // let the non-batch method handle the fd creation and errors
+            return DatagramFD.super.send(bufs, remotes, count);
+        }
+        checkNotClosed();
+        for (int i = 0; i < count; ++i) {
+            IP ip = remotes[i].getAddress();
+            if (ipv4 ? !(ip instanceof IPv4) : !(ip instanceof IPv6)) {
+                throw new IOException("unsupported address for this fd: " + remotes[i]);
+            }
+        }
+        ensureBatchArrays();
+
+        int total = 0;
+        while (total < count) {
+            int vlen = Math.min(MAX_BATCH, count - total);
+            for (int i = 0; i < vlen; ++i) {
+                ByteBuffer buf = bufs[total + i];
+                IPPort remote = remotes[total + i];
+                batchBufs[i] = buf;
+                batchOffs[i] = buf.position();
+                batchLens[i] = buf.limit() - buf.position();
+                batchPorts[i] = remote.getPort();
+                if (ipv4) {
+                    batchIPv4s[i] = IP.ipv4Bytes2Int(remote.getAddress().getAddress());
+                } else {
+                    System.arraycopy(remote.getAddress().getAddress(), 0, batchIPv6s, i * 16, 16);
+                }
+            }
+            int n;
+            try {
+                if (ipv4) {
+                    n = posix.sendmmsgIPv4(fd, batchBufs, batchOffs, batchLens, vlen, batchIPv4s, batchPorts);
+                } else {
+                    n = posix.sendmmsgIPv6(fd, batchBufs, batchOffs, batchLens, vlen, batchIPv6s, batchPorts);
+                }
+            } finally {
+                for (int i = 0; i < vlen; ++i) {
+                    batchBufs[i] = null;
+                }
+            }
+            for (int i = 0; i < n; ++i) {
+                ByteBuffer buf = bufs[total + i];
+                buf.position(buf.limit());
+            }
+            total += n;
+            if (n < vlen) {
+                break; // the socket buffer is full
+            }
+        }
+        return total;
+    }
 }
@@ -4,7 +4,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 public class PosixNetworkFD extends PosixFD {
+    private static final int MAX_IOV = 64;
+
     protected boolean connected = false;
+    // reused for readv and writev, the fd is always operated on one thread
+    private ByteBuffer[] iovBuffers;
+    private int[] iovOffs;
+    private int[] iovLens;
 
     protected PosixNetworkFD(Posix posix) {
         super(posix);
@@ -35,4 +41,130 @@ public class PosixNetworkFD extends PosixFD {
 
         return utilWrite(src, (buf, off, len) -> posix.write(fd, buf, off, len));
     }
+
+    // the socket fds implement ScatteringByteChannel and GatheringByteChannel with the following methods
+    // datagram fds do not, because a gathering write would merge the datagrams
+
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        int vlen = prepareIOVecs(dsts, offset, length, true);
+        if (vlen == -1) { // not all buffers are direct, read into the first buffer which has space
+            for (int i = offset; i < offset + length; ++i) {
+                if (dsts[i].hasRemaining()) {
+                    return read(dsts[i]);
+                }
+            }
+            return 0;
+        }
+        if (vlen == 0) {
+            return 0;
+        }
+        int n;
+        try {
+            n = posix.readv(fd, iovBuffers, iovOffs, iovLens, vlen);
+        } finally {
+            clearIOVecs(vlen);
+        }
+        if (n > 0) {
+            advance(dsts, offset, length, n);
+        }
+        return n;
+    }
+
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        int vlen = prepareIOVecs(srcs, offset, length, false);
+        if (vlen == -1) { // not all buffers are direct, write one by one
+            long total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                int len = srcs[i].remaining();
+                if (len == 0) {
+                    continue;
+                }
+                int n = write(srcs[i]);
+                total += n;
+                if (n < len) {
+                    break;
+                }
+            }
+            return total;
+        }
+        if (vlen == 0) {
+            return 0;
+        }
+        int n;
+        try {
+            n = posix.writev(fd, iovBuffers, iovOffs, iovLens, vlen);
+        } finally {
+            clearIOVecs(vlen);
+        }
+        if (n > 0) {
+            advance(srcs, offset, length, n);
+        }
+        return n;
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * @return count of iovecs, or -1 if any of the buffers is not direct
+     */
+    private int prepareIOVecs(ByteBuffer[] bufs, int offset, int length, boolean reading) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > bufs.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", bufs.length=" + bufs.length);
+        }
+        for (int i = offset; i < offset + length; ++i) {
+            if (!bufs[i].isDirect()) {
+                return -1;
+            }
+            if (reading && bufs[i].isReadOnly()) {
+                throw new IllegalArgumentException("read-only buffer");
+            }
+        }
+        if (iovBuffers == null) {
+            iovBuffers = new ByteBuffer[MAX_IOV];
+            iovOffs = new int[MAX_IOV];
+            iovLens = new int[MAX_IOV];
+        }
+        int vlen = 0;
+        for (int i = offset; i < offset + length && vlen < MAX_IOV; ++i) {
+            ByteBuffer b = bufs[i];
+            int len = b.remaining();
+            if (len == 0) {
+                continue;
+            }
+            iovBuffers[vlen] = b;
+            iovOffs[vlen] = b.position();
+            iovLens[vlen] = len;
+            ++vlen;
+        }
+        return vlen;
+    }
+
+    private void clearIOVecs(int vlen) {
+        for (int i = 0; i < vlen; ++i) {
+            iovBuffers[i] = null; // do not hold the buffers
+        }
+    }
+
+    private static void advance(ByteBuffer[] bufs, int offset, int length, int n) {
+        for (int i = offset; i < offset + length && n > 0; ++i) {
+            ByteBuffer b = bufs[i];
+            int len = Math.min(b.remaining(), n);
+            b.position(b.position() + len);
+            n -= len;
+        }
+    }
 }
@@ -3,8 +3,10 @@ package vfd.posix;
 import vfd.SocketFD;
 
 import java.io.IOException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 
-public class PosixSocketFD extends PosixInetNetworkFD implements SocketFD {
+public class PosixSocketFD extends PosixInetNetworkFD implements SocketFD, ScatteringByteChannel, GatheringByteChannel {
     public PosixSocketFD(Posix posix) {
         super(posix);
     }
@@ -0,0 +1,131 @@
+package vfd.posix;
+
+import vfd.FD;
+import vfd.SocketFD;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A kernel pipe for moving bytes between posix network fds with splice(2),
+ * the bytes are not copied into user space.
+ */
+public class SplicePipe {
+    private final Posix posix;
+    private final int readFD;
+    private final int writeFD;
+    private boolean closed = false;
+
+    private SplicePipe(Posix posix, int readFD, int writeFD) {
+        this.posix = posix;
+        this.readFD = readFD;
+        this.writeFD = writeFD;
+    }
+
+    public static boolean supported(FD fd) {
+        return fd instanceof PosixNetworkFD && fd instanceof SocketFD && ((PosixNetworkFD) fd).posix.spliceSupported();
+    }
+
+    /**
+     * @param fd   the pipe is created with the same posix impl as the fd
+     * @param size expected size of the pipe, the kernel may round it up, or ignore it if it's too large
+     */
+    public static SplicePipe open(FD fd, int size) throws IOException {
+        if (!supported(fd)) {
+            throw new IOException("splice is not supported on " + fd);
+        }
+        Posix posix = ((PosixNetworkFD) fd).posix;
+        int[] fds = posix.openSplicePipe(size);
+        return new SplicePipe(posix, fds[0], fds[1]);
+    }
+
+    private PosixNetworkFD check(FD fd) throws IOException {
+        if (closed) {
+            throw new IOException("pipe closed");
+        }
+        if (!(fd instanceof PosixNetworkFD)) {
+            throw new IOException("cannot splice with " + fd);
+        }
+        PosixNetworkFD pfd = (PosixNetworkFD) fd;
+        pfd.checkFD();
+        pfd.checkConnected();
+        pfd.checkNotClosed();
+        return pfd;
+    }
+
+    /**
+     * move bytes from the fd into the pipe
+     *
+     * @return -1 for EOF, 0 if the fd has no data or the pipe is full, use {@link #isFull()} to distinguish them
+     */
+    public int spliceFrom(FD src, int len) throws IOException {
+        PosixNetworkFD pfd = check(src);
+        return posix.splice(pfd.fd, writeFD, len);
+    }
+
+    /**
+     * move bytes from the pipe into the fd
+     *
+     * @return 0 if the fd cannot be written or the pipe is empty
+     */
+    public int spliceTo(FD dst, int len) throws IOException {
+        PosixNetworkFD pfd = check(dst);
+        int n = posix.splice(readFD, pfd.fd, len);
+        return Math.max(n, 0);
+    }
+
+    /**
+     * @return true if the pipe has no free slot, bytes cannot be spliced into it until some are moved out
+     */
+    public boolean isFull() throws IOException {
+        if (closed) {
+            throw new IOException("pipe closed");
+        }
+        return posix.pipeFull(writeFD);
+    }
+
+    /**
+     * read and drop bytes in the pipe
+     *
+     * @return bytes dropped
+     */
+    public int discard(int len) throws IOException {
+        if (closed) {
+            throw new IOException("pipe closed");
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(Math.min(len, 65536));
+        int total = 0;
+        while (total < len) {
+            int n = posix.read(readFD, buf, 0, Math.min(len - total, buf.capacity()));
+            if (n <= 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            posix.close(readFD);
+        } catch (IOException ignore) {
+        }
+        try {
+            posix.close(writeFD);
+        } catch (IOException ignore) {
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SplicePipe{" +
+            "readFD=" + readFD +
+            ", writeFD=" + writeFD +
+            ", closed=" + closed +
+            '}';
+    }
+}
@@ -7,8 +7,10 @@ import vfd.UDSPath;
 import java.io.IOException;
 import java.net.SocketOption;
 import java.net.StandardSocketOptions;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 
-public class UnixDomainSocketFD extends PosixNetworkFD implements SocketFD {
+public class UnixDomainSocketFD extends PosixNetworkFD implements SocketFD, ScatteringByteChannel, GatheringByteChannel {
     private UDSPath local;
     private UDSPath remote;
 
@@ -0,0 +1,203 @@
+package vpacket.conntrack.tcp;
+
+/**
+ * Loss based congestion control: slow start, fast retransmit and fast recovery with partial acks (RFC 5681, RFC 6582).
+ * In congestion avoidance, the window grows as NewReno (RFC 5681) or CUBIC (RFC 9438).<br>
+ * All windows are in bytes, time is in milliseconds.
+ */
+public class CongestionControl {
+    public static final int DUP_ACK_THRESHOLD = 3;
+    private static final int CWND_MAX = Integer.MAX_VALUE / 2;
+    private static final double CUBIC_BETA = 0.7;
+    private static final double CUBIC_C = 0.4; // segments / second^3
+    private static final double CUBIC_ALPHA = 3 * (1 - CUBIC_BETA) / (1 + CUBIC_BETA);
+
+    private final int mss;
+    private final boolean cubic;
+    private int cwnd;
+    private int ssthresh = CWND_MAX;
+    private int bytesAcked = 0; // for congestion avoidance
+    private int dupAcks = 0;
+    private boolean inRecovery = false;
+    private int partialAcks = 0;
+    private long recover; // the seq after the highest one sent when entering recovery or timing out
+
+    // cubic
+    private long epochStart = -1;
+    private double wMax = 0; // bytes
+    private double k = 0; // seconds
+    private double wEst = 0; // bytes, the window of reno for the tcp-friendly region
+    private double cwndFraction = 0;
+
+    public CongestionControl(int mss, long seq, boolean cubic) {
+        this.mss = mss;
+        this.cubic = cubic;
+        // rfc 6928
+        this.cwnd = Math.min(10 * mss, Math.max(2 * mss, 14600));
+        this.recover = seq;
+    }
+
+    /**
+     * @param acked    bytes newly acked
+     * @param ack      the new ack seq
+     * @param inFlight bytes sent but not acked after this ack
+     * @param now      current time
+     * @param srtt     smoothed rtt, or -1 if not measured yet
+     * @return true if the first unacked segment should be retransmitted (partial ack)
+     */
+    public boolean onAck(int acked, long ack, long inFlight, long now, long srtt) {
+        dupAcks = 0;
+        if (inRecovery) {
+            if (ack >= recover) {
+                // full ack, deflate the window
+                inRecovery = false;
+                cwnd = (int) Math.max(mss, Math.min(ssthresh, inFlight + mss));
+                bytesAcked = 0;
+                return false;
+            }
+            // partial ack
+            ++partialAcks;
+            cwnd -= acked;
+            if (acked >= mss) {
+                cwnd += mss;
+            }
+            cwnd = Math.max(cwnd, mss);
+            return true;
+        }
+        if (cwnd < ssthresh) {
+            // slow start
+            cwnd += Math.min(acked, mss);
+        } else if (cubic) {
+            cubicAvoidance(acked, now, srtt);
+        } else {
+            // about one mss per rtt
+            bytesAcked += acked;
+            if (bytesAcked >= cwnd) {
+                bytesAcked -= cwnd;
+                cwnd += mss;
+            }
+        }
+        if (cwnd > CWND_MAX) {
+            cwnd = CWND_MAX;
+        }
+        return false;
+    }
+
+    private void cubicAvoidance(int acked, long now, long srtt) {
+        if (epochStart == -1) {
+            epochStart = now;
+            if (cwnd < wMax) {
+                k = Math.cbrt((wMax - cwnd) / mss / CUBIC_C);
+            } else {
+                k = 0;
+                wMax = cwnd;
+            }
+            wEst = cwnd;
+            cwndFraction = 0;
+        }
+        // the window expected after one rtt
+        double t = (now - epochStart + Math.max(srtt, 0)) / 1000.0;
+        double target = CUBIC_C * Math.pow(t - k, 3) * mss + wMax;
+        target = Math.max(cwnd, Math.min(target, 1.5 * cwnd));
+
+        wEst += CUBIC_ALPHA * mss * acked / cwnd;
+        if (wEst > target) {
+            // tcp-friendly region
+            target = wEst;
+        }
+        cwndFraction += (target - cwnd) * acked / cwnd;
+        if (cwndFraction >= 1) {
+            int incr = (int) cwndFraction;
+            cwnd += incr;
+            cwndFraction -= incr;
+        }
+    }
+
+    /**
+     * @param ack      the duplicated ack seq
+     * @param inFlight bytes sent but not acked
+     * @param maxSent  the highest seq sent
+     * @return true if the first unacked segment should be retransmitted (fast retransmit)
+     */
+    public boolean onDupAck(long ack, long inFlight, long maxSent) {
+        if (inRecovery) {
+            // inflate the window for the segment which left the network
+            cwnd = Math.min(CWND_MAX, cwnd + mss);
+            return false;
+        }
+        ++dupAcks;
+        if (dupAcks != DUP_ACK_THRESHOLD) {
+            return false;
+        }
+        if (ack < recover) {
+            // the dup acks may be caused by the retransmission before, rfc 6582 (3.2)
+            return false;
+        }
+        reduce(inFlight);
+        cwnd = ssthresh + DUP_ACK_THRESHOLD * mss;
+        recover = maxSent;
+        inRecovery = true;
+        partialAcks = 0;
+        return true;
+    }
+
+    /**
+     * @param inFlight      bytes sent but not acked
+     * @param maxSent       the highest seq sent
+     * @param retransmitted the timer expired again for the retransmitted segment
+     */
+    public void onTimeout(long inFlight, long maxSent, boolean retransmitted) {
+        if (!inRecovery && !retransmitted) {
+            // otherwise the window is already reduced,
+            // and the flight size is inflated by the dup acks or the retransmission, so it's held constant, rfc 5681 (3.1)
+            reduce(inFlight);
+        }
+        cwnd = mss;
+        dupAcks = 0;
+        inRecovery = false;
+        recover = maxSent;
+    }
+
+    private void reduce(long inFlight) {
+        bytesAcked = 0;
+        if (cubic) {
+            // fast convergence
+            if (cwnd < wMax) {
+                wMax = cwnd * (1 + CUBIC_BETA) / 2;
+            } else {
+                wMax = cwnd;
+            }
+            epochStart = -1;
+            ssthresh = (int) Math.max(inFlight * CUBIC_BETA, 2L * mss);
+        } else {
+            ssthresh = (int) Math.max(inFlight / 2, 2L * mss);
+        }
+    }
+
+    /**
+     * The impatient variant of rfc 6582 (4): the retransmission timer is only restarted on the first partial ack,
+     * so when many segments are lost in one window, the timer expires and they are resent in slow start,
+     * instead of one segment per rtt.
+     *
+     * @return whether the retransmission timer should be restarted for the new ack
+     */
+    public boolean restartTimerOnAck() {
+        return !inRecovery || partialAcks <= 1;
+    }
+
+    public int getCwnd() {
+        return cwnd;
+    }
+
+    public int getSsthresh() {
+        return ssthresh;
+    }
+
+    public boolean isInRecovery() {
+        return inRecovery;
+    }
+
+    public boolean isCubic() {
+        return cubic;
+    }
+}
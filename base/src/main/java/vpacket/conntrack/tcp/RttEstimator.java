@@ -0,0 +1,56 @@
+package vpacket.conntrack.tcp;
+
+/**
+ * RFC 6298 retransmission timeout, all values are in milliseconds.<br>
+ * srtt and rttvar are kept scaled (x8 and x4) to avoid losing precision on small rtt.
+ */
+public class RttEstimator {
+    private static final int CLOCK_GRANULARITY = 1;
+
+    private boolean measured = false;
+    private long srtt8 = 0;
+    private long rttvar4 = 0;
+    private int rto = TcpEntry.RTO_INIT;
+    private int backoff = 0;
+
+    public void sample(long rtt) {
+        if (rtt < 0) {
+            return;
+        }
+        if (!measured) {
+            measured = true;
+            srtt8 = rtt << 3;
+            rttvar4 = rtt << 1;
+        } else {
+            long delta = rtt - (srtt8 >> 3);
+            srtt8 += delta;
+            rttvar4 += Math.abs(delta) - (rttvar4 >> 2);
+        }
+        long rto = (srtt8 >> 3) + Math.max(CLOCK_GRANULARITY, rttvar4);
+        this.rto = (int) Math.max(TcpEntry.RTO_MIN, Math.min(TcpEntry.RTO_MAX, rto));
+    }
+
+    // the timer expired, rfc 6298 (5.5)
+    public void backoff() {
+        if (getRto() < TcpEntry.RTO_MAX) {
+            ++backoff;
+        }
+    }
+
+    // new data is acked, the path is working again
+    public void resetBackoff() {
+        backoff = 0;
+    }
+
+    public int getRto() {
+        return (int) Math.min(TcpEntry.RTO_MAX, (long) rto << backoff);
+    }
+
+    public long getSrtt() {
+        return measured ? srtt8 >> 3 : -1;
+    }
+
+    public long getRttvar() {
+        return measured ? rttvar4 >> 2 : -1;
+    }
+}
@@ -1,28 +1,27 @@
 package vpacket.conntrack.tcp;
 
+import vfd.FDProvider;
 import vfd.IPPort;
+import vproxybase.Config;
 import vproxybase.selector.TimerEvent;
 import vproxybase.util.ByteArray;
 import vproxybase.util.LogType;
 import vproxybase.util.Logger;
 
 import java.nio.ByteBuffer;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Random;
+import java.util.*;
 
 public class TcpEntry {
-    public static final int WMEM_MAX = 212992;
+    public static final int WMEM_MAX = 4 * 1024 * 1024; // same as the max of net.ipv4.tcp_wmem
     public static final int RMEM_MAX = 212992;
     public static final int SND_DEFAULT_MSS = 1360;
     public static final int RCV_MSS = 1360;
     public static final int TCP_SEQ_INIT_MIN = Integer.MAX_VALUE / 3;
     public static final int TCP_SEQ_RAND = Integer.MAX_VALUE / 2;
     public static final int RTO_MIN = 200;
+    public static final int RTO_INIT = 1000;
     public static final int RTO_MAX = 120_000;
     public static final int DELAYED_ACK_TIMEOUT = 20;
-    public static final int MAX_REMOTE_WINDOW_MSS_DUP = 45; // * mss
     public static final int MAX_RETRANSMISSION_AFTER_CLOSING = 7;
 
     public final IPPort source;
@@ -92,38 +91,54 @@ public class TcpEntry {
     }
 
     public class SendingQueue {
-        private final LinkedList<Segment> q = new LinkedList<>();
+        private final NavigableMap<Long, Segment> q = new TreeMap<>(); // seqBeginInclusive => segment
         private int currentSize = 0;
         private long latestSeq;
         private long ackSeq;
         private long fetchSeq;
+        private long maxSentSeq; // may be greater than fetchSeq after timing out
         private int window = 0;
         private int mss = 0;
         private int windowScale = 1;
         private boolean finAcked = false;
+        private boolean finFetched = false;
+
+        private final RttEstimator rtt = new RttEstimator();
+        private CongestionControl congestion;
+        private long rttSeq = -1; // the segment being timed ends at this seq, -1 means not timing
+        private long rttStartTime;
+        private int retransmissionCount = 0; // continuous timeouts
 
         public SendingQueue(int seq) {
             this.latestSeq = seq;
             this.ackSeq = seq;
             this.fetchSeq = seq;
+            this.maxSentSeq = seq;
         }
 
         public void init(int window, int mss, int windowScale) {
-            this.window = Math.min(MAX_REMOTE_WINDOW_MSS_DUP * mss, window);
+            init(window, mss, windowScale, Config.vswitchTcpCubic);
+        }
+
+        public void init(int window, int mss, int windowScale, boolean cubic) {
+            this.window = window;
             this.mss = mss;
             this.windowScale = windowScale;
+            this.congestion = new CongestionControl(mss, ackSeq, cubic);
         }
 
         public void incAllSeq() {
             this.latestSeq += 1;
             this.ackSeq += 1;
             this.fetchSeq += 1;
+            this.maxSentSeq += 1;
         }
 
         public void decAllSeq() {
             this.latestSeq -= 1;
             this.ackSeq -= 1;
             this.fetchSeq -= 1;
+            this.maxSentSeq -= 1;
         }
 
         public boolean hasMoreSpace() {
@@ -134,6 +149,10 @@ public class TcpEntry {
             return !q.isEmpty();
         }
 
+        public boolean hasDataInFlight() {
+            return maxSentSeq > ackSeq || (finFetched && !finAcked);
+        }
+
         public int apiWrite(ByteBuffer buffer) {
             if (state.finSent) {
                 Logger.error(LogType.IMPROPER_USE, "FIN is set but still writing data");
@@ -166,54 +185,94 @@ public class TcpEntry {
             buffer.get(bytes);
             var data = ByteArray.from(bytes);
 
-            q.add(new Segment(latestSeq, data));
+            q.put(latestSeq, new Segment(latestSeq, data));
             latestSeq += data.length();
             currentSize += data.length();
             return len;
         }
 
         public List<Segment> fetch() {
-            long endSeq = ackSeq + mss;
-            if (mss > window) {
-                endSeq = ackSeq + window;
-            }
-            Segment s = fetch0(ackSeq, endSeq);
-            if (s == null) {
-                return Collections.emptyList();
-            }
+            return fetch(FDProvider.get().currentTimeMillis());
+        }
+
+        /**
+         * @return segments not sent yet and allowed by both the remote window and the congestion window
+         */
+        public List<Segment> fetch(long now) {
+            int usableWindow = Math.min(window, congestion.getCwnd());
+            long endSeq = ackSeq + usableWindow;
             List<Segment> ret = new LinkedList<>();
-            ret.add(s);
-            int total = s.data.length();
-            while (true) {
-                int len = mss;
-                if (total + len > window) {
-                    len = window - total;
-                }
-                if (len <= 0) {
+            while (fetchSeq < endSeq) {
+                long segEnd = Math.min(endSeq, fetchSeq + mss);
+                if (segEnd - fetchSeq < mss && segEnd < latestSeq && usableWindow >= mss) {
+                    // sender side silly window avoidance, rfc 9293 (3.8.6.2.1)
+                    // wait for a full segment unless it's the end of the data
                     break;
                 }
-                s = fetch0(ackSeq + total, ackSeq + total + len);
+                Segment s = fetch0(fetchSeq, segEnd);
                 if (s == null) {
                     break;
                 }
-                total += s.data.length();
                 ret.add(s);
+                if (s.seqBeginInclusive >= maxSentSeq && rttSeq == -1) {
+                    // only time new data, rfc 6298 (3), karn's algorithm
+                    rttSeq = s.seqEndExclusive;
+                    rttStartTime = now;
+                }
+                fetchSeq = s.seqEndExclusive;
+                if (maxSentSeq < fetchSeq) {
+                    maxSentSeq = fetchSeq;
+                }
             }
             return ret;
         }
 
-        private Segment fetch0(long begin, long endExclusive) {
-            if (q.size() == 0) {
+        /**
+         * @return the first unacked segment, or null if nothing to retransmit
+         */
+        public Segment retransmit() {
+            Segment s = fetch0(ackSeq, ackSeq + mss);
+            if (s == null) {
                 return null;
             }
-            if (q.peekFirst().seqBeginInclusive > begin) {
+            rttSeq = -1;
+            if (fetchSeq < s.seqEndExclusive) {
+                fetchSeq = s.seqEndExclusive;
+            }
+            return s;
+        }
+
+        /**
+         * The retransmission timer expired, data will be sent again from the first unacked byte
+         */
+        public void timeout() {
+            congestion.onTimeout(fetchSeq - ackSeq, maxSentSeq, retransmissionCount > 0);
+            rtt.backoff();
+            rttSeq = -1;
+            fetchSeq = ackSeq;
+            finFetched = false;
+            ++retransmissionCount;
+        }
+
+        /**
+         * @return true if FIN should be sent now: all data acked and FIN not sent yet
+         */
+        public boolean fetchFin() {
+            if (!needToSendFin() || finFetched || ackSeq != latestSeq) {
+                return false;
+            }
+            finFetched = true;
+            return true;
+        }
+
+        private Segment fetch0(long begin, long endExclusive) {
+            var first = q.floorEntry(begin);
+            if (first == null) {
                 // cannot retrieve data at the specified seq id
                 return null;
             }
-            var ite = q.iterator();
             ByteArray arr = null;
-            while (ite.hasNext()) {
-                Segment s = ite.next();
+            for (Segment s : q.tailMap(first.getKey(), true).values()) {
                 if (s.seqBeginInclusive >= endExclusive) {
                     break;
                 }
@@ -237,47 +296,79 @@ public class TcpEntry {
             if (arr == null) { // nothing found
                 return null;
             }
-            var seg = new Segment(begin, arr);
-            fetchSeq = seg.seqEndExclusive;
-            return seg;
+            return new Segment(begin, arr);
         }
 
-        public void ack(long seq, int window) {
+        public boolean ack(long seq, int window) {
+            return ack(seq, window, false, FDProvider.get().currentTimeMillis());
+        }
+
+        /**
+         * @param withData the packet carries data or FIN, so it's not a duplicate ack
+         * @return true if the first unacked segment should be retransmitted
+         */
+        public boolean ack(long seq, int window, boolean withData, long now) {
             if (finAcked) { // nothing to do because the output is completely shutdown
-                return;
+                return false;
             }
 
-            this.window = Math.min(MAX_REMOTE_WINDOW_MSS_DUP * mss, window * windowScale);
+            window *= windowScale;
+            boolean windowUpdated = this.window != window;
+            this.window = window;
 
             if (state.finSent && seq == latestSeq + 1) {
                 ackSeq = latestSeq + 1;
                 fetchSeq = latestSeq + 1;
+                maxSentSeq = latestSeq + 1;
                 finAcked = true;
+                retransmissionCount = 0;
                 q.clear();
-                return;
+                return false;
             }
             if (latestSeq < seq) {
                 if (q.isEmpty()) {
-                    return;
+                    return false;
                 }
                 // is invalid, but we try our best to recover
-                seq = q.peekLast().seqEndExclusive;
+                seq = q.lastEntry().getValue().seqEndExclusive;
             }
-            if (ackSeq < seq) {
-                ackSeq = seq;
+            if (seq <= ackSeq) {
+                // rfc 5681 (2): duplicate ack
+                if (seq == ackSeq && !withData && !windowUpdated && maxSentSeq > ackSeq) {
+                    return congestion.onDupAck(seq, fetchSeq - ackSeq, maxSentSeq);
+                }
+                return false;
             }
-            var ite = q.iterator();
-            while (ite.hasNext()) {
-                var s = ite.next();
-                if (s.seqEndExclusive >= seq) {
+
+            int acked = (int) (seq - ackSeq);
+            ackSeq = seq;
+            if (fetchSeq < ackSeq) {
+                fetchSeq = ackSeq;
+            }
+            if (maxSentSeq < ackSeq) {
+                maxSentSeq = ackSeq;
+            }
+            retransmissionCount = 0;
+            rtt.resetBackoff();
+            if (rttSeq != -1 && seq >= rttSeq) {
+                rtt.sample(now - rttStartTime);
+                rttSeq = -1;
+            }
+
+            boolean removed = false;
+            while (!q.isEmpty()) {
+                var s = q.firstEntry().getValue();
+                if (s.seqEndExclusive > seq) {
                     break;
                 }
                 currentSize -= s.data.length();
-                ite.remove();
-                if (connectionHandler != null) {
-                    connectionHandler.writable(TcpEntry.this);
-                }
+                q.pollFirstEntry();
+                removed = true;
+            }
+            if (removed && connectionHandler != null) {
+                connectionHandler.writable(TcpEntry.this);
             }
+            return congestion.onAck(acked, seq, fetchSeq - ackSeq, now, rtt.getSrtt());
         }
 
         public int getCurrentSize() {
@@ -308,6 +399,30 @@ public class TcpEntry {
             return windowScale;
         }
 
+        public int getCongestionWindow() {
+            return congestion.getCwnd();
+        }
+
+        public CongestionControl getCongestionControl() {
+            return congestion;
+        }
+
+        public RttEstimator getRttEstimator() {
+            return rtt;
+        }
+
+        public int getRto() {
+            return rtt.getRto();
+        }
+
+        public boolean restartTimerOnAck() {
+            return congestion.restartTimerOnAck();
+        }
+
+        public int getRetransmissionCount() {
+            return retransmissionCount;
+        }
+
         public boolean needToSendFin() {
             return state.finSent && !finAcked;
         }
@@ -436,5 +551,10 @@ public class TcpEntry {
         public int getWindowScale() {
             return windowScale;
         }
+
+        // the remote does not support window scaling
+        public void disableWindowScale() {
+            this.windowScale = 1;
+        }
     }
 }
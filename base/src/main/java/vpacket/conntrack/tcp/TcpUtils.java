@@ -21,7 +21,7 @@ public class TcpUtils {
         ret.setDstPort(tcp.source.getPort());
         ret.setSeqNum(tcp.sendingQueue.getFetchSeq());
         ret.setAckNum(tcp.receivingQueue.getAckedSeq());
-        ret.setWindow(tcp.receivingQueue.getWindow() / tcp.receivingQueue.getWindowScale());
+        ret.setWindow(Math.min(65535, tcp.receivingQueue.getWindow() / tcp.receivingQueue.getWindowScale()));
 
         return ret;
     }
@@ -108,6 +108,84 @@ public class Config {
     // -DmirrorConf=...
     public static final String mirrorConfigPath;
 
+    // whether to lease connection buffers from the direct memory pool of the event loop
+    // -DbufferPool=on|off
+    public static final boolean bufferPoolEnabled;
+
+    // max bytes of direct memory held by the buffer pool of each event loop
+    // -DbufferPoolMaxMB=...
+    public static final long bufferPoolMaxBytes;
+
+    // one of how many leases from the buffer pool are tracked for leak detection, 0 for disabled
+    // -DbufferPoolLeakDetection=off|sample|all
+    public static final int bufferPoolLeakDetectionInterval;
+
+    // whether to return connection buffers to the pool when they are drained,
+    // so that idle connections do not hold any buffer memory
+    // -DbufferPoolLazyAttach=on|off
+    public static final boolean bufferPoolLazyAttach;
+
+    // whether to move bytes between the two plain tcp connections of a proxy session with splice(2),
+    // only works with the posix vfd impl on linux
+    // -Dsplice=on|off
+    public static final boolean spliceEnabled;
+
+    // whether tcp lbs bind one SO_REUSEPORT listener on each worker event loop instead of the acceptor event loops,
+    // so that accepted connections are handled on the loop where they are accepted,
+    // only takes effect when the kernel load balances connections across reuseport sockets
+    // -DshardedAccept=on|off
+    public static final boolean shardedAcceptEnabled;
+
+    // max count of responses cached by each dns server for recursive lookups, 0 for disabled
+    // -DdnsServerCacheSize=...
+    public static final int dnsServerCacheSize;
+
+    // max size of the hpack dynamic table used when encoding headers sent to http/2 backends,
+    // limited by SETTINGS_HEADER_TABLE_SIZE of each backend, 0 for no indexing
+    // -Dhttp2BackendHeaderTableSize=...
+    public static final int http2BackendHeaderTableSize;
+
+    // whether to forward http/2 header blocks from the frontend to backends without re-encoding them
+    // when they do not use the dynamic table,
+    // x-forwarded-for and x-client-port will not be added, and the frontend will be told not to use the dynamic table
+    // -Dhttp2HeaderPassthrough=on|off
+    public static final boolean http2HeaderPassthrough;
+
+    // whether to record the time cost of handler callbacks and tasks by class on each event loop
+    // the round and phase times are always recorded
+    // -DeventLoopHandlerProfiling=on|off
+    public static final boolean eventLoopHandlerProfiling;
+
+    // log the stack trace of an event loop which is blocked longer than the time in milliseconds, 0 for disabled
+    // -DeventLoopWatchdogMs=...
+    public static final int eventLoopWatchdogMillis;
+
+    // threads running the delegated tasks of ssl engines when handshaking, 0 for the number of cpu cores
+    // -DsslTaskThreads=...
+    public static final int sslTaskThreads;
+
+    // tasks waiting for the ssl task threads
+    // ssl servers stop accepting for a while when it's half full, and event loops run the tasks themselves when it's full
+    // -DsslTaskQueueSize=...
+    public static final int sslTaskQueueSize;
+
+    // max sessions cached in each ssl context (each cert-key has its own context) for resumption
+    // -DsslSessionCacheSize=...
+    public static final int sslSessionCacheSize;
+
+    // timeout of cached sessions and session tickets in seconds, the ticket keys are rotated in the same interval
+    // -DsslSessionTimeout=...
+    public static final int sslSessionTimeout;
+
+    // whether to issue and accept stateless session tickets, see SSLSessionCache
+    // tickets need jdk 13+, the option is ignored on jdk 11
+    // -DsslSessionTickets=on|off
+    public static final boolean sslSessionTickets;
+
+    // congestion control of the user-space tcp stack of vswitch
+    // -DvswitchTcpCongestionControl=cubic|newreno
+    public static final boolean vswitchTcpCubic;
+
     static {
         appClass = System.getProperty("eploy"); // -Deploy
         String probeConf = System.getProperty("probe", "");
@@ -118,6 +196,31 @@ public class Config {
         }
         domainWhichShouldResolve = System.getProperty("omainWhichShouldResolve", "www.qq.com");
         mirrorConfigPath = System.getProperty("mirrorConf", "");
+        bufferPoolEnabled = !System.getProperty("bufferPool", "on").equals("off");
+        bufferPoolMaxBytes = Long.parseLong(System.getProperty("bufferPoolMaxMB", "256")) * 1024 * 1024;
+        String leakDetection = System.getProperty("bufferPoolLeakDetection", "sample");
+        if (leakDetection.equals("off")) {
+            bufferPoolLeakDetectionInterval = 0;
+        } else if (leakDetection.equals("all")) {
+            bufferPoolLeakDetectionInterval = 1;
+        } else {
+            bufferPoolLeakDetectionInterval = 128;
+        }
+        bufferPoolLazyAttach = System.getProperty("bufferPoolLazyAttach", "off").equals("on");
+        spliceEnabled = System.getProperty("splice", "off").equals("on");
+        shardedAcceptEnabled = System.getProperty("shardedAccept", "off").equals("on");
+        dnsServerCacheSize = Integer.parseInt(System.getProperty("dnsServerCacheSize", "4096"));
+        http2BackendHeaderTableSize = Integer.parseInt(System.getProperty("http2BackendHeaderTableSize", "4096"));
+        http2HeaderPassthrough = System.getProperty("http2HeaderPassthrough", "off").equals("on");
+        eventLoopHandlerProfiling = !System.getProperty("eventLoopHandlerProfiling", "on").equals("off");
+        eventLoopWatchdogMillis = Integer.parseInt(System.getProperty("eventLoopWatchdogMs", "0"));
+        int sslThreads = Integer.parseInt(System.getProperty("sslTaskThreads", "0"));
+        sslTaskThreads = sslThreads > 0 ? sslThreads : Runtime.getRuntime().availableProcessors();
+        sslTaskQueueSize = Math.max(Integer.parseInt(System.getProperty("sslTaskQueueSize", "1024")), 1);
+        sslSessionCacheSize = Math.max(Integer.parseInt(System.getProperty("sslSessionCacheSize", "4096")), 1);
+        sslSessionTimeout = Math.max(Integer.parseInt(System.getProperty("sslSessionTimeout", "86400")), 1);
+        sslSessionTickets = !System.getProperty("sslSessionTickets", "on").equals("off");
+        vswitchTcpCubic = !System.getProperty("vswitchTcpCongestionControl", "cubic").equals("newreno");
     }
 
     public static boolean supportReusePortLB() {
@@ -15,6 +15,9 @@ import vproxybase.util.ByteArray;
 import vproxybase.util.Callback;
 import vproxybase.util.Logger;
 import vproxybase.util.RingBuffer;
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
 import vproxybase.util.nio.ByteArrayChannel;
 
 import java.io.IOException;
@@ -215,6 +218,8 @@ public class ConnectClient {
     public final AnnotatedHcConfig annotatedHcConfig;
     private boolean stopped = false;
     private final Consumer<Callback<Void, IOException>> handleFunc;
+    private final Histogram latency;
+    private final Counter failures;
 
     private DatagramFD dnsSocket = null;
     private DNSClient dnsClient = null;
@@ -229,6 +234,10 @@ public class ConnectClient {
         this.checkProtocol = checkProtocol;
         this.timeout = timeout;
         this.annotatedHcConfig = annotatedHcConfig;
+        this.latency = Metrics.histogram("vproxy_health_check_seconds",
+            "Time cost of the successful health checks", 1e-6, "protocol", checkProtocol.name());
+        this.failures = Metrics.counter("vproxy_health_check_failures_total",
+            "Count of the failed health checks", "protocol", checkProtocol.name());
 
         switch (this.checkProtocol) {
             case none:
@@ -355,13 +364,14 @@ public class ConnectClient {
         this.handleFunc.accept(new Callback<>() {
             @Override
             protected void onSucceeded(Void value) {
-                cb.succeeded(new ConnectResult(
-                    FDProvider.get().currentTimeMillis() - start
-                ));
+                long cost = FDProvider.get().currentTimeMillis() - start;
+                latency.record(cost * 1000);
+                cb.succeeded(new ConnectResult(cost));
             }
 
             @Override
             protected void onFailed(IOException err) {
+                failures.inc();
                 cb.failed(err);
             }
         });
@@ -3,6 +3,7 @@ package vproxybase.component.elgroup;
 import vfd.SocketFD;
 import vfd.VFDConfig;
 import vproxybase.connection.*;
+import vproxybase.selector.DelegatingHandler;
 import vproxybase.selector.SelectorEventLoop;
 import vproxybase.util.*;
 import vproxybase.util.exception.AlreadyExistException;
@@ -14,13 +15,18 @@ import java.util.Collection;
 import java.util.Iterator;
 
 public class EventLoopWrapper extends NetEventLoop {
-    class ServerHandlerWrapper implements ServerHandler {
+    class ServerHandlerWrapper implements ServerHandler, DelegatingHandler {
         private final ServerHandler handler;
 
         ServerHandlerWrapper(ServerHandler handler) {
             this.handler = handler;
         }
 
+        @Override
+        public Object getDelegate(Object attachment) {
+            return handler;
+        }
+
         @Override
         public void acceptFail(ServerHandlerContext ctx, IOException err) {
             handler.acceptFail(ctx, err);
@@ -48,13 +54,18 @@ public class EventLoopWrapper extends NetEventLoop {
         }
     }
 
-    class ConnectionHandlerWrapper implements ConnectionHandler {
+    class ConnectionHandlerWrapper implements ConnectionHandler, DelegatingHandler {
         private final ConnectionHandler handler;
 
         ConnectionHandlerWrapper(ConnectionHandler handler) {
             this.handler = handler;
         }
 
+        @Override
+        public Object getDelegate(Object attachment) {
+            return handler;
+        }
+
         @Override
         public void readable(ConnectionHandlerContext ctx) {
             handler.readable(ctx);
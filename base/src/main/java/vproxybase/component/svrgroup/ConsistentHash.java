@@ -0,0 +1,267 @@
+package vproxybase.component.svrgroup;
+
+import vproxybase.util.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Precomputed lookup tables for consistent hashing.<br>
+ * A table is built from a list of (key, weight) pairs, and {@link #lookup(int)} returns
+ * the index of the selected pair in O(1).<br>
+ * When one element is added or removed, only the keys belonging to that element are remapped
+ * (approximately 1/N of all keys).
+ */
+public abstract class ConsistentHash {
+    public final int size;
+
+    private ConsistentHash(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @param hash the hash of the key, see {@link #hash(byte[])}
+     * @return index of the selected element, or -1 if the table is empty
+     */
+    public abstract int lookup(int hash);
+
+    public static ConsistentHash maglev(String[] keys, int[] weights) {
+        return new Maglev(keys, weights);
+    }
+
+    public static ConsistentHash ring(String[] keys, int[] weights) {
+        return new Ring(keys, weights);
+    }
+
+    public static int hash(byte[] bytes) {
+        return murmur3(bytes, 0);
+    }
+
+    // murmur3_32
+    static int murmur3(byte[] data, int seed) {
+        int h = seed;
+        int len = data.length;
+        int i = 0;
+        while (len - i >= 4) {
+            int k = (data[i] & 0xff)
+                | ((data[i + 1] & 0xff) << 8)
+                | ((data[i + 2] & 0xff) << 16)
+                | ((data[i + 3] & 0xff) << 24);
+            k *= 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15);
+            k *= 0x1b873593;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+            i += 4;
+        }
+        int rem = len - i;
+        if (rem > 0) {
+            int k = 0;
+            if (rem >= 3) {
+                k ^= (data[i + 2] & 0xff) << 16;
+            }
+            if (rem >= 2) {
+                k ^= (data[i + 1] & 0xff) << 8;
+            }
+            k ^= (data[i] & 0xff);
+            k *= 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15);
+            k *= 0x1b873593;
+            h ^= k;
+        }
+        h ^= len;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final int[] MAGLEV_TABLE_SIZES = {251, 1021, 4093, 16381, 65521};
+
+    /*
+     * Maglev: A Fast and Reliable Software Network Load Balancer
+     * each element has its own permutation (offset, skip) over the table,
+     * elements take turns to fill their next preferred empty slot.
+     * weight is supported by letting an element take its turn only when its accumulated weight
+     * reaches the max weight.
+     */
+    private static class Maglev extends ConsistentHash {
+        private final int[] table;
+
+        Maglev(String[] keys, int[] weights) {
+            super(keys.length);
+            int n = keys.length;
+            if (n == 0) {
+                table = new int[0];
+                return;
+            }
+            int m = MAGLEV_TABLE_SIZES[MAGLEV_TABLE_SIZES.length - 1];
+            for (int s : MAGLEV_TABLE_SIZES) {
+                if (s >= n * 100) {
+                    m = s;
+                    break;
+                }
+            }
+            long[] offset = new long[n];
+            long[] skip = new long[n];
+            long[] next = new long[n];
+            int maxWeight = 0;
+            for (int i = 0; i < n; ++i) {
+                byte[] k = keys[i].getBytes(StandardCharsets.UTF_8);
+                offset[i] = Integer.toUnsignedLong(murmur3(k, 0x5bd1e995)) % m;
+                skip[i] = Integer.toUnsignedLong(murmur3(k, 0x1b873593)) % (m - 1) + 1;
+                maxWeight = Math.max(maxWeight, weights[i]);
+            }
+            double[] target = new double[n];
+
+            int[] table = new int[m];
+            Arrays.fill(table, -1);
+            int filled = 0;
+            for (long iteration = 1; filled < m; ++iteration) {
+                for (int i = 0; i < n && filled < m; ++i) {
+                    if (iteration * (double) weights[i] / maxWeight < target[i]) {
+                        continue;
+                    }
+                    target[i] += 1;
+                    int c = (int) ((offset[i] + next[i] * skip[i]) % m);
+                    while (table[c] >= 0) {
+                        ++next[i];
+                        c = (int) ((offset[i] + next[i] * skip[i]) % m);
+                    }
+                    table[c] = i;
+                    ++next[i];
+                    ++filled;
+                }
+            }
+            this.table = table;
+        }
+
+        @Override
+        public int lookup(int hash) {
+            if (table.length == 0) {
+                return -1;
+            }
+            return table[(int) (Integer.toUnsignedLong(hash) % table.length)];
+        }
+    }
+
+    private static final int RING_VNODES_PER_WEIGHT = 16;
+    private static final int RING_MAX_TOTAL_VNODES = 1 << 16;
+
+    /*
+     * Ring hash (Karger et al.) with virtual nodes.
+     * The vnode points are sorted, and a bucket index over the high bits of the hash is
+     * maintained, so a lookup only scans the few points inside one bucket.
+     */
+    private static class Ring extends ConsistentHash {
+        private final int[] points; // sorted as unsigned ints
+        private final int[] owners;
+        private final int shift;
+        private final int[] bucketStart;
+
+        Ring(String[] keys, int[] weights) {
+            super(keys.length);
+            int n = keys.length;
+            long totalWeight = 0;
+            for (int w : weights) {
+                totalWeight += Math.max(0, w);
+            }
+            // vnodes are proportional to the weight,
+            // the factor shrinks when the whole ring would exceed the budget
+            double scale = RING_VNODES_PER_WEIGHT;
+            if (totalWeight * RING_VNODES_PER_WEIGHT > RING_MAX_TOTAL_VNODES) {
+                scale = RING_MAX_TOTAL_VNODES / (double) totalWeight;
+            }
+            int total = 0;
+            int[] vnodes = new int[n];
+            for (int i = 0; i < n; ++i) {
+                vnodes[i] = Math.max(1, (int) Math.round(Math.max(0, weights[i]) * scale));
+                total += vnodes[i];
+            }
+            long[] sorting = new long[total];
+            int idx = 0;
+            for (int i = 0; i < n; ++i) {
+                byte[] k = keys[i].getBytes(StandardCharsets.UTF_8);
+                for (int v = 0; v < vnodes[i]; ++v) {
+                    int point = murmur3(k, v);
+                    // higher 32 bits: point with sign bit flipped (so signed order == unsigned order of the point)
+                    // lower 32 bits: owner
+                    sorting[idx++] = (((long) (point ^ Integer.MIN_VALUE)) << 32) | i;
+                }
+            }
+            Arrays.sort(sorting);
+            points = new int[total];
+            owners = new int[total];
+            for (int i = 0; i < total; ++i) {
+                points[i] = ((int) (sorting[i] >>> 32)) ^ Integer.MIN_VALUE;
+                owners[i] = (int) (sorting[i] & 0xffffffffL);
+            }
+
+            int bits = 1;
+            while ((1 << bits) < total && bits < 16) {
+                ++bits;
+            }
+            shift = 32 - bits;
+            int buckets = 1 << bits;
+            bucketStart = new int[buckets + 1];
+            int p = 0;
+            for (int b = 0; b < buckets; ++b) {
+                while (p < total && (points[p] >>> shift) < b) {
+                    ++p;
+                }
+                bucketStart[b] = p;
+            }
+            bucketStart[buckets] = total;
+        }
+
+        @Override
+        public int lookup(int hash) {
+            if (points.length == 0) {
+                return -1;
+            }
+            int b = hash >>> shift;
+            int i = bucketStart[b];
+            int end = bucketStart[b + 1];
+            while (i < end && Integer.compareUnsigned(points[i], hash) < 0) {
+                ++i;
+            }
+            if (i == points.length) {
+                i = 0; // wrap around the ring
+            }
+            return owners[i];
+        }
+    }
+
+    private static volatile ThreadPoolExecutor builder;
+
+    /**
+     * run the building task on a separated thread, so that it will not block the event loops
+     */
+    static void buildAsync(Runnable r) {
+        if (builder == null) {
+            synchronized (ConsistentHash.class) {
+                if (builder == null) {
+                    builder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), rr -> {
+                        Thread t = new Thread(rr, "consistent-hash-builder");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+        builder.execute(() -> {
+            try {
+                r.run();
+            } catch (Throwable t) {
+                Logger.shouldNotHappen("building consistent hash table failed", t);
+            }
+        });
+    }
+}
@@ -3,5 +3,7 @@ package vproxybase.component.svrgroup;
 public enum Method {
     wrr,
     wlc,
-    source, // consistent hashing with source ip address
+    source, // hashing with source ip address
+    maglev, // maglev consistent hashing with source ip address
+    ringhash, // ring consistent hashing (with virtual nodes) with source ip address
 }
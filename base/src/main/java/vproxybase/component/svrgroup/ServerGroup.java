@@ -19,6 +19,7 @@ import vproxybase.util.exception.NotFoundException;
 
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
@@ -42,6 +43,9 @@ public class ServerGroup {
                     toLogicDelete = null;
                 }
 
+                // consistent hash tables only contain healthy servers
+                consistentHashReset();
+
                 // alert event
                 alertListeners(lsn -> lsn.up(ServerHandle.this));
                 // alert global event
@@ -55,6 +59,9 @@ public class ServerGroup {
                 Logger.info(LogType.HEALTH_CHECK_CHANGE,
                     "server " + ServerHandle.this.alias + "(" + server + ") status changed to DOWN, reason: " + reason);
 
+                // consistent hash tables only contain healthy servers
+                consistentHashReset();
+
                 // alert event
                 alertListeners(lsn -> lsn.down(ServerHandle.this));
                 // alert global event
@@ -401,6 +408,24 @@ public class ServerGroup {
     private SOURCE _sourceIPv6;
     // END fields for SOURCE
 
+    // START fields for MAGLEV and RINGHASH
+    static class CHASH {
+        final ConsistentHash table;
+        final ArrayList<ServerHandle> servers;
+
+        CHASH(ConsistentHash table, ArrayList<ServerHandle> servers) {
+            this.table = table;
+            this.servers = servers;
+        }
+    }
+
+    private static final CHASH EMPTY_CHASH = new CHASH(ConsistentHash.maglev(new String[0], new int[0]), new ArrayList<>(0));
+    private volatile CHASH _chash = EMPTY_CHASH;
+    private volatile CHASH _chashIPv4 = EMPTY_CHASH;
+    private volatile CHASH _chashIPv6 = EMPTY_CHASH;
+    private final AtomicBoolean chashRebuildPending = new AtomicBoolean(false);
+    // END fields for MAGLEV and RINGHASH
+
     public ServerGroup(String alias,
                        EventLoopGroup eventLoopGroup,
                        HealthCheckConfig healthCheckConfig,
@@ -425,6 +450,8 @@ public class ServerGroup {
             return wlcNext();
         } else if (method == Method.source) {
             return sourceHashGet(source.getAddress());
+        } else if (method == Method.maglev || method == Method.ringhash) {
+            return consistentHashGet(_chash, _source, source.getAddress());
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -439,6 +466,8 @@ public class ServerGroup {
             return wlcNextIPv4();
         } else if (method == Method.source) {
             return sourceHashGetIPv4(source.getAddress());
+        } else if (method == Method.maglev || method == Method.ringhash) {
+            return consistentHashGet(_chashIPv4, _sourceIPv4, source.getAddress());
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -453,6 +482,8 @@ public class ServerGroup {
             return wlcNextIPv6();
         } else if (method == Method.source) {
             return sourceHashGetIPv6(source.getAddress());
+        } else if (method == Method.maglev || method == Method.ringhash) {
+            return consistentHashGet(_chashIPv6, _sourceIPv6, source.getAddress());
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -475,6 +506,26 @@ public class ServerGroup {
         return sourceHashGet(_sourceIPv6, _sourceIPv6.hash(bytes), 0);
     }
 
+    private SvrHandleConnector consistentHashGet(CHASH chash, SOURCE fallback, IP source) {
+        byte[] bytes = source.getAddress();
+        if (chash.servers.isEmpty()) {
+            // the table is not built yet or no server is healthy
+            return sourceHashGet(fallback, fallback.hash(bytes), 0);
+        }
+        int idx = chash.table.lookup(ConsistentHash.hash(bytes));
+        ServerHandle h = chash.servers.get(idx);
+        if (h.healthy)
+            return h.makeConnector();
+
+        // the table is being rebuilt, use the next healthy server in the list
+        for (int i = 1; i < chash.servers.size(); ++i) {
+            h = chash.servers.get((idx + i) % chash.servers.size());
+            if (h.healthy)
+                return h.makeConnector();
+        }
+        return null;
+    }
+
     private SvrHandleConnector sourceHashGet(SOURCE source, int hash, int recurse) {
         if (recurse >= source.servers.size()) // this condition also checks empty state
             return null;
@@ -608,6 +659,54 @@ public class ServerGroup {
         wrrReset();
         wlcReset();
         sourceReset();
+        consistentHashReset();
+    }
+
+    private void consistentHashReset() {
+        if (method != Method.maglev && method != Method.ringhash) {
+            if (_chash != EMPTY_CHASH) {
+                _chash = EMPTY_CHASH;
+                _chashIPv4 = EMPTY_CHASH;
+                _chashIPv6 = EMPTY_CHASH;
+            }
+            return;
+        }
+        if (!chashRebuildPending.compareAndSet(false, true)) {
+            return; // the pending task will see the latest servers
+        }
+        ConsistentHash.buildAsync(() -> {
+            chashRebuildPending.set(false); // changes after this line will trigger another build
+            Method method = this.method;
+            List<ServerHandle> servers = this.servers.stream()
+                .filter(s -> s.weight > 0 && s.healthy)
+                .collect(Collectors.toList());
+            _chash = consistentHashReset(method, servers);
+            _chashIPv4 = consistentHashReset(method, servers.stream().filter(s -> s.server.getAddress() instanceof IPv4).collect(Collectors.toList()));
+            _chashIPv6 = consistentHashReset(method, servers.stream().filter(s -> s.server.getAddress() instanceof IPv6).collect(Collectors.toList()));
+        });
+    }
+
+    private CHASH consistentHashReset(Method method, List<ServerHandle> servers) {
+        if (servers.isEmpty()) {
+            return EMPTY_CHASH;
+        }
+        ArrayList<ServerHandle> svrs = new ArrayList<>(servers);
+        // use alias as the hash key, it will not change when the ip is replaced
+        // and the sorting makes sure different instances with the same config generate the same table
+        svrs.sort(Comparator.comparing((ServerHandle s) -> s.alias).thenComparingLong(s -> s.sid));
+        String[] keys = new String[svrs.size()];
+        int[] weights = new int[svrs.size()];
+        for (int i = 0; i < svrs.size(); ++i) {
+            keys[i] = svrs.get(i).alias;
+            weights[i] = svrs.get(i).weight;
+        }
+        ConsistentHash table;
+        if (method == Method.maglev) {
+            table = ConsistentHash.maglev(keys, weights);
+        } else {
+            table = ConsistentHash.ring(keys, weights);
+        }
+        return new CHASH(table, svrs);
     }
 
     private int gcd(int a, int b) {
@@ -809,6 +908,11 @@ public class ServerGroup {
         } else {
             annotatedHcConfig.set(annotations);
         }
+
+        // alert event
+        for (ServerListener lsn : serverListeners) {
+            lsn.annotationsChanged(this);
+        }
     }
 
     public synchronized ServerHandle add(String alias, IPPort server, int weight) throws AlreadyExistException {
@@ -172,6 +172,8 @@ public class Connection implements NetFlowRecorder {
 
     private boolean noQuickWrite = false;
 
+    private final boolean lazyBuffers;
+
     Connection(SocketFD channel,
                IPPort remote, IPPort local,
                ConnectionOpts opts,
@@ -185,6 +187,7 @@ public class Connection implements NetFlowRecorder {
 
         this.channel = channel;
         this.timeout = opts.timeout;
+        this.lazyBuffers = opts.lazyBuffers;
         this.inBuffer = inBuffer;
         this.outBuffer = outBuffer;
         this.remote = remote;
@@ -395,6 +398,22 @@ public class Connection implements NetFlowRecorder {
         this.outBuffer = out;
     }
 
+    /**
+     * release the buffers to the pool if they are drained,
+     * they will be retrieved again when the fd becomes readable or data is written into the buffers
+     */
+    void detachDrainedBuffers() {
+        if (!lazyBuffers || closed) {
+            return;
+        }
+        if (inBuffer.used() == 0) {
+            inBuffer.detach();
+        }
+        if (outBuffer.used() == 0) {
+            outBuffer.detach();
+        }
+    }
+
     public void runNoQuickWrite(Runnable r) {
         noQuickWrite = true;
         r.run();
@@ -4,6 +4,7 @@ import vproxybase.Config;
 
 public class ConnectionOpts {
     int timeout = Config.tcpTimeout;
+    boolean lazyBuffers = Config.bufferPoolLazyAttach;
 
     public static ConnectionOpts getDefault() {
         return DefaultConnectionOpts.defaultConnectionOpts;
@@ -16,6 +17,15 @@ public class ConnectionOpts {
         this.timeout = timeout;
         return this;
     }
+
+    /**
+     * @param lazyBuffers whether to release the buffers when they are drained,
+     *                    see {@link vproxybase.util.RingBuffer#detach()}
+     */
+    public ConnectionOpts setLazyBuffers(boolean lazyBuffers) {
+        this.lazyBuffers = lazyBuffers;
+        return this;
+    }
 }
 
 final class DefaultConnectionOpts extends ConnectionOpts {
@@ -28,4 +38,9 @@ final class DefaultConnectionOpts extends ConnectionOpts {
     public ConnectionOpts setTimeout(int timeout) {
         throw new UnsupportedOperationException();
     }
+
+    @Override
+    public ConnectionOpts setLazyBuffers(boolean lazyBuffers) {
+        throw new UnsupportedOperationException();
+    }
 }
@@ -2,11 +2,15 @@ package vproxybase.connection;
 
 import vfd.*;
 import vproxybase.Config;
+import vproxybase.selector.DelegatingHandler;
 import vproxybase.selector.Handler;
 import vproxybase.selector.HandlerContext;
 import vproxybase.selector.SelectorEventLoop;
 import vproxybase.selector.wrap.VirtualFD;
 import vproxybase.util.*;
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
 
 import java.io.IOException;
 import java.net.SocketTimeoutException;
@@ -136,10 +140,54 @@ public class NetEventLoop {
     }
 }
 
-class HandlerForTCPServer implements Handler<ServerSocketFD> {
+class HandlerForTCPServer implements Handler<ServerSocketFD>, DelegatingHandler {
+    private static final Histogram acceptQueueDepth = Metrics.histogram("vproxy_accept_queue_depth",
+        "Connections accepted when a server becomes readable, which is the depth of the accept queue at that time", 1);
+    private static final Counter acceptPaused = Metrics.counter("vproxy_accept_paused_total",
+        "Times of servers stopping accepting for a while because the handler cannot take more connections");
+    private static final int ACCEPT_PAUSE_MILLIS = 10;
+
     @Override
     public void accept(HandlerContext<ServerSocketFD> ctx) {
         ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
+        // accept until no pending connections
+        int n = 0;
+        while (true) {
+            if (!sctx.handler.acceptable(sctx)) {
+                pauseAccepting(ctx);
+                break;
+            }
+            if (!acceptOne(ctx)) {
+                break;
+            }
+            ++n;
+        }
+        acceptQueueDepth.record(n);
+    }
+
+    private void pauseAccepting(HandlerContext<ServerSocketFD> ctx) {
+        acceptPaused.inc();
+        SelectorEventLoop loop = ctx.getEventLoop();
+        ServerSocketFD server = ctx.getChannel();
+        assert Logger.lowLevelDebug("pause accepting on " + server);
+        ctx.rmOps(EventSet.read());
+        loop.delay(ACCEPT_PAUSE_MILLIS, () -> {
+            if (loop.selector.isRegistered(server)) {
+                loop.addOps(server, EventSet.read());
+            }
+        });
+    }
+
+    @Override
+    public Object getDelegate(Object attachment) {
+        return ((ServerHandlerContext) attachment).handler;
+    }
+
+    /**
+     * @return true if a connection is accepted and should try to accept again
+     */
+    private boolean acceptOne(HandlerContext<ServerSocketFD> ctx) {
+        ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
 
         ServerSocketFD server = ctx.getChannel();
         SocketFD sock;
@@ -147,11 +195,11 @@ class HandlerForTCPServer implements Handler<ServerSocketFD> {
             sock = server.accept();
         } catch (IOException e) {
             sctx.handler.acceptFail(sctx, e);
-            return;
+            return false;
         }
         if (sock == null) {
             assert Logger.lowLevelDebug("no socket yet, ignore this event");
-            return;
+            return false;
         }
         Tuple<RingBuffer, RingBuffer> ioBuffers = sctx.handler.getIOBuffers(sock);
         if (ioBuffers == null) { // the user code may return null if refuse to accept
@@ -184,7 +232,7 @@ class HandlerForTCPServer implements Handler<ServerSocketFD> {
                 } catch (IOException e1) {
                     Logger.shouldNotHappen("failed to close the sock " + sock + " after failed creating Connection object", e1);
                 }
-                return;
+                return false;
             }
             conn.addNetFlowRecorder(sctx.server);
             sctx.handler.connection(sctx, conn);
@@ -192,7 +240,7 @@ class HandlerForTCPServer implements Handler<ServerSocketFD> {
         // accept succeeded
         sctx.server.incHistoryAcceptedConnectionCount();
         // then, we try to accept again, in case there are pending connections
-        accept(ctx);
+        return true;
     }
 
     @Override
@@ -281,7 +329,12 @@ class NetEventLoopUtils {
     }
 }
 
-class HandlerForConnection implements Handler<SocketFD> {
+class HandlerForConnection implements Handler<SocketFD>, DelegatingHandler {
+    @Override
+    public Object getDelegate(Object attachment) {
+        return ((ConnectionHandlerContext) attachment).handler;
+    }
+
     @Override
     public void accept(HandlerContext<SocketFD> ctx) {
         // will not fire
@@ -330,6 +383,13 @@ class HandlerForConnection implements Handler<SocketFD> {
             return;
         }
         if (read == 0) {
+            if (cctx.connection.getInBuffer().free() == 0) {
+                // the buffer found that it cannot store more bytes, e.g. a pipe buffer runs out of pages
+                // remove the read event, it will be added when the buffer is writable
+                assert Logger.lowLevelDebug("the inBuffer cannot store more bytes, remove READ event " + cctx.connection);
+                ctx.rmOps(EventSet.read());
+                return;
+            }
             Logger.shouldNotHappen("read nothing, the event should not be fired");
             return;
         }
@@ -343,6 +403,7 @@ class HandlerForConnection implements Handler<SocketFD> {
                 ctx.rmOps(EventSet.read());
             }
         }
+        cctx.connection.detachDrainedBuffers();
     }
 
     @Override
@@ -422,6 +483,7 @@ class HandlerForConnection implements Handler<SocketFD> {
                 }
             }
         }
+        cctx.connection.detachDrainedBuffers();
     }
 
     @Override
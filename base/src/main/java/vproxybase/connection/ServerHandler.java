@@ -23,4 +23,11 @@ public interface ServerHandler {
     default ConnectionOpts connectionOpts() {
         return DefaultConnectionOpts.defaultConnectionOpts;
     }
+
+    /**
+     * @return false to stop accepting for a while, the connections are kept in the backlog of the server socket
+     */
+    default boolean acceptable(ServerHandlerContext ctx) {
+        return true;
+    }
 }
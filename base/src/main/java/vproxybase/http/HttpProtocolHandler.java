@@ -7,9 +7,19 @@ import vproxybase.util.nio.ByteArrayChannel;
 
 public abstract class HttpProtocolHandler implements ProtocolHandler<HttpContext> {
     private final boolean parseBody;
+    private final boolean pipelining;
 
     protected HttpProtocolHandler(boolean parseBody) {
+        this(parseBody, false);
+    }
+
+    /**
+     * @param pipelining handle all requests in the input buffer one by one,
+     *                   otherwise the bytes following the parsed request are left for the next read event
+     */
+    protected HttpProtocolHandler(boolean parseBody, boolean pipelining) {
         this.parseBody = parseBody;
+        this.pipelining = pipelining;
     }
 
     @Override
@@ -19,21 +29,24 @@ public abstract class HttpProtocolHandler implements ProtocolHandler<HttpContext
 
     @Override
     public void readable(ProtocolHandlerContext<HttpContext> ctx) {
-        if (ctx.data.parser == null) {
-            ctx.data.parser = new HttpReqParser(parseBody);
-        }
-        int err = ctx.data.parser.feed(ctx.inBuffer);
-        if (err == 0) {
-            // parse done
-            ctx.data.result = ctx.data.parser.getResult();
-            ctx.data.parser = null;
-            request(ctx);
-        } else {
-            String errMsg = ctx.data.parser.getErrorMessage();
-            if (errMsg != null) {
-                sendError(ctx, errMsg);
-            } // otherwise means want more data
-        }
+        do {
+            if (ctx.data.parser == null) {
+                ctx.data.parser = new HttpReqParser(parseBody, pipelining);
+            }
+            int err = ctx.data.parser.feed(ctx.inBuffer);
+            if (err == 0) {
+                // parse done
+                ctx.data.result = ctx.data.parser.getResult();
+                ctx.data.parser = null;
+                request(ctx);
+            } else {
+                String errMsg = ctx.data.parser.getErrorMessage();
+                if (errMsg != null) {
+                    sendError(ctx, errMsg);
+                } // otherwise means want more data
+                return;
+            }
+        } while (pipelining && ctx.inBuffer.used() != 0);
     }
 
     protected void sendError(ProtocolHandlerContext<HttpContext> ctx, String errMsg) {
@@ -55,7 +68,11 @@ public abstract class HttpProtocolHandler implements ProtocolHandler<HttpContext
             "Content-Length: " + htmlErrMsg.length() + "\r\n" +
             "\r\n" +
             htmlErrMsg;
-        ctx.write(sendBack.getBytes());
+        writeError(ctx, sendBack.getBytes());
+    }
+
+    protected void writeError(ProtocolHandlerContext<HttpContext> ctx, byte[] response) {
+        ctx.write(response);
     }
 
     protected abstract void request(ProtocolHandlerContext<HttpContext> ctx);
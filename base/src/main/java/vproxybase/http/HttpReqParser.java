@@ -17,7 +17,15 @@ public class HttpReqParser extends AbstractParser<Request> {
     private HttpSubContext ctx;
 
     public HttpReqParser(boolean parseBody) {
-        super(new HashSet<>(Arrays.asList(1, 2)), Collections.singleton(2));
+        this(parseBody, false);
+    }
+
+    /**
+     * @param oneRequest stop when one request is parsed, the following bytes are left in the buffer.
+     *                   used when the requests are pipelined on the connection
+     */
+    public HttpReqParser(boolean parseBody, boolean oneRequest) {
+        super(new HashSet<>(Arrays.asList(1, 2)), oneRequest ? new HashSet<>(Arrays.asList(1, 2)) : Collections.singleton(2));
         result = null;
         this.parseBody = parseBody;
 
@@ -17,7 +17,15 @@ public class HttpRespParser extends AbstractParser<Response> {
     private final HttpSubContext ctx;
 
     public HttpRespParser(boolean parseBody) {
-        super(new HashSet<>(Arrays.asList(1, 2)), Collections.singleton(2));
+        this(parseBody, false);
+    }
+
+    /**
+     * @param oneResponse stop when one response is parsed, the following bytes are left in the buffer.
+     *                    used when the responses are pipelined on the connection
+     */
+    public HttpRespParser(boolean parseBody, boolean oneResponse) {
+        super(new HashSet<>(Arrays.asList(1, 2)), oneResponse ? new HashSet<>(Arrays.asList(1, 2)) : Collections.singleton(2));
         result = null;
         this.parseBody = parseBody;
 
@@ -74,8 +74,20 @@ public class Hint {
     private static final int HOST_SUFFIX_MATCH = 2;
     private static final int HOST_WILDCARD_MATCH = 1;
     private static final int URI_SHIFT = 0;
-    private static final int URI_MAX_MATCH = 1023;
-    private static final int URI_WILDCARD_MATCH = 1;
+    static final int URI_MAX_MATCH = 1023;
+    static final int URI_WILDCARD_MATCH = 1;
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getPort() {
+        return port;
+    }
+
+    public String getUri() {
+        return uri;
+    }
 
     @SuppressWarnings("unchecked")
     public int matchLevel(Map<String, String>... annotations) {
@@ -0,0 +1,302 @@
+package vproxybase.processor;
+
+import vproxybase.util.AnnotationKeys;
+
+import java.util.*;
+
+/**
+ * A compiled form of {@link Hint#matchLevel(Map[])} over a list of annotated items.<br>
+ * The result of {@link #search(Hint)} is exactly the same as running matchLevel on every item
+ * and retrieving the first item with the max level (level must be greater than 0).<br>
+ * <br>
+ * The index is immutable, create a new one when items or annotations change.<br>
+ * <br>
+ * Structure:<br>
+ * port -&gt; reversed host trie -&gt; (for each host node) uri prefix trie<br>
+ * The host trie is built on reversed host chars, a node is considered matched only when
+ * the hint host is fully consumed (exact) or the next char is '.' (sub domain).<br>
+ * Lookup costs O(host length + uri length) for exact and wildcard matches,
+ * and the uri trie of each matched parent domain is also walked for sub domain matches.
+ *
+ * @param <T> type of the indexed items
+ */
+public class HintIndex<T> {
+    public static class Entry<T> {
+        public final T item;
+        final String host;
+        final String port;
+        final String uri;
+
+        private Entry(T item, String host, String port, String uri) {
+            this.item = item;
+            this.host = host;
+            this.port = port;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * create an entry, annotations are merged in the same way as {@link Hint#matchLevel(Map[])}
+     */
+    @SafeVarargs
+    public static <T> Entry<T> entry(T item, Map<String, String>... annotations) {
+        String annoHost = null;
+        String annoPort = null;
+        String annoUri = null;
+        if (annotations != null) {
+            for (Map<String, String> a : annotations) {
+                if (a == null || a.isEmpty()) {
+                    continue;
+                }
+                if (annoHost == null) {
+                    annoHost = a.get(AnnotationKeys.ServerGroup_HintHost);
+                }
+                if (annoPort == null) {
+                    annoPort = a.get(AnnotationKeys.ServerGroup_HintPort);
+                }
+                if (annoUri == null) {
+                    annoUri = a.get(AnnotationKeys.ServerGroup_HintUri);
+                }
+            }
+        }
+        return new Entry<>(item, annoHost, annoPort, annoUri);
+    }
+
+    private static final char[] EMPTY_KEYS = new char[0];
+    private static final Node[] EMPTY_NODES = new Node[0];
+
+    private static class Node {
+        private char[] keys = EMPTY_KEYS;
+        private Node[] children = EMPTY_NODES;
+        // for host trie: entries with exactly this host
+        UriTrie bucket;
+        // for uri trie: the first entry with exactly this uri
+        int entry = -1;
+
+        Node child(char c) {
+            char[] keys = this.keys;
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node childOrCreate(char c) {
+            Node n = child(c);
+            if (n != null) {
+                return n;
+            }
+            n = new Node();
+            int len = keys.length;
+            keys = Arrays.copyOf(keys, len + 1);
+            children = Arrays.copyOf(children, len + 1);
+            keys[len] = c;
+            children[len] = n;
+            return n;
+        }
+    }
+
+    // the result is packed into a long: higher 32 bits is the level, lower 32 bits is (MAX - idx)
+    // so that a bigger value means a better match
+    private static final long NOT_FOUND = -1;
+
+    private static long pack(int level, int idx) {
+        return (((long) level) << 32) | (Integer.MAX_VALUE - idx);
+    }
+
+    private static int unpackLevel(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int unpackIdx(long packed) {
+        return Integer.MAX_VALUE - (int) (packed & 0xffffffffL);
+    }
+
+    private static int uriLevel(int annoUriLength) {
+        int level = annoUriLength + Hint.URI_WILDCARD_MATCH;
+        if (level > Hint.URI_MAX_MATCH) {
+            level = Hint.URI_MAX_MATCH;
+        }
+        return level;
+    }
+
+    private static class UriTrie {
+        private final Node root = new Node();
+        private int wildcard = -1;
+        private int minIdx = -1;
+
+        void add(int idx, String uri) {
+            if (minIdx == -1) { // entries are always added with increasing idx
+                minIdx = idx;
+            }
+            if (uri == null) {
+                return;
+            }
+            if (uri.equals("*") && wildcard == -1) {
+                wildcard = idx;
+            }
+            // "*" is also recorded as a normal uri because Hint uses equals/startsWith before checking "*"
+            Node n = root;
+            for (int i = 0; i < uri.length(); ++i) {
+                n = n.childOrCreate(uri.charAt(i));
+            }
+            if (n.entry == -1) {
+                n.entry = idx;
+            }
+        }
+
+        /**
+         * @return packed (uriLevel, idx), uriLevel may be 0 which means only the host matches
+         */
+        long search(String uri) {
+            long best = pack(0, minIdx);
+            if (uri == null) {
+                return best;
+            }
+            if (wildcard != -1) {
+                best = Math.max(best, pack(Hint.URI_WILDCARD_MATCH, wildcard));
+            }
+            Node n = root;
+            if (n.entry != -1) {
+                best = Math.max(best, pack(uriLevel(0), n.entry));
+            }
+            for (int i = 0; i < uri.length(); ++i) {
+                n = n.child(uri.charAt(i));
+                if (n == null) {
+                    break;
+                }
+                if (n.entry != -1) {
+                    best = Math.max(best, pack(uriLevel(i + 1), n.entry));
+                }
+            }
+            return best;
+        }
+    }
+
+    private static class Index {
+        private final Node hostRoot = new Node();
+        private final UriTrie hostWildcard = new UriTrie();
+        private boolean hasHostWildcard = false;
+        // entries with uri annotation, for hints which do not match any host
+        private final UriTrie anyHost = new UriTrie();
+
+        void add(int idx, Entry<?> e) {
+            if (e.host != null) {
+                Node n = hostRoot;
+                for (int i = e.host.length() - 1; i >= 0; --i) {
+                    n = n.childOrCreate(e.host.charAt(i));
+                }
+                if (n.bucket == null) {
+                    n.bucket = new UriTrie();
+                }
+                n.bucket.add(idx, e.uri);
+                if (e.host.equals("*")) {
+                    hostWildcard.add(idx, e.uri);
+                    hasHostWildcard = true;
+                }
+            }
+            if (e.uri != null) {
+                anyHost.add(idx, e.uri);
+            }
+        }
+
+        int search(String host, String uri) {
+            if (host != null) {
+                long exact = NOT_FOUND;
+                long suffix = NOT_FOUND;
+                Node n = hostRoot;
+                int i = host.length();
+                while (true) {
+                    if (n.bucket != null) {
+                        if (i == 0) {
+                            exact = n.bucket.search(uri);
+                        } else if (host.charAt(i - 1) == '.') {
+                            suffix = Math.max(suffix, n.bucket.search(uri));
+                        }
+                    }
+                    if (i == 0) {
+                        break;
+                    }
+                    n = n.child(host.charAt(--i));
+                    if (n == null) {
+                        break;
+                    }
+                }
+                if (exact != NOT_FOUND) {
+                    return unpackIdx(exact);
+                }
+                if (suffix != NOT_FOUND) {
+                    return unpackIdx(suffix);
+                }
+                if (hasHostWildcard) {
+                    return unpackIdx(hostWildcard.search(uri));
+                }
+            }
+            // no host matches, so only uri is considered
+            if (uri == null || anyHost.minIdx == -1) {
+                return -1;
+            }
+            long res = anyHost.search(uri);
+            if (unpackLevel(res) == 0) {
+                return -1;
+            }
+            return unpackIdx(res);
+        }
+    }
+
+    private final List<Entry<T>> entries;
+    private final Index anyPort; // used when the hint does not specify port
+    private final Index noPort; // used when no entries use the port specified by the hint
+    private final Map<String, Index> byPort;
+
+    public HintIndex(List<Entry<T>> entries) {
+        this.entries = new ArrayList<>(entries);
+        this.anyPort = new Index();
+        this.noPort = new Index();
+        this.byPort = new HashMap<>();
+
+        for (Entry<T> e : this.entries) {
+            if (e.port != null && !byPort.containsKey(e.port)) {
+                byPort.put(e.port, new Index());
+            }
+        }
+        for (int idx = 0; idx < this.entries.size(); ++idx) {
+            Entry<T> e = this.entries.get(idx);
+            if (e.host == null && e.uri == null) {
+                continue; // level will always be 0
+            }
+            anyPort.add(idx, e);
+            if (e.port == null) {
+                noPort.add(idx, e);
+                for (Index index : byPort.values()) {
+                    index.add(idx, e);
+                }
+            } else {
+                byPort.get(e.port).add(idx, e);
+            }
+        }
+    }
+
+    /**
+     * @return the first item with max match level, or null if nothing matches
+     */
+    public T search(Hint hint) {
+        Index index;
+        String port = hint.getPort();
+        if (port == null) {
+            index = anyPort;
+        } else {
+            index = byPort.get(port);
+            if (index == null) {
+                index = noPort;
+            }
+        }
+        int idx = index.search(hint.getHost(), hint.getUri());
+        if (idx == -1) {
+            return null;
+        }
+        return entries.get(idx).item;
+    }
+}
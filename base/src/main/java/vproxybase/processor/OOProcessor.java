@@ -48,6 +48,11 @@ public abstract class OOProcessor<CTX extends OOContext<SUB>, SUB extends OOSubC
         ctx.chosen(front, sub);
     }
 
+    @Override
+    public ByteArray produceToBackend(CTX ctx, SUB front, SUB backend) throws Exception {
+        return ctx.produceToBackend(front, backend);
+    }
+
     @Override
     public ByteArray connected(CTX ctx, SUB sub) {
         return sub.connected();
@@ -146,6 +146,23 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     void chosen(CTX ctx, SUB front, SUB sub);
 
+    /**
+     * produce some data to the backend connection which the frontend data is sent to<br>
+     * this method will be checked after `feed` is called and the backend connection is retrieved,
+     * and the data will be sent after the `feed` result.
+     * It's useful when the data depends on the state of the backend connection,
+     * e.g. headers compressed with the dynamic table of the connection
+     *
+     * @param ctx     context
+     * @param front   frontend sub context
+     * @param backend the backend sub context
+     * @return data to send, or null if got nothing to send
+     * @throws Exception raise exception if handling failed
+     */
+    default ByteArray produceToBackend(CTX ctx, SUB front, SUB backend) throws Exception {
+        return null;
+    }
+
     /**
      * new connection connected
      *
@@ -9,32 +9,163 @@ import vproxybase.util.io.ArrayOutputStream;
 import java.io.IOException;
 import java.util.function.Consumer;
 
+/**
+ * Decodes header blocks from the frontend, and encodes them with the encoder of the chosen backend connection.<br>
+ * When passthrough is enabled, a block which does not use the dynamic table is forwarded as it is,
+ * preceded by a dynamic table size update if the backend changed the size.
+ */
 class HPackTransformer {
-    private final int BUFFER_SIZE = 65536; // make the buffer big enough for almost all cases
+    private static final int BUFFER_SIZE = 65536; // make the buffer big enough for almost all cases
+    private static final int STATIC_TABLE_LENGTH = 61;
+
+    // the blocks are encoded on event loop threads and copied out immediately,
+    // so one output buffer for each thread is enough
+    private static final ThreadLocal<ArrayOutputStream> outBuffer =
+        ThreadLocal.withInitial(() -> ArrayOutputStream.to(ByteArray.from(new byte[BUFFER_SIZE])));
 
     private final Decoder decoder;
-    private final SyncOutputListener lsn;
-    private final ArrayOutputStream outBuffer = ArrayOutputStream.to(ByteArray.from(new byte[BUFFER_SIZE]));
+    private final HeaderBlockListener lsn;
+    private final boolean passthrough;
+
+    private boolean blockEnded = false;
+    private ByteArray undecoded = null; // a representation split into two fragments
+    private ByteArray rawBlock = null; // only recorded when passthrough is enabled
+    private ByteArray passthroughBlock = null;
 
     HPackTransformer(int maxHeaderTableSize,
                      Header[] additionalHeaders,
                      Consumer<String> uriListener,
-                     Consumer<String> hostHeaderListener) {
+                     Consumer<String> hostHeaderListener,
+                     boolean passthrough) {
         this.decoder = new Decoder(BUFFER_SIZE, maxHeaderTableSize);
-        Encoder encoder = new Encoder(0);
-        this.lsn = new SyncOutputListener(encoder, outBuffer, additionalHeaders, uriListener, hostHeaderListener);
+        this.lsn = new HeaderBlockListener(additionalHeaders, uriListener, hostHeaderListener);
+        this.passthrough = passthrough;
     }
 
-    ByteArray transform(ByteArray array, boolean addHeaders) throws IOException {
-        decoder.decode(ArrayInputStream.from(array), lsn);
-        if (addHeaders) {
-            lsn.addHeaders();
+    void decode(ByteArray fragment) throws IOException {
+        if (blockEnded) { // the last block is not encoded, which means it's dropped
+            reset();
+        }
+        // the decoder leaves the bytes unread if they do not form a complete representation,
+        // so they are retained and decoded along with the next fragment
+        ByteArray input = undecoded == null ? fragment : undecoded.concat(fragment);
+        ArrayInputStream in = ArrayInputStream.from(input);
+        decoder.decode(in, lsn);
+        int left = in.available();
+        undecoded = left == 0 ? null : input.sub(input.length() - left, left);
+        if (passthrough) {
+            rawBlock = rawBlock == null ? fragment : rawBlock.concat(fragment);
         }
-        return outBuffer.get();
     }
 
-    public void endHeaders() {
-        lsn.endHeaders();
+    void endHeaders() throws IOException {
+        if (undecoded != null) {
+            undecoded = null;
+            throw new IOException("the header block is incomplete");
+        }
         decoder.endHeaderBlock();
+        blockEnded = true;
+        if (rawBlock != null && independentOfDynamicTable(rawBlock)) {
+            passthroughBlock = rawBlock;
+        }
+        rawBlock = null;
+    }
+
+    /**
+     * get the ended header block to be sent to a backend connection
+     *
+     * @param encoder   the encoder of the backend connection
+     * @param tableSize the dynamic table size allowed by the backend
+     * @return the header block
+     */
+    ByteArray encode(Encoder encoder, int tableSize) throws IOException {
+        assert blockEnded;
+        ByteArray ret;
+        ArrayOutputStream out = outBuffer.get();
+        // emits a dynamic table size update at the beginning of the block if the size changes
+        encoder.setMaxHeaderTableSize(out, tableSize);
+        if (passthroughBlock != null) {
+            // the size update is required before the first block after the change (rfc7541 4.2),
+            // so it's prepended to the forwarded block
+            ByteArray sizeUpdate = out.get();
+            ret = sizeUpdate.length() == 0 ? passthroughBlock : sizeUpdate.concat(passthroughBlock);
+        } else {
+            lsn.encode(encoder, out, !passthrough);
+            ret = out.get();
+        }
+        reset();
+        return ret;
+    }
+
+    private void reset() {
+        lsn.endHeaders();
+        blockEnded = false;
+        rawBlock = null;
+        passthroughBlock = null;
+        undecoded = null;
+    }
+
+    /**
+     * check whether the header block neither references nor modifies the dynamic table,
+     * in which case the block can be decoded by any peer
+     */
+    static boolean independentOfDynamicTable(ByteArray block) {
+        int[] cursor = {0};
+        while (cursor[0] < block.length()) {
+            int b = block.uint8(cursor[0]);
+            if ((b & 0x80) != 0) { // indexed header field
+                int index = readInteger(block, cursor, 7);
+                if (index <= 0 || index > STATIC_TABLE_LENGTH) {
+                    return false;
+                }
+            } else if ((b & 0x40) != 0) { // literal with incremental indexing
+                return false;
+            } else if ((b & 0x20) != 0) { // dynamic table size update
+                return false;
+            } else { // literal without indexing, or never indexed
+                int index = readInteger(block, cursor, 4);
+                if (index < 0 || index > STATIC_TABLE_LENGTH) {
+                    return false;
+                }
+                if (index == 0 && !skipString(block, cursor)) {
+                    return false;
+                }
+                if (!skipString(block, cursor)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // rfc7541 5.1, returns -1 if the integer is invalid or too large
+    private static int readInteger(ByteArray block, int[] cursor, int prefix) {
+        int mask = (1 << prefix) - 1;
+        int n = block.uint8(cursor[0]++) & mask;
+        if (n < mask) {
+            return n;
+        }
+        int shift = 0;
+        while (cursor[0] < block.length() && shift <= 21) {
+            int b = block.uint8(cursor[0]++);
+            n += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+            shift += 7;
+        }
+        return -1;
+    }
+
+    private static boolean skipString(ByteArray block, int[] cursor) {
+        if (cursor[0] >= block.length()) {
+            return false;
+        }
+        int len = readInteger(block, cursor, 7);
+        if (len < 0 || cursor[0] + len > block.length()) {
+            return false;
+        }
+        cursor[0] += len;
+        return true;
     }
 }
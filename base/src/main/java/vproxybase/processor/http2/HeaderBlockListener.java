@@ -6,23 +6,37 @@ import vproxybase.util.Logger;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
-public class SyncOutputListener implements HeaderListener {
-    private final Encoder encoder;
-    private final OutputStream out;
+/**
+ * records the decoded headers of a header block,
+ * they will be encoded after the backend connection is chosen
+ */
+public class HeaderBlockListener implements HeaderListener {
     private final Header[] headers;
     private final Consumer<String> uriListener;
     private final Consumer<String> hostHeaderListener;
     private final boolean[] added; // whether it's already added into the header list
 
-    public SyncOutputListener(Encoder encoder,
-                              OutputStream out,
-                              Header[] additionalHeaders,
-                              Consumer<String> uriListener,
-                              Consumer<String> hostHeaderListener) {
-        this.encoder = encoder;
-        this.out = out;
+    private final List<DecodedHeader> decoded = new ArrayList<>();
+
+    private static class DecodedHeader {
+        final byte[] name;
+        final byte[] value;
+        final boolean sensitive;
+
+        DecodedHeader(byte[] name, byte[] value, boolean sensitive) {
+            this.name = name;
+            this.value = value;
+            this.sensitive = sensitive;
+        }
+    }
+
+    public HeaderBlockListener(Header[] additionalHeaders,
+                               Consumer<String> uriListener,
+                               Consumer<String> hostHeaderListener) {
         this.headers = additionalHeaders;
         this.uriListener = uriListener;
         this.hostHeaderListener = hostHeaderListener;
@@ -30,7 +44,7 @@ public class SyncOutputListener implements HeaderListener {
     }
 
     @Override
-    public void addHeader(byte[] name, byte[] value, boolean sensitive) throws IOException {
+    public void addHeader(byte[] name, byte[] value, boolean sensitive) {
         // we need to search for the header `uri` and `host` can call the callback
         String nameStr = new String(name);
         if (nameStr.equalsIgnoreCase("host")) { // h2 headers must be lower-case strings
@@ -40,16 +54,13 @@ public class SyncOutputListener implements HeaderListener {
         }
 
         // do adding or replacement for additional headers
-        byte[] replaced = checkAndGet(name, value);
-        if (replaced != null) {
-            value = replaced;
-        }
-        encoder.encodeHeader(out, name, value, sensitive);
+        checkAndGet(name, value);
+        decoded.add(new DecodedHeader(name, value, sensitive));
     }
 
-    private byte[] checkAndGet(byte[] key, byte[] value) {
+    private void checkAndGet(byte[] key, byte[] value) {
         if (headers == null || headers.length == 0) {
-            return null;
+            return;
         }
         for (int i = 0; i < headers.length; i++) {
             Header h = headers[i];
@@ -61,15 +72,21 @@ public class SyncOutputListener implements HeaderListener {
                 assert Logger.lowLevelDebug("see target header " +
                     "old header: " + new String(key) + ": " + new String(value));
                 added[i] = true;
-                return value; // do not replace
+                return; // do not replace
             }
         }
-        // not found
-        return null;
     }
 
-    void addHeaders() throws IOException {
-        if (headers == null)
+    /**
+     * encode the recorded headers
+     *
+     * @param addHeaders whether to add the additional headers which are not present in the block
+     */
+    void encode(Encoder encoder, OutputStream out, boolean addHeaders) throws IOException {
+        for (DecodedHeader h : decoded) {
+            encoder.encodeHeader(out, h.name, h.value, h.sensitive);
+        }
+        if (!addHeaders || headers == null)
             return;
         for (int i = 0; i < headers.length; i++) {
             Header h = headers[i];
@@ -83,6 +100,7 @@ public class SyncOutputListener implements HeaderListener {
     }
 
     void endHeaders() {
+        decoded.clear();
         // set everything to not added (added[n]=false)
         for (int i = 0; i < added.length; ++i) {
             added[i] = false;
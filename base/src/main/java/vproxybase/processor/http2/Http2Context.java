@@ -1,6 +1,7 @@
 package vproxybase.processor.http2;
 
 import vfd.IPPort;
+import vproxybase.Config;
 import vproxybase.processor.Hint;
 import vproxybase.processor.OOContext;
 import vproxybase.util.ByteArray;
@@ -24,6 +25,9 @@ public class Http2Context extends OOContext<Http2SubContext> {
     final Map<Integer, Integer> streamIdFront2Back = new HashMap<>();
 
     final HPackTransformer hPackTransformer;
+    // the stream of the header block which is decoded but not sent yet
+    Integer headersStreamId = null;
+    boolean headersEndStream = false;
 
     ByteArray settingsFrameHeader = null; // this is a temporary field
 
@@ -38,7 +42,8 @@ public class Http2Context extends OOContext<Http2SubContext> {
                 new Header("x-client-port", "" + clientAddress.getPort())
             },
             uri -> this.theUri = uri,
-            host -> this.theHostHeader = host);
+            host -> this.theHostHeader = host,
+            Config.http2HeaderPassthrough);
     }
 
     @Override
@@ -84,6 +89,16 @@ public class Http2Context extends OOContext<Http2SubContext> {
         streamMap.put(streamId, subCtx);
     }
 
+    @Override
+    public ByteArray produceToBackend(Http2SubContext front, Http2SubContext backend) throws Exception {
+        if (headersStreamId == null) {
+            return null;
+        }
+        int streamId = headersStreamId;
+        headersStreamId = null;
+        return backend.encodeHeaders(hPackTransformer, streamId, headersEndStream);
+    }
+
     void tryRecordStream(Http2SubContext subCtx) {
         Integer streamId = subCtx.currentStreamId();
         if (subCtx.connId != 0 /* not the frontend connection */ && !streamMap.containsKey(streamId)) {
@@ -1,5 +1,7 @@
 package vproxybase.processor.http2;
 
+import com.twitter.hpack.Encoder;
+import vproxybase.Config;
 import vproxybase.processor.OOSubContext;
 import vproxybase.processor.Processor;
 import vproxybase.util.ByteArray;
@@ -22,7 +24,7 @@ import java.util.Map;
  *
  * Cannot do (limitations):
  * 1. stream dependency and priority
- * 2. header dynamic table for backend (however, dynamic table for frontend is supported)
+ * 2. header dynamic table for backend responses (however, dynamic table for frontend and backend requests is supported)
  * 3. exchange settings (except the first exchange, which is forced according to rfc)
  * 4. http clear text upgrade
  * These limitations will not affect how user uses http/2.
@@ -38,13 +40,16 @@ import java.util.Map;
  * the PRIORITY frames will be dropped. In this way, both client and server
  * can use implementation with stream dependency and priority.
  *
- * 2. header dynamic table for backend
+ * 2. header dynamic table for backend responses
  * We only support to decompress headers from frontend connection, and
- * the header (de)compression for backend connection is not supported.
+ * the header decompression for backend connection is not supported.
  * So vproxy will attach a setting to the first SETTINGS frame
  * which must be sent by both client and server.
  * SETTINGS_HEADER_TABLE_SIZE would be set to 0 for backend connections.
  * In this way, the backend will not compress the headers, and can work well with vproxy.
+ * The headers from the frontend are decompressed, and compressed again with a dynamic table
+ * of the backend connection which the stream is dispatched to, the size of the table
+ * is limited by SETTINGS_HEADER_TABLE_SIZE of the backend.
  *
  * 3. exchange settings
  * The first exchange is forced according to rfc, so it's supported.
@@ -171,6 +176,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     private static final int LEN_E_STREAMDEPENDENCY_WEIGHT = 5; // 1 + 31 + 8
     private static final int LEN_R_PROMISED_STREAM_ID = 4; // 1 + 31
     private static final int LEN_SETTING = 6; // 2 + 4
+    private static final int LEN_MAX_FRAME_PAYLOAD = 16384; // the initial SETTINGS_MAX_FRAME_SIZE, which every peer accepts
 
     // we do not set 2^31 - 1, in case the flow control method went wrong and exceeds 2^31-1
     // will send window increase of size SIZE_CONNECTION_WINDOW - SIZE_DEFAULT_CONNECTION_WINDOW
@@ -181,6 +187,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     // and, we do not update the stream window size because 2^30-1 would be enough
 
     static final int SIZE_DEFAULT_HEADER_TABLE_SIZE;
+    private static final int SIZE_INITIAL_HEADER_TABLE_SIZE = 4096; // defined in rfc7540
 
     private static final byte VALUE_SETTINGS_HEADER_TABLE_SIZE = 0x1; // will be set to 0
     private static final byte VALUE_SETTINGS_INITIAL_WINDOW_SIZE = 0x4; // will be set to SIZE_STREAM_WINDOW
@@ -249,6 +256,12 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     // if it's a backend sub context, the field will be set but never used
     boolean headersRetrieved;
 
+    // only used by backend sub contexts
+    // the encoder for headers sent to this backend connection, created when the first header block is sent
+    private Encoder hpackEncoder = null;
+    // SETTINGS_HEADER_TABLE_SIZE of the backend
+    private int backendHeaderTableSize = SIZE_INITIAL_HEADER_TABLE_SIZE;
+
     public Http2SubContext(Http2Context ctx, int connId) {
         super(ctx, connId);
 
@@ -418,6 +431,9 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 state = 7;
                 return data;
             case -1:
+                if (connId != 0 && frame.type == Http2Frame.Type.SETTINGS && !frame.ack) {
+                    recordHeaderTableSize(data);
+                }
                 lastFrame = frame;
                 frame = null;
                 state = 1;
@@ -641,6 +657,10 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     private ByteArray handleSettings(ByteArray payload) {
         int extraLength = 0;
 
+        if (connId != 0) {
+            recordHeaderTableSize(payload);
+        }
+
         // try to find the SETTINGS_HEADER_TABLE_SIZE and change the value
         {
             int offsetOfSetting = payload.length(); // default: add to the end of the frames
@@ -665,6 +685,8 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             payload.int32(offsetOfSetting + 2,
                 connId == 0 // connId == 0 means the data is transferred from frontend to backend
                     ? 0 // the backend do not use dynamic table
+                    : Config.http2HeaderPassthrough
+                    ? 0 // the frontend header blocks should be forwarded as they are
                     : SIZE_DEFAULT_HEADER_TABLE_SIZE // the frontend uses dynamic table
             );
         }
@@ -718,10 +740,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     }
 
     private ByteArray handleHeaderHPack(ByteArray data) throws Exception {
-        byte frameType;
-        ByteArray transformed;
         if (frame.type == Http2Frame.Type.HEADERS) {
-            frameType = 1;
             // get the actual data part
             if (frame.padded && frame.priority) {
                 data = data.sub(1 + 5, data.length() - (1 + 5) - data.get(0));
@@ -730,30 +749,64 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             } else if (frame.priority) {
                 data = data.sub(5, data.length() - 5);
             }
-            transformed = ctx.hPackTransformer.transform(data, frame.endHeaders && connId == 0);
+            ctx.headersEndStream = frame.endStream;
         } else {
             assert frame.type == Http2Frame.Type.CONTINUATION;
-            frameType = 9; // type = continuation
-            // data is simple and can be directly transformed for continuation frames
-            transformed = ctx.hPackTransformer.transform(data, frame.endHeaders && connId == 0);
+            // data is simple and can be directly decoded for continuation frames
         }
-        ByteArray result = ByteArray.from(new byte[]{
-            0, 0, 0, // length, will be set later
-            frameType,
-            (byte) (frame.endHeaders ? 4 : 0), // flags
-            0, 0, 0, 0 // stream id, will be set later
-        }).concat(transformed);
-        result.int24(0, transformed.length());
-        result.int32(5, frame.streamIdentifier);
-
-        // set header end before return the result
+        ctx.hPackTransformer.decode(data);
+
+        // the block is encoded when the backend connection is chosen, see Http2Context#produceToBackend()
         if (frame.endHeaders) {
             ctx.hPackTransformer.endHeaders();
+            ctx.headersStreamId = frame.streamIdentifier;
             headersRetrieved = true; // headers frame ends, connection related headers must have been retrieved, so send data
         }
         // set state to idle
         state = 1;
 
+        return null;
+    }
+
+    // record SETTINGS_HEADER_TABLE_SIZE of the backend, which limits the dynamic table for headers sent to it
+    private void recordHeaderTableSize(ByteArray payload) {
+        for (int i = 0; i + LEN_SETTING <= payload.length(); i += LEN_SETTING) {
+            if (payload.uint16(i) == VALUE_SETTINGS_HEADER_TABLE_SIZE) {
+                backendHeaderTableSize = (int) Math.min(payload.uint32(i + 2), Integer.MAX_VALUE);
+                assert Logger.lowLevelDebug("backend " + connId + " SETTINGS_HEADER_TABLE_SIZE is " + backendHeaderTableSize);
+            }
+        }
+    }
+
+    // encode the header block which is ended in the frontend sub context, and build frames for this backend connection
+    ByteArray encodeHeaders(HPackTransformer transformer, int streamId, boolean endStream) throws Exception {
+        if (hpackEncoder == null) {
+            hpackEncoder = new Encoder(SIZE_INITIAL_HEADER_TABLE_SIZE);
+        }
+        ByteArray block = transformer.encode(hpackEncoder, Math.min(backendHeaderTableSize, Config.http2BackendHeaderTableSize));
+
+        // HEADERS, then CONTINUATION frames if the block is too large for one frame
+        ByteArray result = null;
+        int offset = 0;
+        do {
+            int len = Math.min(block.length() - offset, LEN_MAX_FRAME_PAYLOAD);
+            boolean first = offset == 0;
+            boolean last = offset + len == block.length();
+            byte flags = 0;
+            if (first && endStream) flags |= 0x1;
+            if (last) flags |= 0x4;
+            ByteArray head = ByteArray.from(new byte[]{
+                0, 0, 0, // length, will be set later
+                (byte) (first ? 1 : 9), // type = headers or continuation
+                flags,
+                0, 0, 0, 0 // stream id, will be set later
+            });
+            head.int24(0, len);
+            head.int32(5, streamId);
+            ByteArray frame = head.concat(block.sub(offset, len));
+            result = result == null ? frame : result.concat(frame);
+            offset += len;
+        } while (offset < block.length());
         return result;
     }
 
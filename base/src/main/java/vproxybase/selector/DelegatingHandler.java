@@ -0,0 +1,13 @@
+package vproxybase.selector;
+
+/**
+ * Implemented by handlers which only dispatch the events to other handlers.<br>
+ * The event loop profiler follows the delegates to find the class doing the actual work.
+ */
+public interface DelegatingHandler {
+    /**
+     * @param attachment the attachment registered with the fd
+     * @return the handler which the events are dispatched to, or null if unknown
+     */
+    Object getDelegate(Object attachment);
+}
@@ -0,0 +1,260 @@
+package vproxybase.selector;
+
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records how the time of an event loop is spent.<br>
+ * For each round: the time of running the run-on-loop events, the timer events, the selected keys,
+ * and the time waiting in select, as well as the selected key count, the run-on-loop queue depth and the timer backlog.
+ * The time cost of handler callbacks and tasks is accumulated by class.<br>
+ * Recording is done on the loop thread without lock, the values read from other threads might be a little stale.
+ */
+public class EventLoopProfiler {
+    private static final Histogram busyTime = Metrics.histogram("vproxy_event_loop_busy_seconds",
+        "Time spent handling events in one round of the event loop, excluding the time waiting in select", 1e-6);
+
+    public final SelectorEventLoop loop;
+    // the nano time when the loop starts handling events, 0 when waiting in select or not running
+    volatile long busySince = 0;
+    long reportedBusySince = 0; // only used by the watchdog thread
+
+    private long rounds = 0;
+    private long busyNanos = 0;
+    private long maxBusyNanos = 0;
+    private long lastBusyNanos = 0;
+    private long runOnLoopNanos = 0;
+    private long timerNanos = 0;
+    private long handlingNanos = 0;
+    private long selectNanos = 0;
+    private long selectedKeys = 0;
+    private int maxSelectedKeys = 0;
+    private int maxRunOnLoopDepth = 0;
+    private int lastRunOnLoopDepth = 0;
+    private int maxTimerBacklog = 0;
+    private int lastTimerBacklog = 0;
+
+    // only modified on the loop thread
+    private final ConcurrentHashMap<Class<?>, CallbackStat> callbacks = new ConcurrentHashMap<>();
+    private CallbackStat lastCallbackStat = null;
+
+    // timestamps of the current round
+    private long roundStart;
+    private long runOnLoopEnd;
+    private long timerEnd;
+    private long selectEnd;
+
+    EventLoopProfiler(SelectorEventLoop loop) {
+        this.loop = loop;
+    }
+
+    void roundStart(int runOnLoopDepth) {
+        long now = System.nanoTime();
+        roundStart = now;
+        busySince = now;
+        lastRunOnLoopDepth = runOnLoopDepth;
+        if (runOnLoopDepth > maxRunOnLoopDepth) {
+            maxRunOnLoopDepth = runOnLoopDepth;
+        }
+    }
+
+    void runOnLoopEnd(int timerBacklog) {
+        runOnLoopEnd = System.nanoTime();
+        lastTimerBacklog = timerBacklog;
+        if (timerBacklog > maxTimerBacklog) {
+            maxTimerBacklog = timerBacklog;
+        }
+    }
+
+    void timerEnd() {
+        timerEnd = System.nanoTime();
+        busySince = 0;
+    }
+
+    void selectEnd(int selected) {
+        long now = System.nanoTime();
+        selectEnd = now;
+        busySince = now;
+        selectedKeys += selected;
+        if (selected > maxSelectedKeys) {
+            maxSelectedKeys = selected;
+        }
+    }
+
+    void roundEnd() {
+        long now = System.nanoTime();
+        busySince = 0;
+        ++rounds;
+        runOnLoopNanos += runOnLoopEnd - roundStart;
+        timerNanos += timerEnd - runOnLoopEnd;
+        selectNanos += selectEnd - timerEnd;
+        handlingNanos += now - selectEnd;
+        long busy = (timerEnd - roundStart) + (now - selectEnd);
+        busyNanos += busy;
+        lastBusyNanos = busy;
+        if (busy > maxBusyNanos) {
+            maxBusyNanos = busy;
+        }
+        busyTime.record(busy / 1000);
+    }
+
+    /**
+     * @param handler   the handler or task which is called
+     * @param attachment the attachment of the fd, or null for tasks
+     * @param start     nano time when the callback starts
+     */
+    void callback(Object handler, Object attachment, long start) {
+        long cost = System.nanoTime() - start;
+        Object h = handler;
+        while (h instanceof DelegatingHandler) {
+            Object d = ((DelegatingHandler) h).getDelegate(attachment);
+            if (d == null || d == h) {
+                break;
+            }
+            h = d;
+        }
+        Class<?> cls = h.getClass();
+        CallbackStat stat = lastCallbackStat;
+        if (stat == null || stat.cls != cls) {
+            stat = callbacks.get(cls);
+            if (stat == null) {
+                stat = new CallbackStat(cls);
+                callbacks.put(cls, stat);
+            }
+            lastCallbackStat = stat;
+        }
+        ++stat.count;
+        stat.totalNanos += cost;
+        if (cost > stat.maxNanos) {
+            stat.maxNanos = cost;
+        }
+    }
+
+    public Stat stat() {
+        return new Stat(this);
+    }
+
+    /**
+     * @return callback statistics sorted by the max time cost, the slowest first
+     */
+    public List<CallbackStat> slowCallbacks(int limit) {
+        List<CallbackStat> list = new ArrayList<>();
+        for (CallbackStat s : callbacks.values()) {
+            list.add(s.copy());
+        }
+        list.sort(Comparator.comparingLong((CallbackStat s) -> s.maxNanos).reversed());
+        if (list.size() > limit) {
+            return new ArrayList<>(list.subList(0, limit));
+        }
+        return list;
+    }
+
+    public static class Stat {
+        public final long rounds;
+        public final long busyMicros;
+        public final long maxBusyMicros;
+        public final long lastBusyMicros;
+        public final long runOnLoopMicros;
+        public final long timerMicros;
+        public final long handlingMicros;
+        public final long selectMicros;
+        public final long selectedKeys;
+        public final int maxSelectedKeys;
+        public final int runOnLoopDepth;
+        public final int maxRunOnLoopDepth;
+        public final int timerBacklog;
+        public final int maxTimerBacklog;
+        public final long blockedMillis; // 0 if not handling events now
+
+        private Stat(EventLoopProfiler p) {
+            rounds = p.rounds;
+            busyMicros = p.busyNanos / 1000;
+            maxBusyMicros = p.maxBusyNanos / 1000;
+            lastBusyMicros = p.lastBusyNanos / 1000;
+            runOnLoopMicros = p.runOnLoopNanos / 1000;
+            timerMicros = p.timerNanos / 1000;
+            handlingMicros = p.handlingNanos / 1000;
+            selectMicros = p.selectNanos / 1000;
+            selectedKeys = p.selectedKeys;
+            maxSelectedKeys = p.maxSelectedKeys;
+            runOnLoopDepth = p.lastRunOnLoopDepth;
+            maxRunOnLoopDepth = p.maxRunOnLoopDepth;
+            timerBacklog = p.lastTimerBacklog;
+            maxTimerBacklog = p.maxTimerBacklog;
+            long busySince = p.busySince;
+            blockedMillis = busySince == 0 ? 0 : (System.nanoTime() - busySince) / 1_000_000;
+        }
+
+        /**
+         * @return ratio of the time handling events
+         */
+        public double saturation() {
+            long total = busyMicros + selectMicros;
+            return total == 0 ? 0 : (double) busyMicros / total;
+        }
+
+        @Override
+        public String toString() {
+            return "rounds " + rounds
+                + " busy-us " + busyMicros
+                + " max-busy-us " + maxBusyMicros
+                + " last-busy-us " + lastBusyMicros
+                + " saturation " + String.format("%.4f", saturation())
+                + " run-on-loop-us " + runOnLoopMicros
+                + " timer-us " + timerMicros
+                + " handling-us " + handlingMicros
+                + " select-us " + selectMicros
+                + " selected-keys " + selectedKeys
+                + " max-selected-keys " + maxSelectedKeys
+                + " run-on-loop-depth " + runOnLoopDepth
+                + " max-run-on-loop-depth " + maxRunOnLoopDepth
+                + " timer-backlog " + timerBacklog
+                + " max-timer-backlog " + maxTimerBacklog
+                + " blocked-ms " + blockedMillis;
+        }
+    }
+
+    public static class CallbackStat {
+        public final Class<?> cls;
+        long count;
+        long totalNanos;
+        long maxNanos;
+
+        CallbackStat(Class<?> cls) {
+            this.cls = cls;
+        }
+
+        private CallbackStat copy() {
+            CallbackStat s = new CallbackStat(cls);
+            s.count = count;
+            s.totalNanos = totalNanos;
+            s.maxNanos = maxNanos;
+            return s;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long totalMicros() {
+            return totalNanos / 1000;
+        }
+
+        public long maxMicros() {
+            return maxNanos / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return cls.getName()
+                + " -> count " + count
+                + " total-us " + totalMicros()
+                + " max-us " + maxMicros();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package vproxybase.selector;
+
+import vproxybase.Config;
+import vproxybase.util.ConcurrentHashSet;
+import vproxybase.util.LogType;
+import vproxybase.util.Logger;
+
+/**
+ * A daemon thread checking whether the running event loops are blocked.<br>
+ * When a loop keeps handling events longer than the threshold (-DeventLoopWatchdogMs),
+ * the stack trace of the loop thread is logged, once for each blocking.
+ */
+public class EventLoopWatchdog {
+    private static final ConcurrentHashSet<SelectorEventLoop> loops = new ConcurrentHashSet<>();
+    private static volatile Thread thread = null;
+
+    private EventLoopWatchdog() {
+    }
+
+    static void watch(SelectorEventLoop loop) {
+        if (Config.eventLoopWatchdogMillis <= 0) {
+            return;
+        }
+        loops.add(loop);
+        if (thread == null) {
+            synchronized (EventLoopWatchdog.class) {
+                if (thread == null) {
+                    Thread t = new Thread(EventLoopWatchdog::run, "vproxy-event-loop-watchdog");
+                    t.setDaemon(true);
+                    t.start();
+                    thread = t;
+                }
+            }
+        }
+    }
+
+    static void unwatch(SelectorEventLoop loop) {
+        loops.remove(loop);
+    }
+
+    private static void run() {
+        long thresholdNanos = Config.eventLoopWatchdogMillis * 1_000_000L;
+        long interval = Math.max(1, Config.eventLoopWatchdogMillis / 2);
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException ignore) {
+            }
+            long now = System.nanoTime();
+            for (SelectorEventLoop loop : loops) {
+                check(loop, now, thresholdNanos);
+            }
+        }
+    }
+
+    static void check(SelectorEventLoop loop, long now, long thresholdNanos) {
+        EventLoopProfiler profiler = loop.profiler;
+        long busySince = profiler.busySince;
+        if (busySince == 0 || busySince == profiler.reportedBusySince) {
+            return;
+        }
+        if (now - busySince < thresholdNanos) {
+            return;
+        }
+        Thread t = loop.runningThread;
+        if (t == null) {
+            return;
+        }
+        profiler.reportedBusySince = busySince;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("event loop ").append(t.getName()).append(" is blocked for ")
+            .append((now - busySince) / 1_000_000).append("ms");
+        for (StackTraceElement e : t.getStackTrace()) {
+            sb.append("\n\tat ").append(e);
+        }
+        Logger.warn(LogType.ALERT, sb.toString());
+    }
+}
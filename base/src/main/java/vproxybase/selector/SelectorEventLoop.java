@@ -3,7 +3,11 @@ package vproxybase.selector;
 import vfd.*;
 import vproxybase.Config;
 import vproxybase.selector.wrap.WrappedSelector;
+import vproxybase.selector.wrap.arqudp.ArqUDPScheduler;
 import vproxybase.util.*;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
+import vproxybase.util.ringbuffer.DirectBufferPool;
 
 import java.io.IOException;
 import java.nio.channels.CancelledKeyException;
@@ -11,6 +15,7 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ClosedSelectorException;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 public class SelectorEventLoop {
@@ -25,6 +30,9 @@ public class SelectorEventLoop {
         }
     }
 
+    private static final Histogram timerLag = Metrics.histogram("vproxy_event_loop_timer_lag_seconds",
+        "Delay between the expected and the actual time when the timer events are handled", 1e-6);
+
     private static final ThreadLocal<SelectorEventLoop> loopThreadLocal = new ThreadLocal<>();
 
     public static SelectorEventLoop current() {
@@ -38,6 +46,11 @@ public class SelectorEventLoop {
     private final HandlerContext ctxReuse0 = new HandlerContext(this); // always reuse the ctx object
     private final HandlerContext ctxReuse1 = new HandlerContext(this);
     public volatile Thread runningThread;
+    public final DirectBufferPool bufferPool = new DirectBufferPool(this);
+    public final ArqUDPScheduler arqUDPScheduler = new ArqUDPScheduler(this);
+    public final int metricsSlot = Metrics.allocateSlot();
+    private final AtomicBoolean metricsSlotReleased = new AtomicBoolean(false);
+    public final EventLoopProfiler profiler = new EventLoopProfiler(this);
 
     // these locks are a little tricky
     // see comments in loop() and close()
@@ -105,28 +118,47 @@ public class SelectorEventLoop {
         handleTimeEvents();
     }
 
+    private void runTask(Runnable r) {
+        if (Config.eventLoopHandlerProfiling) {
+            long start = System.nanoTime();
+            tryRunnable(r);
+            profiler.callback(r, null, start);
+        } else {
+            tryRunnable(r);
+        }
+    }
+
     private void handleRunOnLoopEvents() {
         int len = runOnLoopEvents.size();
+        profiler.roundStart(len);
         // only run available events when entering this function
         for (int i = 0; i < len; ++i) {
             Runnable r = runOnLoopEvents.poll();
-            tryRunnable(r);
+            runTask(r);
         }
     }
 
     private void handleTimeEvents() {
-        List<Runnable> toRun = new LinkedList<>();
-        while (timeQueue.nextTime() == 0) {
-            Runnable r = timeQueue.pop();
-            toRun.add(r);
+        int len = timeQueue.expire();
+        profiler.runOnLoopEnd(len);
+        if (len > 0) {
+            // one sample for each round, the first expired event is the one waited for the longest time
+            timerLag.record((Config.currentTimestamp - timeQueue.firstExpiredTriggerTime()) * 1000);
         }
-        for (Runnable r : toRun) {
-            tryRunnable(r);
+        // only run expired events when entering this function
+        for (int i = 0; i < len; ++i) {
+            Runnable r = timeQueue.pop();
+            if (r == null) {
+                break; // the events might be canceled by the previous ones
+            }
+            runTask(r);
         }
+        profiler.timerEnd();
     }
 
     @SuppressWarnings("unchecked")
     private void doHandling(Iterator<SelectedEntry> keys) {
+        final boolean profiling = Config.eventLoopHandlerProfiling;
         while (keys.hasNext()) {
             SelectedEntry key = keys.next();
 
@@ -143,6 +175,7 @@ public class SelectorEventLoop {
                     Logger.error(LogType.CONN_ERROR, "channel is closed but still firing: fd = " + channel + ", event = " + key.ready + ", attachment = " + ctxReuse0.attachment);
                 } // else the channel is closed in another fd handler and removed from loop, this is ok and no need to report
             } else {
+                long start = profiling ? System.nanoTime() : 0;
                 EventSet readyOps = key.ready;
                 // handle read first because it's most likely to happen
                 if (readyOps.have(Event.READABLE)) {
@@ -180,6 +213,9 @@ public class SelectorEventLoop {
                         }
                     }
                 }
+                if (profiling) {
+                    profiler.callback(handler, registerData.att, start);
+                }
             }
         }
     }
@@ -257,6 +293,7 @@ public class SelectorEventLoop {
             // if it's closed, the next loop will not run
             return 0;
         }
+        profiler.selectEnd(selected.size());
 
         // here we lock again
         // because we need to handle something
@@ -264,14 +301,17 @@ public class SelectorEventLoop {
         //noinspection unused
         try (var unused = CLOSE_LOCK.lock()) {
 
-            if (!selector.isOpen())
+            if (!selector.isOpen()) {
+                profiler.busySince = 0;
                 return -1; // break if it's closed
+            }
 
             if (!selected.isEmpty()) {
                 Iterator<SelectedEntry> keys = selected.iterator();
                 doHandling(keys);
             }
         }
+        profiler.roundEnd();
         return 0;
     }
 
@@ -298,16 +338,26 @@ public class SelectorEventLoop {
         // set thread
         runningThread = Thread.currentThread();
         loopThreadLocal.set(this);
+        EventLoopWatchdog.watch(this);
         // run
         while (selector.isOpen()) {
             if (-1 == onePoll()) {
                 break;
             }
         }
+        EventLoopWatchdog.unwatch(this);
         runningThread = null; // it's not running now, set to null
         loopThreadLocal.remove(); // remove from thread local
         // do the final release
         release();
+        releaseMetricsSlot();
+    }
+
+    // the slot is released when the loop thread exits, or when closing a loop which is not running
+    private void releaseMetricsSlot() {
+        if (metricsSlotReleased.compareAndSet(false, true)) {
+            Metrics.releaseSlot(metricsSlot);
+        }
     }
 
     private boolean needWake() {
@@ -508,6 +558,8 @@ public class SelectorEventLoop {
             } catch (InterruptedException ignore) {
                 // ignore, we don't care
             }
+        } else if (runningThread == null) {
+            releaseMetricsSlot();
         }
     }
 }
@@ -14,7 +14,7 @@ public abstract class ArqUDPHandler {
     }
 
     /**
-     * @param input the network level bytes
+     * @param input the network level bytes, the buffer is reused after the method returns
      * @return the parsed bytes
      */
     abstract public ByteArray parse(ByteArrayChannel input) throws IOException;
@@ -29,4 +29,21 @@ public abstract class ArqUDPHandler {
     abstract public void clock(long ts) throws IOException;
 
     abstract public int clockInterval();
+
+    /**
+     * @param ts current timestamp
+     * @return the timestamp when {@link #clock(long)} should be called next time,
+     * or -1 if it's not required until data is written or parsed
+     */
+    public long nextClock(long ts) {
+        return ts + clockInterval();
+    }
+
+    /**
+     * called when a buffer given to the emitter is sent or dropped, it will not be used any more
+     *
+     * @param buf the emitted buffer
+     */
+    public void released(ByteArrayChannel buf) {
+    }
 }
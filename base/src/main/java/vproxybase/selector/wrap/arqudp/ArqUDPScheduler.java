@@ -0,0 +1,128 @@
+package vproxybase.selector.wrap.arqudp;
+
+import vproxybase.Config;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.selector.TimerEvent;
+import vproxybase.util.TimeQueue;
+
+import java.util.ArrayList;
+
+/**
+ * Drives the clocks of all arq udp fds registered on one event loop.<br>
+ * The fds are kept in one timing wheel by the time when their handlers need the clock next time
+ * (see {@link ArqUDPHandler#nextClock(long)}), and only one timer of the event loop is armed for the nearest one.
+ * Only the due fds are clocked, and the datagrams they emit are written in the same round,
+ * so that the datagrams of fds sharing one udp socket can be sent in one batch.<br>
+ * This class is not thread safe, it should only be used on the event loop.
+ */
+public class ArqUDPScheduler {
+    private final SelectorEventLoop loop;
+    private TimeQueue<ArqUDPSocketFD> queue; // created when the first fd is scheduled
+    private TimerEvent timer = null;
+    private long timerTime = Long.MAX_VALUE;
+    private final ArrayList<ArqUDPSocketFD> due = new ArrayList<>();
+    private int size = 0; // count of fds in the queue
+
+    // statistics
+    private long clockCount = 0;
+
+    public ArqUDPScheduler(SelectorEventLoop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * schedule the fd by the next clock time of its handler,
+     * should be called when the fd is registered, and when data is written into or parsed by the handler
+     */
+    void schedule(ArqUDPSocketFD fd) {
+        long now = Config.currentTimestamp;
+        if (push(fd, now)) {
+            arm(fd.clockElem.triggerTime, now);
+        }
+    }
+
+    void cancel(ArqUDPSocketFD fd) {
+        if (fd.clockElem != null) {
+            fd.clockElem.removeSelf();
+            fd.clockElem = null;
+            --size;
+        }
+    }
+
+    // return true if the fd is pushed into the queue
+    private boolean push(ArqUDPSocketFD fd, long now) {
+        long next = fd.nextClock(now);
+        if (next < 0) {
+            cancel(fd);
+            return false;
+        }
+        if (fd.clockElem != null) {
+            if (fd.clockElem.triggerTime <= next) {
+                return false; // will be re-calculated when clocked
+            }
+            fd.clockElem.removeSelf();
+            --size;
+        }
+        if (queue == null) {
+            queue = new TimeQueue<>();
+        }
+        fd.clockElem = queue.push((int) Math.min(Math.max(next - now, 0), Integer.MAX_VALUE), fd);
+        ++size;
+        return true;
+    }
+
+    private void arm(long time, long now) {
+        if (time >= timerTime) {
+            return;
+        }
+        if (timer != null) {
+            timer.cancel();
+        }
+        timerTime = time;
+        timer = loop.delay((int) Math.max(time - now, 0), this::tick);
+    }
+
+    private void tick() {
+        timer = null;
+        timerTime = Long.MAX_VALUE;
+
+        ArqUDPSocketFD fd;
+        while ((fd = queue.pop()) != null) {
+            fd.clockElem = null;
+            --size;
+            due.add(fd);
+        }
+        long now = Config.currentTimestamp;
+        for (ArqUDPSocketFD f : due) {
+            f.clock(now);
+        }
+        clockCount += due.size();
+        for (ArqUDPSocketFD f : due) {
+            if (f.isClockRegistered()) {
+                push(f, now);
+            }
+        }
+        due.clear();
+
+        if (!queue.isEmpty()) {
+            int next = queue.nextTime();
+            if (next != Integer.MAX_VALUE) {
+                arm(now + next, now);
+            }
+        }
+    }
+
+    /**
+     * @return count of fds waiting for the clock
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return how many times the handlers are clocked
+     */
+    public long getClockCount() {
+        return clockCount;
+    }
+}
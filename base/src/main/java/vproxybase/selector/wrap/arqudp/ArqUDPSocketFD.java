@@ -8,13 +8,13 @@ import vmirror.MirrorDataFactory;
 import vproxybase.Config;
 import vproxybase.selector.Handler;
 import vproxybase.selector.HandlerContext;
-import vproxybase.selector.PeriodicEvent;
 import vproxybase.selector.SelectorEventLoop;
 import vproxybase.selector.wrap.VirtualFD;
 import vproxybase.selector.wrap.WrappedSelector;
 import vproxybase.util.ByteArray;
 import vproxybase.util.LogType;
 import vproxybase.util.Logger;
+import vproxybase.util.TimeElem;
 import vproxybase.util.Utils;
 import vproxybase.util.nio.ByteArrayChannel;
 
@@ -22,8 +22,8 @@ import java.io.IOException;
 import java.net.SocketOption;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
+import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.LinkedList;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -35,11 +35,14 @@ public class ArqUDPSocketFD implements SocketFD, VirtualFD {
     private final WrappedSelector selector;
     private final ArqUDPInsideFDHandler fdHandler;
 
-    private final Deque<ByteBuffer> readBufs = new LinkedList<>(); // data for application level
-    private final Deque<ByteArrayChannel> writeBufs = new LinkedList<>(); // data to network level
+    private final Deque<ByteBuffer> readBufs = new ArrayDeque<>(); // data for application level
+    private final Deque<ByteArrayChannel> writeBufs = new ArrayDeque<>(); // data to network level
     private boolean notFullySent = false; // the flag indicating that it cannot send data
 
-    private PeriodicEvent periodicEvent;
+    // maintained by the ArqUDPScheduler
+    TimeElem<ArqUDPSocketFD> clockElem;
+    private boolean clockRegistered = false;
+    private boolean clocking = false; // emitted datagrams are written after clocking
 
     private final MirrorDataFactory readingMirrorDataFactory;
     private final MirrorDataFactory writingMirrorDataFactory;
@@ -64,11 +67,13 @@ public class ArqUDPSocketFD implements SocketFD, VirtualFD {
             if (notFullySent) {
                 assert Logger.lowLevelDebug("`notFullySent` flag is set, clear the writeBufs queue");
                 notFullySent = false; // unset flag
-                writeBufs.clear(); // clear the queue
+                clearWriteBufs(); // clear the queue
             }
             writeBufs.add(b);
             assert Logger.lowLevelDebug("writeBufs currently have " + writeBufs.size() + " elements");
-            fdHandler.watchInsideFDWritable();
+            if (!clocking) {
+                fdHandler.watchInsideFDWritable();
+            }
         });
         // the fd is always writable when just constructed because writing queue is empty
         setSelfFDWritable();
@@ -237,6 +242,7 @@ public class ArqUDPSocketFD implements SocketFD, VirtualFD {
         assert Logger.lowLevelNetDebugPrintBytes(copy);
 
         handler.write(ByteArray.from(copy));
+        scheduleClock();
         return n;
     }
 
@@ -278,13 +284,8 @@ public class ArqUDPSocketFD implements SocketFD, VirtualFD {
             Logger.shouldNotHappen("onRegister callback failed when adding fd " + fd + " to loop", e);
             throw new RuntimeException(e);
         }
-        periodicEvent = loop.period(handler.clockInterval(), () -> {
-            try {
-                handler.clock(Config.currentTimestamp);
-            } catch (IOException e) {
-                fdHandler.setError(e);
-            }
-        });
+        clockRegistered = true;
+        loop.arqUDPScheduler.schedule(this);
 
         // register self fd events
         if (selfFDReadable) {
@@ -298,12 +299,51 @@ public class ArqUDPSocketFD implements SocketFD, VirtualFD {
     @Override
     public void onRemove() {
         assert Logger.lowLevelDebug(this + ".onRemove()");
-        if (periodicEvent != null) {
-            periodicEvent.cancel();
-        }
+        clockRegistered = false;
+        loop.arqUDPScheduler.cancel(this);
         loop.remove(fd);
     }
 
+    private void clearWriteBufs() {
+        ByteArrayChannel buf;
+        while ((buf = writeBufs.poll()) != null) {
+            handler.released(buf);
+        }
+    }
+
+    boolean isClockRegistered() {
+        return clockRegistered;
+    }
+
+    private void scheduleClock() {
+        if (clockRegistered) {
+            loop.arqUDPScheduler.schedule(this);
+        }
+    }
+
+    long nextClock(long ts) {
+        if (fdHandler.getError() != null) {
+            return -1;
+        }
+        return handler.nextClock(ts);
+    }
+
+    // called by the ArqUDPScheduler
+    void clock(long ts) {
+        clocking = true;
+        try {
+            handler.clock(ts);
+        } catch (IOException e) {
+            fdHandler.setError(e);
+        } finally {
+            clocking = false;
+        }
+        // write the emitted datagrams directly instead of waiting for the writable event
+        if (!writeBufs.isEmpty() && !fdHandler.isInvalid()) {
+            fdHandler.flushWriteBufs();
+        }
+    }
+
     private boolean selfFDReadable = false;
     private boolean selfFDWritable = false;
 
@@ -423,11 +463,10 @@ public class ArqUDPSocketFD implements SocketFD, VirtualFD {
                 watchInsideFDReadable();
                 return;
             }
-            ByteArrayChannel tmp = ByteArrayChannel.fromEmpty(len);
-            tmp.write(tmpBuffer);
+            // the handler does not keep the input buffer, so the bytes are not copied
+            ByteArrayChannel tmp = ByteArrayChannel.from(tmpBuffer.array(), 0, len, tmpBuffer.capacity() - len);
 
             // read something, try to handle
-            // make a copy for data in tmp to make sure it will not be overwritten
             ByteArray b;
             try {
                 b = handler.parse(tmp);
@@ -437,6 +476,8 @@ public class ArqUDPSocketFD implements SocketFD, VirtualFD {
                 unwatchInsideFDReadable();
                 return;
             }
+            // acks may need to be sent
+            scheduleClock();
             // maybe ack is feed into the handler.parse method
             // so we check whether we can write data now
             assert Logger.lowLevelDebug("checking writable for " + ArqUDPSocketFD.this
@@ -459,6 +500,10 @@ public class ArqUDPSocketFD implements SocketFD, VirtualFD {
         @Override
         public void writable(HandlerContext<SocketFD> ctx) {
             assert Logger.lowLevelDebug("writable for " + ctx.getChannel() + " in " + ArqUDPSocketFD.this);
+            flushWriteBufs();
+        }
+
+        private void flushWriteBufs() {
             while (true) {
                 ByteArrayChannel buf = writeBufs.peek();
 
@@ -470,27 +515,28 @@ public class ArqUDPSocketFD implements SocketFD, VirtualFD {
                 }
                 if (buf.used() == 0) {
                     writeBufs.poll();
+                    handler.released(buf);
                     continue;
                 }
 
-                assert Logger.lowLevelDebug("arq udp socket is writing " + buf.used() + " bytes to " + ctx.getChannel());
+                assert Logger.lowLevelDebug("arq udp socket is writing " + buf.used() + " bytes to " + fd);
                 assert Logger.lowLevelNetDebugPrintBytes(buf.getBytes(), buf.getReadOff(), buf.getWriteOff());
 
                 // try to write data
                 int wlen = buf.used();
-                ByteBuffer foo = ByteBuffer.wrap(buf.readableArray().toJavaArray());
+                ByteBuffer foo = ByteBuffer.wrap(buf.getBytes(), buf.getReadOff(), wlen);
                 int wrote;
                 try {
-                    wrote = ctx.getChannel().write(foo);
+                    wrote = fd.write(foo);
                 } catch (IOException e) {
-                    Logger.error(LogType.CONN_ERROR, "writing data to " + ctx.getChannel() + " failed", e);
+                    Logger.error(LogType.CONN_ERROR, "writing data to " + fd + " failed", e);
                     setError(e);
                     return;
                 }
                 if (wrote < wlen) {
                     assert Logger.lowLevelDebug("not all data wrote: " + (wlen - wrote));
                     if (wrote != 0) {
-                        Logger.shouldNotHappen("writing half udp packet to the fd " + ctx.getChannel());
+                        Logger.shouldNotHappen("writing half udp packet to the fd " + fd);
                     }
 
                     // so the inside fd is not writable for now
@@ -22,10 +22,15 @@ public class H2StreamedFDHandler extends StreamedFDHandler {
     private static final byte TYPE_SETTINGS = 0x4;
     private static final byte TYPE_PING = 0x6;
     private static final byte TYPE_GOAWAY = 0x7;
+    private static final byte TYPE_WINDOW_UPDATE = 0x8;
     private static final List<Byte> validTypes = Arrays.asList(
-        TYPE_DATA, TYPE_HEADER, TYPE_PING, TYPE_GOAWAY // TYPE_SETTINGS is not valid after handshaking
+        TYPE_DATA, TYPE_HEADER, TYPE_PING, TYPE_GOAWAY, TYPE_WINDOW_UPDATE // TYPE_SETTINGS is not valid after handshaking
     );
-    private static final List<Byte> validTypesWithPayload = Arrays.asList(TYPE_DATA, TYPE_GOAWAY, TYPE_PING);
+    private static final List<Byte> validTypesWithPayload = Arrays.asList(TYPE_DATA, TYPE_GOAWAY, TYPE_PING, TYPE_WINDOW_UPDATE);
+
+    // data of the PING sent after handshaking, telling the remote endpoint that WINDOW_UPDATE frames are supported
+    // older versions only respond a PING ACK, and WINDOW_UPDATE frames will not be sent to them
+    private static final long PING_FLOW_CONTROL = 0x76_70_72_6f_78_79_77_6eL; // vproxywn
 
     private static final byte FLAG_CLOSE_STREAM = 0x1;
     private static final byte FLAG_ACK = 0x1;
@@ -49,6 +54,14 @@ public class H2StreamedFDHandler extends StreamedFDHandler {
             .concat(ByteArray.allocate(8).int64(0, data));
     }
 
+    private static ByteArray getWindowUpdate(int streamId, int increment) {
+        return HEAD.copy()
+            .int24(0, 4)
+            .set(3, TYPE_WINDOW_UPDATE)
+            .int32(5, streamId)
+            .concat(ByteArray.allocate(4).int32(0, increment & 0x7fffffff));
+    }
+
     @SuppressWarnings("SameParameterValue")
     private static ByteArray getGoAway(int lastStreamId, int errorCode, String msg) {
         byte[] bytes = msg.getBytes();
@@ -223,8 +236,22 @@ public class H2StreamedFDHandler extends StreamedFDHandler {
                 }
                 boolean isAck = ((flag & FLAG_ACK) == FLAG_ACK);
                 long kId = array.int64(HEAD.length());
+                if (kId == PING_FLOW_CONTROL) {
+                    if (!isAck) {
+                        flowControlEnabled();
+                    }
+                    // the ACK means the remote endpoint does not support flow control
+                    return HEAD.length() + len;
+                }
                 keepaliveReceived(kId, isAck);
                 return HEAD.length() + len;
+            case TYPE_WINDOW_UPDATE:
+                if (len < 4) {
+                    throw new IOException("invalid window update frame, len=" + len);
+                }
+                int increment = array.int32(HEAD.length()) & 0x7fffffff;
+                windowUpdateReceived(streamId, increment);
+                return HEAD.length() + len;
             default:
                 throw new IOException("invalid frame type: " + type);
         }
@@ -282,6 +309,16 @@ public class H2StreamedFDHandler extends StreamedFDHandler {
         return getPing(kId, isAck);
     }
 
+    @Override
+    protected ByteArray flowControlMessage() {
+        return getPing(PING_FLOW_CONTROL, false);
+    }
+
+    @Override
+    protected ByteArray formatWindowUpdate(int streamId, int increment) {
+        return getWindowUpdate(streamId, increment);
+    }
+
     private int streamId = 1;
 
     @Override
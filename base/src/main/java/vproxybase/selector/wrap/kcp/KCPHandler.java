@@ -2,13 +2,12 @@ package vproxybase.selector.wrap.kcp;
 
 import vproxybase.selector.wrap.arqudp.ArqUDPHandler;
 import vproxybase.selector.wrap.kcp.mock.ByteBuf;
+import vproxybase.selector.wrap.kcp.mock.ByteBufAllocator;
 import vproxybase.util.ByteArray;
 import vproxybase.util.Logger;
 import vproxybase.util.nio.ByteArrayChannel;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.function.Consumer;
 
 public class KCPHandler extends ArqUDPHandler {
@@ -30,7 +29,7 @@ public class KCPHandler extends ArqUDPHandler {
         // decrease rto
         public int rxMinRto = 30;
 
-        // alert the kcp every few ms
+        // alert the kcp at most every few ms when it has something to send
         public int clockInterval = 10;
     }
 
@@ -41,9 +40,10 @@ public class KCPHandler extends ArqUDPHandler {
     protected KCPHandler(Consumer<ByteArrayChannel> emitter, Object identifier, KCPOptions options) {
         super(emitter);
         this.kcp = new Kcp(0, (data, kcp) -> {
-            assert Logger.lowLevelDebug("kcp wants to write " + data.chnl.used() + " bytes to " + kcp.getUser());
-            assert Logger.lowLevelNetDebugPrintBytes(data.chnl.getBytes(), data.chnl.getReadOff(), data.chnl.getWriteOff());
-            emitter.accept(data.chnl);
+            ByteArrayChannel chnl = data.detachToChannel();
+            assert Logger.lowLevelDebug("kcp wants to write " + chnl.used() + " bytes to " + kcp.getUser());
+            assert Logger.lowLevelNetDebugPrintBytes(chnl.getBytes(), chnl.getReadOff(), chnl.getWriteOff());
+            emitter.accept(chnl);
         });
         this.kcp.setUser(identifier);
         kcp.setStream(true); // we always use stream mode
@@ -61,28 +61,31 @@ public class KCPHandler extends ArqUDPHandler {
         assert Logger.lowLevelDebug("inputting into kcp: " + buf.used());
         assert Logger.lowLevelNetDebugPrintBytes(buf.getBytes(), buf.getReadOff(), buf.used());
 
-        int ret = kcp.input(new ByteBuf(buf));
+        ByteBuf data = ByteBuf.wrap(buf);
+        int ret = kcp.input(data);
+        data.release();
         if (ret < 0) {
             throw new IOException("writing from network to kcp failed: " + ret);
         }
 
+        // receive all complete messages into one array
         ByteArray array = null;
         while (kcp.canRecv()) {
-            List<ByteBuf> arrays = new LinkedList<>();
-            ret = kcp.recv(arrays);
-            if (ret <= 0) {
-                break;
+            ByteBuf out = ByteBuf.wrapForWriting(new byte[kcp.peekAllSize()]);
+            boolean received = false;
+            while (kcp.canRecv() && kcp.peekSize() <= out.maxWritableBytes()) {
+                if (kcp.recv(out) < 0) {
+                    break;
+                }
+                received = true;
             }
-            if (arrays.isEmpty()) {
-                break;
+            if (out.readableBytes() != 0) {
+                ByteArray a = out.readableArray();
+                array = array == null ? a : array.concat(a);
             }
-            for (ByteBuf b : arrays) {
-                ByteArray a = b.chnl.readAll();
-                if (array == null) {
-                    array = a;
-                } else {
-                    array = array.concat(a);
-                }
+            out.release();
+            if (!received) {
+                break;
             }
         }
         return array;
@@ -90,7 +93,9 @@ public class KCPHandler extends ArqUDPHandler {
 
     @Override
     public void write(ByteArray input) throws IOException {
-        int ret = kcp.send(new ByteBuf(ByteArrayChannel.fromFull(input)));
+        ByteBuf buf = ByteBuf.wrap(input.toJavaArray(), 0, input.length());
+        int ret = kcp.send(buf);
+        buf.release(); // the segments only keep slices of the array
         if (ret < 0) {
             throw new IOException("writing from app to kcp failed: " + ret);
         }
@@ -120,4 +125,21 @@ public class KCPHandler extends ArqUDPHandler {
     public int clockInterval() {
         return opts.clockInterval;
     }
+
+    @Override
+    public long nextClock(long ts) {
+        if (isInvalid) {
+            return -1;
+        }
+        if (!kcp.checkFlush()) {
+            return -1; // nothing to send, no acks and no probes
+        }
+        return Math.min(kcp.check(ts), ts + opts.clockInterval);
+    }
+
+    @Override
+    public void released(ByteArrayChannel buf) {
+        // the buffers are emitted in the kcp output callback, which are backed by pooled arrays
+        ByteBufAllocator.DEFAULT.releaseArray(buf.getBytes());
+    }
 }
@@ -511,6 +511,23 @@ public class Kcp {
         return len;
     }
 
+    /**
+     * @return size of all complete messages in the rcv queue
+     */
+    public int peekAllSize() {
+        int len = 0;
+        int msgLen = 0;
+        for (Iterator<Segment> itr = rcvQueueItr.rewind(); itr.hasNext(); ) {
+            Segment s = itr.next();
+            msgLen += s.data.readableBytes();
+            if (s.frg == 0) {
+                len += msgLen;
+                msgLen = 0;
+            }
+        }
+        return len;
+    }
+
     public boolean canRecv() {
         if (rcvQueue.isEmpty()) {
             return false;
@@ -1098,7 +1115,9 @@ public class Kcp {
                         ackPush(sn, ts);
                         if (itimediff(sn, rcvNxt) >= 0) {
                             if (len > 0) {
-                                seg = Segment.createSegment(data.readRetainedSlice(len));
+                                // copy into a pooled buffer, so the input buffer can be reused after returning
+                                seg = Segment.createSegment(byteBufAllocator, len);
+                                seg.data.writeBytes(data, len);
                                 readed = true;
                             } else {
                                 seg = Segment.createSegment(byteBufAllocator, 0);
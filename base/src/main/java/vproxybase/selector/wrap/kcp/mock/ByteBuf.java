@@ -1,34 +1,119 @@
 package vproxybase.selector.wrap.kcp.mock;
 
-import vproxybase.util.Utils;
+import vproxybase.util.ByteArray;
 import vproxybase.util.nio.ByteArrayChannel;
 
-import java.nio.ByteBuffer;
-
+/**
+ * A buffer backed by a byte array, with the netty ByteBuf methods used by the kcp implementation.<br>
+ * The buffer objects are recycled when released,
+ * and the array is given back to the allocator if it's borrowed from the pool.
+ */
 public class ByteBuf {
-    public final ByteArrayChannel chnl;
+    private static final Recycler<ByteBuf> RECYCLER = new Recycler<>() {
+        @Override
+        protected ByteBuf newObject(Handle<ByteBuf> handle) {
+            return new ByteBuf(handle);
+        }
+    };
+
+    private final Recycler.Handle<ByteBuf> recyclerHandle;
+    private ByteBufAllocator allocator; // not null if the array is pooled
+    private byte[] array;
+    private int offset; // index 0 of this buffer in the array
+    private int capacity;
+    private int readerIndex;
+    private int writerIndex;
+
+    private ByteBuf(Recycler.Handle<ByteBuf> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    private static ByteBuf get(ByteBufAllocator allocator, byte[] array, int offset, int capacity, int writerIndex) {
+        ByteBuf buf = RECYCLER.get();
+        buf.allocator = allocator;
+        buf.array = array;
+        buf.offset = offset;
+        buf.capacity = capacity;
+        buf.readerIndex = 0;
+        buf.writerIndex = writerIndex;
+        return buf;
+    }
+
+    /**
+     * wrap the bytes as readable, the array is not copied
+     */
+    public static ByteBuf wrap(byte[] array, int offset, int len) {
+        return get(null, array, offset, len, len);
+    }
+
+    /**
+     * wrap the readable bytes of the channel, the array is not copied if the channel is backed by a full java array
+     */
+    public static ByteBuf wrap(ByteArrayChannel chnl) {
+        return wrap(chnl.getBytes(), chnl.getReadOff(), chnl.used());
+    }
+
+    /**
+     * wrap the array as an empty buffer to write into
+     */
+    public static ByteBuf wrapForWriting(byte[] array) {
+        return get(null, array, 0, array.length, 0);
+    }
+
+    static ByteBuf pooled(ByteBufAllocator allocator, byte[] array, int capacity) {
+        return get(allocator, array, 0, capacity, 0);
+    }
+
+    /**
+     * @return the readable bytes, the array is not copied
+     */
+    public ByteArray readableArray() {
+        int off = offset + readerIndex;
+        int len = writerIndex - readerIndex;
+        if (off == 0 && len == array.length) {
+            return ByteArray.from(array);
+        }
+        return ByteArray.from(array).sub(off, len);
+    }
 
-    public ByteBuf(ByteArrayChannel chnl) {
-        this.chnl = chnl;
+    /**
+     * Hand the readable bytes over to a channel, and recycle this buffer object.<br>
+     * The pooled array is not given back, it should be given back by {@link ByteBufAllocator#releaseArray(byte[])}
+     * with the array retrieved from {@link ByteArrayChannel#getBytes()} after the channel is used.
+     */
+    public ByteArrayChannel detachToChannel() {
+        int readOff = offset + readerIndex;
+        int writeOff = offset + writerIndex;
+        ByteArrayChannel chnl = ByteArrayChannel.from(array, readOff, writeOff, array.length - writeOff);
+        allocator = null;
+        array = null;
+        recyclerHandle.recycle(this);
+        return chnl;
+    }
+
+    private void checkReadBound(int readLen) {
+        if (readLen < 0 || writerIndex - readerIndex < readLen) {
+            throw new IndexOutOfBoundsException("readable = " + (writerIndex - readerIndex) + " < " + readLen);
+        }
     }
 
     /*
      * Returns the number of readable bytes which is equal to (this.writerIndex - this.readerIndex).
      */
     public int readableBytes() {
-        return chnl.used();
+        return writerIndex - readerIndex;
     }
 
     /*
      * Returns the writerIndex of this buffer.
      */
     public int writerIndex() {
-        return chnl.getWriteOff();
+        return writerIndex;
     }
 
     private void checkWriteBound(int writeLen) {
-        if (chnl.free() < writeLen) {
-            throw new IndexOutOfBoundsException("chnl.free = " + chnl.free() + " < " + writeLen);
+        if (capacity - writerIndex < writeLen) {
+            throw new IndexOutOfBoundsException("free = " + (capacity - writerIndex) + " < " + writeLen);
         }
     }
 
@@ -38,11 +123,12 @@ public class ByteBuf {
      */
     public void writeIntLE(int i) {
         checkWriteBound(4);
-        byte b1 = (byte) ((i >> 24) & 0xff);
-        byte b2 = (byte) ((i >> 16) & 0xff);
-        byte b3 = (byte) ((i >> 8) & 0xff);
-        byte b4 = (byte) (i & 0xff);
-        chnl.write(ByteBuffer.wrap(new byte[]{b4, b3, b2, b1}));
+        int idx = offset + writerIndex;
+        array[idx] = (byte) (i & 0xff);
+        array[idx + 1] = (byte) ((i >> 8) & 0xff);
+        array[idx + 2] = (byte) ((i >> 16) & 0xff);
+        array[idx + 3] = (byte) ((i >> 24) & 0xff);
+        writerIndex += 4;
     }
 
     /*
@@ -51,7 +137,8 @@ public class ByteBuf {
      */
     public void writeByte(int b) {
         checkWriteBound(1);
-        chnl.write(ByteBuffer.wrap(new byte[]{(byte) (b & 0xff)}));
+        array[offset + writerIndex] = (byte) (b & 0xff);
+        writerIndex += 1;
     }
 
     /*
@@ -60,16 +147,17 @@ public class ByteBuf {
      */
     public void writeShortLE(int n) {
         checkWriteBound(2);
-        byte b1 = (byte) ((n >> 8) & 0xff);
-        byte b2 = (byte) (n & 0xff);
-        chnl.write(ByteBuffer.wrap(new byte[]{b2, b1}));
+        int idx = offset + writerIndex;
+        array[idx] = (byte) (n & 0xff);
+        array[idx + 1] = (byte) ((n >> 8) & 0xff);
+        writerIndex += 2;
     }
 
     /*
      * Returns the maximum allowed capacity of this buffer. This value provides an upper bound on capacity().
      */
     public int maxCapacity() {
-        return chnl.getWriteOff() + chnl.getWriteLen();
+        return capacity;
     }
 
     /*
@@ -79,7 +167,7 @@ public class ByteBuf {
      * If this.writableBytes is less than src.readableBytes, ensureWritable(int) will be called in an attempt to expand capacity to accommodate.
      */
     public void writeBytes(ByteBuf b) {
-        writeBytes(b, b.chnl.used());
+        writeBytes(b, b.readableBytes());
     }
 
     /*
@@ -88,12 +176,13 @@ public class ByteBuf {
      * If this.writableBytes is less than length, ensureWritable(int) will be called in an attempt to expand capacity to accommodate.
      */
     public void writeBytes(ByteBuf b, int len) {
-        checkWriteBound(len);
-
-        // write into chnl
-        writeBytes(b, b.chnl.getReadOff(), len);
+        if (b.readableBytes() < len) {
+            throw new IndexOutOfBoundsException("readable = " + b.readableBytes() + " < " + len);
+        }
+        // write into this buffer
+        writeBytes(b, b.readerIndex, len);
         // modify b
-        b.chnl.skip(len);
+        b.readerIndex += len;
     }
 
     /*
@@ -103,14 +192,15 @@ public class ByteBuf {
     public void writeBytes(ByteBuf src, int srcIndex, int length) {
         checkWriteBound(length);
 
-        chnl.write(ByteArrayChannel.fromFull(src.chnl.getArray().sub(srcIndex, length)));
+        System.arraycopy(src.array, src.offset + srcIndex, array, offset + writerIndex, length);
+        writerIndex += length;
     }
 
     /*
      * Returns the maximum possible number of writable bytes, which is equal to (this.maxCapacity - this.writerIndex).
      */
     public int maxWritableBytes() {
-        return chnl.free();
+        return capacity - writerIndex;
     }
 
     /*
@@ -119,10 +209,17 @@ public class ByteBuf {
      * This method behaves similarly to readSlice(...).retain() except that this method may return a buffer implementation that produces less garbage.
      */
     public ByteBuf readRetainedSlice(int len) {
-        ByteBuf b = new ByteBuf(ByteArrayChannel.fromFull(
-            chnl.getArray().sub(chnl.getReadOff(), len)
-        ));
-        chnl.skip(len);
+        checkReadBound(len);
+        ByteBuf b;
+        if (allocator == null) {
+            // share the array
+            b = wrap(array, offset + readerIndex, len);
+        } else {
+            // the pooled array is owned by only one buffer, so copy the bytes
+            b = allocator.ioBuffer(len);
+            b.writeBytes(this, readerIndex, len);
+        }
+        readerIndex += len;
         return b;
     }
 
@@ -130,18 +227,21 @@ public class ByteBuf {
      * Gets a 32-bit integer at the current readerIndex in the Little Endian Byte Order and increases the readerIndex by 4 in this buffer.
      */
     public int readIntLE() {
-        int b1 = Utils.positive(chnl.read());
-        int b2 = Utils.positive(chnl.read());
-        int b3 = Utils.positive(chnl.read());
-        int b4 = Utils.positive(chnl.read());
-        return (b4 << 24) | (b3 << 16) | (b2 << 8) | b1;
+        checkReadBound(4);
+        int idx = offset + readerIndex;
+        readerIndex += 4;
+        return (array[idx] & 0xff)
+            | ((array[idx + 1] & 0xff) << 8)
+            | ((array[idx + 2] & 0xff) << 16)
+            | ((array[idx + 3] & 0xff) << 24);
     }
 
     /*
      * Gets a byte at the current readerIndex and increases the readerIndex by 1 in this buffer.
      */
     public byte readByte() {
-        return chnl.read();
+        checkReadBound(1);
+        return array[offset + readerIndex++];
     }
 
     /*
@@ -155,10 +255,10 @@ public class ByteBuf {
      * Gets an unsigned 16-bit short integer at the current readerIndex in the Little Endian Byte Order and increases the readerIndex by 2 in this buffer.
      */
     public int readUnsignedShortLE() {
-        int b1 = Utils.positive(chnl.read());
-        int b2 = Utils.positive(chnl.read());
-        short s = (short) ((b2 << 8) | b1);
-        return s & 0xFFFF;
+        checkReadBound(2);
+        int idx = offset + readerIndex;
+        readerIndex += 2;
+        return (array[idx] & 0xff) | ((array[idx + 1] & 0xff) << 8);
     }
 
     /*
@@ -172,22 +272,28 @@ public class ByteBuf {
      * Increases the current readerIndex by the specified length in this buffer.
      */
     public void skipBytes(int len) {
-        chnl.skip(len);
+        checkReadBound(len);
+        readerIndex += len;
     }
 
     /*
      * Returns the readerIndex of this buffer.
      */
     public int readerIndex() {
-        return chnl.getReadOff();
+        return readerIndex;
     }
 
     public void release() {
-        // do nothing
+        if (allocator != null) {
+            allocator.releaseArray(array);
+            allocator = null;
+        }
+        array = null;
+        recyclerHandle.recycle(this);
     }
 
     @Override
     public String toString() {
-        return chnl.toString();
+        return "ByteBuf(" + readableArray().toString().replaceAll("\\r|\\n", ".") + ")";
     }
 }
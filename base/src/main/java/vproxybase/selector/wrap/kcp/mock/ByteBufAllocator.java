@@ -1,22 +1,97 @@
 package vproxybase.selector.wrap.kcp.mock;
 
-import vproxybase.util.nio.ByteArrayChannel;
+import java.util.ArrayDeque;
 
+/**
+ * Allocates buffers backed by byte arrays pooled for each thread.<br>
+ * The arrays are grouped in power of two size classes,
+ * and a released array is kept only when the pool of its class is not full.
+ */
 public class ByteBufAllocator {
     public static final ByteBufAllocator DEFAULT = new ByteBufAllocator();
 
+    private static final int MIN_ARRAY_SIZE = 64;
+    private static final int MAX_ARRAY_SIZE = 16384;
+    private static final int MAX_POOLED_BYTES_PER_CLASS = 2 * 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ThreadLocal<ArrayDeque<byte[]>[]> pools = ThreadLocal.withInitial(() -> {
+        int n = sizeClassIndex(MAX_ARRAY_SIZE) + 1;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<byte[]>[] arr = new ArrayDeque[n];
+        for (int i = 0; i < n; ++i) {
+            arr[i] = new ArrayDeque<>();
+        }
+        return arr;
+    });
+
+    private static int sizeClassIndex(int size) {
+        if (size <= MIN_ARRAY_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - 6; // MIN_ARRAY_SIZE = 2^6
+    }
+
+    private static int sizeOfClass(int index) {
+        return MIN_ARRAY_SIZE << index;
+    }
+
     public ByteBuf ioBuffer(int a, int b) {
         if (a == 0 && b == 0) {
-            return new ByteBuf(ByteArrayChannel.zero());
+            return ByteBuf.wrap(EMPTY, 0, 0);
         }
         throw new UnsupportedOperationException();
     }
 
     public ByteBuf ioBuffer(int size) {
         if (size == 0) {
-            return new ByteBuf(ByteArrayChannel.zero());
+            return ByteBuf.wrap(EMPTY, 0, 0);
         } else {
-            return new ByteBuf(ByteArrayChannel.fromEmpty(size));
+            return ByteBuf.pooled(this, allocateArray(size), size);
+        }
+    }
+
+    /**
+     * @return an array whose length is at least <code>size</code>
+     */
+    public byte[] allocateArray(int size) {
+        if (size > MAX_ARRAY_SIZE) {
+            return new byte[size];
+        }
+        int index = sizeClassIndex(size);
+        byte[] arr = pools.get()[index].poll();
+        if (arr == null) {
+            arr = new byte[sizeOfClass(index)];
+        }
+        return arr;
+    }
+
+    /**
+     * give the array back to the pool, the array must not be used any more
+     */
+    public void releaseArray(byte[] arr) {
+        int len = arr.length;
+        if (len < MIN_ARRAY_SIZE || len > MAX_ARRAY_SIZE) {
+            return;
+        }
+        int index = sizeClassIndex(len);
+        if (sizeOfClass(index) != len) {
+            return; // not allocated by the pool
+        }
+        ArrayDeque<byte[]> pool = pools.get()[index];
+        if ((pool.size() + 1) * len <= MAX_POOLED_BYTES_PER_CLASS) {
+            pool.push(arr);
+        }
+    }
+
+    /**
+     * @return count of the arrays pooled for current thread
+     */
+    public int pooledArrays() {
+        int n = 0;
+        for (ArrayDeque<byte[]> pool : pools.get()) {
+            n += pool.size();
         }
+        return n;
     }
 }
@@ -6,8 +6,12 @@ import vproxybase.util.Utils;
 import java.util.Objects;
 
 public class InternalLogger {
+    // the messages are only printed when assertion is enabled,
+    // so the boxing and varargs can be skipped otherwise
+    private static final boolean debugEnabled = Utils.assertOn();
+
     public boolean isDebugEnabled() {
-        return true;
+        return debugEnabled;
     }
 
     public void debug(String fmt0, Object... args) {
@@ -1,15 +1,72 @@
 package vproxybase.selector.wrap.kcp.mock;
 
+import java.util.ArrayDeque;
+
+/**
+ * A light weight object pool, one stack for each thread.<br>
+ * An object can only be recycled into the stack of the thread which created it,
+ * objects recycled on other threads are simply dropped.
+ */
 public abstract class Recycler<E> {
+    private static final int DEFAULT_MAX_CAPACITY_PER_THREAD = 4096;
+
+    private final int maxCapacityPerThread;
+    private final ThreadLocal<ArrayDeque<Handle<E>>> stack = ThreadLocal.withInitial(ArrayDeque::new);
+
+    protected Recycler() {
+        this(DEFAULT_MAX_CAPACITY_PER_THREAD);
+    }
+
+    protected Recycler(int maxCapacityPerThread) {
+        this.maxCapacityPerThread = maxCapacityPerThread;
+    }
+
     public static class Handle<E> {
+        private final Recycler<E> recycler;
+        private final Thread owner;
+        private E value;
+        private boolean recycled = false;
+
+        private Handle(Recycler<E> recycler, Thread owner) {
+            this.recycler = recycler;
+            this.owner = owner;
+        }
+
         public void recycle(E e) {
-            // do nothing
+            if (e != value) {
+                throw new IllegalArgumentException("the object does not belong to the handle");
+            }
+            if (recycled) {
+                throw new IllegalStateException("the object is already recycled");
+            }
+            recycled = true;
+            if (Thread.currentThread() != owner) {
+                return;
+            }
+            ArrayDeque<Handle<E>> stack = recycler.stack.get();
+            if (stack.size() < recycler.maxCapacityPerThread) {
+                stack.push(this);
+            }
         }
     }
 
     abstract protected E newObject(Handle<E> handle);
 
     public E get() {
-        return newObject(new Handle<>());
+        ArrayDeque<Handle<E>> stack = this.stack.get();
+        Handle<E> handle = stack.poll();
+        if (handle == null) {
+            handle = new Handle<>(this, Thread.currentThread());
+            handle.value = newObject(handle);
+        }
+        handle.recycled = false;
+        return handle.value;
+    }
+
+    /**
+     * @return count of the objects pooled for current thread
+     */
+    public int pooled() {
+        return stack.get().size();
     }
 }
@@ -0,0 +1,68 @@
+package vproxybase.selector.wrap.streamed;
+
+import vproxybase.util.ByteArray;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Data of one stream waiting to be scheduled by the {@link StreamedFDHandler},
+ * and the send window of the stream.<br>
+ * Only accessed in the event loop thread.
+ */
+class StreamOutput {
+    final StreamedFD fd;
+    final Deque<ByteArray> queue = new ArrayDeque<>();
+    int queued = 0; // bytes in the queue
+    boolean fin = false; // send FIN after all queued data
+    int weight = 1;
+
+    // deficit round robin
+    boolean active = false; // whether it's in the round robin list
+    int deficit = 0;
+
+    // flow control
+    long accepted = 0; // bytes accepted from the upper level
+    long granted = StreamedFDHandler.STREAM_WINDOW; // bytes allowed to be sent by the remote endpoint
+    int consumed = 0; // bytes read by the upper level but not yet granted to the remote endpoint
+
+    StreamOutput(StreamedFD fd) {
+        this.fd = fd;
+    }
+
+    void add(ByteArray data) {
+        queue.add(data);
+        queued += data.length();
+        accepted += data.length();
+    }
+
+    ByteArray poll(int len) {
+        assert len > 0 && len <= queued;
+        ByteArray ret = null;
+        while (len > 0) {
+            ByteArray head = queue.peek();
+            assert head != null;
+            ByteArray b;
+            if (head.length() <= len) {
+                queue.poll();
+                b = head;
+            } else {
+                b = head.sub(0, len);
+                queue.poll();
+                queue.push(head.sub(len, head.length() - len));
+            }
+            len -= b.length();
+            queued -= b.length();
+            ret = ret == null ? b : ret.concat(b);
+        }
+        return ret;
+    }
+
+    void clear() {
+        queue.clear();
+        queued = 0;
+        fin = false;
+        active = false;
+        deficit = 0;
+    }
+}
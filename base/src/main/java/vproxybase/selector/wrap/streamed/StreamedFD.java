@@ -37,6 +37,8 @@ public class StreamedFD implements SocketFD, VirtualFD {
     final MirrorDataFactory readingMirrorDataFactory;
     final MirrorDataFactory writingMirrorDataFactory;
 
+    final StreamOutput output = new StreamOutput(this);
+
     public enum State {
         none(Logger.DEBUG_COLOR, false),
         syn_sent(Logger.WARN_COLOR, false),
@@ -103,6 +105,16 @@ public class StreamedFD implements SocketFD, VirtualFD {
         this.rst = true;
     }
 
+    /**
+     * @param weight share of the arq udp socket bandwidth when the streams are competing, default 1
+     */
+    public void setWeight(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight should be greater than 0: " + weight);
+        }
+        output.weight = weight;
+    }
+
     private void setReadable() {
         assert Logger.lowLevelDebug("set readable for " + this);
         selector.registerVirtualReadable(this);
@@ -147,7 +159,7 @@ public class StreamedFD implements SocketFD, VirtualFD {
             return;
         }
         if (this.state != State.established && newState == State.established) {
-            if (handler.writableLen() > 0) {
+            if (handler.writableLen(this) > 0) {
                 setWritable();
             }
         } else if (newState == State.fin_recv || newState == State.dead) {
@@ -242,6 +254,9 @@ public class StreamedFD implements SocketFD, VirtualFD {
 
         int posBefore = dst.position();
         int n = Utils.writeFromFIFOQueueToBuffer(readableBuffers, dst);
+        if (n > 0) {
+            handler.dataConsumed(this, n);
+        }
 
         if (readingMirrorDataFactory.isEnabled()) {
             mirrorRead(dst, posBefore);
@@ -15,10 +15,14 @@ import vproxybase.util.ByteArray;
 import vproxybase.util.Consts;
 import vproxybase.util.LogType;
 import vproxybase.util.Logger;
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
 import vproxybase.util.nio.ByteArrayChannel;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -26,8 +30,25 @@ import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
+/**
+ * Multiplexes streams over one arq udp socket.<br>
+ * Control messages are sent first. Data of the streams are kept in per stream queues,
+ * and are fed into the arq udp socket by deficit round robin, so a bulk stream cannot
+ * stall other streams behind its data.<br>
+ * When both endpoints support it, each stream has a send window, which is granted by
+ * the remote endpoint after the data is read by the upper level.
+ */
 @SuppressWarnings("UnusedReturnValue")
 public abstract class StreamedFDHandler implements Handler<SocketFD> {
+    static final int STREAM_WINDOW = 256 * 1024;
+    private static final int STREAM_QUEUE_LIMIT = 64 * 1024;
+    private static final int QUANTUM = 1024;
+
+    private static final Histogram streamQueueBytes = Metrics.histogram("vproxy_streamed_queue_bytes",
+        "Bytes queued in a stream when the stream is scheduled to send data into the arq udp socket", 1);
+    private static final Counter streamWindowBlocked = Metrics.counter("vproxy_streamed_window_blocked_total",
+        "Times of a stream not accepting data because its send window is used up");
+
     private ArqUDPSocketFD fd;
     private SelectorEventLoop loop;
     private final boolean client;
@@ -91,6 +112,7 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
         }
         isFailed = true;
         fdMap.values().forEach(fd -> fd.setState(StreamedFD.State.dead));
+        clearStreamOutputs();
         Logger.error(LogType.CONN_ERROR, "the stream thrown exception", t);
         if (sendRst) {
             ByteArray err = errorMessage(t);
@@ -256,6 +278,9 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
     private void handshakeDone() {
         handshakeTimeout.cancel();
         state = 2;
+        // must be the first message after handshaking, so the remote endpoint
+        // knows whether to grant windows before any stream data is received
+        addMessageToWrite(flowControlMessage());
         readyCallback.accept(fd);
     }
 
@@ -389,49 +414,34 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
             // everything wrote
             // update state
             handshakeDone();
-            // add readable and remove writable
-            unwatchWritable("serverWritable");
+            // writable is removed when all pending messages are sent
             // no need to add op_read because it's unnecessary to be removed for servers
         }
         // else will not be called
     }
 
+    // control messages, sent before data of the streams
     private final Deque<ByteArray> messagesToWrite = new LinkedList<>();
-
-    int writableLen() {
-        int hold = 0;
-        if (cachedMessageToWrite != null) {
-            hold += cachedMessageToWrite.used();
-        }
-        for (ByteArray b : messagesToWrite) {
-            hold += b.length();
-        }
-
-        int canWrite = fd.writableLen();
-        if (canWrite > hold) {
-            return canWrite - hold;
-        } else {
-            return 0;
-        }
+    // streams with queued data, in round robin order
+    private final Deque<StreamOutput> activeStreams = new ArrayDeque<>();
+    // whether the remote endpoint grants windows for the streams
+    private boolean flowControl = false;
+
+    int writableLen(StreamedFD fd) {
+        StreamOutput out = fd.output;
+        long len = STREAM_QUEUE_LIMIT - out.queued;
+        if (flowControl) {
+            len = Math.min(len, out.granted - out.accepted);
+        }
+        return (int) Math.max(len, 0);
     }
 
-    private void checkAndCancelWritable() {
-        if (writableLen() <= 0) {
-            fdMap.values().forEach(StreamedFD::cancelWritable);
-            // also we should watch when we can write
-            watchWritable("checkAndCancelWritable");
+    private void setWritableIfCanWrite(StreamedFD fd) {
+        if (fd.getState() != StreamedFD.State.established && fd.getState() != StreamedFD.State.fin_recv) {
+            return;
         }
-    }
-
-    private void checkAndSetWritableForEstablished() {
-        if (writableLen() > 0) {
-            fdMap.values().forEach(fd -> {
-                if (fd.getState() == StreamedFD.State.established) {
-                    fd.setWritable();
-                }
-            });
-            // no need to watch inside writable because this writable is set
-            unwatchWritable("writable");
+        if (writableLen(fd) > 0) {
+            fd.setWritable();
         }
     }
 
@@ -445,9 +455,7 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
                     return;
                 } else if (n == 0) {
                     // still got data to send
-                    // so the inside fd is not writable, we cancel writable event for the streamedFD
                     // wait for the next writable event
-                    checkAndCancelWritable();
                     return;
                 }
                 // fall through
@@ -458,27 +466,98 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
                 } else {
                     serverWritable(ctx);
                 }
-                return;
+                if (state != 2) {
+                    return;
+                }
+                // handshake done, continue to send the pending messages
+                continue;
             }
             assert state == 2 || state == -1;
 
-            // something wrote, so check whether writable and
-            // set writable for all fds that's established
-            checkAndSetWritableForEstablished();
-            checkAndCancelWritable();
-            // note: after writing a packet into arq-udp, the writableLen might become smaller
-            // the free space we use to calculate is based on mtu and packet overhead
-            // but the fed packet is usually smaller than mtu, so free space is consumed,
-            // writableLen will be smaller
-
             ByteArray arr = messagesToWrite.poll();
+            if (arr == null && !activeStreams.isEmpty()) {
+                int room = fd.writableLen();
+                if (room <= 0) {
+                    // keep the stream data in the queues, so that data of other streams
+                    // and control messages can be sent without waiting for them
+                    return;
+                }
+                arr = nextStreamData(room);
+            }
             if (arr == null) {
+                // nothing to be sent
+                unwatchWritable("writable");
                 return;
             }
             cachedMessageToWrite = ByteArrayChannel.fromFull(arr);
         }
     }
 
+    /**
+     * Deficit round robin on streams with queued data.
+     * A stream is given <code>QUANTUM * weight</code> bytes each round.
+     *
+     * @param room max bytes to be taken from the stream
+     * @return the formatted message, or null if no data to send
+     */
+    private ByteArray nextStreamData(int room) {
+        while (true) {
+            StreamOutput out = activeStreams.peek();
+            if (out == null) {
+                return null;
+            }
+            if (out.queued == 0) {
+                // only FIN left
+                activeStreams.poll();
+                boolean fin = out.fin;
+                out.clear();
+                if (fin) {
+                    return formatFIN(out.fd.streamId);
+                }
+                continue;
+            }
+            if (out.deficit == 0) {
+                // a new round for this stream
+                out.deficit = QUANTUM * out.weight;
+            }
+            streamQueueBytes.record(out.queued);
+            int len = Math.min(Math.min(out.deficit, out.queued), room);
+            ByteArray data = out.poll(len);
+            out.deficit -= len;
+            if (out.queued == 0 && !out.fin) {
+                activeStreams.poll();
+                out.clear();
+            } else if (out.deficit == 0) {
+                // move to the tail
+                activeStreams.poll();
+                activeStreams.add(out);
+            }
+            setWritableIfCanWrite(out.fd);
+            return formatPSH(out.fd.streamId, data);
+        }
+    }
+
+    private void activate(StreamOutput out) {
+        if (!out.active) {
+            out.active = true;
+            out.deficit = 0;
+            activeStreams.add(out);
+        }
+        watchWritable("activate");
+    }
+
+    private void dropStreamOutput(StreamOutput out) {
+        if (out.active) {
+            activeStreams.remove(out);
+        }
+        out.clear();
+    }
+
+    private void clearStreamOutputs() {
+        activeStreams.forEach(StreamOutput::clear);
+        activeStreams.clear();
+    }
+
     @Override
     public final void removed(HandlerContext<SocketFD> ctx) {
         Logger.warn(LogType.IMPROPER_USE, "fd " + fd + " removed from loop, we have to invalid the fd");
@@ -662,6 +741,7 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
         }
         sfd.setState(StreamedFD.State.dead);
         sfd.setRst();
+        dropStreamOutput(sfd.output);
         // need to send RST back
         addMessageToWrite(formatRST(streamId));
         return true;
@@ -690,7 +770,6 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
         assert Logger.lowLevelNetDebugPrintBytes(arr.toJavaArray());
         messagesToWrite.add(arr);
         watchWritable("addMessageToWrite");
-        checkAndCancelWritable();
     }
 
     private void pushMessageToWrite(ByteArray arr) {
@@ -699,7 +778,6 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
         }
         messagesToWrite.push(arr);
         watchWritable("pushMessageToWrite");
-        checkAndCancelWritable();
     }
 
     abstract protected ByteArray formatPSH(int streamId, ByteArray data);
@@ -719,18 +797,24 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
             assert Logger.lowLevelDebug("nothing to be sent, return 0");
             return 0;
         }
-        int len = Math.min(writableLen(), src.limit() - src.position());
+        int len = Math.min(writableLen(fd), src.limit() - src.position());
         if (len <= 0) {
             // cannot write
             assert Logger.lowLevelDebug("cannot write, return 0");
-            checkAndCancelWritable();
+            if (flowControl && fd.output.accepted >= fd.output.granted) {
+                streamWindowBlocked.inc();
+            }
+            fd.cancelWritable();
             return 0;
         }
         byte[] data = new byte[len];
         src.get(data);
-        // append to the last of the queue
-        addMessageToWrite(formatPSH(fd.streamId, ByteArray.from(data)));
-        checkAndCancelWritable();
+        // append to the last of the stream queue
+        fd.output.add(ByteArray.from(data));
+        activate(fd.output);
+        if (writableLen(fd) <= 0) {
+            fd.cancelWritable();
+        }
         return len;
     }
 
@@ -744,8 +828,14 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
         if (fd.getState() == StreamedFD.State.dead) {
             throw new IOException(fd + " is already closed");
         }
-        // append to the last of the queue
-        addMessageToWrite(formatFIN(fd.streamId));
+        if (fd.output.queued > 0) {
+            // send after all queued data of the stream
+            fd.output.fin = true;
+            activate(fd.output);
+        } else {
+            // append to the last of the queue
+            addMessageToWrite(formatFIN(fd.streamId));
+        }
 
         switch (fd.getState()) {
             case none:
@@ -768,6 +858,54 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
         }
     }
 
+    /**
+     * @return the message telling the remote endpoint that windows can be granted with
+     * {@link #formatWindowUpdate(int, int)}, the remote endpoint which does not support it should ignore this message.
+     * Null if flow control is not supported.
+     */
+    abstract protected ByteArray flowControlMessage();
+
+    abstract protected ByteArray formatWindowUpdate(int streamId, int increment);
+
+    @MethodForImplementation
+    protected final void flowControlEnabled() {
+        assert Logger.lowLevelDebug("remote endpoint of " + fd + " grants windows for streams");
+        flowControl = true;
+    }
+
+    @MethodForImplementation
+    protected final boolean windowUpdateReceived(int streamId, int increment) {
+        if (!hasStream(streamId)) {
+            assert Logger.lowLevelDebug("calling windowUpdateReceived on non-existing stream: " + streamId);
+            return false;
+        }
+        StreamedFD sfd = fdMap.get(streamId);
+        assert sfd != null;
+        sfd.output.granted += increment;
+        setWritableIfCanWrite(sfd);
+        return true;
+    }
+
+    @MethodForStreamedFD
+    final void dataConsumed(StreamedFD fd, int n) {
+        if (!flowControl) {
+            return;
+        }
+        StreamOutput out = fd.output;
+        out.consumed += n;
+        if (out.consumed < STREAM_WINDOW / 4) {
+            return;
+        }
+        if (fd.getState() == StreamedFD.State.none
+            || fd.getState() == StreamedFD.State.syn_sent
+            || fd.getState() == StreamedFD.State.established
+            || fd.getState() == StreamedFD.State.fin_sent) {
+            // the remote endpoint may still send data
+            addMessageToWrite(formatWindowUpdate(fd.streamId, out.consumed));
+        }
+        out.consumed = 0;
+    }
+
     private final Map<Long, TimerEvent> keepaliveTimeouts = new HashMap<>();
     private long nextKeepaliveId = 0L;
 
@@ -806,7 +944,7 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
     @MethodForFDs
     final void keepalive() {
         // only send keepalive message if it's in idle
-        if (cachedMessageToWrite == null && messagesToWrite.isEmpty() && (Config.currentTimestamp - lastReadableTimestamp) > 5_000) {
+        if (cachedMessageToWrite == null && messagesToWrite.isEmpty() && activeStreams.isEmpty() && (Config.currentTimestamp - lastReadableTimestamp) > 5_000) {
             // send keepalive message
             long kId = ++nextKeepaliveId;
             // record with a timeout
@@ -841,6 +979,7 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
                             + " -> " + local
                             + " -> " + remote
                             + " [" + sfd.getState().probeColor + sfd.getState().toString().toUpperCase() + Logger.RESET_COLOR + "]"
+                            + " queued=" + sfd.output.queued
                     );
                 }
             } catch (Throwable t) {
@@ -896,6 +1035,8 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
         if (fd.getState() == StreamedFD.State.dead) {
             throw new IOException(fd + " is already closed");
         }
+        // queued data will not be sent
+        dropStreamOutput(fd.output);
         // append rst to the last of the queue
         addMessageToWrite(formatRST(fd.streamId));
         if (fd.getState() != StreamedFD.State.real_closed) {
@@ -937,6 +1078,7 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
         cachedMessageToWrite = null;
         cachedReceivedMessage = null;
         messagesToWrite.clear();
+        clearStreamOutputs();
         fdMap.clear();
         keepaliveTimeouts.clear();
     }
@@ -959,7 +1101,7 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
             ";" +
             "s=" + fd.getState().name() +
             ";" +
-            "wl=" + writableLen() +
+            "wl=" + writableLen(fd) +
             ";";
 
         factory.build()
@@ -0,0 +1,211 @@
+package vproxybase.selector.wrap.udp;
+
+import vfd.DatagramFD;
+import vfd.FD;
+import vfd.IPPort;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.util.LogType;
+import vproxybase.util.Logger;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+
+/**
+ * A datagram fd which buffers the datagrams to be sent,
+ * and sends them with one {@link DatagramFD#send(ByteBuffer[], IPPort[], int)} call.<br>
+ * The buffered datagrams are flushed when the batch is full, when {@link #flush()} is called,
+ * or when the event loop handles its next round.
+ * Datagrams which still cannot be sent in the scheduled flush are dropped,
+ * just like what happens when the socket buffer is full.<br>
+ * Other operations are delegated to the wrapped fd.<br>
+ * This class is not thread safe, it should only be used on the event loop.
+ */
+public final class BatchedSendDatagramFD implements DatagramFD {
+    private static final int MIN_SLOT_SIZE = 2048;
+
+    private final DatagramFD fd;
+    private final SelectorEventLoop loop;
+    private final ByteBuffer[] bufs;
+    private final IPPort[] remotes;
+    private int count = 0;
+    private boolean flushScheduled = false;
+
+    public BatchedSendDatagramFD(DatagramFD fd, SelectorEventLoop loop, int batchSize) {
+        this.fd = fd;
+        this.loop = loop;
+        this.bufs = new ByteBuffer[batchSize];
+        this.remotes = new IPPort[batchSize];
+    }
+
+    /**
+     * @return count of datagrams not sent yet
+     */
+    public int pending() {
+        return count;
+    }
+
+    /**
+     * send the buffered datagrams
+     *
+     * @return count of datagrams sent
+     * @throws IOException any io exception, the buffered datagrams are dropped when raised
+     */
+    public int flush() throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        int n;
+        try {
+            n = fd.send(bufs, remotes, count);
+        } catch (IOException e) {
+            clear();
+            throw e;
+        }
+        if (n > 0) {
+            // move the remaining datagrams to the head and reuse the buffers
+            for (int i = n; i < count; ++i) {
+                ByteBuffer tmp = bufs[i - n];
+                bufs[i - n] = bufs[i];
+                bufs[i] = tmp;
+                remotes[i - n] = remotes[i];
+            }
+            for (int i = count - n; i < count; ++i) {
+                remotes[i] = null;
+            }
+            count -= n;
+        }
+        return n;
+    }
+
+    private void clear() {
+        for (int i = 0; i < count; ++i) {
+            remotes[i] = null;
+        }
+        count = 0;
+    }
+
+    private void scheduledFlush() {
+        flushScheduled = false;
+        if (count == 0) {
+            return;
+        }
+        int total = count;
+        try {
+            flush();
+        } catch (IOException e) {
+            Logger.error(LogType.CONN_ERROR, "sending datagrams via " + fd + " failed", e);
+            return;
+        }
+        if (count > 0) {
+            assert Logger.lowLevelDebug("socket buffer of " + fd + " is full, " + count + "/" + total + " datagrams dropped");
+            clear();
+        }
+    }
+
+    @Override
+    public int send(ByteBuffer buf, IPPort remote) throws IOException {
+        if (count == bufs.length) {
+            flush();
+            if (count == bufs.length) {
+                return 0;
+            }
+        }
+        int len = buf.limit() - buf.position();
+        ByteBuffer slot = bufs[count];
+        if (slot == null || slot.capacity() < len) {
+            slot = ByteBuffer.allocateDirect(Math.max(len, MIN_SLOT_SIZE));
+            bufs[count] = slot;
+        }
+        slot.limit(slot.capacity()).position(0);
+        slot.put(buf);
+        slot.flip();
+        remotes[count] = remote;
+        ++count;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            loop.nextTick(this::scheduledFlush);
+        }
+        return len;
+    }
+
+    @Override
+    public int send(ByteBuffer[] bufs, IPPort[] remotes, int count) throws IOException {
+        flush();
+        if (this.count > 0) {
+            return 0; // keep the order of datagrams
+        }
+        return fd.send(bufs, remotes, count);
+    }
+
+    @Override
+    public void connect(IPPort l4addr) throws IOException {
+        fd.connect(l4addr);
+    }
+
+    @Override
+    public void bind(IPPort l4addr) throws IOException {
+        fd.bind(l4addr);
+    }
+
+    @Override
+    public IPPort receive(ByteBuffer buf) throws IOException {
+        return fd.receive(buf);
+    }
+
+    @Override
+    public int receive(ByteBuffer[] bufs, IPPort[] remotes) throws IOException {
+        return fd.receive(bufs, remotes);
+    }
+
+    @Override
+    public IPPort getLocalAddress() throws IOException {
+        return fd.getLocalAddress();
+    }
+
+    @Override
+    public IPPort getRemoteAddress() throws IOException {
+        return fd.getRemoteAddress();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return fd.read(dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return fd.write(src);
+    }
+
+    @Override
+    public void configureBlocking(boolean b) throws IOException {
+        fd.configureBlocking(b);
+    }
+
+    @Override
+    public <T> void setOption(SocketOption<T> name, T value) throws IOException {
+        fd.setOption(name, value);
+    }
+
+    @Override
+    public FD real() {
+        return fd.real();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return fd.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        clear();
+        fd.close();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchedSendDatagramFD(" + fd + ")";
+    }
+}
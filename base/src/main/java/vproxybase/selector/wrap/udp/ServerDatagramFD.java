@@ -6,6 +6,7 @@ import vproxybase.selector.SelectorEventLoop;
 import vproxybase.selector.wrap.VirtualFD;
 import vproxybase.selector.wrap.WrappedSelector;
 import vproxybase.selector.wrap.WritableAware;
+import vproxybase.util.LogType;
 import vproxybase.util.Logger;
 import vproxybase.util.Utils;
 
@@ -18,19 +19,27 @@ import java.util.LinkedList;
 import java.util.Map;
 
 public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware {
+    private static final int BATCH_SIZE = 8;
+
     private final DatagramFD server;
+    private final BatchedSendDatagramFD sender;
     private final SelectorEventLoop loop;
     private final WrappedSelector selector;
 
-    private final ByteBuffer buf = ByteBuffer.allocate(Config.udpMtu); // enough for any udp packet
+    private final ByteBuffer[] bufs = new ByteBuffer[BATCH_SIZE];
+    private final IPPort[] addrs = new IPPort[BATCH_SIZE];
     private final Deque<VirtualDatagramFD> acceptQ = new LinkedList<>();
     private final Map<IPPort, VirtualDatagramFD> acceptMap = new HashMap<>();
     private final Map<IPPort, VirtualDatagramFD> conns = new HashMap<>();
 
     public ServerDatagramFD(DatagramFD server, SelectorEventLoop loop) {
         this.server = server;
+        this.sender = new BatchedSendDatagramFD(server, loop, BATCH_SIZE * 8);
         this.loop = loop;
         selector = loop.selector;
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            bufs[i] = ByteBuffer.allocateDirect(Config.udpMtu); // enough for any udp packet
+        }
     }
 
     @Override
@@ -43,48 +52,26 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
         return server.getLocalAddress();
     }
 
-    @SuppressWarnings("Java8MapApi")
     @Override
     public VirtualDatagramFD accept() throws IOException {
         while (true) {
-            try {
-                IPPort addr = server.receive(buf);
-                if (addr == null) {
-                    // no data for now
-                    break;
-                }
-
+            int n = server.receive(bufs, addrs);
+            for (int i = 0; i < n; ++i) {
+                ByteBuffer buf = bufs[i];
+                IPPort addr = addrs[i];
+                addrs[i] = null;
                 buf.flip();
-
-                boolean fireReadable = false;
-                VirtualDatagramFD fd;
-                if (conns.containsKey(addr)) {
-                    fd = conns.get(addr);
-                    fireReadable = true;
-                } else if (acceptMap.containsKey(addr)) {
-                    fd = acceptMap.get(addr);
-                } else {
-                    fd = null;
-                }
-                if (fd == null) {
-                    // new fd
-                    fd = new VirtualDatagramFD(addr);
-                    acceptMap.put(addr, fd);
-                    acceptQ.add(fd);
-                }
-                // append to fd
-                ByteBuffer b = ByteBuffer.allocate(buf.limit() - buf.position());
-                b.put(buf);
-                b.flip();
-                fd.bufs.add(b);
-
-                if (fireReadable) {
-                    fd.setReadable();
+                try {
+                    received(addr, buf);
+                } finally {
+                    // reset buf
+                    buf.limit(buf.capacity());
+                    buf.position(0);
                 }
-            } finally {
-                // reset buf
-                buf.limit(buf.capacity());
-                buf.position(0);
+            }
+            if (n < BATCH_SIZE) {
+                // no data for now
+                break;
             }
         }
 
@@ -100,6 +87,35 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
         return fd;
     }
 
+    @SuppressWarnings("Java8MapApi")
+    private void received(IPPort addr, ByteBuffer buf) {
+        boolean fireReadable = false;
+        VirtualDatagramFD fd;
+        if (conns.containsKey(addr)) {
+            fd = conns.get(addr);
+            fireReadable = true;
+        } else if (acceptMap.containsKey(addr)) {
+            fd = acceptMap.get(addr);
+        } else {
+            fd = null;
+        }
+        if (fd == null) {
+            // new fd
+            fd = new VirtualDatagramFD(addr);
+            acceptMap.put(addr, fd);
+            acceptQ.add(fd);
+        }
+        // append to fd
+        ByteBuffer b = ByteBuffer.allocate(buf.limit() - buf.position());
+        b.put(buf);
+        b.flip();
+        fd.bufs.add(b);
+
+        if (fireReadable) {
+            fd.setReadable();
+        }
+    }
+
     @Override
     public void configureBlocking(boolean b) throws IOException {
         server.configureBlocking(b);
@@ -122,7 +138,7 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
 
     @Override
     public void close() throws IOException {
-        server.close();
+        sender.close();
         for (VirtualDatagramFD fd : conns.values()) {
             // the fd is accepted by user code
             // it's user's responsibility to close it
@@ -141,6 +157,14 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
 
     @Override
     public void writable() {
+        try {
+            sender.flush();
+        } catch (IOException e) {
+            Logger.error(LogType.CONN_ERROR, "sending datagrams via " + server + " failed", e);
+        }
+        if (sender.pending() > 0) {
+            return; // wait for the next writable event
+        }
         // cancel writable
         selector.modify0(this,
             selector.events(this).reduce(EventSet.write()));
@@ -210,7 +234,7 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
         @Override
         public int write(ByteBuffer src) throws IOException {
             int contained = src.limit() - src.position();
-            int wrote = server.send(src, remoteAddress);
+            int wrote = sender.send(src, remoteAddress);
             if (wrote < contained) {
                 assert Logger.lowLevelDebug("wrote(" + wrote + ") < contained(" + contained + "), cancelWritable");
                 cancelWritable(true);
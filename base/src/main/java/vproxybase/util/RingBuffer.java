@@ -15,6 +15,14 @@ public interface RingBuffer {
         return SimpleRingBuffer.allocateDirect(cap);
     }
 
+    static SimpleRingBuffer allocateDirectPooled(int cap) {
+        return SimpleRingBuffer.allocateDirectPooled(cap);
+    }
+
+    static SimpleRingBuffer allocateDirectLazy(int cap) {
+        return SimpleRingBuffer.allocateDirectLazy(cap);
+    }
+
     static SimpleRingBuffer allocate(int cap) {
         return SimpleRingBuffer.allocate(cap);
     }
@@ -83,6 +91,16 @@ public interface RingBuffer {
 
     void clean();
 
+    /**
+     * release the memory of the buffer if it's empty,
+     * the memory will be retrieved again when storing data into the buffer
+     *
+     * @return true if the memory is released
+     */
+    default boolean detach() {
+        return false;
+    }
+
     void clear();
 
     class RejectSwitchException extends Exception {
@@ -5,6 +5,13 @@ public class TimeElem<T> {
     public final T elem;
     private final TimeQueue<T> queue;
 
+    // fields maintained by the TimeQueue
+    TimeElem<T> prev;
+    TimeElem<T> next;
+    int level;
+    int slot;
+    boolean queued = false;
+
     TimeElem(long triggerTime, T elem, TimeQueue<T> queue) {
         this.triggerTime = triggerTime;
         this.elem = elem;
@@ -13,6 +20,6 @@ public class TimeElem<T> {
 
     // this method should always be called on the event loop
     public void removeSelf() {
-        queue.queue.remove(this);
+        queue.remove(this);
     }
 }
@@ -2,36 +2,274 @@ package vproxybase.util;
 
 import vproxybase.Config;
 
-import java.util.PriorityQueue;
+import java.util.function.LongSupplier;
 
+/**
+ * A hashed hierarchical timing wheel with 1ms tick.<br>
+ * Level 0 has 256 slots of 1ms, level 1..4 each have 64 slots, every slot covers a full round of the lower level.
+ * Elements are linked into the slots, so push and removal are O(1).<br>
+ * When the cursor reaches the start of a higher level slot, the elements in that slot are moved to lower levels.
+ * When the cursor reaches a level 0 slot, the elements in that slot are moved to the expired list
+ * and can be retrieved by {@link #pop()}.<br>
+ * The wheel reads {@link Config#currentTimestamp} by default, another clock can be provided in the constructor.<br>
+ * This class is not thread safe, it should only be used on the event loop.
+ */
 public class TimeQueue<T> {
-    PriorityQueue<TimeElem<T>> queue = new PriorityQueue<>((a, b) -> (int) (a.triggerTime - b.triggerTime));
+    private static final int LEVELS = 5;
+    private static final int[] SHIFT = {0, 8, 14, 20, 26};
+    private static final int[] SLOTS = {256, 64, 64, 64, 64};
+    static final int EXPIRED = -1;
+
+    private final LongSupplier clock;
+    private final TimeElem<T>[][] heads;
+    private final TimeElem<T>[][] tails;
+    private final long[][] occupied; // bitmap of non-empty slots
+    private long cursor; // the last processed tick, elements with triggerTime <= cursor are expired
+    private int size = 0; // count of elements in the wheel, excluding the expired ones
+
+    private TimeElem<T> expiredHead;
+    private TimeElem<T> expiredTail;
+
+    public TimeQueue() {
+        this(() -> Config.currentTimestamp);
+    }
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimeQueue(LongSupplier clock) {
+        this.clock = clock;
+        heads = new TimeElem[LEVELS][];
+        tails = new TimeElem[LEVELS][];
+        occupied = new long[LEVELS][];
+        for (int i = 0; i < LEVELS; ++i) {
+            heads[i] = new TimeElem[SLOTS[i]];
+            tails[i] = new TimeElem[SLOTS[i]];
+            occupied[i] = new long[(SLOTS[i] + 63) / 64];
+        }
+        cursor = clock.getAsLong();
+    }
 
     public TimeElem<T> push(int timeout, T elem) {
-        TimeElem<T> event = new TimeElem<>(Config.currentTimestamp + timeout, elem, this);
-        queue.add(event);
+        advance();
+        // the cursor would be larger than current timestamp if the clock goes backwards
+        long now = Math.max(clock.getAsLong(), cursor);
+        TimeElem<T> event = new TimeElem<>(now + timeout, elem, this);
+        insert(event);
         return event;
     }
 
     public T pop() {
-        TimeElem<T> elem = queue.poll();
+        advance();
+        TimeElem<T> elem = expiredHead;
         if (elem == null)
             return null;
+        unlink(elem);
         return elem.elem;
     }
 
+    /**
+     * move all timed out elements into the expired list
+     *
+     * @return count of elements which can be retrieved by {@link #pop()}
+     */
+    public int expire() {
+        advance();
+        int n = 0;
+        for (TimeElem<T> e = expiredHead; e != null; e = e.next) {
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * @return trigger time of the first expired element, -1 if nothing expired
+     */
+    public long firstExpiredTriggerTime() {
+        return expiredHead == null ? -1 : expiredHead.triggerTime;
+    }
+
     public boolean isEmpty() {
-        return queue.isEmpty();
+        return size == 0 && expiredHead == null;
     }
 
     /**
      * @return time left to the nearest timeout, Integer.MAX_VALUE means no timer event
      */
     public int nextTime() {
-        TimeElem<T> elem = queue.peek();
-        if (elem == null)
+        advance();
+        if (expiredHead != null)
+            return 0;
+        if (size == 0)
+            return Integer.MAX_VALUE;
+        // elements in level 0 expire exactly on the slot tick
+        // elements in higher levels will not expire before the slot start
+        // so the minimum of the next non-empty slot of each level is the lower bound of the next timeout
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; ++level) {
+            long bucket = cursor >>> SHIFT[level];
+            int d = nextOccupied(level, (int) (bucket & (SLOTS[level] - 1)));
+            if (d == -1)
+                continue;
+            long start = (bucket + d) << SHIFT[level];
+            if (start < next) {
+                next = start;
+            }
+        }
+        long delta = next - clock.getAsLong();
+        if (delta <= 0)
+            return 0;
+        if (delta > Integer.MAX_VALUE)
             return Integer.MAX_VALUE;
-        long triggerTime = elem.triggerTime;
-        return Math.max((int) (triggerTime - Config.currentTimestamp), 0);
+        return (int) delta;
+    }
+
+    // this method should always be called on the event loop
+    void remove(TimeElem<T> elem) {
+        if (elem.queued) {
+            unlink(elem);
+        }
+    }
+
+    private void insert(TimeElem<T> elem) {
+        long trigger = elem.triggerTime;
+        if (trigger <= cursor) {
+            elem.level = EXPIRED;
+            elem.prev = expiredTail;
+            elem.next = null;
+            if (expiredTail == null) {
+                expiredHead = elem;
+            } else {
+                expiredTail.next = elem;
+            }
+            expiredTail = elem;
+            elem.queued = true;
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && (trigger >>> SHIFT[level]) - (cursor >>> SHIFT[level]) >= SLOTS[level]) {
+            ++level;
+        }
+        // the max timeout is Integer.MAX_VALUE, which always fits in the highest level
+        int slot = (int) ((trigger >>> SHIFT[level]) & (SLOTS[level] - 1));
+        elem.level = level;
+        elem.slot = slot;
+        TimeElem<T> tail = tails[level][slot];
+        elem.prev = tail;
+        elem.next = null;
+        if (tail == null) {
+            heads[level][slot] = elem;
+            occupied[level][slot >>> 6] |= 1L << slot;
+        } else {
+            tail.next = elem;
+        }
+        tails[level][slot] = elem;
+        elem.queued = true;
+        ++size;
+    }
+
+    private void unlink(TimeElem<T> elem) {
+        TimeElem<T> prev = elem.prev;
+        TimeElem<T> next = elem.next;
+        if (elem.level == EXPIRED) {
+            if (prev == null) {
+                expiredHead = next;
+            } else {
+                prev.next = next;
+            }
+            if (next == null) {
+                expiredTail = prev;
+            } else {
+                next.prev = prev;
+            }
+        } else {
+            int level = elem.level;
+            int slot = elem.slot;
+            if (prev == null) {
+                heads[level][slot] = next;
+            } else {
+                prev.next = next;
+            }
+            if (next == null) {
+                tails[level][slot] = prev;
+            } else {
+                next.prev = prev;
+            }
+            if (heads[level][slot] == null) {
+                occupied[level][slot >>> 6] &= ~(1L << slot);
+            }
+            --size;
+        }
+        elem.prev = null;
+        elem.next = null;
+        elem.queued = false;
+    }
+
+    /**
+     * @return distance to the next non-empty slot after (excluding) the current slot, or -1 if not found
+     */
+    private int nextOccupied(int level, int current) {
+        int slots = SLOTS[level];
+        long[] bits = occupied[level];
+        for (int d = 1; d < slots; ) {
+            int idx = (current + d) & (slots - 1);
+            long word = bits[idx >>> 6] >>> (idx & 63);
+            if (word != 0) {
+                int found = d + Long.numberOfTrailingZeros(word);
+                // the word may contain bits that wrap around to the current slot
+                return found < slots ? found : -1;
+            }
+            d += 64 - (idx & 63);
+        }
+        return -1;
+    }
+
+    private void advance() {
+        long now = clock.getAsLong();
+        while (cursor < now) {
+            if (size == 0) {
+                cursor = now;
+                return;
+            }
+            // jump to the nearest tick which has something to do:
+            // a non-empty level 0 slot, or the start of the next level 1 slot (may cascade)
+            long target = (cursor | (SLOTS[0] - 1)) + 1;
+            int d = nextOccupied(0, (int) (cursor & (SLOTS[0] - 1)));
+            if (d != -1 && cursor + d < target) {
+                target = cursor + d;
+            }
+            if (target > now) {
+                cursor = now;
+                return;
+            }
+            cursor = target;
+            // cascade from higher levels
+            for (int level = 1; level < LEVELS; ++level) {
+                if ((cursor & ((1L << SHIFT[level]) - 1)) != 0) {
+                    break;
+                }
+                cascade(level, (int) ((cursor >>> SHIFT[level]) & (SLOTS[level] - 1)));
+            }
+            // expire level 0 slot
+            int slot = (int) (cursor & (SLOTS[0] - 1));
+            TimeElem<T> e = heads[0][slot];
+            while (e != null) {
+                TimeElem<T> next = e.next;
+                unlink(e);
+                insert(e); // triggerTime == cursor, goes to the expired list
+                e = next;
+            }
+        }
+    }
+
+    private void cascade(int level, int slot) {
+        TimeElem<T> e = heads[level][slot];
+        while (e != null) {
+            TimeElem<T> next = e.next;
+            unlink(e);
+            insert(e);
+            e = next;
+        }
     }
 }
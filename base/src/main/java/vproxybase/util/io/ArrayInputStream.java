@@ -7,6 +7,7 @@ import java.io.InputStream;
 public class ArrayInputStream extends InputStream {
     private final ByteArray array;
     private int cursor = 0;
+    private int mark = 0;
 
     private ArrayInputStream(ByteArray array) {
         this.array = array;
@@ -28,4 +29,19 @@ public class ArrayInputStream extends InputStream {
     public int available() {
         return array.length() - cursor;
     }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = cursor;
+    }
+
+    @Override
+    public synchronized void reset() {
+        cursor = mark;
+    }
 }
@@ -0,0 +1,60 @@
+package vproxybase.util.metrics;
+
+/**
+ * A monotonically increasing counter.
+ */
+public class Counter extends Metric<Counter.Cell> {
+    static final class Cell {
+        long value;
+    }
+
+    Counter(String name, String help, String labelName, String labelValue) {
+        super(name, help, labelName, labelValue);
+    }
+
+    @Override
+    protected Cell newShard() {
+        return new Cell();
+    }
+
+    public void inc() {
+        add(1);
+    }
+
+    public void add(long n) {
+        Cell cell = currentShard();
+        if (cell == null) {
+            synchronized (shared) {
+                shared.value += n;
+            }
+        } else {
+            cell.value += n;
+        }
+    }
+
+    public long get() {
+        synchronized (shared) {
+            long n = shared.value;
+            for (Cell c : loopShards()) {
+                n += c.value;
+            }
+            return n;
+        }
+    }
+
+    @Override
+    void merge(Cell from, Cell into) {
+        into.value += from.value;
+    }
+
+    @Override
+    String type() {
+        return "counter";
+    }
+
+    @Override
+    void formatSamples(StringBuilder sb) {
+        formatName(sb, null, null, null);
+        sb.append(' ').append(get()).append('\n');
+    }
+}
@@ -0,0 +1,180 @@
+package vproxybase.util.metrics;
+
+/**
+ * A log-linear bucketed histogram like the HdrHistogram.<br>
+ * Values less than 16 have their own buckets, then each power of two range is split into 16 buckets,
+ * so the relative error of the reported values is less than 1/16.
+ * Values are clamped into [0, 2^40).<br>
+ * The histogram is exported in the summary format, values are multiplied by the <code>scale</code>,
+ * e.g. values recorded in microseconds with scale 1e-6 are exported in seconds.
+ */
+public class Histogram extends Metric<Histogram.Shard> {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_BITS = 40;
+    public static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_COUNT;
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_STRINGS = {"0.5", "0.9", "0.99", "0.999"};
+
+    static final class Shard {
+        final long[] counts = new long[BUCKETS];
+        long sum;
+        long max;
+    }
+
+    public final double scale;
+
+    Histogram(String name, String help, double scale, String labelName, String labelValue) {
+        super(name, help, labelName, labelValue);
+        this.scale = scale;
+    }
+
+    @Override
+    protected Shard newShard() {
+        return new Shard();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+    }
+
+    /**
+     * @return the max value which falls into the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exp = (index >>> SUB_BITS) + SUB_BITS - 1;
+        long sub = index & (SUB_COUNT - 1);
+        int shift = exp - SUB_BITS;
+        return ((SUB_COUNT + sub) << shift) + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        Shard shard = currentShard();
+        if (shard == null) {
+            synchronized (shared) {
+                record(shared, value);
+            }
+        } else {
+            record(shard, value);
+        }
+    }
+
+    private static void record(Shard shard, long value) {
+        ++shard.counts[bucketIndex(value)];
+        shard.sum += value;
+        if (value > shard.max) {
+            shard.max = value;
+        }
+    }
+
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        synchronized (shared) {
+            snapshot.merge(shared);
+            for (Shard s : loopShards()) {
+                snapshot.merge(s);
+            }
+        }
+        return snapshot;
+    }
+
+    @Override
+    void merge(Shard from, Shard into) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            into.counts[i] += from.counts[i];
+        }
+        into.sum += from.sum;
+        if (from.max > into.max) {
+            into.max = from.max;
+        }
+    }
+
+    public static class Snapshot {
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long sum;
+        private long max;
+
+        private void merge(Shard shard) {
+            long max = shard.max;
+            long sum = shard.sum;
+            for (int i = 0; i < BUCKETS; ++i) {
+                long n = shard.counts[i];
+                counts[i] += n;
+                count += n;
+            }
+            this.sum += sum;
+            if (max > this.max) {
+                this.max = max;
+            }
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long sum() {
+            return sum;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        /**
+         * @return the highest value equivalent to the value at the quantile, 0 if nothing recorded
+         */
+        public long valueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long n = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                n += counts[i];
+                if (n >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    @Override
+    String type() {
+        return "summary";
+    }
+
+    @Override
+    void formatSamples(StringBuilder sb) {
+        Snapshot snapshot = snapshot();
+        for (int i = 0; i < QUANTILES.length; ++i) {
+            formatName(sb, null, "quantile", QUANTILE_STRINGS[i]);
+            sb.append(' ').append(snapshot.valueAtQuantile(QUANTILES[i]) * scale).append('\n');
+        }
+        formatName(sb, "_sum", null, null);
+        sb.append(' ').append(snapshot.sum * scale).append('\n');
+        formatName(sb, "_count", null, null);
+        sb.append(' ').append(snapshot.count).append('\n');
+    }
+}
@@ -0,0 +1,149 @@
+package vproxybase.util.metrics;
+
+import vproxybase.selector.SelectorEventLoop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of the metrics, values are recorded into one shard for each event loop.<br>
+ * Shards are only modified by the thread of the event loop, so recording needs no lock and no cas.
+ * Threads which are not running an event loop record into a shared shard with lock.<br>
+ * Shards are merged when scraping, the values read from other threads might be a little stale,
+ * which is fine for metrics.<br>
+ * When an event loop stops, its shard is folded into the shared shard and the slot is reused by other loops.
+ *
+ * @param <S> type of the shard
+ */
+public abstract class Metric<S> {
+    public final String name;
+    public final String help;
+    public final String labelName; // nullable
+    public final String labelValue; // nullable
+
+    final S shared; // for non event loop threads, lock it when using
+    private volatile Object[] shards = new Object[0]; // index is the metricsSlot of the event loop
+
+    protected Metric(String name, String help, String labelName, String labelValue) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+        this.labelValue = labelValue;
+        this.shared = newShard();
+    }
+
+    protected abstract S newShard();
+
+    /**
+     * add values of the shard into another shard
+     */
+    abstract void merge(S from, S into);
+
+    abstract String type();
+
+    abstract void formatSamples(StringBuilder sb);
+
+    /**
+     * @return shard of the current event loop, or null if not running on an event loop
+     */
+    @SuppressWarnings("unchecked")
+    protected final S currentShard() {
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null) {
+            return null;
+        }
+        int slot = loop.metricsSlot;
+        Object[] shards = this.shards;
+        if (slot < shards.length) {
+            Object s = shards[slot];
+            if (s != null) {
+                return (S) s;
+            }
+        }
+        return createShard(slot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized S createShard(int slot) {
+        Object[] shards = this.shards;
+        if (slot >= shards.length) {
+            Object[] arr = new Object[Math.max(slot + 1, shards.length * 2)];
+            System.arraycopy(shards, 0, arr, 0, shards.length);
+            shards = arr;
+        }
+        if (shards[slot] == null) {
+            shards[slot] = newShard();
+        }
+        this.shards = shards; // publish
+        return (S) shards[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    final synchronized void releaseShard(int slot) {
+        Object[] shards = this.shards;
+        if (slot >= shards.length || shards[slot] == null) {
+            return;
+        }
+        // readers iterate the shards while holding the lock of the shared shard,
+        // so they either see the values in the loop shard or in the shared one
+        synchronized (shared) {
+            merge((S) shards[slot], shared);
+            shards[slot] = null;
+        }
+    }
+
+    /**
+     * should be called with the lock of the shared shard held
+     *
+     * @return all shards except the shared one
+     */
+    @SuppressWarnings("unchecked")
+    protected final List<S> loopShards() {
+        Object[] shards = this.shards;
+        List<S> ret = new ArrayList<>(shards.length);
+        for (Object s : shards) {
+            if (s != null) {
+                ret.add((S) s);
+            }
+        }
+        return ret;
+    }
+
+    void formatName(StringBuilder sb, String suffix, String extraLabelName, String extraLabelValue) {
+        sb.append(name);
+        if (suffix != null) {
+            sb.append(suffix);
+        }
+        if (labelName == null && extraLabelName == null) {
+            return;
+        }
+        sb.append('{');
+        if (labelName != null) {
+            formatLabel(sb, labelName, labelValue);
+            if (extraLabelName != null) {
+                sb.append(',');
+            }
+        }
+        if (extraLabelName != null) {
+            formatLabel(sb, extraLabelName, extraLabelValue);
+        }
+        sb.append('}');
+    }
+
+    private static void formatLabel(StringBuilder sb, String name, String value) {
+        sb.append(name).append("=\"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '"') {
+                sb.append("\\\"");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,112 @@
+package vproxybase.util.metrics;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of all metrics.<br>
+ * Metrics should be retrieved when initializing and kept in fields,
+ * the hot path should only call {@link Histogram#record(long)} or {@link Counter#add(long)}.
+ * Retrieving a registered name and label again returns the same object.
+ * Labeled metrics of removed resources should be {@link #unregister(Metric)}ed.
+ */
+public class Metrics {
+    private static final BitSet usedSlots = new BitSet();
+    private static final ConcurrentHashMap<String, Metric<?>> metrics = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * @return a slot for an event loop to store its shards, the lowest free slot is reused
+     */
+    public static synchronized int allocateSlot() {
+        int slot = usedSlots.nextClearBit(0);
+        usedSlots.set(slot);
+        return slot;
+    }
+
+    /**
+     * Fold the shards of the slot into the shared shards and recycle the slot.
+     * Should be called when the event loop owning the slot will not record anymore.
+     *
+     * @param slot the slot retrieved from {@link #allocateSlot()}
+     */
+    public static synchronized void releaseSlot(int slot) {
+        for (Metric<?> m : metrics.values()) {
+            m.releaseShard(slot);
+        }
+        usedSlots.clear(slot);
+    }
+
+    public static Histogram histogram(String name, String help, double scale) {
+        return histogram(name, help, scale, null, null);
+    }
+
+    public static Histogram histogram(String name, String help, double scale, String labelName, String labelValue) {
+        return register(Histogram.class, new Histogram(name, help, scale, labelName, labelValue));
+    }
+
+    public static Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    public static Counter counter(String name, String help, String labelName, String labelValue) {
+        return register(Counter.class, new Counter(name, help, labelName, labelValue));
+    }
+
+    private static <M extends Metric<?>> M register(Class<M> type, M metric) {
+        if ((metric.labelName == null) != (metric.labelValue == null)) {
+            throw new IllegalArgumentException("labelName and labelValue should be both set or both null");
+        }
+        String key = keyOf(metric);
+        Metric<?> m = metrics.computeIfAbsent(key, k -> {
+            for (Metric<?> exist : metrics.values()) {
+                if (exist.name.equals(metric.name) && exist.getClass() != metric.getClass()) {
+                    throw new IllegalArgumentException("metric " + metric.name + " is already registered as a " + exist.type());
+                }
+            }
+            return metric;
+        });
+        if (!type.isInstance(m)) {
+            throw new IllegalArgumentException("metric " + key + " is already registered as a " + m.type());
+        }
+        return type.cast(m);
+    }
+
+    private static String keyOf(Metric<?> metric) {
+        return metric.labelName == null ? metric.name : metric.name + "{" + metric.labelName + "=" + metric.labelValue + "}";
+    }
+
+    /**
+     * Remove the metric from the registry, it will not be scraped anymore.
+     * Values recorded into the removed metric are dropped,
+     * and retrieving the same name and label again returns a new object.
+     */
+    public static void unregister(Metric<?> metric) {
+        metrics.remove(keyOf(metric), metric);
+    }
+
+    /**
+     * @return all metrics in the prometheus text format (version 0.0.4)
+     */
+    public static String scrape() {
+        List<Metric<?>> list = new ArrayList<>(metrics.values());
+        list.sort(Comparator.<Metric<?>, String>comparing(m -> m.name)
+            .thenComparing(m -> m.labelValue == null ? "" : m.labelValue));
+        StringBuilder sb = new StringBuilder();
+        String lastName = null;
+        for (Metric<?> m : list) {
+            if (!m.name.equals(lastName)) {
+                lastName = m.name;
+                sb.append("# HELP ").append(m.name).append(' ').append(m.help).append('\n');
+                sb.append("# TYPE ").append(m.name).append(' ').append(m.type()).append('\n');
+            }
+            m.formatSamples(sb);
+        }
+        return sb.toString();
+    }
+}
@@ -42,7 +42,8 @@ public abstract class AbstractUnwrapRingBuffer extends AbstractRingBuffer {
         // we add a handler to the plain buffer
         plainBufferForApp.addHandler(writableHandler);
 
-        this.encryptedBufferForInput = RingBuffer.allocateDirect(plainBufferForApp.capacity());
+        // use the pool only when the plain buffer is pooled, the owner of which will clean the buffers
+        this.encryptedBufferForInput = SimpleRingBuffer.allocateDirectLike(plainBufferForApp, plainBufferForApp.capacity());
     }
 
     private void checkException() throws IOException {
@@ -248,6 +249,13 @@ public abstract class AbstractUnwrapRingBuffer extends AbstractRingBuffer {
         encryptedBufferForInput.clean();
     }
 
+    @Override
+    public boolean detach() {
+        boolean plain = plainBufferForApp.detach();
+        boolean encrypted = encryptedBufferForInput.detach();
+        return plain || encrypted;
+    }
+
     @Override
     public void clear() {
         plainBufferForApp.clear();
@@ -39,7 +39,8 @@ public abstract class AbstractWrapRingBuffer extends AbstractRingBuffer implemen
     public AbstractWrapRingBuffer(ByteBufferRingBuffer plainBytesBuffer) {
         this.plainBufferForApp = plainBytesBuffer;
 
-        this.encryptedBufferForOutput = RingBuffer.allocateDirect(plainBytesBuffer.capacity());
+        // use the pool only when the plain buffer is pooled, the owner of which will clean the buffers
+        this.encryptedBufferForOutput = SimpleRingBuffer.allocateDirectLike(plainBytesBuffer, plainBytesBuffer.capacity());
 
         // we add a handler to the plain buffer
         plainBufferForApp.addHandler(readableHandler);
@@ -268,6 +269,13 @@ public abstract class AbstractWrapRingBuffer extends AbstractRingBuffer implemen
         encryptedBufferForOutput.clean();
     }
 
+    @Override
+    public boolean detach() {
+        boolean plain = plainBufferForApp.detach();
+        boolean encrypted = encryptedBufferForOutput.detach();
+        return plain || encrypted;
+    }
+
     @Override
     public void clear() {
         plainBufferForApp.clear();
@@ -0,0 +1,286 @@
+package vproxybase.util.ringbuffer;
+
+import vproxybase.Config;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.util.ConcurrentHashSet;
+import vproxybase.util.LogType;
+import vproxybase.util.Logger;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A size-classed slab pool of direct memory, one pool for each event loop.<br>
+ * Direct memory is allocated in big chunks, and each chunk is split into fixed size segments.
+ * Segments are leased when connections are created and returned when the buffers are cleaned,
+ * so the allocation and the Cleaner-driven freeing of direct buffers are avoided.<br>
+ * Leasing must be done on the event loop thread, returning can be done on any thread.
+ * Returns from other threads are queued and taken by the owner loop when leasing.<br>
+ * Sampled leases are tracked, a lease whose buffer is garbage collected without being returned
+ * is reported and taken back into the pool.
+ */
+public class DirectBufferPool {
+    public static final int MIN_SEGMENT_SIZE = 4096;
+    public static final int MAX_SEGMENT_SIZE = 65536;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final SelectorEventLoop loop;
+    private final SizeClass[] classes;
+    private long allocatedBytes = 0; // only modified on the loop thread
+    private int leaseCount = 0; // for sampling
+    private final AtomicInteger leaked = new AtomicInteger();
+
+    public DirectBufferPool(SelectorEventLoop loop) {
+        this.loop = loop;
+        List<SizeClass> ls = new ArrayList<>();
+        for (int size = MIN_SEGMENT_SIZE; size <= MAX_SEGMENT_SIZE; size <<= 1) {
+            ls.add(new SizeClass(size));
+        }
+        this.classes = ls.toArray(new SizeClass[0]);
+    }
+
+    /**
+     * lease direct memory from the pool of current event loop
+     *
+     * @param cap capacity of the buffer
+     * @return the lease, or null if the memory cannot be retrieved from a pool
+     */
+    public static Lease leaseFromCurrentLoop(int cap) {
+        if (!Config.bufferPoolEnabled) {
+            return null;
+        }
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null) {
+            return null;
+        }
+        return loop.bufferPool.lease(cap);
+    }
+
+    private SizeClass sizeClass(int cap) {
+        if (cap <= 0 || cap > MAX_SEGMENT_SIZE) {
+            return null;
+        }
+        for (SizeClass c : classes) {
+            if (c.segmentSize >= cap) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the lease, or null if the size is not pooled or the pool reaches its limit
+     */
+    public Lease lease(int cap) {
+        if (loop.runningThread != Thread.currentThread()) {
+            throw new IllegalStateException("leasing from the buffer pool must be done on the event loop thread");
+        }
+        checkLeaks();
+
+        SizeClass c = sizeClass(cap);
+        if (c == null) {
+            return null;
+        }
+        ByteBuffer segment = c.take();
+        if (segment == null) {
+            return null;
+        }
+        segment.clear();
+        ByteBuffer buffer;
+        if (cap == segment.capacity()) {
+            buffer = segment;
+        } else {
+            segment.limit(cap);
+            buffer = segment.slice();
+        }
+        Lease lease = new Lease(c, segment, buffer);
+        int interval = Config.bufferPoolLeakDetectionInterval;
+        if (interval > 0 && (++leaseCount % interval) == 0) {
+            lease.sampled = true;
+        }
+        return lease;
+    }
+
+    public List<Stat> stats() {
+        List<Stat> ret = new ArrayList<>(classes.length);
+        for (SizeClass c : classes) {
+            int total = c.total;
+            int leased = c.leased.get();
+            ret.add(new Stat(c.segmentSize, leased, total - leased, c.highWater, total));
+        }
+        return ret;
+    }
+
+    public long leasedBytes() {
+        long n = 0;
+        for (SizeClass c : classes) {
+            n += (long) c.leased.get() * c.segmentSize;
+        }
+        return n;
+    }
+
+    public int leakedCount() {
+        return leaked.get();
+    }
+
+    private class SizeClass {
+        final int segmentSize;
+        final ArrayDeque<ByteBuffer> free = new ArrayDeque<>(); // only accessed on the loop thread
+        final ConcurrentLinkedQueue<ByteBuffer> returned = new ConcurrentLinkedQueue<>();
+        final AtomicInteger leased = new AtomicInteger();
+        volatile int total = 0;
+        volatile int highWater = 0;
+
+        SizeClass(int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        ByteBuffer take() {
+            ByteBuffer segment = free.pollLast();
+            if (segment == null) {
+                segment = returned.poll();
+            }
+            if (segment == null) {
+                if (!allocateChunk()) {
+                    return null;
+                }
+                segment = free.pollLast();
+            }
+            int n = leased.incrementAndGet();
+            if (n > highWater) {
+                highWater = n;
+            }
+            return segment;
+        }
+
+        boolean allocateChunk() {
+            if (allocatedBytes + CHUNK_SIZE > Config.bufferPoolMaxBytes) {
+                return false;
+            }
+            allocatedBytes += CHUNK_SIZE;
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            int count = CHUNK_SIZE / segmentSize;
+            for (int i = 0; i < count; ++i) {
+                chunk.limit((i + 1) * segmentSize).position(i * segmentSize);
+                free.add(chunk.slice());
+            }
+            total += count;
+            assert Logger.lowLevelDebug("buffer pool allocates a new chunk for size class " + segmentSize);
+            return true;
+        }
+
+        void giveBack(ByteBuffer segment) {
+            leased.decrementAndGet();
+            if (loop.runningThread == Thread.currentThread()) {
+                free.add(segment);
+            } else {
+                returned.add(segment);
+            }
+        }
+    }
+
+    public class Lease {
+        private final SizeClass sizeClass;
+        private final ByteBuffer segment;
+        public final ByteBuffer buffer;
+        private boolean sampled = false;
+        private LeakTracker tracker;
+        private volatile boolean released = false;
+
+        private Lease(SizeClass sizeClass, ByteBuffer segment, ByteBuffer buffer) {
+            this.sizeClass = sizeClass;
+            this.segment = segment;
+            this.buffer = buffer;
+        }
+
+        /**
+         * track the object which holds the lease, if the lease is sampled for leak detection
+         */
+        public void track(Object holder) {
+            if (!sampled) {
+                return;
+            }
+            tracker = new LeakTracker(holder, this);
+            trackers.add(tracker);
+        }
+
+        public void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (tracker != null) {
+                trackers.remove(tracker);
+                tracker.clear();
+                tracker = null;
+            }
+            sizeClass.giveBack(segment);
+        }
+
+        private void reclaimLeaked() {
+            leaked.incrementAndGet();
+            tracker = null;
+            release();
+        }
+    }
+
+    private static final ReferenceQueue<Object> leakQueue = new ReferenceQueue<>();
+    private static final ConcurrentHashSet<LeakTracker> trackers = new ConcurrentHashSet<>();
+
+    private static class LeakTracker extends PhantomReference<Object> {
+        final Lease lease;
+        final Throwable allocatedAt = new Throwable("allocated at");
+
+        LeakTracker(Object holder, Lease lease) {
+            super(holder, leakQueue);
+            this.lease = lease;
+        }
+    }
+
+    private static void checkLeaks() {
+        Reference<?> ref;
+        while ((ref = leakQueue.poll()) != null) {
+            LeakTracker tracker = (LeakTracker) ref;
+            trackers.remove(tracker);
+            Lease lease = tracker.lease;
+            if (lease.released) {
+                continue;
+            }
+            Logger.error(LogType.IMPROPER_USE, "a buffer of size class " + lease.sizeClass.segmentSize
+                + " is garbage collected without being cleaned, the memory is taken back into the pool", tracker.allocatedAt);
+            lease.reclaimLeaked();
+        }
+    }
+
+    public static class Stat {
+        public final int segmentSize;
+        public final int leased;
+        public final int free;
+        public final int highWater;
+        public final int total;
+
+        public Stat(int segmentSize, int leased, int free, int highWater, int total) {
+            this.segmentSize = segmentSize;
+            this.leased = leased;
+            this.free = free;
+            this.highWater = highWater;
+            this.total = total;
+        }
+
+        @Override
+        public String toString() {
+            return "size-class " + segmentSize
+                + " -> leased " + leased
+                + " free " + free
+                + " high-water " + highWater
+                + " total " + total;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package vproxybase.util.ringbuffer;
+
+import vfd.FD;
+import vfd.posix.SplicePipe;
+import vproxybase.util.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A ring buffer backed by a kernel pipe, bytes are moved from one posix socket to another with splice(2)
+ * and never copied into user space.<br>
+ * The buffer can only store bytes from and write bytes to posix network fds,
+ * so it can only be used when nothing has to be done on the bytes in user space.<br>
+ * The pipe is limited by pages, so it may not be able to hold {@link #capacity()} bytes.
+ * If storing fails because the pipe has no free slot (not because the fd is drained),
+ * the buffer is considered full until some bytes are written out,
+ * which lets the connection remove and add the read event the same way as a full {@link SimpleRingBuffer}.
+ */
+public class PipeRingBuffer extends AbstractRingBuffer {
+    private final SplicePipe pipe;
+    private final int cap;
+    private int used = 0;
+    private boolean full = false;
+    private boolean cleaned = false;
+
+    private PipeRingBuffer(SplicePipe pipe, int cap) {
+        this.pipe = pipe;
+        this.cap = cap;
+    }
+
+    /**
+     * @param fd  the fd which the buffer will operate on
+     * @param cap max bytes stored in the pipe
+     */
+    public static PipeRingBuffer open(FD fd, int cap) throws IOException {
+        // make the pipe large enough to hold cap bytes when each page is not filled
+        return new PipeRingBuffer(SplicePipe.open(fd, Math.max(cap, 65536)), cap);
+    }
+
+    private void ensureBufferAvailable() {
+        if (cleaned) {
+            throw new IllegalStateException("this buffer is already cleaned");
+        }
+    }
+
+    private static FD fd(Object channel) throws IOException {
+        if (!(channel instanceof FD)) {
+            throw new IOException("pipe buffer cannot operate on " + channel);
+        }
+        return (FD) channel;
+    }
+
+    /**
+     * @return may return -1 for EOF
+     */
+    @Override
+    public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+        ensureBufferAvailable();
+        int free = free();
+        if (free == 0) {
+            return 0;
+        }
+        boolean firstOperator = !isOperating();
+        setOperating(true);
+        try {
+            int read = pipe.spliceFrom(fd(channel), free);
+            if (read < 0) {
+                return -1;
+            }
+            if (read == 0) {
+                // the fd may be drained, only consider the pipe full when it has no free slot
+                if (used != 0 && pipe.isFull()) {
+                    assert Logger.lowLevelNetDebug("cannot splice into the pipe, consider it full");
+                    full = true;
+                }
+                return 0;
+            }
+            boolean triggerReadable = used == 0;
+            used += read;
+            if (triggerReadable) {
+                triggerReadable();
+            }
+            return read;
+        } finally {
+            if (firstOperator) {
+                setOperating(false);
+            }
+        }
+    }
+
+    @Override
+    public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+        ensureBufferAvailable();
+        int len = Math.min(used, maxBytesToWrite);
+        if (len == 0) {
+            return 0;
+        }
+        boolean firstOperator = !isOperating();
+        setOperating(true);
+        try {
+            int write = pipe.spliceTo(fd(channel), len);
+            if (write == 0) {
+                return 0;
+            }
+            boolean triggerWritable = free() == 0;
+            used -= write;
+            full = false;
+            if (triggerWritable) {
+                triggerWritable();
+            }
+            return write;
+        } finally {
+            if (firstOperator) {
+                setOperating(false);
+            }
+        }
+    }
+
+    @Override
+    public int free() {
+        return full ? 0 : cap - used;
+    }
+
+    @Override
+    public int used() {
+        return used;
+    }
+
+    @Override
+    public int capacity() {
+        return cap;
+    }
+
+    @Override
+    public void clean() {
+        if (cleaned)
+            return;
+        cleaned = true;
+        pipe.close();
+    }
+
+    @Override
+    public void clear() {
+        ensureBufferAvailable();
+        if (used == 0) {
+            return;
+        }
+        boolean triggerWritable = free() == 0;
+        try {
+            used -= pipe.discard(used);
+        } catch (IOException e) {
+            Logger.shouldNotHappen("discarding data in pipe failed: " + pipe, e);
+        }
+        full = false;
+        if (triggerWritable) {
+            triggerWritable();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PipeRingBuffer{" +
+            "pipe=" + pipe +
+            ", cap=" + cap +
+            ", used=" + used +
+            ", full=" + full +
+            '}';
+    }
+}
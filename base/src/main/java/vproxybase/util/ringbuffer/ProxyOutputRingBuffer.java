@@ -60,6 +60,14 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
         return new ProxyOutputRingBuffer(SimpleRingBuffer.allocateDirect(cap));
     }
 
+    public static ProxyOutputRingBuffer allocateDirectPooled(int cap) {
+        return new ProxyOutputRingBuffer(SimpleRingBuffer.allocateDirectPooled(cap));
+    }
+
+    public static ProxyOutputRingBuffer allocateDirectLazy(int cap) {
+        return new ProxyOutputRingBuffer(SimpleRingBuffer.allocateDirectLazy(cap));
+    }
+
     public void proxy(RingBuffer proxied, int proxyLen, ProxyDoneCallback cb) {
         if (this.proxied != null)
             throw new IllegalStateException("has a proxied buffer, with proxyLen = " + proxyLen);
@@ -158,6 +166,11 @@ public class ProxyOutputRingBuffer extends AbstractRingBuffer {
         defaultBuffer.clean();
     }
 
+    @Override
+    public boolean detach() {
+        return defaultBuffer.detach();
+    }
+
     @Override
     public void clear() {
         defaultBuffer.clear();
@@ -11,6 +11,7 @@ import vproxybase.util.RingBuffer;
 import vproxybase.util.Utils;
 import vproxybase.util.nio.ByteArrayChannel;
 import vproxybase.util.ringbuffer.ssl.SSL;
+import vproxybase.util.ringbuffer.ssl.SSLTaskExecutor;
 
 import javax.net.ssl.*;
 import java.io.IOException;
@@ -31,6 +32,8 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
     private final SSL ssl;
     private final Consumer<Runnable> resumer;
     private String sni;
+    private long handshakeStartMillis; // only used on server side
+    private boolean handshakeRecorded = false;
 
     // will call the pair's wrap/wrapHandshake when need to send data
     private final SSLWrapRingBuffer pair;
@@ -169,6 +172,7 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
     }
 
     private int createSSLEngine(ReadableByteChannel channel) throws IOException {
+        handshakeStartMillis = System.currentTimeMillis();
         ByteBuffer buf = ByteBuffer.allocate(16384); // should be enough for CLIENT_HELLO message
         int n = channel.read(buf);
         buf.flip();
@@ -190,6 +194,10 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
         }
         engine = ssl.sslEngineBuilder.build(ctx);
         pair.engine = engine;
+        if (ssl.handshakeMetrics != null) {
+            // the handshake may be finished by the wrap buffer
+            pair.handshakeFinishedCallback = this::handshakeFinished;
+        }
 
         ByteArrayChannel chnl = ByteArrayChannel.from(buf.array(), 0, n, 0);
         int n2 = super.storeBytesFrom(chnl);
@@ -215,7 +223,9 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
         } else {
             //noinspection ConstantConditions
             assert lastLoop != null;
-            lastLoop.runOnLoop(r);
+            // the task may run on the loop thread when the ssl task queue is full,
+            // so always run in the next tick to avoid re-entering the unwrapping
+            lastLoop.nextTick(r);
         }
     }
 
@@ -342,6 +352,7 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
         SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
         if (status == SSLEngineResult.HandshakeStatus.FINISHED) {
             assert Logger.lowLevelDebug("handshake finished");
+            handshakeFinished();
             // should call the wrapper to send data (if any present)
             resumeGeneralWrap();
             return;
@@ -352,7 +363,7 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
                 lastLoop = SelectorEventLoop.current();
                 assert Logger.lowLevelDebug("resumer not specified, so we use the current event loop: " + lastLoop);
             }
-            new Thread(() -> {
+            SSLTaskExecutor.get().execute(() -> {
                 assert Logger.lowLevelDebug("TASK begins");
                 Runnable r;
                 while ((r = engine.getDelegatedTask()) != null) {
@@ -368,7 +379,7 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
                 } else {
                     resumeGeneralUnwrap();
                 }
-            }).start();
+            });
             return;
         }
         if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
@@ -378,4 +389,12 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
         }
         assert status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP;
     }
+
+    private void handshakeFinished() {
+        if (handshakeRecorded || ssl == null || ssl.handshakeMetrics == null) {
+            return;
+        }
+        handshakeRecorded = true;
+        ssl.handshakeMetrics.record(engine.getSession(), handshakeStartMillis);
+    }
 }
@@ -5,6 +5,7 @@ import vfd.NetworkFD;
 import vproxybase.selector.SelectorEventLoop;
 import vproxybase.util.Tuple;
 import vproxybase.util.ringbuffer.ssl.SSL;
+import vproxybase.util.ringbuffer.ssl.SSLSessionCache;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
@@ -122,9 +123,10 @@ public class SSLUtils {
 
         SSLContext sslContext;
         try {
-            sslContext = SSLContext.getInstance("TLS");
+            sslContext = SSLSessionCache.newContext();
             //noinspection ConstantConditions
             sslContext.init(kms, tms, null);
+            SSLSessionCache.configure(sslContext);
         } catch (KeyManagementException | NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
@@ -8,7 +8,9 @@ import vproxybase.util.nio.ByteArrayChannel;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
@@ -33,11 +35,18 @@ import java.util.Set;
  */
 public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     private final boolean isDirect;
-    private /*may change after defragment*/ ByteBuffer buffer;
+    private /*may change after defragment or detach*/ ByteBuffer buffer; // null if detached
+    private /*may change after defragment or detach*/ DirectBufferPool.Lease lease; // null if not leased from the pool
+    private boolean pooled = false; // whether the memory should be leased from the pool
+    private boolean detached = false; // the memory is returned to the pool and will be leased when storing data
     private int ePos; // end pos
     private int sPos; // start pos
     private final int cap;
     private boolean ePosIsAfterSPos = true; // true then end is limit, otherwise start is limit
+    private ByteBuffer[] vectorBuffers; // views of the two parts of the buffer for scatter/gather io
+    private ByteBuffer vectorBuffersOf; // the buffer which the views are created from
+
+    private static final ByteBuffer EMPTY_DIRECT_BUFFER = ByteBuffer.allocateDirect(0);
 
     private boolean notFirstOperator = false;
     private boolean operating = false;
@@ -50,6 +59,46 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         return new SimpleRingBuffer(true, ByteBuffer.allocateDirect(cap), 0, 0);
     }
 
+    /**
+     * lease the memory from the buffer pool of current event loop,
+     * fallback to {@link #allocateDirect(int)} if the memory cannot be retrieved from the pool<br>
+     * the buffer MUST be cleaned when it's no longer used, otherwise the memory will not return to the pool
+     */
+    public static SimpleRingBuffer allocateDirectPooled(int cap) {
+        DirectBufferPool.Lease lease = DirectBufferPool.leaseFromCurrentLoop(cap);
+        if (lease == null) {
+            return allocateDirect(cap);
+        }
+        SimpleRingBuffer buf = new SimpleRingBuffer(true, lease.buffer, 0, 0);
+        buf.pooled = true;
+        buf.lease = lease;
+        lease.track(buf);
+        return buf;
+    }
+
+    /**
+     * create a pooled buffer without memory attached,
+     * the memory is leased from the pool of current event loop when data is stored into the buffer,
+     * and can be returned to the pool by {@link #detach()} when the buffer is drained<br>
+     * the buffer MUST be cleaned when it's no longer used, otherwise the memory will not return to the pool
+     */
+    public static SimpleRingBuffer allocateDirectLazy(int cap) {
+        return new SimpleRingBuffer(cap);
+    }
+
+    /**
+     * allocate a direct buffer which uses the pool the same way as the given buffer
+     */
+    public static SimpleRingBuffer allocateDirectLike(RingBuffer buffer, int cap) {
+        if (!(buffer instanceof SimpleRingBuffer) || !((SimpleRingBuffer) buffer).pooled) {
+            return allocateDirect(cap);
+        }
+        if (((SimpleRingBuffer) buffer).detached) {
+            return allocateDirectLazy(cap);
+        }
+        return allocateDirectPooled(cap);
+    }
+
     public static SimpleRingBuffer allocate(int cap) {
         return new SimpleRingBuffer(false, ByteBuffer.allocate(cap), 0, 0);
     }
@@ -58,6 +107,14 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         return new SimpleRingBuffer(false, b, b.position(), b.limit());
     }
 
+    private SimpleRingBuffer(int cap) {
+        this.isDirect = true;
+        this.buffer = null;
+        this.cap = cap;
+        this.pooled = true;
+        this.detached = true;
+    }
+
     private SimpleRingBuffer(boolean isDirect, ByteBuffer buffer, int sPos, int ePos) {
         this.isDirect = isDirect;
         this.buffer = buffer;
@@ -97,6 +154,10 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
      */
     @Override
     public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+        if (channel instanceof ScatteringByteChannel && !detached && ePosIsAfterSPos && sPos != 0 && ePos != cap) {
+            // the free space wraps around, read into both parts with one call
+            return scatteringStoreBytesFrom((ScatteringByteChannel) channel);
+        }
         return operateOnByteBufferStoreIn(b -> channel.read(b) != -1);
     }
 
@@ -109,9 +170,126 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
     @Override
     public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+        if (channel instanceof GatheringByteChannel && !detached && !ePosIsAfterSPos && ePos != 0 && maxBytesToWrite > cap - sPos) {
+            // the data wraps around, write both parts with one call
+            return gatheringWriteTo((GatheringByteChannel) channel, maxBytesToWrite);
+        }
         return operateOnByteBufferWriteOut(maxBytesToWrite, channel::write);
     }
 
+    private ByteBuffer[] vectorBuffers() {
+        if (vectorBuffersOf != buffer) {
+            vectorBuffers = new ByteBuffer[]{buffer.duplicate(), buffer.duplicate()};
+            vectorBuffersOf = buffer;
+        }
+        return vectorBuffers;
+    }
+
+    private int scatteringStoreBytesFrom(ScatteringByteChannel channel) throws IOException {
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+        ensureBufferAvailable();
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerReadable = false;
+
+        assert Logger.lowLevelNetDebug("before scattering store in, ePos=" + ePos + ", sPos=" + sPos);
+
+        try { // only use try-finally here, we do not catch
+
+            // is for triggering readable event
+            boolean triggerReadablePre = used() == 0;
+
+            int tailLen = cap - ePos;
+            ByteBuffer[] bufs = vectorBuffers();
+            bufs[0].limit(cap).position(ePos);
+            bufs[1].limit(sPos).position(0);
+
+            int read = (int) channel.read(bufs);
+            if (read < 0)
+                return -1; // EOF
+
+            if (read < tailLen) {
+                ePos += read;
+            } else {
+                ePos = read - tailLen;
+                ePosIsAfterSPos = false;
+            }
+
+            triggerReadable = triggerReadablePre && read > 0;
+            return read;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after scattering store in, ePos=" + ePos);
+
+            operatingBuffer = false;
+            if (triggerReadable) {
+                assert Logger.lowLevelNetDebug("trigger readable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.readableET();
+                }
+            }
+            resetFirst(firstOperator);
+        }
+    }
+
+    private int gatheringWriteTo(GatheringByteChannel channel, int maxBytesToWrite) throws IOException {
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+        ensureBufferAvailable();
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerWritable = false;
+
+        assert Logger.lowLevelNetDebug("before gathering write out, sPos=" + sPos + ", ePos=" + ePos);
+
+        try { // only use try-finally here, we do not catch
+
+            // is for triggering writable event
+            boolean triggerWritablePre = free() == 0;
+
+            int tailLen = cap - sPos;
+            int headLen = Math.min(ePos, maxBytesToWrite - tailLen);
+            ByteBuffer[] bufs = vectorBuffers();
+            bufs[0].limit(cap).position(sPos);
+            bufs[1].limit(headLen).position(0);
+
+            int write = (int) channel.write(bufs);
+            if (write <= 0)
+                return 0;
+
+            if (write < tailLen) {
+                sPos += write;
+            } else {
+                sPos = write - tailLen;
+                ePosIsAfterSPos = true;
+                if (sPos == ePos) {
+                    // buffer is empty now
+                    resetCursors();
+                }
+            }
+
+            triggerWritable = triggerWritablePre;
+            return write;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after gathering write out, sPos=" + sPos);
+
+            operatingBuffer = false;
+            if (triggerWritable) {
+                assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.writableET();
+                }
+            }
+            resetFirst(firstOperator);
+        }
+    }
+
     @Override
     public int free() {
         return cap - used();
@@ -195,9 +373,58 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         if (cleaned)
             return;
         cleaned = true;
-        if (isDirect) {
+        releaseMemory();
+    }
+
+    private void releaseMemory() {
+        if (lease != null) {
+            lease.release();
+            lease = null;
+        } else if (isDirect && buffer != null) {
             Utils.clean(buffer);
         }
+        buffer = null;
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    public boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * return the memory to the pool if the buffer is pooled and empty
+     *
+     * @return true if the memory is released
+     */
+    @Override
+    public boolean detach() {
+        if (!pooled || detached || cleaned || operating || used() != 0) {
+            return false;
+        }
+        assert Logger.lowLevelNetDebug("detach the buffer");
+        releaseMemory();
+        resetCursors();
+        detached = true;
+        return true;
+    }
+
+    private void attach() {
+        if (!detached) {
+            return;
+        }
+        assert Logger.lowLevelNetDebug("attach the buffer");
+        DirectBufferPool.Lease lease = DirectBufferPool.leaseFromCurrentLoop(cap);
+        if (lease == null) {
+            buffer = ByteBuffer.allocateDirect(cap);
+        } else {
+            buffer = lease.buffer;
+            lease.track(this);
+        }
+        this.lease = lease;
+        detached = false;
     }
 
     private void ensureBufferAvailable() {
@@ -271,6 +498,11 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             //     return 0; // buffer is empty
             int realWrite = Math.min(lim, maxBytesToWrite);
             int newLimit = sPos + realWrite;
+            if (detached) {
+                // nothing to write, and no need to lease memory for that
+                op.accept(EMPTY_DIRECT_BUFFER.limit(0).position(0));
+                return 0;
+            }
             buffer.limit(newLimit).position(sPos);
 
             // run the op
@@ -342,6 +574,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             throw new IllegalStateException("this buffer is operating");
         }
         ensureBufferAvailable();
+        attach();
 
         boolean firstOperator = isFirstOperate();
         operatingBuffer = true;
@@ -440,7 +673,11 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         //
         // then we make a swap
         ByteBuffer newBuffer;
-        if (isDirect) {
+        DirectBufferPool.Lease newLease = null;
+        if (pooled) {
+            newLease = DirectBufferPool.leaseFromCurrentLoop(cap);
+            newBuffer = newLease == null ? ByteBuffer.allocateDirect(cap) : newLease.buffer;
+        } else if (isDirect) {
             newBuffer = ByteBuffer.allocateDirect(cap);
         } else {
             newBuffer = ByteBuffer.allocate(cap);
@@ -458,8 +695,10 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             newBuffer.put(buffer);
         }
 
-        if (isDirect) {
-            Utils.clean(buffer); // clean the old buffer
+        releaseMemory(); // return or clean the old buffer
+        lease = newLease;
+        if (newLease != null) {
+            newLease.track(this);
         }
 
         sPos = 0;
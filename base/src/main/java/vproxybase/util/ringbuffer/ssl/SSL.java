@@ -3,9 +3,15 @@ package vproxybase.util.ringbuffer.ssl;
 public class SSL {
     public final SSLContextHolder sslContextHolder;
     public final SSLEngineBuilder sslEngineBuilder;
+    public final SSLHandshakeMetrics handshakeMetrics; // nullable
 
     public SSL(SSLContextHolder sslContextHolder, SSLEngineBuilder sslEngineBuilder) {
+        this(sslContextHolder, sslEngineBuilder, null);
+    }
+
+    public SSL(SSLContextHolder sslContextHolder, SSLEngineBuilder sslEngineBuilder, SSLHandshakeMetrics handshakeMetrics) {
         this.sslContextHolder = sslContextHolder;
         this.sslEngineBuilder = sslEngineBuilder;
+        this.handshakeMetrics = handshakeMetrics;
     }
 }
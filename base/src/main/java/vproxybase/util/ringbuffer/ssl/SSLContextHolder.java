@@ -7,47 +7,133 @@ import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class SSLContextHolder {
+    private static final int NEGATIVE_CACHE_SIZE = 4096;
+
     private static class Holder {
         final SSLContext sslContext;
-        final CertHolder[] certs;
+        final List<String> names; // cn and san dns names, lower case
 
         private Holder(SSLContext sslContext, X509Certificate[] certs) {
             this.sslContext = sslContext;
-            this.certs = new CertHolder[certs.length];
-            for (int i = 0; i < certs.length; ++i) {
-                this.certs[i] = new CertHolder(certs[i]);
+            List<String> names = new ArrayList<>();
+            for (X509Certificate cert : certs) {
+                retrieveNames(cert, names);
             }
+            this.names = names;
         }
     }
 
-    private static class CertHolder {
-        final X509Certificate cert;
+    /**
+     * Built when holders are added or removed and never modified after that,
+     * so the choosing threads read it without locking.
+     */
+    private static class Index {
+        final List<Holder> holders;
+        final NameTable exact;
+        final NameTable wildcard; // *.example.com is stored as example.com
+        // sni which does not match any cert, cleared when full
+        final Map<String, Boolean> negative = new ConcurrentHashMap<>();
 
-        String cn;
-        boolean cnRetrieved;
+        Index(List<Holder> holders) {
+            this.holders = holders;
+            Map<String, Holder> exact = new LinkedHashMap<>();
+            Map<String, Holder> wildcard = new LinkedHashMap<>();
+            for (Holder h : holders) {
+                for (String name : h.names) {
+                    if (name.startsWith("*.")) {
+                        wildcard.putIfAbsent(name.substring("*.".length()), h);
+                    } else {
+                        exact.putIfAbsent(name, h);
+                    }
+                }
+            }
+            this.exact = new NameTable(exact);
+            this.wildcard = new NameTable(wildcard);
+        }
+    }
 
-        List<String> san;
-        boolean sanRetrieved;
+    /**
+     * Open addressing table of names, the keys are compared ignoring ascii case
+     * and can be looked up with a suffix of a string without creating substrings.
+     */
+    private static class NameTable {
+        private final String[] keys;
+        private final Holder[] values;
+        private final int mask;
 
-        private CertHolder(X509Certificate cert) {
-            this.cert = cert;
+        NameTable(Map<String, Holder> map) {
+            int cap = 2;
+            while (cap < map.size() * 2) {
+                cap <<= 1;
+            }
+            keys = new String[cap];
+            values = new Holder[cap];
+            mask = cap - 1;
+            for (Map.Entry<String, Holder> e : map.entrySet()) {
+                String key = e.getKey();
+                int i = hash(key, 0) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = e.getValue();
+            }
+        }
+
+        Holder get(String s, int off) {
+            int len = s.length() - off;
+            int i = hash(s, off) & mask;
+            String key;
+            while ((key = keys[i]) != null) {
+                if (key.length() == len && key.regionMatches(true, 0, s, off, len)) {
+                    return values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int hash(String s, int off) {
+            int h = 0;
+            for (int i = off; i < s.length(); ++i) {
+                char c = s.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                h = 31 * h + c;
+            }
+            return h ^ (h >>> 16);
         }
     }
 
-    private final List<Holder> holders = new ArrayList<>();
+    private volatile Index index = new Index(Collections.emptyList());
     protected final Map<String, SSLContext> quickAccess = new ConcurrentHashMap<>();
-    // quickAccess stores SNI to the corresponding SSLContext
+    // quickAccess stores SNI to the corresponding SSLContext, filled by sub classes
 
-    public void add(SSLContext sslContext, X509Certificate[] certs) {
+    public synchronized void add(SSLContext sslContext, X509Certificate[] certs) {
+        List<Holder> holders = new ArrayList<>(index.holders);
         holders.add(new Holder(sslContext, certs));
+        index = new Index(holders);
+    }
+
+    public synchronized void remove(SSLContext sslContext) {
+        List<Holder> holders = new ArrayList<>(index.holders);
+        if (holders.removeIf(h -> h.sslContext == sslContext)) {
+            index = new Index(holders);
+        }
     }
 
     public SSLContext choose(String sni) {
+        Index index = this.index;
+        List<Holder> holders = index.holders;
         assert Logger.lowLevelDebug("choosing cert with sni " + sni + ", holders.size = " + holders.size());
         if (holders.size() == 1) {
             return holders.get(0).sslContext;
@@ -55,7 +141,7 @@ public class SSLContextHolder {
         if (holders.isEmpty()) {
             return null;
         }
-        SSLContext ctx = chooseNoDefault(sni);
+        SSLContext ctx = chooseNoDefault(index, sni);
         if (ctx != null) {
             return ctx;
         }
@@ -64,124 +150,70 @@ public class SSLContextHolder {
     }
 
     protected SSLContext chooseNoDefault(String sni) {
-        if (sni != null) {
-            SSLContext ctx = quickAccess.get(sni);
-            if (ctx != null) {
-                return ctx;
-            }
-            for (Holder h : holders) {
-                if (checkSNI(h, h.certs, sni)) {
-                    return h.sslContext;
-                }
-            }
-        }
-        return null;
+        return chooseNoDefault(index, sni);
     }
 
-    private boolean checkSNI(Holder holder, CertHolder[] certs, String sni) {
-        assert Logger.lowLevelDebug("visiting certs: with " + certs.length + " element(s)");
-        for (CertHolder cert : certs) {
-            if (checkSNI(holder, cert, sni)) {
-                return true;
+    private SSLContext chooseNoDefault(Index index, String sni) {
+        if (sni == null) {
+            return null;
+        }
+        SSLContext ctx = quickAccess.get(sni);
+        if (ctx != null) {
+            return ctx;
+        }
+        if (index.negative.containsKey(sni)) {
+            return null;
+        }
+        Holder h = index.exact.get(sni, 0);
+        if (h == null) {
+            int dot = sni.indexOf('.');
+            if (dot > 0) {
+                h = index.wildcard.get(sni, dot + 1);
             }
         }
-        return false;
+        if (h != null) {
+            return h.sslContext;
+        }
+        assert Logger.lowLevelDebug("no cert matches sni " + sni);
+        if (index.negative.size() >= NEGATIVE_CACHE_SIZE) {
+            index.negative.clear();
+        }
+        index.negative.put(sni, Boolean.TRUE);
+        return null;
     }
 
-    private boolean checkSNI(Holder holder, CertHolder cert, String sni) {
-        String cn;
-        if (!cert.cnRetrieved) {
-            String dn = cert.cert.getSubjectX500Principal().getName();
-            // dn result example:
-            // CN=pixiv.net,OU=Pixiv,O=Pixiv,L=Tokyo,ST=Tokyo,C=JP
-            // CN=youtube.com,OU=Youtube,O=Google,L=NY,ST=NY,C=US
-            // CN=google.com,OU=Google,O=Google,L=NY,ST=NY,C=US
-            String[] split = dn.split(",");
-            cn = null;
-            for (String s : split) {
-                if (s.startsWith("CN=")) {
-                    cn = s.substring("CN=".length());
-                    break;
-                }
-            }
-            cert.cnRetrieved = true;
-            cert.cn = cn;
-        } else {
-            cn = cert.cn;
-        }
-        if (cn != null) {
-            assert Logger.lowLevelDebug("comparing sni " + sni + " with commonName " + cn);
-            if (compare(cn, sni)) { // cn matches
-                quickAccess.put(sni, holder.sslContext);
-                return true;
+    private static void retrieveNames(X509Certificate cert, List<String> names) {
+        String dn = cert.getSubjectX500Principal().getName();
+        // dn result example:
+        // CN=pixiv.net,OU=Pixiv,O=Pixiv,L=Tokyo,ST=Tokyo,C=JP
+        // CN=youtube.com,OU=Youtube,O=Google,L=NY,ST=NY,C=US
+        // CN=google.com,OU=Google,O=Google,L=NY,ST=NY,C=US
+        for (String s : dn.split(",")) {
+            if (s.startsWith("CN=")) {
+                names.add(s.substring("CN=".length()).toLowerCase(Locale.ROOT));
+                break;
             }
         }
-        List<String> sanStrList;
         // san result example:
         // [[2, *.pixiv.net], [2, pixiv.net], [2, *.pixiv.org], [2, pixiv.org], [2, *.pximg.net], [2, pximg.net], [2, *.ads-pixiv.net], [2, ads-pixiv.net]]
         // [[2, *.youtube.com], [2, youtube.com], [2, *.ytimg.com], [2, ytimg.com], [2, *.ggpht.com], [2, ggpht.com], [2, *.googlevideo.com], [2, googlevideo.com], [2, *.googleapis.com], [2, googleapis.com], [2, *.googlesyndication.com], [2, googlesyndication.com]]
         // [[2, *.google.com], [2, google.com], [2, *.google.com.hk], [2, google.com.hk]]
-        if (!cert.sanRetrieved) {
-            Collection<List<?>> san;
-            try {
-                san = cert.cert.getSubjectAlternativeNames();
-            } catch (CertificateParsingException e) {
-                assert Logger.lowLevelDebug("decoding cert SAN failed: " + e);
-                cert.sanRetrieved = true;
-                return false;
-            }
-            List<String> ls;
-            if (san == null) {
-                ls = new ArrayList<>();
-            } else {
-                ls = new ArrayList<>(san.size());
-                for (List<?> o : san) {
-                    int n = (Integer) o.get(0);
-                    if (n == 2) {
-                        String dnsName = (String) o.get(1);
-                        ls.add(dnsName);
-                    }
-                }
-            }
-            if (ls.isEmpty()) {
-                ls = null;
-            }
-            sanStrList = ls;
-            cert.san = ls;
-            cert.sanRetrieved = true;
-        } else {
-            sanStrList = cert.san;
-        }
-        if (sanStrList == null) {
-            assert Logger.lowLevelDebug("san is not retrieved");
-            return false;
-        } else {
-            assert Logger.lowLevelDebug("retrieved san is " + sanStrList);
-        }
-        for (var dnsName : sanStrList) {
-            assert Logger.lowLevelDebug("comparing sni " + sni + " with dnsName " + dnsName);
-            if (compare(dnsName, sni)) {
-                quickAccess.put(sni, holder.sslContext);
-                return true;
-            }
+        Collection<List<?>> san;
+        try {
+            san = cert.getSubjectAlternativeNames();
+        } catch (CertificateParsingException e) {
+            assert Logger.lowLevelDebug("decoding cert SAN failed: " + e);
+            return;
         }
-        return false;
-    }
-
-    private boolean compare(String dnsName, String sni) {
-        if (dnsName.startsWith("*.")) {
-            // wildcard record
-            String suffix = dnsName.substring("*".length());
-            if (sni.length() > suffix.length()) {
-                if (sni.endsWith(suffix)) {
-                    String prefix = sni.substring(0, sni.length() - suffix.length());
-                    return !prefix.contains(".");
-                }
+        if (san == null) {
+            return;
+        }
+        for (List<?> o : san) {
+            int n = (Integer) o.get(0);
+            if (n == 2) {
+                String dnsName = (String) o.get(1);
+                names.add(dnsName.toLowerCase(Locale.ROOT));
             }
-            return false;
-        } else {
-            // plain
-            return sni.equals(dnsName);
         }
     }
 }
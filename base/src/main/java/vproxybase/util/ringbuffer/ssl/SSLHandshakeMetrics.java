@@ -0,0 +1,65 @@
+package vproxybase.util.ringbuffer.ssl;
+
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Metrics;
+
+import javax.net.ssl.SSLSession;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * count of full and resumed handshakes on server side, labeled with the lb name
+ */
+public class SSLHandshakeMetrics {
+    private static final ConcurrentHashMap<String, SSLHandshakeMetrics> metrics = new ConcurrentHashMap<>();
+
+    private final Counter full;
+    private final Counter resumed;
+
+    private SSLHandshakeMetrics(String lb) {
+        full = Metrics.counter("vproxy_ssl_handshake_full_total",
+            "Count of the full ssl handshakes", "lb", lb);
+        resumed = Metrics.counter("vproxy_ssl_handshake_resumed_total",
+            "Count of the ssl handshakes resuming a cached session or a session ticket", "lb", lb);
+    }
+
+    public static SSLHandshakeMetrics of(String lb) {
+        SSLHandshakeMetrics m = metrics.get(lb);
+        if (m != null) {
+            return m;
+        }
+        return metrics.computeIfAbsent(lb, SSLHandshakeMetrics::new);
+    }
+
+    /**
+     * unregister the metrics of the lb, should be called when the lb is removed
+     */
+    public static void remove(String lb) {
+        SSLHandshakeMetrics m = metrics.remove(lb);
+        if (m != null) {
+            Metrics.unregister(m.full);
+            Metrics.unregister(m.resumed);
+        }
+    }
+
+    /**
+     * @param session             the session when handshake finishes
+     * @param handshakeStartMillis when the handshake starts
+     */
+    public void record(SSLSession session, long handshakeStartMillis) {
+        // the jdk keeps the creation time of the original session when resuming,
+        // for both tls 1.2 session ids and tickets and tls 1.3 psk
+        if (session.getCreationTime() < handshakeStartMillis) {
+            resumed.inc();
+        } else {
+            full.inc();
+        }
+    }
+
+    public long full() {
+        return full.get();
+    }
+
+    public long resumed() {
+        return resumed.get();
+    }
+}
@@ -0,0 +1,56 @@
+package vproxybase.util.ringbuffer.ssl;
+
+import vproxybase.Config;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Session resumption settings for ssl contexts.<br>
+ * The sessions are cached in the SSLContext, so they are shared by all event loops using the context.
+ * Each cert-key has its own SSLContext and its own cache,
+ * the cache is bounded by {@link Config#sslSessionCacheSize}.<br>
+ * On jdk 13+, the session tickets (enabled by {@link Config#sslSessionTickets}) are encrypted with keys kept in the SSLContext,
+ * the keys are rotated every {@link Config#sslSessionTimeout} seconds,
+ * and tickets encrypted with the previous key are still accepted until they time out.
+ * Jdk 11 does not support stateless tickets, the option is ignored and only the session cache is used.
+ * The jdk reads the ticket options when an SSLContext is created,
+ * so contexts should be created with {@link #newContext()}.<br>
+ * Client contexts should create engines with the peer host and port, otherwise sessions are not resumed.
+ */
+public class SSLSessionCache {
+    static {
+        // the jdk.tls.*.enableSessionTicketExtension properties only take effect on jdk 13+
+        if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) {
+            System.setProperty("jdk.tls.server.enableSessionTicketExtension", "" + Config.sslSessionTickets);
+        }
+        if (System.getProperty("jdk.tls.client.enableSessionTicketExtension") == null) {
+            System.setProperty("jdk.tls.client.enableSessionTicketExtension", "" + Config.sslSessionTickets);
+        }
+    }
+
+    private SSLSessionCache() {
+    }
+
+    /**
+     * @return a new TLS context, created after the session ticket options are set
+     */
+    public static SSLContext newContext() throws NoSuchAlgorithmException {
+        return SSLContext.getInstance("TLS");
+    }
+
+    public static SSLContext configure(SSLContext ctx) {
+        configure(ctx.getServerSessionContext());
+        configure(ctx.getClientSessionContext());
+        return ctx;
+    }
+
+    private static void configure(SSLSessionContext sessions) {
+        if (sessions == null) {
+            return;
+        }
+        sessions.setSessionCacheSize(Config.sslSessionCacheSize);
+        sessions.setSessionTimeout(Config.sslSessionTimeout);
+    }
+}
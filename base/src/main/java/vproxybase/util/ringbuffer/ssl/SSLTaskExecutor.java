@@ -0,0 +1,95 @@
+package vproxybase.util.ringbuffer.ssl;
+
+import vproxybase.Config;
+import vproxybase.util.LogType;
+import vproxybase.util.Logger;
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the delegated tasks of ssl engines (key exchange, signing, certificate verification) when handshaking.<br>
+ * The tasks are run by a fixed number of threads with a bounded queue, threads are started on demand
+ * and stopped when idle. When the queue is full, the task is run by the calling thread, which is usually
+ * an event loop, so the loop reads fewer new handshakes until the threads catch up.
+ * Servers may check {@link #isSaturated()} to stop accepting new connections for a while.
+ */
+public class SSLTaskExecutor {
+    private static final Histogram queueDepth = Metrics.histogram("vproxy_ssl_task_queue_depth",
+        "Tasks waiting for the ssl task threads when a task is submitted", 1);
+    private static final Histogram taskTime = Metrics.histogram("vproxy_ssl_task_seconds",
+        "Time of running the delegated tasks of one ssl handshake step, the tasks are cpu bound", 1e-6);
+    private static final Counter callerRuns = Metrics.counter("vproxy_ssl_task_caller_runs_total",
+        "Ssl tasks run by the submitting thread because the queue is full");
+
+    private static final SSLTaskExecutor DEFAULT = new SSLTaskExecutor("ssl-task", Config.sslTaskThreads, Config.sslTaskQueueSize);
+
+    public static SSLTaskExecutor get() {
+        return DEFAULT;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int queueSize;
+
+    public SSLTaskExecutor(String name, int threads, int queueSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads should be greater than 0: " + threads);
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize should be greater than 0: " + queueSize);
+        }
+        this.queueSize = queueSize;
+        AtomicInteger index = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread t = new Thread(r, name + "-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run the task on the ssl task threads, or run it directly if the queue is full.
+     * The task should not assume which thread it runs on.
+     */
+    public void execute(Runnable task) {
+        queueDepth.record(executor.getQueue().size());
+        Runnable r = () -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Logger.error(LogType.IMPROPER_USE, "ssl task thrown exception", t);
+            }
+            taskTime.record((System.nanoTime() - start) / 1000);
+        };
+        try {
+            executor.execute(r);
+        } catch (RejectedExecutionException e) {
+            callerRuns.inc();
+            r.run();
+        }
+    }
+
+    /**
+     * @return true if the queue is more than half full
+     */
+    public boolean isSaturated() {
+        return executor.getQueue().size() * 2 > queueSize;
+    }
+
+    public int queued() {
+        return executor.getQueue().size();
+    }
+
+    public int threads() {
+        return executor.getPoolSize();
+    }
+}
@@ -14,6 +14,10 @@ public class VSSLContext {
     }
 
     public SSL createSSL() {
-        return new SSL(sslContextHolder, new SSLEngineBuilder(SSLContext::createSSLEngine));
+        return createSSL(null);
+    }
+
+    public SSL createSSL(SSLHandshakeMetrics handshakeMetrics) {
+        return new SSL(sslContextHolder, new SSLEngineBuilder(SSLContext::createSSLEngine), handshakeMetrics);
     }
 }
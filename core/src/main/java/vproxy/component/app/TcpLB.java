@@ -19,6 +19,7 @@ import vproxybase.util.Logger;
 import vproxybase.util.exception.AlreadyExistException;
 import vproxybase.util.exception.ClosedException;
 import vproxybase.util.exception.NotFoundException;
+import vproxybase.util.ringbuffer.ssl.SSLHandshakeMetrics;
 import vproxybase.util.ringbuffer.ssl.VSSLContext;
 
 import java.io.IOException;
@@ -88,6 +89,8 @@ public class TcpLB {
     // false means the opposite
     private boolean destroyed = false;
 
+    // true means the listeners are bound on the worker loops, see Config.shardedAcceptEnabled
+    private final boolean shardedAccept;
     private final LBAttach attach;
 
     public final ConcurrentMap<ServerSock, Proxy> servers = new ConcurrentHashMap<>();
@@ -133,9 +136,33 @@ public class TcpLB {
         // if it's created, it should start to run
         // so create it in start() method
 
-        // attach to acceptorGroup
+        this.shardedAccept = shouldShardAccept(acceptorGroup, workerGroup);
+
+        // attach to the group where listeners are bound
         this.attach = new LBAttach();
-        acceptorGroup.attachResource(attach);
+        listenerGroup().attachResource(attach);
+    }
+
+    private static boolean shouldShardAccept(EventLoopGroup acceptorGroup, EventLoopGroup workerGroup) {
+        if (!Config.shardedAcceptEnabled) {
+            return false;
+        }
+        if (acceptorGroup == workerGroup) {
+            return false; // already accepting on the worker loops
+        }
+        if (!ServerSock.supportReusePort() || !Config.supportReusePortLB()) {
+            Logger.warn(LogType.IMPROPER_USE, "sharded accept is enabled but the kernel does not load balance " +
+                "connections across reuseport sockets, use the acceptor group instead");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the event loop group which the listening sockets are bound on
+     */
+    public EventLoopGroup listenerGroup() {
+        return shardedAccept ? workerGroup : acceptorGroup;
     }
 
     // this method can override
@@ -195,7 +222,8 @@ public class TcpLB {
             .setOutBufferSize(outBufferSize)
             .setServer(server)
             .setAcceptLoop(eventLoop)
-            .setSslContext(sslContext);
+            .setSslContext(sslContext)
+            .setSslHandshakeMetrics(SSLHandshakeMetrics.of(alias));
     }
 
     public void start() throws IOException {
@@ -207,7 +235,9 @@ public class TcpLB {
 
             stopped = false;
 
-            List<EventLoopWrapper> eventLoops = acceptorGroup.list();
+            // when sharded, each worker loop owns a reuseport listener,
+            // and the handle loop provider always returns the accepting loop
+            List<EventLoopWrapper> eventLoops = listenerGroup().list();
             if (eventLoops.isEmpty()) {
                 assert Logger.lowLevelDebug("cannot start because event loop list is empty, will start later");
                 return;
@@ -271,10 +301,11 @@ public class TcpLB {
         }
 
         try {
-            acceptorGroup.detachResource(attach);
+            listenerGroup().detachResource(attach);
         } catch (NotFoundException e) {
             // ignore
         }
+        SSLHandshakeMetrics.remove(alias);
     }
 
     public int sessionCount() {
@@ -21,6 +21,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
     private final Connection frontendConnection;
     private final Processor.SubContext frontendSubCtx;
     private final NetEventLoop loop;
+    private final ProcessorMetrics metrics;
 
     private final Map<BackendConnectionHandler, Integer> conn2intMap = new HashMap<>();
 
@@ -29,13 +30,14 @@ class ProcessorConnectionHandler implements ConnectionHandler {
     // [0] will not be used
     // I believe that 1024 connections should be enough
 
-    public ProcessorConnectionHandler(ProxyNetConfig config, NetEventLoop loop, Connection frontendConnection, Processor processor, Processor.Context topCtx, Processor.SubContext frontendSubCtx) {
+    public ProcessorConnectionHandler(ProxyNetConfig config, NetEventLoop loop, Connection frontendConnection, Processor processor, Processor.Context topCtx, Processor.SubContext frontendSubCtx, ProcessorMetrics metrics) {
         this.config = config;
         this.processor = processor;
         this.topCtx = topCtx;
         this.frontendConnection = frontendConnection;
         this.frontendSubCtx = frontendSubCtx;
         this.loop = loop;
+        this.metrics = metrics;
     }
 
     void recordBackend(BackendConnectionHandler backend, int connId) {
@@ -188,7 +190,11 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         private final Processor.SubContext subCtx;
         private final ConnectableConnection conn;
+        private final long connectStart = System.nanoTime(); // the handler is created right after the connection starts
         private boolean isConnected = false;
+        // the time when the current request is dispatched to this backend, 0 means no request
+        private long requestStart = 0;
+        private boolean responding = false;
 
         private ByteArrayChannel chnl = null;
         private final BackendConnectionHandler.ByteFlow backendByteFlow = new BackendConnectionHandler.ByteFlow();
@@ -199,6 +205,36 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             this.conn = conn;
         }
 
+        /**
+         * called when frontend data is dispatched to this backend
+         */
+        void requestDispatched() {
+            if (requestStart == 0) {
+                requestStart = System.nanoTime();
+            }
+        }
+
+        /**
+         * called when backend data is going to be written to the frontend
+         */
+        void responseReceived() {
+            if (requestStart != 0 && !responding) {
+                responding = true;
+                metrics.timeToFirstByte.record((System.nanoTime() - requestStart) / 1000);
+            }
+        }
+
+        /**
+         * called when the response frame is fully written to the frontend
+         */
+        void responseDone() {
+            if (requestStart != 0) {
+                metrics.request.record((System.nanoTime() - requestStart) / 1000);
+            }
+            requestStart = 0;
+            responding = false;
+        }
+
         void writeToBackend(ByteArray data) {
             backendByteFlow.write(data);
             doBackendWrite();
@@ -210,11 +246,13 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         }
 
         void writeToFrontend(ByteArray data) {
+            responseReceived();
             frontendByteFlow.write(data);
             frontendWrite(this);
         }
 
         void proxyToFrontend(int len) {
+            responseReceived();
             frontendByteFlow.proxy(len);
             frontendWrite(this);
         }
@@ -266,6 +304,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         @Override
         public void connected(ConnectableConnectionHandlerContext ctx) {
             isConnected = true;
+            metrics.connect.record((System.nanoTime() - connectStart) / 1000);
             // no need to call processor.connected(...) here, it's already called when retrieving the connection
             doBackendWrite();
         }
@@ -366,6 +405,9 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         @Override
         public void exception(ConnectionHandlerContext ctx, IOException err) {
+            if (!isConnected) {
+                metrics.connectFailures.inc();
+            }
             Logger.error(LogType.CONN_ERROR, "got exception when handling backend connection " + conn + ", closing frontend " + frontendConnection, err);
             frontendConnection.close(true);
             closeAll();
@@ -501,6 +543,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             }
             // now nothing to be handled for this connection
             if (processor.expectNewFrame(topCtx, handlingConnection.subCtx)) {
+                handlingConnection.responseDone();
                 handlingConnection = null; // is done, set to null and go on
             } else {
                 return; // no data for now, exit the method
@@ -586,6 +629,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     processor.proxyDone(topCtx, frontendSubCtx);
                     readFrontend(); // recursively call to read more data
                 } else {
+                    backend.requestDispatched();
                     backend.proxyToBackend(bytesToProxy);
                 }
             }
@@ -661,9 +705,21 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                 Logger.error(LogType.CONN_ERROR, "failed to retrieve the backend connection for " + frontendConnection + "/" + connId);
                 frontendConnection.close(true);
             } else {
+                ByteArray produced;
+                try {
+                    produced = processor.produceToBackend(topCtx, frontendSubCtx, backend.subCtx);
+                } catch (Exception e) {
+                    Logger.warn(LogType.INVALID_EXTERNAL_DATA, "user code cannot produce data for " + backend.conn + ". err=" + e);
+                    frontendConnection.close(true);
+                    return;
+                }
+                if (produced != null && produced.length() != 0) {
+                    bytesToSend = (bytesToSend == null || bytesToSend.length() == 0) ? produced : bytesToSend.concat(produced);
+                }
                 if (bytesToSend == null || bytesToSend.length() == 0) {
                     readFrontend(); // recursively call to handle more data
                 } else {
+                    backend.requestDispatched();
                     backend.writeToBackend(bytesToSend);
                 }
             }
@@ -703,12 +759,15 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         // get a new connection
         ConnectableConnection connectableConnection;
+        RingBuffer inBuffer = RingBuffer.allocateDirectPooled(config.inBufferSize);
+        RingBuffer outBuffer = ProxyOutputRingBuffer.allocateDirectPooled(config.outBufferSize);
         try {
             connectableConnection = connector.connect(
-                new ConnectionOpts().setTimeout(config.timeout),
-                RingBuffer.allocateDirect(config.inBufferSize), ProxyOutputRingBuffer.allocateDirect(config.outBufferSize));
+                new ConnectionOpts().setTimeout(config.timeout), inBuffer, outBuffer);
         } catch (IOException e) {
             Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
+            inBuffer.clean();
+            outBuffer.clean();
             return null;
         }
 
@@ -726,6 +785,8 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             // remove from collection because it fails
             removeBackend(bh);
             connectableConnection.close(true);
+            inBuffer.clean();
+            outBuffer.clean();
 
             return null;
         }
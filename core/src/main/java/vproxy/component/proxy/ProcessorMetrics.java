@@ -0,0 +1,38 @@
+package vproxy.component.proxy;
+
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * metrics of the connections handled by processors, labeled with the processor name
+ */
+class ProcessorMetrics {
+    private static final ConcurrentHashMap<String, ProcessorMetrics> metrics = new ConcurrentHashMap<>();
+
+    final Histogram connect;
+    final Counter connectFailures;
+    final Histogram timeToFirstByte;
+    final Histogram request;
+
+    private ProcessorMetrics(String processor) {
+        connect = Metrics.histogram("vproxy_processor_connect_seconds",
+            "Time cost of connecting to the backends", 1e-6, "processor", processor);
+        connectFailures = Metrics.counter("vproxy_processor_connect_failures_total",
+            "Count of the failed connections to the backends", "processor", processor);
+        timeToFirstByte = Metrics.histogram("vproxy_processor_time_to_first_byte_seconds",
+            "Time from dispatching a request to a backend to receiving the first byte of its response", 1e-6, "processor", processor);
+        request = Metrics.histogram("vproxy_processor_request_seconds",
+            "Time from dispatching a request to a backend to the end of its response frame", 1e-6, "processor", processor);
+    }
+
+    static ProcessorMetrics of(String processor) {
+        ProcessorMetrics m = metrics.get(processor);
+        if (m != null) {
+            return m;
+        }
+        return metrics.computeIfAbsent(processor, ProcessorMetrics::new);
+    }
+}
@@ -1,17 +1,25 @@
 package vproxy.component.proxy;
 
 import vfd.SocketFD;
+import vfd.posix.SplicePipe;
+import vproxybase.Config;
 import vproxybase.connection.*;
 import vproxybase.processor.Processor;
 import vproxybase.protocol.ProtocolConnectionHandler;
 import vproxybase.protocol.ProtocolHandler;
 import vproxybase.protocol.ProtocolHandlerContext;
 import vproxybase.util.*;
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
 import vproxybase.util.ringbuffer.ByteBufferRingBuffer;
+import vproxybase.util.ringbuffer.PipeRingBuffer;
 import vproxybase.util.ringbuffer.ProxyOutputRingBuffer;
 import vproxybase.util.ringbuffer.SSLUtils;
+import vproxybase.util.ringbuffer.SimpleRingBuffer;
 import vproxybase.util.ringbuffer.ssl.SSL;
 import vproxybase.util.ringbuffer.ssl.SSLEngineBuilder;
+import vproxybase.util.ringbuffer.ssl.SSLTaskExecutor;
 
 import javax.net.ssl.SSLParameters;
 import java.io.IOException;
@@ -23,6 +31,11 @@ import java.util.Collection;
  * the session operations will always be handled in the same event loop
  */
 public class Proxy {
+    private static final Histogram connectLatency = Metrics.histogram("vproxy_proxy_connect_seconds",
+        "Time cost of connecting to the backends when proxying directly", 1e-6);
+    private static final Counter connectFailures = Metrics.counter("vproxy_proxy_connect_failures_total",
+        "Count of the failed connections to the backends when proxying directly");
+
     private static void utilCloseConnection(Connection connection) {
         assert Logger.lowLevelDebug("close connection " + connection);
         connection.close();
@@ -34,11 +47,77 @@ public class Proxy {
         connection.getOutBuffer().clean();
     }
 
+    private static void utilResetConnectionAndReleaseBuffers(Connection connection) {
+        connection.close(true);
+        connection.getInBuffer().clean();
+        connection.getOutBuffer().clean();
+    }
+
     private static void utilCloseSessionAndReleaseBuffers(Session session) {
         utilCloseConnectionAndReleaseBuffers(session.active);
         utilCloseConnection(session.passive);
     }
 
+    // replace the buffers of the two connections with pipes
+    // if the bytes can be moved between the fds without being handled in user space
+    private static void trySplice(Connection active, ConnectableConnection passive) {
+        RingBuffer in = active.getInBuffer();
+        RingBuffer out = active.getOutBuffer();
+        // ssl or processor buffers are not SimpleRingBuffer
+        // and the buffers might be replaced by the connector
+        if (!(in instanceof SimpleRingBuffer) || !(out instanceof SimpleRingBuffer)
+            || passive.getOutBuffer() != in || passive.getInBuffer() != out) {
+            return;
+        }
+        // some data might be left by the protocol handler
+        if (in.used() != 0 || out.used() != 0) {
+            return;
+        }
+        if (!SplicePipe.supported(active.channel) || !SplicePipe.supported(passive.channel)) {
+            return;
+        }
+        PipeRingBuffer toPassive;
+        PipeRingBuffer toActive;
+        try {
+            toPassive = PipeRingBuffer.open(active.channel, in.capacity());
+        } catch (IOException e) {
+            Logger.error(LogType.SYS_ERROR, "open pipe for splice failed", e);
+            return;
+        }
+        try {
+            toActive = PipeRingBuffer.open(passive.channel, out.capacity());
+        } catch (IOException e) {
+            Logger.error(LogType.SYS_ERROR, "open pipe for splice failed", e);
+            toPassive.clean();
+            return;
+        }
+        boolean activeReplaced = false;
+        try {
+            active.UNSAFE_replaceBuffer(toPassive, toActive);
+            activeReplaced = true;
+            passive.UNSAFE_replaceBuffer(toActive, toPassive);
+        } catch (IOException e) {
+            // the buffers are checked to be empty, so it should not happen
+            Logger.shouldNotHappen("replacing buffers with pipes failed", e);
+            if (activeReplaced) {
+                // the pipes are still empty, put the original buffers back
+                try {
+                    active.UNSAFE_replaceBuffer(in, out);
+                } catch (IOException e2) {
+                    Logger.shouldNotHappen("restoring buffers of " + active + " failed", e2);
+                    active.close();
+                    passive.close();
+                }
+            }
+            toPassive.clean();
+            toActive.clean();
+            return;
+        }
+        assert Logger.lowLevelDebug("splice enabled for " + active + " and " + passive);
+        in.clean();
+        out.clean();
+    }
+
     class SessionServerHandler implements ServerHandler {
         @Override
         public void acceptFail(ServerHandlerContext ctx, IOException err) {
@@ -104,6 +183,10 @@ public class Proxy {
                 return;
             }
 
+            if (Config.spliceEnabled) {
+                trySplice(connection, connectableConnection);
+            }
+
             Session session = new Session(connection, connectableConnection);
             ConnectableConnectionHandler handler = new SessionConnectableConnectionHandler(session);
 
@@ -198,7 +281,7 @@ public class Proxy {
             if (loop == null) {
                 // the loop not exist
                 Logger.warn(LogType.NO_EVENT_LOOP, "cannot get event loop for handler");
-                connection.close(true);
+                utilResetConnectionAndReleaseBuffers(connection);
                 return;
             }
 
@@ -212,7 +295,7 @@ public class Proxy {
                 // user code fail to provide the data
                 Logger.error(LogType.IMPROPER_USE, "user code should set a tuple(T, null) to the data field");
                 // close the connection because we cannot handle it anymore
-                connection.close(true);
+                utilResetConnectionAndReleaseBuffers(connection);
                 return;
             }
             tup = new Tuple<>(tup.left, new HandlerCallback(acceptLoop, loop, connection));
@@ -228,7 +311,7 @@ public class Proxy {
                 // and do some log
                 Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "add new connection into loop failed", e);
                 // the connection should be closed by the lib
-                connection.close(true);
+                utilResetConnectionAndReleaseBuffers(connection);
             }
         }
 
@@ -253,7 +336,8 @@ public class Proxy {
                     frontendConnection,
                     processor,
                     topCtx,
-                    frontendSubCtx
+                    frontendSubCtx,
+                    ProcessorMetrics.of(processor.name())
                 );
             try {
                 loop.addConnection(frontendConnection, null, handler);
@@ -261,7 +345,7 @@ public class Proxy {
                 // and do some log
                 Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "add new connection into loop failed", e);
                 // the connection should be closed by the lib
-                frontendConnection.close(true);
+                utilResetConnectionAndReleaseBuffers(frontendConnection);
             }
         }
 
@@ -277,17 +361,20 @@ public class Proxy {
                 inBufferSize = Math.max(config.inBufferSize, 24576);
                 outBufferSize = Math.max(config.outBufferSize, 24576);
             }
-            ByteBufferRingBuffer inBuffer = RingBuffer.allocateDirect(inBufferSize);
-            RingBuffer outBuffer =
-                (config.connGen.type() == ConnectorGen.Type.processor && config.sslContext == null)
-                    ? ProxyOutputRingBuffer.allocateDirect(outBufferSize)
-                    : RingBuffer.allocateDirect(outBufferSize);
+            // the buffers are cleaned when the session closes, so they can be leased from the pool
+            // this method runs on the acceptor loop, so the buffers are created without memory attached,
+            // and the memory is leased from the pool of the worker loop when data arrives
+            // the drained buffers are returned to the pool only when lazy attach is enabled
+            ByteBufferRingBuffer inBuffer = RingBuffer.allocateDirectLazy(inBufferSize);
+            RingBuffer outBuffer = config.connGen.type() == ConnectorGen.Type.processor && config.sslContext == null
+                ? ProxyOutputRingBuffer.allocateDirectLazy(outBufferSize)
+                : RingBuffer.allocateDirectLazy(outBufferSize);
 
             if (config.sslContext == null) {
                 return new Tuple<>(inBuffer, outBuffer);
             }
 
-            SSL ssl = config.sslContext.createSSL();
+            SSL ssl = config.sslContext.createSSL(config.sslHandshakeMetrics);
             SSLEngineBuilder builder = ssl.sslEngineBuilder;
             builder.configure(engine -> engine.setUseClientMode(false));
             builder.configure(engine -> engine.setNeedClientAuth(false));
@@ -328,6 +415,12 @@ public class Proxy {
         public ConnectionOpts connectionOpts() {
             return new ConnectionOpts().setTimeout(config.timeout);
         }
+
+        @Override
+        public boolean acceptable(ServerHandlerContext ctx) {
+            // hold new tls connections in the backlog when the handshake threads are busy
+            return config.sslContext == null || !SSLTaskExecutor.get().isSaturated();
+        }
     }
 
     static class SessionConnectionHandler implements ConnectionHandler {
@@ -408,6 +501,7 @@ public class Proxy {
 
     class SessionConnectableConnectionHandler implements ConnectableConnectionHandler {
         private final Session session;
+        private final long connectStart = System.nanoTime(); // the handler is created right after the connection starts
         private boolean isConnected = false;
 
         SessionConnectableConnectionHandler(Session session) {
@@ -418,6 +512,7 @@ public class Proxy {
         public void connected(ConnectableConnectionHandlerContext ctx) {
             assert Logger.lowLevelDebug("passive connection established: " + session);
             isConnected = true; // it's connected
+            connectLatency.record((System.nanoTime() - connectStart) / 1000);
 
             // now we can add active connection into event loop
             // use event loop from context
@@ -458,6 +553,7 @@ public class Proxy {
             utilCloseSessionAndReleaseBuffers(session);
 
             if (!isConnected) {
+                connectFailures.inc();
                 // the connection failed before established
                 // we should alert the connector that the connection failed
                 Connector connector = ((ConnectableConnection) ctx.connection).getConnector();
@@ -3,6 +3,7 @@ package vproxy.component.proxy;
 import vproxybase.Config;
 import vproxybase.connection.NetEventLoop;
 import vproxybase.connection.ServerSock;
+import vproxybase.util.ringbuffer.ssl.SSLHandshakeMetrics;
 import vproxybase.util.ringbuffer.ssl.VSSLContext;
 
 import javax.net.ssl.SSLEngine;
@@ -21,6 +22,7 @@ public class ProxyNetConfig {
 
     VSSLContext sslContext = null;
     BiConsumer<SSLEngine, SSLParameters> sslEngineManipulator = null;
+    SSLHandshakeMetrics sslHandshakeMetrics = null;
 
     public ProxyNetConfig setAcceptLoop(NetEventLoop acceptLoop) {
         this.acceptLoop = acceptLoop;
@@ -67,6 +69,11 @@ public class ProxyNetConfig {
         return this;
     }
 
+    public ProxyNetConfig setSslHandshakeMetrics(SSLHandshakeMetrics sslHandshakeMetrics) {
+        this.sslHandshakeMetrics = sslHandshakeMetrics;
+        return this;
+    }
+
     public NetEventLoop getAcceptLoop() {
         return acceptLoop;
     }
@@ -102,4 +109,8 @@ public class ProxyNetConfig {
     public BiConsumer<SSLEngine, SSLParameters> getSslEngineManipulator() {
         return sslEngineManipulator;
     }
+
+    public SSLHandshakeMetrics getSslHandshakeMetrics() {
+        return sslHandshakeMetrics;
+    }
 }
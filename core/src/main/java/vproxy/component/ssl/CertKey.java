@@ -1,5 +1,6 @@
 package vproxy.component.ssl;
 
+import vproxybase.util.ringbuffer.ssl.SSLSessionCache;
 import vproxybase.util.ringbuffer.ssl.VSSLContext;
 
 import javax.net.ssl.KeyManager;
@@ -72,7 +73,7 @@ public class CertKey {
 
     public void setInto(VSSLContext vsslContext) throws Exception {
         // create ctx
-        SSLContext ctx = SSLContext.getInstance("TLS");
+        SSLContext ctx = SSLSessionCache.newContext();
         // create empty key store
         KeyStore keyStore = KeyStore.getInstance("JKS");
         keyStore.load(null);
@@ -84,13 +85,14 @@ public class CertKey {
         KeyManager[] km = kmf.getKeyManagers();
         // init ctx
         ctx.init(km, null, null);
+        SSLSessionCache.configure(ctx);
 
         vsslContext.sslContextHolder.add(ctx, certs);
     }
 
     public SSLContext buildSSLContext() throws Exception {
         // create ctx
-        SSLContext ctx = SSLContext.getInstance("TLS");
+        SSLContext ctx = SSLSessionCache.newContext();
         // create empty key store
         KeyStore keyStore = KeyStore.getInstance("JKS");
         keyStore.load(null);
@@ -102,6 +104,7 @@ public class CertKey {
         KeyManager[] km = kmf.getKeyManagers();
         // init ctx
         ctx.init(km, null, null);
+        SSLSessionCache.configure(ctx);
         return ctx;
     }
 
@@ -2,8 +2,10 @@ package vproxy.component.svrgroup;
 
 import vfd.IPPort;
 import vproxybase.component.svrgroup.ServerGroup;
+import vproxybase.component.svrgroup.ServerListener;
 import vproxybase.connection.Connector;
 import vproxybase.processor.Hint;
+import vproxybase.processor.HintIndex;
 import vproxybase.util.exception.AlreadyExistException;
 import vproxybase.util.exception.NotFoundException;
 
@@ -42,6 +44,7 @@ public class Upstream {
                 annotations = Collections.emptyMap();
             }
             this.annotations = annotations;
+            rebuildHintIndex();
         }
     }
 
@@ -55,13 +58,47 @@ public class Upstream {
         }
     }
 
+    class GroupAnnotationsListener implements ServerListener {
+        @Override
+        public void up(ServerGroup.ServerHandle server) {
+        }
+
+        @Override
+        public void down(ServerGroup.ServerHandle server) {
+        }
+
+        @Override
+        public void start(ServerGroup.ServerHandle server) {
+        }
+
+        @Override
+        public void stop(ServerGroup.ServerHandle server) {
+        }
+
+        @Override
+        public void annotationsChanged(ServerGroup group) {
+            rebuildHintIndex();
+        }
+    }
+
     public final String alias;
     private ArrayList<ServerGroupHandle> serverGroupHandles = new ArrayList<>(0);
     private WRR _wrr;
+    private HintIndex<ServerGroupHandle> _hintIndex;
+    private final GroupAnnotationsListener groupAnnotationsListener = new GroupAnnotationsListener();
 
     public Upstream(String alias) {
         this.alias = alias;
         recalculateWRR();
+        rebuildHintIndex();
+    }
+
+    private void rebuildHintIndex() {
+        List<HintIndex.Entry<ServerGroupHandle>> entries = new ArrayList<>(serverGroupHandles.size());
+        for (ServerGroupHandle h : serverGroupHandles) {
+            entries.add(HintIndex.entry(h, h.annotations, h.group.getAnnotations()));
+        }
+        _hintIndex = new HintIndex<>(entries);
     }
 
     private void recalculateWRR() {
@@ -152,6 +189,8 @@ public class Upstream {
         newLs.add(h);
         serverGroupHandles = newLs;
         recalculateWRR();
+        group.addServerListener(groupAnnotationsListener);
+        rebuildHintIndex();
         return h;
     }
 
@@ -173,6 +212,8 @@ public class Upstream {
         }
         serverGroupHandles = newLs;
         recalculateWRR();
+        group.removeServerListener(groupAnnotationsListener);
+        rebuildHintIndex();
     }
 
     public List<ServerGroupHandle> getServerGroupHandles() {
@@ -184,17 +225,7 @@ public class Upstream {
     }
 
     public ServerGroupHandle searchForGroup(Hint hint) {
-        int level = 0;
-        ServerGroupHandle lastMax = null;
-        for (ServerGroupHandle h : serverGroupHandles) {
-            //noinspection unchecked
-            int l = hint.matchLevel(h.annotations, h.group.getAnnotations());
-            if (l > level) {
-                level = l;
-                lastMax = h;
-            }
-        }
-        return lastMax;
+        return _hintIndex.search(hint);
     }
 
     public Connector next(IPPort source, Hint hint) {
@@ -0,0 +1,353 @@
+package vproxy.dns;
+
+import vfd.IPPort;
+import vproxybase.Config;
+import vproxybase.dns.Formatter;
+import vproxybase.dns.*;
+import vproxybase.util.ByteArray;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache of the responses retrieved by recursive lookups of a dns server, and records of the in-flight lookups.<br>
+ * Responses are stored serialized, only the id and ttl fields are modified when the cache is hit.
+ * Positive responses live for the min ttl of the answers,
+ * negative responses (NXDOMAIN or NODATA) live for the ttl of the SOA record in the authority section (rfc 2308),
+ * and will not be cached if no SOA is provided.<br>
+ * Entries are evicted in LRU order when the cache is full.<br>
+ * Time is read from {@link Config#currentTimestamp} by default, another clock can be provided in the constructor.
+ */
+public class DNSRecursiveCache {
+    private static final int SOA_TYPE = 6;
+    private static final int MAX_POSITIVE_TTL = 86400;
+    private static final int MAX_NEGATIVE_TTL = 10800;
+
+    private final int maxSize;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Key, CachedResponse> entries;
+    private final Map<Key, List<Waiter>> inFlight = new HashMap<>();
+
+    // statistics
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long coalesceCount = 0;
+
+    public DNSRecursiveCache(int maxSize) {
+        this(maxSize, () -> Config.currentTimestamp);
+    }
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    public DNSRecursiveCache(int maxSize, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResponse> eldest) {
+                return size() > DNSRecursiveCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * The edns state of the request is a part of the key,
+     * so that responses fetched for edns or DO=1 queries are never replayed to clients which did not ask for them.
+     */
+    public static class Key {
+        public final String qname;
+        public final DNSType qtype;
+        public final DNSClass qclass;
+        public final boolean edns; // the request carries an OPT record
+        public final boolean dnssecOk; // the DO bit of the OPT record
+
+        public Key(String qname, DNSType qtype, DNSClass qclass) {
+            this(qname, qtype, qclass, false, false);
+        }
+
+        public Key(String qname, DNSType qtype, DNSClass qclass, boolean edns, boolean dnssecOk) {
+            this.qname = normalize(qname);
+            this.qtype = qtype;
+            this.qclass = qclass;
+            this.edns = edns;
+            this.dnssecOk = dnssecOk;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return edns == key.edns &&
+                dnssecOk == key.dnssecOk &&
+                qname.equals(key.qname) &&
+                qtype == key.qtype &&
+                qclass == key.qclass;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(qname, qtype, qclass, edns, dnssecOk);
+        }
+
+        @Override
+        public String toString() {
+            return qname + "/" + qtype + "/" + qclass + (edns ? (dnssecOk ? "/edns+do" : "/edns") : "");
+        }
+    }
+
+    public static class Waiter {
+        public final DNSPacket request;
+        public final IPPort remote;
+
+        public Waiter(DNSPacket request, IPPort remote) {
+            this.request = request;
+            this.remote = remote;
+        }
+    }
+
+    public class CachedResponse {
+        public final Key key;
+        public final DNSPacket.RCode rcode;
+        public final int answerCount;
+        private final byte[] raw;
+        private final int[] ttlOffsets;
+        private final int[] ttls;
+        private final long storeTime;
+        private final long expireTime;
+
+        CachedResponse(Key key, DNSPacket.RCode rcode, int answerCount, byte[] raw, int[] ttlOffsets, int[] ttls, int ttl) {
+            this.key = key;
+            this.rcode = rcode;
+            this.answerCount = answerCount;
+            this.raw = raw;
+            this.ttlOffsets = ttlOffsets;
+            this.ttls = ttls;
+            this.storeTime = clock.getAsLong();
+            this.expireTime = storeTime + ttl * 1000L;
+        }
+
+        public boolean isNegative() {
+            return rcode != DNSPacket.RCode.NoError || answerCount == 0;
+        }
+
+        public int ttlLeft() {
+            long left = (expireTime - clock.getAsLong()) / 1000;
+            return left < 0 ? 0 : (int) left;
+        }
+
+        private byte[] serialize(int id) {
+            byte[] ret = Arrays.copyOf(raw, raw.length);
+            ret[0] = (byte) ((id >> 8) & 0xff);
+            ret[1] = (byte) (id & 0xff);
+            int elapsed = (int) ((clock.getAsLong() - storeTime) / 1000);
+            for (int i = 0; i < ttlOffsets.length; ++i) {
+                int ttl = Math.max(ttls[i] - elapsed, 0);
+                int off = ttlOffsets[i];
+                ret[off] = (byte) ((ttl >> 24) & 0xff);
+                ret[off + 1] = (byte) ((ttl >> 16) & 0xff);
+                ret[off + 2] = (byte) ((ttl >> 8) & 0xff);
+                ret[off + 3] = (byte) (ttl & 0xff);
+            }
+            return ret;
+        }
+
+        public void remove() {
+            synchronized (DNSRecursiveCache.this) {
+                entries.remove(key, this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return key + " -> " + rcode + " answers " + answerCount + " ttl " + ttlLeft();
+        }
+    }
+
+    private static String normalize(String qname) {
+        if (qname.endsWith(".")) {
+            qname = qname.substring(0, qname.length() - 1);
+        }
+        return qname.toLowerCase();
+    }
+
+    /**
+     * @return the key of the request, or null if the request cannot be cached or coalesced
+     */
+    public static Key keyOf(DNSPacket request) {
+        if (request.opcode != DNSPacket.Opcode.QUERY || request.questions.size() != 1) {
+            return null;
+        }
+        DNSQuestion q = request.questions.get(0);
+        if (q.qtype == null || q.qtype == DNSType.OTHER || q.qtype.question || q.qclass == null) {
+            // the type code is not recorded for OTHER, so different types cannot be distinguished
+            return null;
+        }
+        boolean edns = false;
+        boolean dnssecOk = false;
+        for (DNSResource r : request.additionalResources) {
+            if (r.type == DNSType.OPT) {
+                edns = true;
+                // ttl of OPT: | extended rcode 8 | version 8 | DO 1 | Z 15 |
+                dnssecOk = (r.ttl & 0x8000) != 0;
+                break;
+            }
+        }
+        return new Key(q.qname, q.qtype, q.qclass, edns, dnssecOk);
+    }
+
+    /**
+     * @return serialized response with the id of the request and ttl fields decreased, or null if not cached
+     */
+    public synchronized byte[] lookup(Key key, int id) {
+        CachedResponse entry = entries.get(key);
+        if (entry != null && entry.expireTime <= clock.getAsLong()) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return entry.serialize(id);
+    }
+
+    /**
+     * @return true if the caller should send the request to upstream,
+     * false if the same lookup is already in flight and the waiter is attached to it
+     */
+    public synchronized boolean await(Key key, Waiter waiter) {
+        List<Waiter> waiters = inFlight.get(key);
+        if (waiters != null) {
+            ++coalesceCount;
+            waiters.add(waiter);
+            return false;
+        }
+        waiters = new ArrayList<>(1);
+        waiters.add(waiter);
+        inFlight.put(key, waiters);
+        return true;
+    }
+
+    /**
+     * store the response if it's cacheable, and finish the in-flight lookup
+     *
+     * @param response null if the lookup failed
+     * @return all waiters of the lookup
+     */
+    public synchronized List<Waiter> complete(Key key, DNSPacket response) {
+        List<Waiter> waiters = inFlight.remove(key);
+        if (response != null && maxSize > 0) {
+            CachedResponse entry = buildEntry(key, response);
+            if (entry != null) {
+                entries.put(key, entry);
+            }
+        }
+        return waiters == null ? Collections.emptyList() : waiters;
+    }
+
+    private CachedResponse buildEntry(Key key, DNSPacket resp) {
+        if (!resp.isResponse || resp.tc) {
+            return null;
+        }
+        if (resp.rcode != DNSPacket.RCode.NoError && resp.rcode != DNSPacket.RCode.NameError) {
+            return null;
+        }
+        if (resp.questions.size() != 1) {
+            return null;
+        }
+        DNSQuestion q = resp.questions.get(0);
+        if (!key.equals(new Key(q.qname, q.qtype, q.qclass, key.edns, key.dnssecOk))) {
+            return null;
+        }
+        ByteArray arr = resp.toByteArray(); // the resources are filled after formatting
+        int offset = arr.length();
+        for (int i = resp.additionalResources.size() - 1; i >= 0; --i) {
+            offset -= Formatter.formatResource(resp.additionalResources.get(i)).length();
+        }
+        for (int i = resp.nameServers.size() - 1; i >= 0; --i) {
+            offset -= Formatter.formatResource(resp.nameServers.get(i)).length();
+        }
+        for (int i = resp.answers.size() - 1; i >= 0; --i) {
+            offset -= Formatter.formatResource(resp.answers.get(i)).length();
+        }
+
+        List<DNSResource> all = new ArrayList<>(resp.answers.size() + resp.nameServers.size() + resp.additionalResources.size());
+        all.addAll(resp.answers);
+        all.addAll(resp.nameServers);
+        all.addAll(resp.additionalResources);
+        int[] ttlOffsets = new int[all.size()];
+        int[] ttls = new int[all.size()];
+        int n = 0;
+        int minAnswerTTL = Integer.MAX_VALUE;
+        int soaTTL = -1;
+        for (int i = 0; i < all.size(); ++i) {
+            DNSResource r = all.get(i);
+            int len = Formatter.formatResource(r).length();
+            int rdlen = r.rdataBytes.length();
+            // ... | type 2 | class 2 | ttl 4 | rdlen 2 | rdata |
+            int ttlOffset = offset + len - rdlen - 6;
+            offset += len;
+            if (r.type == DNSType.OPT) {
+                continue; // the ttl field of OPT is not ttl
+            }
+            int ttl = Math.max(r.ttl, 0);
+            ttlOffsets[n] = ttlOffset;
+            ttls[n] = ttl;
+            ++n;
+            if (i < resp.answers.size()) {
+                minAnswerTTL = Math.min(minAnswerTTL, ttl);
+            } else if (i < resp.answers.size() + resp.nameServers.size()
+                && arr.uint16(ttlOffset - 4) == SOA_TYPE && rdlen >= 20) {
+                // the last field of SOA rdata is MINIMUM
+                int minimum = r.rdataBytes.int32(rdlen - 4);
+                soaTTL = Math.max(Math.min(ttl, minimum), 0);
+            }
+        }
+        int ttl;
+        if (resp.rcode == DNSPacket.RCode.NoError && !resp.answers.isEmpty()) {
+            ttl = Math.min(minAnswerTTL, MAX_POSITIVE_TTL);
+        } else {
+            ttl = Math.min(soaTTL, MAX_NEGATIVE_TTL);
+        }
+        if (ttl <= 0) {
+            return null;
+        }
+        return new CachedResponse(key, resp.rcode, resp.answers.size(), arr.toJavaArray(),
+            Arrays.copyOf(ttlOffsets, n), Arrays.copyOf(ttls, n), ttl);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void copyEntries(Collection<? super CachedResponse> coll) {
+        coll.addAll(entries.values());
+    }
+
+    /**
+     * @param qname remove all entries of the qname
+     */
+    public synchronized void remove(String qname) {
+        String n = normalize(qname);
+        entries.keySet().removeIf(k -> k.qname.equals(n));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getCoalesceCount() {
+        return coalesceCount;
+    }
+}
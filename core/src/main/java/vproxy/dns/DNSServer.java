@@ -20,10 +20,15 @@ import vproxybase.dns.rdata.SRV;
 import vproxybase.processor.Hint;
 import vproxybase.selector.Handler;
 import vproxybase.selector.HandlerContext;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.selector.wrap.udp.BatchedSendDatagramFD;
 import vproxybase.util.*;
 import vproxybase.util.exception.AlreadyExistException;
 import vproxybase.util.exception.ClosedException;
 import vproxybase.util.exception.NotFoundException;
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
 
 import java.io.IOException;
 import java.net.InterfaceAddress;
@@ -34,18 +39,36 @@ import java.nio.ByteBuffer;
 import java.util.*;
 
 public class DNSServer {
+    private static final String QUERIES_NAME = "vproxy_dns_queries_total";
+    private static final String QUERIES_HELP = "Count of the dns queries, labeled with how they are answered";
+    private static final Counter rrsetQueries = Metrics.counter(QUERIES_NAME, QUERIES_HELP, "answer", "rrset");
+    private static final Counter localQueries = Metrics.counter(QUERIES_NAME, QUERIES_HELP, "answer", "local");
+    private static final Counter cachedQueries = Metrics.counter(QUERIES_NAME, QUERIES_HELP, "answer", "recursive_cache");
+    private static final Counter coalescedQueries = Metrics.counter(QUERIES_NAME, QUERIES_HELP, "answer", "recursive_coalesced");
+    private static final Counter recursiveQueries = Metrics.counter(QUERIES_NAME, QUERIES_HELP, "answer", "recursive");
+    private static final Histogram handleLatency = Metrics.histogram("vproxy_dns_handle_seconds",
+        "Time spent on the event loop handling one received dns packet", 1e-6);
+    private static final Histogram recursiveLatency = Metrics.histogram("vproxy_dns_recursive_seconds",
+        "Time cost of the recursive lookups sent to the upstream servers", 1e-6);
+
     public final String alias;
     public final IPPort bindAddress;
     public final EventLoopGroup eventLoopGroup;
     public final Upstream rrsets;
     public final DNSClient client;
     private Map<String, IP> hosts;
-    private final ByteBuffer buffer = ByteBuffer.allocate(Config.udpMtu);
+    private static final int BATCH_SIZE = 8;
+    private final ByteBuffer[] buffers = new ByteBuffer[BATCH_SIZE];
+    private final IPPort[] remotes = new IPPort[BATCH_SIZE];
     private final ConcurrentHashSet<ResolvingInfoRecorder> resolvingInfoRecorders = new ConcurrentHashSet<>();
+    public final DNSRecursiveCache recursiveCache = new DNSRecursiveCache(Config.dnsServerCacheSize);
+    private final RRSetAnswerCache rrsetAnswerCache = new RRSetAnswerCache(); // only used on the loop where the sock is registered
+    private final ByteBuffer rrsetResponseBuffer = ByteBuffer.allocateDirect(Config.udpMtu);
 
     private final Attach attach = new Attach();
     protected NetEventLoop loop = null;
     private DatagramFD sock = null;
+    private BatchedSendDatagramFD batchedSock = null; // only used on the loop where the sock is registered
     private boolean needToStart = false;
     public int ttl;
     public SecurityGroup securityGroup;
@@ -59,6 +82,9 @@ public class DNSServer {
         this.client = DNSClient.getDefault();
         this.ttl = ttl;
         this.securityGroup = securityGroup;
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            buffers[i] = ByteBuffer.allocateDirect(Config.udpMtu);
+        }
     }
 
     class Attach implements EventLoopGroupAttach {
@@ -93,6 +119,10 @@ public class DNSServer {
     }
 
     private void handleRequest(DNSPacket p, IPPort remote) {
+        if (p.questions.size() == 1 && respondFromRRSets(p, remote)) {
+            rrsetQueries.inc();
+            return;
+        }
         Map<String, Map<DNSType, List<Record>>> addresses = new LinkedHashMap<>();
         for (DNSQuestion q : p.questions) {
             String domain = q.qname;
@@ -173,7 +203,78 @@ public class DNSServer {
             }
         }
         // it means we can directly respond when reaches here
+        localQueries.inc();
+        sendPacket(p.id, remote, buildResponse(p, addresses));
+    }
+
+    /**
+     * respond with the cached wire format response if the only question is answered by rrsets
+     *
+     * @return false if the request should be handled in the normal way
+     */
+    private boolean respondFromRRSets(DNSPacket p, IPPort remote) {
+        DNSQuestion q = p.questions.get(0);
+        if (q.qtype != DNSType.A && q.qtype != DNSType.AAAA && q.qtype != DNSType.SRV) {
+            return false;
+        }
+        if (hosts.containsKey(q.qname)) {
+            return false;
+        }
+        String domain = q.qname;
+        if (domain.endsWith(".")) { // remove tailing dot by convention
+            domain = domain.substring(0, domain.length() - 1);
+        }
+        Upstream.ServerGroupHandle gh = rrsets.searchForGroup(new Hint(domain));
+        if (gh == null) {
+            return false;
+        }
+        if (ttl < 0) {
+            ttl = 0;
+        }
+
+        RRSetAnswerCache.Key key;
+        Record record = null;
+        if (q.qtype == DNSType.SRV) {
+            key = RRSetAnswerCache.srvKey(q.qname, q.qclass, ttl, gh.group.getServerHandles());
+        } else {
+            Connector connector = q.qtype == DNSType.A ? gh.group.nextIPv4(remote) : gh.group.nextIPv6(remote);
+            if (connector == null) {
+                assert Logger.lowLevelDebug("no active server for " + domain);
+                return false;
+            }
+            record = new Record(connector.remote);
+            key = RRSetAnswerCache.addressKey(q.qname, q.qtype, q.qclass, ttl, record.target);
+        }
 
+        byte[] response = rrsetAnswerCache.get(key);
+        if (response == null) {
+            List<Record> records;
+            if (record == null) {
+                records = new ArrayList<>();
+                for (var svr : gh.group.getServerHandles()) {
+                    if (!svr.healthy) {
+                        continue;
+                    }
+                    records.add(new Record(svr.server.getAddress(), svr.server.getPort(), svr.getWeight(), svr.hostName));
+                }
+            } else {
+                records = Collections.singletonList(record);
+            }
+            Map<String, Map<DNSType, List<Record>>> addresses = new LinkedHashMap<>();
+            addresses.computeIfAbsent(q.qname, k -> new LinkedHashMap<>()).put(q.qtype, records);
+            response = buildResponse(p, addresses).toByteArray().toJavaArray();
+            if (response.length > rrsetResponseBuffer.capacity()) {
+                sendBytes(remote, ByteBuffer.wrap(response));
+                return true;
+            }
+            rrsetAnswerCache.put(key, response);
+        }
+        RRSetAnswerCache.writeResponse(response, p, rrsetResponseBuffer);
+        sendBytes(remote, rrsetResponseBuffer);
+        return true;
+    }
+
+    private DNSPacket buildResponse(DNSPacket p, Map<String, Map<DNSType, List<Record>>> addresses) {
         // a map of additional A/AAAA records for srv records
         Map<String, List<IP>> additional = new LinkedHashMap<>();
 
@@ -263,7 +364,7 @@ public class DNSServer {
                 resp.additionalResources.add(r);
             }
         }
-        sendPacket(p.id, remote, resp);
+        return resp;
     }
 
     protected IP getLocalAddressFor(IPPort remote) {
@@ -328,23 +429,77 @@ public class DNSServer {
     }
 
     protected void runRecursive(DNSPacket p, IPPort remote) {
+        DNSRecursiveCache.Key key = DNSRecursiveCache.keyOf(p);
+        if (key == null) {
+            recursiveQueries.inc();
+            long start = System.nanoTime();
+            client.request(p, new Callback<>() {
+                @Override
+                protected void onSucceeded(DNSPacket value) {
+                    recursiveLatency.record((System.nanoTime() - start) / 1000);
+                    sendPacket(p.id, remote, value);
+                }
+
+                @Override
+                protected void onFailed(IOException err) {
+                    sendError(p, remote, err);
+                }
+            });
+            return;
+        }
+
+        byte[] cached = recursiveCache.lookup(key, p.id);
+        if (cached != null) {
+            assert Logger.lowLevelDebug("recursive cache hit for " + key);
+            cachedQueries.inc();
+            sendBytes(remote, ByteBuffer.wrap(cached));
+            return;
+        }
+        // identical queries are coalesced into one upstream request
+        if (!recursiveCache.await(key, new DNSRecursiveCache.Waiter(p, remote))) {
+            assert Logger.lowLevelDebug("recursive lookup for " + key + " is already in flight");
+            coalescedQueries.inc();
+            return;
+        }
+        recursiveQueries.inc();
+        long start = System.nanoTime();
         client.request(p, new Callback<>() {
             @Override
             protected void onSucceeded(DNSPacket value) {
-                sendPacket(p.id, remote, value);
+                recursiveLatency.record((System.nanoTime() - start) / 1000);
+                for (DNSRecursiveCache.Waiter w : recursiveCache.complete(key, value)) {
+                    sendPacket(w.request.id, w.remote, value);
+                }
             }
 
             @Override
             protected void onFailed(IOException err) {
-                sendError(p, remote, err);
+                for (DNSRecursiveCache.Waiter w : recursiveCache.complete(key, null)) {
+                    sendError(w.request, w.remote, err);
+                }
             }
         });
     }
 
     protected void sendPacket(int id, IPPort remote, DNSPacket p) {
         p.id = id;
-        ByteBuffer buf = ByteBuffer.wrap(p.toByteArray().toJavaArray());
+        sendBytes(remote, ByteBuffer.wrap(p.toByteArray().toJavaArray()));
+    }
+
+    protected void sendBytes(IPPort remote, ByteBuffer buf) {
         int len = buf.limit();
+        DatagramFD sock = this.sock;
+        NetEventLoop loop = this.loop;
+        if (sock == null) {
+            assert Logger.lowLevelDebug("the dns server is stopped, drop the response packet to " + remote);
+            return;
+        }
+        BatchedSendDatagramFD batchedSock = this.batchedSock;
+        if (batchedSock != null && loop != null && loop.getSelectorEventLoop() == SelectorEventLoop.current()) {
+            // the callbacks might run on other threads
+            // only buffer the packet when running on the loop of the sock
+            sock = batchedSock;
+        }
         int sent;
         try {
             sent = sock.send(buf, remote);
@@ -410,6 +565,7 @@ public class DNSServer {
             sock.setOption(StandardSocketOptions.SO_REUSEPORT, true);
         }
         sock.bind(bindAddress);
+        batchedSock = new BatchedSendDatagramFD(sock, loop.getSelectorEventLoop(), BATCH_SIZE * 8);
         loop.getSelectorEventLoop().add(sock, EventSet.read(), null, new Handler<>() {
             @Override
             public void accept(HandlerContext<DatagramFD> ctx) {
@@ -424,50 +580,74 @@ public class DNSServer {
             @Override
             public void readable(HandlerContext<DatagramFD> ctx) {
                 while (true) { // read until no packet available
-                    buffer.limit(buffer.capacity()).position(0);
-                    IPPort remote;
+                    int n;
                     try {
-                        remote = ctx.getChannel().receive(buffer);
+                        n = ctx.getChannel().receive(buffers, remotes);
                     } catch (IOException e) {
                         Logger.error(LogType.CONN_ERROR, "reading data from dns sock " + ctx.getChannel() + " failed", e);
-                        return;
+                        break;
                     }
-                    if (remote == null) {
-                        return; // nothing received
+                    for (int i = 0; i < n; ++i) {
+                        ByteBuffer buffer = buffers[i];
+                        IPPort remote = remotes[i];
+                        remotes[i] = null;
+                        buffer.flip();
+                        try {
+                            handleReceived(buffer, remote);
+                        } finally {
+                            buffer.limit(buffer.capacity()).position(0);
+                        }
                     }
-                    if (!securityGroup.allow(Protocol.UDP, remote.getAddress(), remote.getPort())) {
-                        assert Logger.lowLevelDebug("remote " + remote + " rejected by security-group " + securityGroup.alias);
-                        continue;
+                    if (n < BATCH_SIZE) {
+                        break; // nothing more received
                     }
-                    int read = buffer.position();
-                    if (read == 0) {
-                        return;
-                    }
-                    buffer.flip();
-                    byte[] bytes = new byte[read];
-                    buffer.get(bytes);
-                    ByteArray array = ByteArray.from(bytes);
+                }
+                // send the responses in batch
+                BatchedSendDatagramFD batchedSock = DNSServer.this.batchedSock;
+                if (batchedSock == null) {
+                    return;
+                }
+                try {
+                    batchedSock.flush();
+                } catch (IOException e) {
+                    Logger.error(LogType.CONN_ERROR, "sending dns response packets via " + ctx.getChannel() + " failed", e);
+                }
+            }
 
-                    List<DNSPacket> packets;
-                    try {
-                        packets = Formatter.parsePackets(array);
-                    } catch (InvalidDNSPacketException e) {
-                        Logger.error(LogType.INVALID_EXTERNAL_DATA, "got malformed dns packet", e);
-                        return;
+            private void handleReceived(ByteBuffer buffer, IPPort remote) {
+                if (!securityGroup.allow(Protocol.UDP, remote.getAddress(), remote.getPort())) {
+                    assert Logger.lowLevelDebug("remote " + remote + " rejected by security-group " + securityGroup.alias);
+                    return;
+                }
+                int read = buffer.limit();
+                if (read == 0) {
+                    return;
+                }
+                long start = System.nanoTime();
+                byte[] bytes = new byte[read];
+                buffer.get(bytes);
+                ByteArray array = ByteArray.from(bytes);
+
+                List<DNSPacket> packets;
+                try {
+                    packets = Formatter.parsePackets(array);
+                } catch (InvalidDNSPacketException e) {
+                    Logger.error(LogType.INVALID_EXTERNAL_DATA, "got malformed dns packet", e);
+                    return;
+                }
+                assert Logger.lowLevelDebug("received dns packets: " + packets);
+                for (DNSPacket p : packets) {
+                    if (p.isResponse) {
+                        Logger.error(LogType.INVALID_EXTERNAL_DATA, "received dns packet response from " + remote);
+                        continue;
                     }
-                    assert Logger.lowLevelDebug("received dns packets: " + packets);
-                    for (DNSPacket p : packets) {
-                        if (p.isResponse) {
-                            Logger.error(LogType.INVALID_EXTERNAL_DATA, "received dns packet response from " + remote);
-                            continue;
-                        }
-                        if (p.opcode != DNSPacket.Opcode.QUERY) {
-                            runRecursive(p, remote);
-                            continue;
-                        }
-                        handleRequest(p, remote);
+                    if (p.opcode != DNSPacket.Opcode.QUERY) {
+                        runRecursive(p, remote);
+                        continue;
                     }
+                    handleRequest(p, remote);
                 }
+                handleLatency.record((System.nanoTime() - start) / 1000);
             }
 
             @Override
@@ -516,6 +696,7 @@ public class DNSServer {
         }
         loop = null;
         sock = null;
+        batchedSock = null;
         assert Logger.lowLevelDebug("dns server " + alias + " stopped");
     }
 }
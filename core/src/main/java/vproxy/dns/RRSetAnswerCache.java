@@ -0,0 +1,170 @@
+package vproxy.dns;
+
+import vfd.IP;
+import vproxybase.component.svrgroup.ServerGroup;
+import vproxybase.dns.DNSClass;
+import vproxybase.dns.DNSPacket;
+import vproxybase.dns.DNSType;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Wire format responses for the names answered from the rrsets of a dns server.<br>
+ * An A/AAAA response only depends on the question, the ttl and the selected server,
+ * and an SRV response depends on the question, the ttl and the healthy servers with their weights.
+ * These are used as the key, so a cached response never goes stale,
+ * and responses of old server sets are evicted in LRU order.<br>
+ * Only the id and the flags copied from the request are patched for each request.<br>
+ * This class is not thread safe, it should only be used on the loop of the dns server.
+ */
+public class RRSetAnswerCache {
+    private static final int MAX_SIZE = 1024;
+
+    private final LinkedHashMap<Key, byte[]> responses = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    public static class Key {
+        private final String qname;
+        private final DNSType qtype;
+        private final DNSClass qclass;
+        private final int ttl;
+        private final Object selection;
+
+        private Key(String qname, DNSType qtype, DNSClass qclass, int ttl, Object selection) {
+            this.qname = qname;
+            this.qtype = qtype;
+            this.qclass = qclass;
+            this.ttl = ttl;
+            this.selection = selection;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return ttl == key.ttl &&
+                qname.equals(key.qname) &&
+                qtype == key.qtype &&
+                qclass == key.qclass &&
+                selection.equals(key.selection);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(qname, qtype, qclass, ttl, selection);
+        }
+    }
+
+    private static class SRVSelection {
+        private final ServerGroup.ServerHandle[] servers;
+        private final int[] weights;
+        private final int hash;
+
+        SRVSelection(ServerGroup.ServerHandle[] servers, int[] weights) {
+            this.servers = servers;
+            this.weights = weights;
+            int h = Arrays.hashCode(weights);
+            for (ServerGroup.ServerHandle svr : servers) {
+                h = h * 31 + System.identityHashCode(svr);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SRVSelection that = (SRVSelection) o;
+            if (hash != that.hash || servers.length != that.servers.length) {
+                return false;
+            }
+            for (int i = 0; i < servers.length; ++i) {
+                if (servers[i] != that.servers[i]) {
+                    return false;
+                }
+            }
+            return Arrays.equals(weights, that.weights);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @param target the address of the selected server
+     */
+    public static Key addressKey(String qname, DNSType qtype, DNSClass qclass, int ttl, IP target) {
+        return new Key(qname, qtype, qclass, ttl, target);
+    }
+
+    /**
+     * @param servers all servers in the group, only the healthy ones are recorded
+     */
+    public static Key srvKey(String qname, DNSClass qclass, int ttl, List<ServerGroup.ServerHandle> servers) {
+        int n = 0;
+        for (ServerGroup.ServerHandle svr : servers) {
+            if (svr.healthy) {
+                ++n;
+            }
+        }
+        ServerGroup.ServerHandle[] healthy = new ServerGroup.ServerHandle[n];
+        int[] weights = new int[n];
+        int i = 0;
+        for (ServerGroup.ServerHandle svr : servers) {
+            if (svr.healthy && i < n) {
+                healthy[i] = svr;
+                weights[i] = svr.getWeight();
+                ++i;
+            }
+        }
+        if (i < n) { // the health state changed while iterating
+            healthy = Arrays.copyOf(healthy, i);
+            weights = Arrays.copyOf(weights, i);
+        }
+        return new Key(qname, DNSType.SRV, qclass, ttl, new SRVSelection(healthy, weights));
+    }
+
+    public byte[] get(Key key) {
+        return responses.get(key);
+    }
+
+    public void put(Key key, byte[] response) {
+        responses.put(key, response);
+    }
+
+    public int size() {
+        return responses.size();
+    }
+
+    public void clear() {
+        responses.clear();
+    }
+
+    /**
+     * write the cached response for the request into the buffer, the buffer is flipped and ready to be sent
+     */
+    public static void writeResponse(byte[] response, DNSPacket request, ByteBuffer buf) {
+        buf.clear();
+        buf.put(response);
+        buf.flip();
+        buf.put(0, (byte) ((request.id >> 8) & 0xff));
+        buf.put(1, (byte) (request.id & 0xff));
+        // |QR|   Opcode  |AA|TC|RD|
+        int flags = response[2] & ~0x05;
+        if (request.aa) {
+            flags |= 0x04;
+        }
+        if (request.rd) {
+            flags |= 0x01;
+        }
+        buf.put(2, (byte) flags);
+    }
+}
@@ -3,14 +3,13 @@ package vswitch;
 import vfd.IP;
 import vfd.IPv4;
 import vfd.IPv6;
+import vproxybase.util.Logger;
 import vproxybase.util.Network;
 import vproxybase.util.exception.AlreadyExistException;
 import vproxybase.util.exception.NotFoundException;
 import vproxybase.util.exception.XException;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
 
 public class RouteTable {
     public static final String defaultRuleName = "default";
@@ -19,8 +18,9 @@ public class RouteTable {
     private final RouteRule defaultV4Rule;
     private final RouteRule defaultV6Rule;
 
-    private final List<RouteRule> rulesV4 = new ArrayList<>();
-    private final List<RouteRule> rulesV6 = new ArrayList<>();
+    private final Rules rulesV4 = new Rules(32);
+    private final Rules rulesV6 = new Rules(128);
+    private final Map<String, RouteRule> aliases = new HashMap<>();
 
     public RouteTable() {
         this.defaultV4Rule = null;
@@ -35,52 +35,37 @@ public class RouteTable {
         }
         this.defaultV6Rule = defaultV6Rule;
 
-        rulesV4.add(defaultV4Rule);
+        rulesV4.insert(0, defaultV4Rule);
+        aliases.put(defaultV4Rule.alias, defaultV4Rule);
         if (defaultV6Rule != null) {
-            rulesV6.add(defaultV6Rule);
+            rulesV6.insert(0, defaultV6Rule);
+            aliases.put(defaultV6Rule.alias, defaultV6Rule);
         }
     }
 
     public RouteRule lookup(IP ip) {
         if (ip instanceof IPv4) {
-            for (RouteRule r : rulesV4) {
-                if (r.rule.contains(ip)) {
-                    return r;
-                }
-            }
+            return rulesV4.trie.lookup(ip);
         } else {
-            for (RouteRule r : rulesV6) {
-                if (r.rule.contains(ip)) {
-                    return r;
-                }
-            }
+            return rulesV6.trie.lookup(ip);
         }
-        return null;
     }
 
     public List<RouteRule> getRules() {
-        List<RouteRule> ret = new ArrayList<>(rulesV4.size() + rulesV6.size());
-        ret.addAll(rulesV4);
-        ret.addAll(rulesV6);
+        List<RouteRule> ret = new ArrayList<>(rulesV4.list.size() + rulesV6.list.size());
+        ret.addAll(rulesV4.list);
+        ret.addAll(rulesV6.list);
         return ret;
     }
 
     public void addRule(RouteRule r) throws AlreadyExistException, XException {
-        for (RouteRule rr : rulesV4) {
-            if (rr.alias.equals(r.alias)) {
-                throw new AlreadyExistException("route", r.alias);
-            }
-            if (rr.rule.equals(r.rule)) {
-                throw new AlreadyExistException("route " + rr.alias + " has the same network rule as the adding one: " + r.rule);
-            }
+        if (aliases.containsKey(r.alias)) {
+            throw new AlreadyExistException("route", r.alias);
         }
-        for (RouteRule rr : rulesV6) {
-            if (rr.alias.equals(r.alias)) {
-                throw new AlreadyExistException("route", r.alias);
-            }
-            if (rr.rule.equals(r.rule)) {
-                throw new AlreadyExistException("route " + rr.alias + " has the same network rule as the adding one: " + r.rule);
-            }
+        Rules rules = r.rule.getRawIpBytes().length == 4 ? rulesV4 : rulesV6;
+        RouteRule sameRule = rules.trie.find(r.rule);
+        if (sameRule != null) {
+            throw new AlreadyExistException("route " + sameRule.alias + " has the same network rule as the adding one: " + r.rule);
         }
 
         if (r.alias.equals(defaultRuleName)) {
@@ -100,26 +85,17 @@ public class RouteTable {
             }
         }
 
-        if (r.rule.getRawIpBytes().length == 4) {
-            addRule(r, rulesV4);
-        } else {
-            addRule(r, rulesV6);
-        }
+        addRule(r, rules);
+        aliases.put(r.alias, r);
     }
 
-    private void addRule(RouteRule r, List<RouteRule> rules) {
+    private void addRule(RouteRule r, Rules rulesHolder) {
+        List<RouteRule> rules = rulesHolder.list;
         // try to find rules that contain each other
-        int similarRule = -1;
-        for (int i = 0; i < rules.size(); ++i) {
-            RouteRule ri = rules.get(i);
-            if (ri.rule.contains(r.rule) || r.rule.contains(ri.rule)) {
-                similarRule = i;
-                break;
-            }
-        }
+        int similarRule = rulesHolder.firstRelated(r.rule);
 
         if (similarRule == -1) { // no crossing among all rules
-            rules.add(r);
+            rulesHolder.insert(rules.size(), r);
             return;
         }
 
@@ -150,32 +126,301 @@ public class RouteTable {
             insertIndex = i + 1;
             break;
         }
-        rules.add(insertIndex, r);
+        rulesHolder.insert(insertIndex, r);
     }
 
     public void delRule(String alias) throws NotFoundException {
-        for (int i = 0; i < rulesV4.size(); ++i) {
-            var ri = rulesV4.get(i);
-            if (ri.alias.equals(alias)) {
-                rulesV4.remove(i);
-                return;
+        RouteRule r = aliases.remove(alias);
+        if (r == null) {
+            throw new NotFoundException("route", alias);
+        }
+        if (r.rule.getRawIpBytes().length == 4) {
+            rulesV4.remove(r);
+        } else {
+            rulesV6.remove(r);
+        }
+    }
+
+    /**
+     * Rules of one ip family.<br>
+     * The list keeps the matching order, and the trie is used to lookup the first matching rule in the list.
+     * Every rule has a rank which increases along the list, the trie returns the matched rule with min rank.
+     */
+    private static class Rules {
+        private static final long RANK_GAP = 1L << 32;
+
+        final List<RouteRule> list = new ArrayList<>();
+        final List<Trie.Node> nodes = new ArrayList<>(); // nodes.get(i).rule == list.get(i)
+        final Trie trie;
+
+        Rules(int bits) {
+            this.trie = new Trie(bits);
+        }
+
+        void insert(int index, RouteRule r) {
+            long prev;
+            long next;
+            if (nodes.isEmpty()) {
+                prev = 0;
+                next = 2 * RANK_GAP;
+            } else if (index == 0) {
+                next = nodes.get(0).rank;
+                prev = next - 2 * RANK_GAP;
+            } else if (index == nodes.size()) {
+                prev = nodes.get(index - 1).rank;
+                next = prev + 2 * RANK_GAP;
+            } else {
+                prev = nodes.get(index - 1).rank;
+                next = nodes.get(index).rank;
+            }
+            long rank = prev + (next - prev) / 2;
+
+            Trie.Node node = trie.insert(r, rank);
+            list.add(index, r);
+            nodes.add(index, node);
+
+            if (rank == prev || rank == next) {
+                // no space between the ranks, re-assign all
+                for (int i = 0; i < nodes.size(); ++i) {
+                    nodes.get(i).rank = i * RANK_GAP;
+                }
+            }
+        }
+
+        void remove(RouteRule r) {
+            int index = list.indexOf(r);
+            list.remove(index);
+            nodes.remove(index);
+            trie.remove(r.rule);
+        }
+
+        /**
+         * @return index of the first rule which contains or is contained by the input network, -1 if not found
+         */
+        int firstRelated(Network net) {
+            long rank = trie.minRelatedRank(net);
+            if (rank == Long.MAX_VALUE) {
+                return -1;
+            }
+            int lo = 0;
+            int hi = nodes.size() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long midRank = nodes.get(mid).rank;
+                if (midRank < rank) {
+                    lo = mid + 1;
+                } else if (midRank > rank) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            Logger.shouldNotHappen("rank " + rank + " not found in route table");
+            return -1;
+        }
+    }
+
+    /**
+     * A path compressed binary trie of networks.<br>
+     * A node is only created for a rule or for a branch, so the depth is bounded by
+     * the number of prefixes/branches on the path instead of the address length.
+     */
+    private static class Trie {
+        static class Node {
+            final byte[] prefix; // only the first `len` bits are meaningful
+            final int len;
+            final Node[] children = new Node[2];
+            RouteRule rule;
+            long rank;
+
+            Node(byte[] prefix, int len) {
+                this.prefix = prefix;
+                this.len = len;
+            }
+        }
+
+        private final int bits;
+        private final Node root;
+
+        Trie(int bits) {
+            this.bits = bits;
+            this.root = new Node(new byte[bits / 8], 0);
+        }
+
+        private static int bit(byte[] bytes, int index) {
+            return (bytes[index >> 3] >> (7 - (index & 7))) & 1;
+        }
+
+        RouteRule lookup(IP ip) {
+            Node n = root;
+            RouteRule best = n.rule;
+            long bestRank = n.rank;
+            while (n.len < bits) {
+                Node c = n.children[ip.bitAt(n.len)];
+                if (c == null) {
+                    break;
+                }
+                // bits skipped by path compression must match as well
+                for (int i = n.len + 1; i < c.len; ++i) {
+                    if (ip.bitAt(i) != bit(c.prefix, i)) {
+                        return best;
+                    }
+                }
+                n = c;
+                if (n.rule != null && (best == null || n.rank < bestRank)) {
+                    best = n.rule;
+                    bestRank = n.rank;
+                }
+            }
+            return best;
+        }
+
+        Node insert(RouteRule r, long rank) {
+            byte[] p = r.rule.getRawIpBytes();
+            int len = r.rule.getMask();
+            Node n = root;
+            while (true) {
+                if (n.len == len) {
+                    n.rule = r;
+                    n.rank = rank;
+                    return n;
+                }
+                int b = bit(p, n.len);
+                Node c = n.children[b];
+                if (c == null) {
+                    Node leaf = new Node(p, len);
+                    leaf.rule = r;
+                    leaf.rank = rank;
+                    n.children[b] = leaf;
+                    return leaf;
+                }
+                int max = Math.min(len, c.len);
+                int common = n.len + 1;
+                while (common < max && bit(p, common) == bit(c.prefix, common)) {
+                    ++common;
+                }
+                if (common == c.len) {
+                    n = c;
+                    continue;
+                }
+                // split the edge
+                Node mid = new Node(p, common);
+                n.children[b] = mid;
+                mid.children[bit(c.prefix, common)] = c;
+                if (common == len) {
+                    mid.rule = r;
+                    mid.rank = rank;
+                    return mid;
+                }
+                Node leaf = new Node(p, len);
+                leaf.rule = r;
+                leaf.rank = rank;
+                mid.children[bit(p, common)] = leaf;
+                return leaf;
             }
         }
-        for (int i = 0; i < rulesV6.size(); ++i) {
-            var ri = rulesV6.get(i);
-            if (ri.alias.equals(alias)) {
-                rulesV6.remove(i);
-                return;
+
+        private Node findNode(byte[] p, int len) {
+            Node n = root;
+            while (n.len < len) {
+                Node c = n.children[bit(p, n.len)];
+                if (c == null || c.len > len) {
+                    return null;
+                }
+                for (int i = n.len + 1; i < c.len; ++i) {
+                    if (bit(p, i) != bit(c.prefix, i)) {
+                        return null;
+                    }
+                }
+                n = c;
+            }
+            return n;
+        }
+
+        RouteRule find(Network net) {
+            Node n = findNode(net.getRawIpBytes(), net.getMask());
+            return n == null ? null : n.rule;
+        }
+
+        void remove(Network net) {
+            remove(root, net.getRawIpBytes(), net.getMask());
+        }
+
+        // return the node to replace the input node
+        private Node remove(Node n, byte[] p, int len) {
+            if (n.len == len) {
+                n.rule = null;
+            } else {
+                int b = bit(p, n.len);
+                Node c = n.children[b];
+                if (c != null && c.len <= len) {
+                    n.children[b] = remove(c, p, len);
+                }
+            }
+            if (n != root && n.rule == null) {
+                if (n.children[0] == null) {
+                    return n.children[1];
+                }
+                if (n.children[1] == null) {
+                    return n.children[0];
+                }
+            }
+            return n;
+        }
+
+        /**
+         * @return min rank of the rules which contain the network or are contained by the network
+         */
+        long minRelatedRank(Network net) {
+            byte[] p = net.getRawIpBytes();
+            int len = net.getMask();
+            long min = Long.MAX_VALUE;
+            Node n = root;
+            while (true) {
+                if (n.len == len) {
+                    if (n.rule != null) {
+                        min = Math.min(min, n.rank);
+                    }
+                    min = Math.min(min, minRank(n.children[0]));
+                    min = Math.min(min, minRank(n.children[1]));
+                    return min;
+                }
+                if (n.rule != null) {
+                    min = Math.min(min, n.rank);
+                }
+                Node c = n.children[bit(p, n.len)];
+                if (c == null) {
+                    return min;
+                }
+                int max = Math.min(len, c.len);
+                for (int i = n.len + 1; i < max; ++i) {
+                    if (bit(p, i) != bit(c.prefix, i)) {
+                        return min;
+                    }
+                }
+                if (c.len > len) { // all rules in the sub tree are contained by the network
+                    return Math.min(min, minRank(c));
+                }
+                n = c;
+            }
+        }
+
+        private static long minRank(Node n) {
+            if (n == null) {
+                return Long.MAX_VALUE;
             }
+            long min = n.rule == null ? Long.MAX_VALUE : n.rank;
+            min = Math.min(min, minRank(n.children[0]));
+            min = Math.min(min, minRank(n.children[1]));
+            return min;
         }
-        throw new NotFoundException("route", alias);
     }
 
     @Override
     public String toString() {
         return "RouteTable{" +
-            "rulesV4=" + rulesV4 +
-            ", rulesV6=" + rulesV6 +
+            "rulesV4=" + rulesV4.list +
+            ", rulesV6=" + rulesV6.list +
             '}';
     }
 
@@ -13,6 +13,7 @@ import vproxybase.selector.HandlerContext;
 import vproxybase.selector.PeriodicEvent;
 import vproxybase.selector.SelectorEventLoop;
 import vproxybase.selector.wrap.blocking.BlockingDatagramFD;
+import vproxybase.selector.wrap.udp.BatchedSendDatagramFD;
 import vproxybase.util.Timer;
 import vproxybase.util.*;
 import vproxybase.util.crypto.Aes256Key;
@@ -46,8 +47,11 @@ public class Switch {
     private boolean started = false;
     private boolean wantStart = false;
 
+    private static final int UDP_BATCH_SIZE = 64;
+
     private final Map<String, UserInfo> users = new HashMap<>();
     private final DatagramFD sock;
+    private BatchedSendDatagramFD batchedSock; // wraps the sock for sending, bond to the current event loop
     private final Map<Integer, Table> tables = new ConcurrentHashMap<>();
     private final Map<Iface, IfaceTimer> ifaces = new HashMap<>();
 
@@ -104,6 +108,7 @@ public class Switch {
         }
         var loop = netLoop.getSelectorEventLoop();
         loop.add(sock, EventSet.read(), null, new PacketHandler());
+        batchedSock = new BatchedSendDatagramFD(sock, loop, UDP_BATCH_SIZE);
         currentEventLoop = netLoop;
         refreshCacheEvent = currentEventLoop.getSelectorEventLoop().period(40_000, this::refreshCache);
         tables.values().forEach(t -> t.setLoop(loop));
@@ -152,6 +157,7 @@ public class Switch {
 
     private void cancelEventLoop() {
         currentEventLoop = null;
+        batchedSock = null;
         if (refreshCacheEvent != null) {
             refreshCacheEvent.cancel();
             refreshCacheEvent = null;
@@ -560,6 +566,26 @@ public class Switch {
         }
     }
 
+    private DatagramFD sendingSock() {
+        var s = batchedSock;
+        if (s == null) {
+            return sock;
+        }
+        return s;
+    }
+
+    private void flushSendingSock() {
+        var s = batchedSock;
+        if (s == null) {
+            return;
+        }
+        try {
+            s.flush();
+        } catch (IOException e) {
+            Logger.error(LogType.CONN_ERROR, "sending packets via " + sock + " failed", e);
+        }
+    }
+
     private Aes256Key getKey(String name) {
         var x = users.get(name);
         if (x == null) return null;
@@ -633,7 +659,7 @@ public class Switch {
 
             sndBuf.limit(sndBuf.capacity()).position(0);
             try {
-                iface.sendPacket(sock, vxlan, sndBuf);
+                iface.sendPacket(sendingSock(), vxlan, sndBuf);
             } catch (IOException e) {
                 Logger.error(LogType.CONN_ERROR, "sending packet to " + iface + " failed", e);
             }
@@ -644,7 +670,7 @@ public class Switch {
 
             sndBuf.limit(sndBuf.capacity()).position(0);
             try {
-                iface.sendVProxyPacket(sock, p, sndBuf);
+                iface.sendVProxyPacket(sendingSock(), p, sndBuf);
             } catch (IOException e) {
                 Logger.error(LogType.CONN_ERROR, "sending packet to " + iface + " failed", e);
             }
@@ -653,7 +679,15 @@ public class Switch {
 
     private class PacketHandler implements Handler<DatagramFD> {
         private static final int IFACE_TIMEOUT = 60 * 1000;
-        private final ByteBuffer rcvBuf = ByteBuffer.allocate(2048);
+        private final ByteBuffer[] rcvBufs = new ByteBuffer[UDP_BATCH_SIZE];
+        private final IPPort[] rcvRemotes = new IPPort[UDP_BATCH_SIZE];
+        private final byte[] rcvBytes = new byte[2048];
+
+        PacketHandler() {
+            for (int i = 0; i < rcvBufs.length; ++i) {
+                rcvBufs[i] = ByteBuffer.allocateDirect(rcvBytes.length);
+            }
+        }
 
         @Override
         public void accept(HandlerContext<DatagramFD> ctx) {
@@ -769,35 +803,48 @@ public class Switch {
         public void readable(HandlerContext<DatagramFD> ctx) {
             DatagramFD sock = ctx.getChannel();
             while (true) {
-                rcvBuf.limit(rcvBuf.capacity()).position(0);
-                IPPort remote;
+                int n;
                 try {
-                    remote = sock.receive(rcvBuf);
+                    n = sock.receive(rcvBufs, rcvRemotes);
                 } catch (IOException e) {
                     Logger.error(LogType.CONN_ERROR, "udp sock " + ctx.getChannel() + " got error when reading", e);
-                    return;
+                    break;
                 }
-                if (rcvBuf.position() == 0) {
-                    break; // nothing read, quit loop
-                }
-                byte[] bytes = rcvBuf.array();
-                ByteArray data = ByteArray.from(bytes).sub(0, rcvBuf.position());
-
-                String handlingUUID = netStack.newHandlingUUID();
-
-                var tuple = handleNetworkAndGetVXLanPacket(handlingUUID, ctx.getEventLoop(), remote, data);
-                if (tuple == null) {
-                    continue;
+                for (int i = 0; i < n; ++i) {
+                    ByteBuffer rcvBuf = rcvBufs[i];
+                    rcvBuf.flip();
+                    int len = rcvBuf.limit();
+                    rcvBuf.get(rcvBytes, 0, len);
+                    rcvBuf.clear();
+                    IPPort remote = rcvRemotes[i];
+                    rcvRemotes[i] = null;
+
+                    ByteArray data = ByteArray.from(rcvBytes).sub(0, len);
+                    handlePacket(ctx, remote, data);
                 }
-                var vxlan = tuple.left;
-                var iface = tuple.right;
-                if (vxlan == null) {
-                    assert Logger.lowLevelDebug(handlingUUID + "no vxlan packet found, ignore");
-                    continue;
+                if (n < rcvBufs.length) {
+                    break; // no more packets for now, quit loop
                 }
+            }
+            // send all packets generated when handling the received ones
+            flushSendingSock();
+        }
+
+        private void handlePacket(HandlerContext<DatagramFD> ctx, IPPort remote, ByteArray data) {
+            String handlingUUID = netStack.newHandlingUUID();
 
-                netStack.inputVXLan(handlingUUID, vxlan, iface);
+            var tuple = handleNetworkAndGetVXLanPacket(handlingUUID, ctx.getEventLoop(), remote, data);
+            if (tuple == null) {
+                return;
+            }
+            var vxlan = tuple.left;
+            var iface = tuple.right;
+            if (vxlan == null) {
+                assert Logger.lowLevelDebug(handlingUUID + "no vxlan packet found, ignore");
+                return;
             }
+
+            netStack.inputVXLan(handlingUUID, vxlan, iface);
         }
 
         private void sendPingTo(String handlingUUID, UserIface iface) {
@@ -920,6 +967,8 @@ public class Switch {
 
                 L2.input(new InputPacketL2Context(handlingUUID, iface, table, ether));
             }
+            // send all packets generated when handling the received ones
+            flushSendingSock();
         }
 
         @Override
@@ -1026,6 +1075,8 @@ public class Switch {
                 }
                 inputVXLan(handlingUUID, p.getVxlan(), iface);
             }
+            // send all packets generated when handling the received ones
+            flushSendingSock();
         }
 
         @Override
@@ -4,6 +4,7 @@ import vfd.IPPort;
 import vfd.IPv4;
 import vfd.IPv6;
 import vpacket.*;
+import vproxybase.Config;
 import vproxybase.util.ByteArray;
 import vproxybase.util.Consts;
 import vproxybase.util.Logger;
@@ -216,6 +217,7 @@ public class L4 {
         // get tcp options from the syn
         int mss = TcpEntry.SND_DEFAULT_MSS;
         int windowScale = 1;
+        boolean windowScaleOffered = false;
         for (var opt : tcpPkt.getOptions()) {
             switch (opt.getKind()) {
                 case Consts.TCP_OPTION_MSS:
@@ -224,9 +226,14 @@ public class L4 {
                 case Consts.TCP_OPTION_WINDOW_SCALE:
                     int s = opt.getData().uint8(0);
                     windowScale = 1 << s;
+                    windowScaleOffered = true;
                     break;
             }
         }
+        if (!windowScaleOffered) {
+            // rfc 7323 (2.2): scaling is enabled only when both sides send the option
+            ctx.tcp.receivingQueue.disableWindowScale();
+        }
         ctx.tcp.sendingQueue.init(tcpPkt.getWindow(), mss, windowScale);
 
         // SYN-ACK
@@ -306,13 +313,8 @@ public class L4 {
         if (tcpPkt.isAck()) {
             long ack = tcpPkt.getAckNum();
             int window = tcpPkt.getWindow();
-            ctx.tcp.sendingQueue.ack(ack, window);
-            // then check whether there's data to send
-            // because the window may forbid it from sending
-            // ack resets the window so it might get chance to send data
-            if (ctx.tcp.retransmissionTimer == null) {
-                tcpStartRetransmission(ctx.handlingUUID, ctx.table, ctx.tcp);
-            }
+            boolean withData = tcpPkt.getData().length() > 0 || tcpPkt.isFin();
+            tcpAcked(ctx.handlingUUID, ctx.table, ctx.tcp, ack, window, withData);
         }
         return false;
     }
@@ -440,65 +442,72 @@ public class L4 {
 
     public void tcpStartRetransmission(String handlingUUID, Table table, TcpEntry tcp) {
         assert Logger.lowLevelDebug("tcpStartRetransmission(" + handlingUUID + "," + table + "," + tcp + ")");
-        transmitTcp(handlingUUID, table, tcp, 0, 0);
+        transmitTcp(handlingUUID, table, tcp);
     }
 
-    private void transmitTcp(String handlingUUID, Table table, TcpEntry tcp, long lastBeginSeq, int retransmissionCount) {
-        assert Logger.lowLevelDebug("transmitTcp(" + handlingUUID + "," + table + "," + tcp + ")");
+    private void tcpAcked(String handlingUUID, Table table, TcpEntry tcp, long ack, int window, boolean withData) {
+        assert Logger.lowLevelDebug("tcpAcked(" + handlingUUID + "," + table + "," + tcp + "," + ack + "," + window + ")");
 
-        if (tcp.retransmissionTimer != null) { // reset timer
+        long lastAckSeq = tcp.sendingQueue.getAckSeq();
+        if (tcp.sendingQueue.ack(ack, window, withData, Config.currentTimestamp)) {
+            Segment s = tcp.sendingQueue.retransmit();
+            if (s != null) {
+                assert Logger.lowLevelDebug(handlingUUID + " fast retransmit " + s.seqBeginInclusive);
+                sendTcpPsh(handlingUUID, table, tcp, s);
+            }
+        }
+        if (tcp.sendingQueue.getAckSeq() != lastAckSeq && tcp.sendingQueue.restartTimerOnAck() && tcp.retransmissionTimer != null) {
+            // new data acked, restart the timer, rfc 6298 (5.3)
             tcp.retransmissionTimer.cancel();
             tcp.retransmissionTimer = null;
         }
+        // the ack may open the windows
+        transmitTcp(handlingUUID, table, tcp);
+    }
 
-        // check whether need to reset the connection because of too many retransmits
-        if (tcp.requireClosing() && retransmissionCount > TcpEntry.MAX_RETRANSMISSION_AFTER_CLOSING) {
-            assert Logger.lowLevelDebug(handlingUUID + " conn " + tcp + " is closed due to too many retransmission after closing");
-            resetTcpConnection(handlingUUID, table, tcp);
-            return;
+    private void transmitTcp(String handlingUUID, Table table, TcpEntry tcp) {
+        assert Logger.lowLevelDebug("transmitTcp(" + handlingUUID + "," + table + "," + tcp + ")");
+
+        List<Segment> segments = tcp.sendingQueue.fetch(Config.currentTimestamp);
+        for (var s : segments) {
+            sendTcpPsh(handlingUUID, table, tcp, s);
+        }
+        if (tcp.sendingQueue.fetchFin()) {
+            assert Logger.lowLevelDebug(handlingUUID + " need to send FIN");
+            sendTcpFin(handlingUUID, table, tcp);
         }
 
-        List<Segment> segments = tcp.sendingQueue.fetch();
-        if (segments.isEmpty()) { // no data to send, check FIN
-            if (tcp.sendingQueue.needToSendFin()) {
-                assert Logger.lowLevelDebug(handlingUUID + " need to send FIN");
-                // fall through
-            } else {
-                // nothing to send
-                assert Logger.lowLevelDebug(handlingUUID + " no need to retransmit after " + retransmissionCount + " time(s)");
-                if (tcp.retransmissionTimer != null) {
-                    tcp.retransmissionTimer.cancel();
-                    tcp.retransmissionTimer = null;
-                }
-                afterTransmission(handlingUUID, table, tcp);
-                return;
+        if (tcp.sendingQueue.hasDataInFlight()) {
+            if (tcp.retransmissionTimer == null) {
+                int delay = tcp.sendingQueue.getRto();
+                assert Logger.lowLevelDebug(handlingUUID + " will delay " + delay + " ms then retransmit");
+                tcp.retransmissionTimer = swCtx.getSelectorEventLoop().delay(delay, () ->
+                    retransmissionTimeout(handlingUUID, table, tcp));
             }
+            return;
         }
-        long currentBeginSeq = segments.isEmpty() ? tcp.sendingQueue.getFetchSeq() + 1 : segments.get(0).seqBeginInclusive;
-        if (currentBeginSeq != lastBeginSeq) {
-            assert Logger.lowLevelDebug(handlingUUID + " the sequence increased, it's not retransmitting after " + retransmissionCount + " time(s)");
-            retransmissionCount = 0;
+        if (tcp.retransmissionTimer != null) {
+            tcp.retransmissionTimer.cancel();
+            tcp.retransmissionTimer = null;
         }
-
-        // initiate timer
-        int delay = TcpEntry.RTO_MIN << retransmissionCount;
-        if (delay <= 0 || delay > TcpEntry.RTO_MAX) { // overflow or exceeds maximum
-            delay = TcpEntry.RTO_MAX;
+        if (!tcp.sendingQueue.hasMoreData() && !tcp.sendingQueue.needToSendFin()) {
+            afterTransmission(handlingUUID, table, tcp);
         }
-        assert Logger.lowLevelDebug(handlingUUID + " will delay " + delay + " ms then retransmit");
-        final int finalRetransmissionCount = retransmissionCount;
-        tcp.retransmissionTimer = swCtx.getSelectorEventLoop().delay(delay, () ->
-            transmitTcp(handlingUUID, table, tcp, currentBeginSeq, finalRetransmissionCount + 1)
-        );
+    }
 
-        if (segments.isEmpty()) {
-            assert tcp.sendingQueue.needToSendFin();
-            sendTcpFin(handlingUUID, table, tcp);
-        } else {
-            for (var s : segments) {
-                sendTcpPsh(handlingUUID, table, tcp, s);
-            }
+    private void retransmissionTimeout(String handlingUUID, Table table, TcpEntry tcp) {
+        assert Logger.lowLevelDebug("retransmissionTimeout(" + handlingUUID + "," + table + "," + tcp + ")");
+        tcp.retransmissionTimer = null;
+
+        // check whether need to reset the connection because of too many retransmits
+        if (tcp.requireClosing() && tcp.sendingQueue.getRetransmissionCount() >= TcpEntry.MAX_RETRANSMISSION_AFTER_CLOSING) {
+            assert Logger.lowLevelDebug(handlingUUID + " conn " + tcp + " is closed due to too many retransmission after closing");
+            resetTcpConnection(handlingUUID, table, tcp);
+            return;
         }
+        // go back to the first unacked byte with one segment, and the rto is doubled
+        tcp.sendingQueue.timeout();
+        transmitTcp(handlingUUID, table, tcp);
     }
 
     private void afterTransmission(String handlingUUID, Table table, TcpEntry tcp) {
@@ -515,6 +524,10 @@ public class L4 {
 
         output(new OutputPacketL3Context(handlingUUID, table,
             TcpUtils.buildIpResponse(tcp, TcpUtils.buildRstResponse(tcp))));
+        if (tcp.retransmissionTimer != null) {
+            tcp.retransmissionTimer.cancel();
+            tcp.retransmissionTimer = null;
+        }
         tcp.setState(TcpState.CLOSED);
         table.conntrack.remove(tcp.source, tcp.destination);
     }
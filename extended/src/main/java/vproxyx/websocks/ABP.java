@@ -4,13 +4,120 @@ import vproxybase.util.LogType;
 import vproxybase.util.Logger;
 
 import java.util.*;
-import java.util.function.Function;
 import java.util.regex.Pattern;
 
 /**
- * https://github.com/gfwlist/gfwlist/wiki/Syntax
+ * https://github.com/gfwlist/gfwlist/wiki/Syntax<br>
+ * The first matching rule (in the order they are added) decides whether to block.
+ * Rules are compiled after added: domain rules into a suffix trie and an exact map,
+ * substring rules into an Aho-Corasick automaton, and only regexp rules are checked one by one.
  */
 public class ABP {
+    private enum RuleType {
+        MATCHING_SPECIFIC_URI("matching specific uri", true),
+        MATCHING_FROM_BEGINNING("matching from beginning", true),
+        MATCHING_REGEXP("matching regexp", true),
+        SIMPLE("simple", true),
+        WHITELIST_MATCHING_SPECIFIC_URI("WHITELIST matching specific uri", false),
+        WHITELIST_MATCHING_FROM_BEGINNING("WHITELIST matching from beginning", false),
+        WHITELIST_SIMPLE("WHITELIST simple", false),
+        WHITELIST_REGEXP("WHITELIST regexp", false),
+        ;
+        final String desc;
+        final boolean block;
+
+        RuleType(String desc, boolean block) {
+            this.desc = desc;
+            this.block = block;
+        }
+    }
+
+    private static class Rule {
+        final RuleType type;
+        final String rule;
+        final String host; // null for regexp rules
+        final Pattern pattern; // only for regexp rules
+
+        Rule(RuleType type, String rule, String host, Pattern pattern) {
+            this.type = type;
+            this.rule = rule;
+            this.host = host;
+            this.pattern = pattern;
+        }
+    }
+
+    private static class Compiled {
+        final Rule[] rules; // index is the rule id
+        final Map<String, Integer> exact = new HashMap<>();
+        final SuffixTrie suffixes = new SuffixTrie();
+        final AhoCorasick substrings = new AhoCorasick();
+        final int[] regexps; // ids of the regexp rules, ascending
+
+        Compiled(List<Rule> rules) {
+            this.rules = rules.toArray(new Rule[0]);
+            List<Integer> regexps = new ArrayList<>();
+            for (int id = 0; id < this.rules.length; ++id) {
+                Rule r = this.rules[id];
+                switch (r.type) {
+                    case MATCHING_SPECIFIC_URI:
+                    case WHITELIST_MATCHING_SPECIFIC_URI:
+                        suffixes.add(r.host, id, true);
+                        break;
+                    case MATCHING_FROM_BEGINNING:
+                        exact.putIfAbsent(r.host, id);
+                        break;
+                    case WHITELIST_MATCHING_FROM_BEGINNING:
+                        substrings.add(r.host, id, true);
+                        break;
+                    case SIMPLE:
+                    case WHITELIST_SIMPLE:
+                        substrings.add(r.host, id, false);
+                        break;
+                    default:
+                        regexps.add(id);
+                }
+            }
+            substrings.build();
+            this.regexps = regexps.stream().mapToInt(i -> i).toArray();
+        }
+
+        int match(String input) {
+            int best = Integer.MAX_VALUE;
+            Integer exactId = exact.get(input);
+            if (exactId != null) {
+                best = exactId;
+            }
+            int suffixId = suffixes.firstMatch(input);
+            if (suffixId != -1 && suffixId < best) {
+                best = suffixId;
+            }
+            int substringId = substrings.firstMatch(input, best);
+            if (substringId != -1) {
+                best = substringId;
+            }
+            for (int id : regexps) {
+                if (id >= best) {
+                    break;
+                }
+                if (matchRegexp(rules[id].pattern, input)) {
+                    best = id;
+                    break;
+                }
+            }
+            return best == Integer.MAX_VALUE ? -1 : best;
+        }
+
+        private static boolean matchRegexp(Pattern pattern, String input) {
+            String[] protocols = new String[]{"", "http://", "https://"};
+            for (String protocol : protocols) {
+                if (pattern.matcher(protocol + input).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     private final Set<Character> validSimpleRuleStart = new HashSet<>() {{
         for (int i = 'a'; i <= 'z'; ++i) {
             add((char) i);
@@ -25,7 +132,8 @@ public class ABP {
     }};
     private final String abpSource;
     private final boolean defaultBlock;
-    private final List<Function<String, Boolean>> checkers = new LinkedList<>();
+    private final List<Rule> rules = new ArrayList<>();
+    private volatile Compiled compiled = new Compiled(Collections.emptyList());
 
     public ABP(String abpSource, boolean defaultBlock) {
         this.abpSource = abpSource;
@@ -36,25 +144,34 @@ public class ABP {
         return abpSource;
     }
 
+    public int ruleCount() {
+        return compiled.rules.length;
+    }
+
     public boolean block(String input) {
-        for (var func : checkers) {
-            Boolean result = func.apply(input);
-            if (result == null) { // null means don't know
-                continue;
-            }
-            return result;
+        Compiled compiled = this.compiled;
+        int id = compiled.match(input);
+        if (id == -1) {
+            return defaultBlock;
+        }
+        Rule r = compiled.rules[id];
+        if (r.type.block || r.type == RuleType.WHITELIST_REGEXP) {
+            Logger.alert(input + " matches ABP " + r.type.desc + " rule: " + r.rule);
+        } else {
+            assert Logger.lowLevelDebug(input + " matches ABP " + r.type.desc + " rule: " + r.rule);
         }
-        return defaultBlock;
+        return r.type.block;
     }
 
     public void addBase64(String base64) {
         addRule(new String(Base64.getDecoder().decode(base64)));
     }
 
-    public void addRule(String rule) {
+    public synchronized void addRule(String rule) {
         for (String line : rule.split("\n")) {
             addRuleOneLine(line);
         }
+        compiled = new Compiled(rules);
     }
 
     private void addRuleOneLine(String line) {
@@ -64,144 +181,32 @@ public class ABP {
             return;
         }
         if (line.startsWith("||")) {
-            addMatchingSpecificURI(line.substring("||".length()));
+            addHostRule(RuleType.MATCHING_SPECIFIC_URI, line.substring("||".length()));
         } else if (line.startsWith("|")) {
-            addMatchingFromBeginning(line.substring("|".length()));
+            addHostRule(RuleType.MATCHING_FROM_BEGINNING, line.substring("|".length()));
         } else if (line.startsWith("/") && line.endsWith("/")) {
-            addMatchingRegexp(line.substring("/".length(), line.length() - "/".length()));
+            addRegexpRule(RuleType.MATCHING_REGEXP, line.substring("/".length(), line.length() - "/".length()));
         } else if (line.startsWith("@@||")) {
-            addWhitelistRuleMatchingSpecificURI(line.substring("@@||".length()));
+            addHostRule(RuleType.WHITELIST_MATCHING_SPECIFIC_URI, line.substring("@@||".length()));
         } else if (line.startsWith("@@|")) {
-            addWhitelistRuleMatchingFromBeginning(line.substring("@@|".length()));
-        } else if (line.startsWith("@@")) {
-            addWhitelistSimpleRule(line.substring("@@".length()));
+            addHostRule(RuleType.WHITELIST_MATCHING_FROM_BEGINNING, line.substring("@@|".length()));
         } else if (line.startsWith("@@/") && line.endsWith("/")) {
-            addWhitelistRuleRegexp(line.substring("@@/".length(), line.length() - "/".length()));
+            addRegexpRule(RuleType.WHITELIST_REGEXP, line.substring("@@/".length(), line.length() - "/".length()));
+        } else if (line.startsWith("@@")) {
+            addHostRule(RuleType.WHITELIST_SIMPLE, line.substring("@@".length()));
         } else if (validSimpleRuleStart.contains(line.charAt(0))) {
-            addSimpleRule(line);
+            addHostRule(RuleType.SIMPLE, line);
         } else {
             Logger.warn(LogType.INVALID_EXTERNAL_DATA, "Unrecognized ABP rule: " + line);
         }
     }
 
-    private interface MatchingSpecificURI extends Function<String, Boolean> {
-    }
-
-    private void addMatchingSpecificURI(String rule) {
-        var host = extractHost(rule);
-        var addDot = "." + host;
-        checkers.add((MatchingSpecificURI) input -> {
-            if (input.equals(host) || (input.endsWith(addDot) && input.length() > addDot.length())) {
-                Logger.alert(input + " matches ABP matching specific uri rule: " + rule);
-                return true;
-            }
-            return null;
-        });
-    }
-
-    private interface MatchingFromBeginning extends Function<String, Boolean> {
+    private void addHostRule(RuleType type, String rule) {
+        rules.add(new Rule(type, rule, extractHost(rule), null));
     }
 
-    private void addMatchingFromBeginning(String rule) {
-        var host = extractHost(rule);
-        checkers.add((MatchingFromBeginning) input -> {
-            if (input.equals(host)) {
-                Logger.alert(input + " matches ABP matching from beginning rule: " + rule);
-                return true;
-            }
-            return null;
-        });
-    }
-
-    private interface MatchingRegexp extends Function<String, Boolean> {
-    }
-
-    private void addMatchingRegexp(String rule) {
-        Pattern pattern = Pattern.compile(rule);
-        checkers.add((MatchingRegexp) input -> {
-            String[] protocols = new String[]{"", "http://", "https://"};
-            for (String protocol : protocols) {
-                if (pattern.matcher(protocol + input).matches()) {
-                    Logger.alert(input + " matches ABP matching regexp rule: " + rule);
-                    return true;
-                }
-            }
-            return null;
-        });
-    }
-
-    private interface WhitelistRuleMatchingSpecificURI extends Function<String, Boolean> {
-    }
-
-    private void addWhitelistRuleMatchingSpecificURI(String rule) {
-        var host = extractHost(rule);
-        var addDot = "." + host;
-        checkers.add((WhitelistRuleMatchingSpecificURI) input -> {
-            if (input.equals(host) || (input.endsWith(addDot) || input.length() > addDot.length())) {
-                assert Logger.lowLevelDebug(input + " matches ABP WHITELIST matching specific uri rule: " + rule);
-                return false;
-            }
-            return null;
-        });
-    }
-
-    private interface WhitelistMatchingFromBeginningRule extends Function<String, Boolean> {
-    }
-
-    private void addWhitelistRuleMatchingFromBeginning(String rule) {
-        var host = extractHost(rule);
-        checkers.add((WhitelistMatchingFromBeginningRule) input -> {
-            if (input.startsWith(host)) {
-                assert Logger.lowLevelDebug(input + " matches ABP WHITELIST matching from beginning rule: " + rule);
-                return false;
-            }
-            return null;
-        });
-    }
-
-    private interface WhitelistSimpleRule extends Function<String, Boolean> {
-    }
-
-    private void addWhitelistSimpleRule(String rule) {
-        var host = extractHost(rule);
-        checkers.add((WhitelistSimpleRule) input -> {
-            if (input.contains(host)) {
-                assert Logger.lowLevelDebug(input + " matches ABP WHITELIST simple rule: " + rule);
-                return false;
-            }
-            return null;
-        });
-    }
-
-    private interface WhitelistRegexpRule extends Function<String, Boolean> {
-    }
-
-    private void addWhitelistRuleRegexp(String rule) {
-        Pattern pattern = Pattern.compile(rule);
-        checkers.add((WhitelistRegexpRule) input -> {
-            String[] protocols = new String[]{"", "http://", "https://"};
-            for (String protocol : protocols) {
-                if (pattern.matcher(protocol + input).matches()) {
-                    Logger.alert(input + " matches ABP WHITELIST regexp rule: " + rule);
-                    return false;
-                }
-            }
-            return null;
-        });
-    }
-
-    private interface SimpleRule extends Function<String, Boolean> {
-    }
-
-    private void addSimpleRule(String rule) {
-        var host = extractHost(rule);
-        checkers.add((SimpleRule) input -> {
-            if (input.contains(host)) {
-                Logger.alert(input + " matches ABP simple rule: " + rule);
-                return true;
-            }
-            return null;
-        });
+    private void addRegexpRule(RuleType type, String rule) {
+        rules.add(new Rule(type, rule, null, Pattern.compile(rule)));
     }
 
     private String extractHost(String uri) {
@@ -25,12 +25,15 @@ import vproxyx.websocks.relay.DomainBinder;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class AgentDNSServer extends DNSServer {
     private final Map<String, ServerGroup> serverGroups;
     private final Map<String, List<DomainChecker>> resolves;
     private final Map<String, IP> cache = new HashMap<>();
+    // keep-alive clients of the servers, reused by all dns requests
+    private final Map<IPPort, HttpClient> clients = new ConcurrentHashMap<>();
     private final List<DomainChecker> selfDomains = new LinkedList<>();
     private final List<DomainChecker> bondDomains = new LinkedList<>();
     private final ConfigProcessor config;
@@ -278,11 +281,11 @@ public class AgentDNSServer extends DNSServer {
         }
         // see ConfigProcessor.java
         SharedData data = (SharedData) svr.getData();
-        HttpClient cli = new Http1ClientImpl(svr.remote, eventLoopGroup.next(), 5_000, new HttpClient.Options().setSSLContext(
-            data.useSSL ? WebSocksUtils.getSslContext() : null
-        ));
+        HttpClient cli = clients.computeIfAbsent(svr.remote, remote ->
+            new Http1ClientImpl(remote, eventLoopGroup.next(), 5_000, new HttpClient.Options().setSSLContext(
+                data.useSSL ? WebSocksUtils.getSslContext() : null
+            )));
         cli.get("/tools/resolve?domain=" + domain).send((err, resp) -> {
-            cli.close(); // close the cli on response
             if (err != null) {
                 Logger.error(LogType.CONN_ERROR, "request " + svr.remote + " to resolve " + domain + "failed", err);
                 cb.failed(new UnknownHostException(Utils.formatErr(err) + " - " + domain));
@@ -0,0 +1,163 @@
+package vproxyx.websocks;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Aho-Corasick automaton for substring rules, each pattern has an id.<br>
+ * Patterns may be anchored to the beginning of the input.
+ * {@link #firstMatch(String, int)} returns the smallest id of the matching patterns without allocating.
+ */
+class AhoCorasick {
+    private static class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        Node fail;
+        // patterns ending here, including the ones ending at the fail nodes, sorted by id
+        int[] ids = new int[0];
+        boolean[] anchored = new boolean[0];
+        int[] lengths = new int[0];
+
+        Node child(char c) {
+            int idx = Arrays.binarySearch(keys, c);
+            return idx < 0 ? null : children[idx];
+        }
+
+        Node addChild(char c) {
+            int idx = Arrays.binarySearch(keys, c);
+            if (idx >= 0) {
+                return children[idx];
+            }
+            idx = -idx - 1;
+            Node n = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, idx);
+            System.arraycopy(children, 0, newChildren, 0, idx);
+            newKeys[idx] = c;
+            newChildren[idx] = n;
+            System.arraycopy(keys, idx, newKeys, idx + 1, keys.length - idx);
+            System.arraycopy(children, idx, newChildren, idx + 1, children.length - idx);
+            keys = newKeys;
+            children = newChildren;
+            return n;
+        }
+
+        void addOutput(int id, boolean anchored, int length) {
+            int idx = 0;
+            while (idx < ids.length && ids[idx] < id) {
+                ++idx;
+            }
+            ids = insert(ids, idx, id);
+            this.anchored = insert(this.anchored, idx, anchored);
+            lengths = insert(lengths, idx, length);
+        }
+    }
+
+    private final Node root = new Node();
+    private int emptyId = Integer.MAX_VALUE; // the empty pattern matches any input
+    private int size = 0;
+
+    /**
+     * Add a pattern, should be called before {@link #build()}.
+     *
+     * @param anchored the pattern only matches at the beginning of the input
+     */
+    void add(String pattern, int id, boolean anchored) {
+        ++size;
+        if (pattern.isEmpty()) {
+            emptyId = Math.min(emptyId, id);
+            return;
+        }
+        Node n = root;
+        for (int i = 0; i < pattern.length(); ++i) {
+            n = n.addChild(pattern.charAt(i));
+        }
+        n.addOutput(id, anchored, pattern.length());
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Compute the fail links, should be called after all patterns are added.
+     */
+    void build() {
+        Deque<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        for (Node c : root.children) {
+            c.fail = root;
+            queue.add(c);
+        }
+        while (!queue.isEmpty()) {
+            Node n = queue.poll();
+            for (int i = 0; i < n.keys.length; ++i) {
+                char c = n.keys[i];
+                Node child = n.children[i];
+                Node f = n.fail;
+                Node next;
+                while ((next = f.child(c)) == null && f != root) {
+                    f = f.fail;
+                }
+                child.fail = (next == null || next == child) ? root : next;
+                // the fail node is shallower, its outputs are already merged
+                for (int j = 0; j < child.fail.ids.length; ++j) {
+                    child.addOutput(child.fail.ids[j], child.fail.anchored[j], child.fail.lengths[j]);
+                }
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @return the smallest id of the patterns found in input which is less than bound, or -1
+     */
+    int firstMatch(String input, int bound) {
+        int best = -1;
+        if (emptyId < bound) {
+            best = emptyId;
+            bound = emptyId;
+        }
+        Node n = root;
+        for (int i = 0; i < input.length(); ++i) {
+            char c = input.charAt(i);
+            Node next;
+            while ((next = n.child(c)) == null && n != root) {
+                n = n.fail;
+            }
+            n = next == null ? root : next;
+            int[] ids = n.ids;
+            for (int j = 0; j < ids.length; ++j) {
+                int id = ids[j];
+                if (id >= bound) {
+                    break;
+                }
+                if (n.anchored[j] && n.lengths[j] != i + 1) {
+                    continue;
+                }
+                best = id;
+                bound = id;
+                break;
+            }
+        }
+        return best;
+    }
+
+    private static int[] insert(int[] arr, int idx, int v) {
+        int[] ret = new int[arr.length + 1];
+        System.arraycopy(arr, 0, ret, 0, idx);
+        ret[idx] = v;
+        System.arraycopy(arr, idx, ret, idx + 1, arr.length - idx);
+        return ret;
+    }
+
+    private static boolean[] insert(boolean[] arr, int idx, boolean v) {
+        boolean[] ret = new boolean[arr.length + 1];
+        System.arraycopy(arr, 0, ret, 0, idx);
+        ret[idx] = v;
+        System.arraycopy(arr, idx, ret, idx + 1, arr.length - idx);
+        return ret;
+    }
+}
@@ -28,6 +28,11 @@ public class ConfigLoader {
     private final Map<String, List<DomainChecker>> proxyResolves = new HashMap<>();
     private final Map<String, List<DomainChecker>> noProxyDomains = new HashMap<>();
     private final List<DomainChecker> httpsSniErasureDomains = new ArrayList<>();
+    // compiled once the config is loaded, the lists above are only used for loading and validating
+    private LinkedHashMap<String, List<DomainChecker>> compiledDomains = new LinkedHashMap<>();
+    private LinkedHashMap<String, List<DomainChecker>> compiledProxyResolves = new LinkedHashMap<>();
+    private LinkedHashMap<String, List<DomainChecker>> compiledNoProxyDomains = new LinkedHashMap<>();
+    private List<DomainChecker> compiledHttpsSniErasureDomains = Collections.emptyList();
     private String autoSignCert;
     private String autoSignKey;
     private File autoSignWorkingDirectory;
@@ -86,26 +91,34 @@ public class ConfigLoader {
         LinkedHashMap<String, List<DomainChecker>> ret = new LinkedHashMap<>();
         for (String key : map.keySet()) {
             if (!key.equals("DEFAULT")) {
-                ret.put(key, map.get(key));
+                ret.put(key, utilCompileDomainCheckerList(map.get(key)));
             }
         }
         // put DEFAULT to the last
         if (map.containsKey("DEFAULT")) {
-            ret.put("DEFAULT", map.get("DEFAULT"));
+            ret.put("DEFAULT", utilCompileDomainCheckerList(map.get("DEFAULT")));
         }
         return ret;
     }
 
+    // the rules are checked for every connection and dns query, so compile them into one checker
+    private static List<DomainChecker> utilCompileDomainCheckerList(List<DomainChecker> list) {
+        if (list.isEmpty()) {
+            return list;
+        }
+        return Collections.singletonList(DomainChecker.compile(list));
+    }
+
     public LinkedHashMap<String, List<DomainChecker>> getDomains() {
-        return utilGetAlias2DomainCheckerListMap(domains);
+        return compiledDomains;
     }
 
     public LinkedHashMap<String, List<DomainChecker>> getProxyResolves() {
-        return utilGetAlias2DomainCheckerListMap(proxyResolves);
+        return compiledProxyResolves;
     }
 
     public LinkedHashMap<String, List<DomainChecker>> getNoProxyDomains() {
-        return utilGetAlias2DomainCheckerListMap(noProxyDomains);
+        return compiledNoProxyDomains;
     }
 
     public boolean isDirectRelay() {
@@ -125,7 +138,7 @@ public class ConfigLoader {
     }
 
     public List<DomainChecker> getHttpsSniErasureDomains() {
-        return httpsSniErasureDomains;
+        return compiledHttpsSniErasureDomains;
     }
 
     public String getAutoSignCert() {
@@ -547,6 +560,14 @@ public class ConfigLoader {
                 httpsSniErasureCertKeyFiles.add(ls);
             }
         }
+        compile();
+    }
+
+    private void compile() {
+        compiledDomains = utilGetAlias2DomainCheckerListMap(domains);
+        compiledProxyResolves = utilGetAlias2DomainCheckerListMap(proxyResolves);
+        compiledNoProxyDomains = utilGetAlias2DomainCheckerListMap(noProxyDomains);
+        compiledHttpsSniErasureDomains = utilCompileDomainCheckerList(httpsSniErasureDomains);
     }
 
     public List<String> validate() {
@@ -658,7 +679,9 @@ public class ConfigLoader {
                     }
                 }
                 BlockCallback<HttpResponse, IOException> cb = new BlockCallback<>();
-                HttpClient.to(protocolAndHostAndPort).get(uri).send((err, response) -> {
+                HttpClient client = HttpClient.to(protocolAndHostAndPort);
+                client.get(uri).send((err, response) -> {
+                    client.close();
                     if (err != null) {
                         cb.failed(err);
                     } else {
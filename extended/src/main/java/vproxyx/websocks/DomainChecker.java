@@ -1,10 +1,22 @@
 package vproxyx.websocks;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 public interface DomainChecker {
     boolean needProxy(String domain, int port);
 
+    /**
+     * @return a checker which returns true when any of the checkers returns true
+     */
+    static DomainChecker compile(List<DomainChecker> checkers) {
+        return new CompiledDomainChecker(checkers);
+    }
+
     class SuffixDomainChecker implements DomainChecker {
         public final String suffix;
 
@@ -57,4 +69,84 @@ public interface DomainChecker {
         }
     }
 
+    /**
+     * The suffixes are put into a trie, ports into a sorted array,
+     * and results of the domains are cached.
+     */
+    class CompiledDomainChecker implements DomainChecker {
+        private static final int CACHE_SIZE = 4096;
+
+        private final int[] ports;
+        private final SuffixTrie suffixes = new SuffixTrie();
+        private final Pattern[] patterns;
+        private final ABP[] abps;
+        // domain -> result, cleared when full
+        private final Map<String, Boolean> cache = new ConcurrentHashMap<>();
+
+        CompiledDomainChecker(List<DomainChecker> checkers) {
+            List<Integer> ports = new ArrayList<>();
+            List<Pattern> patterns = new ArrayList<>();
+            List<ABP> abps = new ArrayList<>();
+            for (DomainChecker chk : checkers) {
+                if (chk instanceof SuffixDomainChecker) {
+                    suffixes.add(((SuffixDomainChecker) chk).suffix, 0, false);
+                } else if (chk instanceof PatternDomainChecker) {
+                    patterns.add(((PatternDomainChecker) chk).pattern);
+                } else if (chk instanceof ABPDomainChecker) {
+                    abps.add(((ABPDomainChecker) chk).abp);
+                } else if (chk instanceof PortChecker) {
+                    ports.add(((PortChecker) chk).port);
+                } else {
+                    throw new IllegalArgumentException("unknown domain checker: " + chk);
+                }
+            }
+            this.ports = ports.stream().mapToInt(i -> i).sorted().toArray();
+            this.patterns = patterns.toArray(new Pattern[0]);
+            this.abps = abps.toArray(new ABP[0]);
+        }
+
+        @Override
+        public boolean needProxy(String domain, int port) {
+            if (Arrays.binarySearch(ports, port) >= 0) {
+                return true;
+            }
+            Boolean result = cache.get(domain);
+            if (result != null) {
+                return result;
+            }
+            result = check(domain);
+            if (cache.size() >= CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(domain, result);
+            return result;
+        }
+
+        private boolean check(String domain) {
+            if (suffixes.firstMatch(domain) != -1) {
+                return true;
+            }
+            for (Pattern p : patterns) {
+                if (p.matcher(domain).matches()) {
+                    return true;
+                }
+            }
+            for (ABP abp : abps) {
+                if (abp.block(domain)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "CompiledDomainChecker{" +
+                "ports=" + Arrays.toString(ports) +
+                ", suffixes=" + suffixes.size() +
+                ", patterns=" + Arrays.toString(patterns) +
+                ", abps=" + Arrays.toString(Arrays.stream(abps).map(ABP::getAbpSource).toArray()) +
+                '}';
+        }
+    }
 }
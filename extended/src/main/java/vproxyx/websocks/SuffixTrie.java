@@ -0,0 +1,97 @@
+package vproxyx.websocks;
+
+import java.util.Arrays;
+
+/**
+ * Trie of reversed strings for suffix rules, each suffix has an id.<br>
+ * A suffix may be a domain, which matches the same domain and its sub domains (label aligned),
+ * or a plain string, which matches any input ending with it.
+ * {@link #firstMatch(String)} returns the smallest id of the matching suffixes without allocating.
+ */
+class SuffixTrie {
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private static class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        int domainId = NONE; // smallest id of the domain suffixes ending here
+        int plainId = NONE; // smallest id of the plain suffixes ending here
+
+        Node child(char c) {
+            int idx = Arrays.binarySearch(keys, c);
+            return idx < 0 ? null : children[idx];
+        }
+
+        Node addChild(char c) {
+            int idx = Arrays.binarySearch(keys, c);
+            if (idx >= 0) {
+                return children[idx];
+            }
+            idx = -idx - 1;
+            Node n = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, idx);
+            System.arraycopy(children, 0, newChildren, 0, idx);
+            newKeys[idx] = c;
+            newChildren[idx] = n;
+            System.arraycopy(keys, idx, newKeys, idx + 1, keys.length - idx);
+            System.arraycopy(children, idx, newChildren, idx + 1, children.length - idx);
+            keys = newKeys;
+            children = newChildren;
+            return n;
+        }
+    }
+
+    private final Node root = new Node();
+    private int size = 0;
+
+    /**
+     * @param domain true: input equals the suffix or ends with "." + suffix,
+     *               false: input ends with the suffix
+     */
+    void add(String suffix, int id, boolean domain) {
+        Node n = root;
+        for (int i = suffix.length() - 1; i >= 0; --i) {
+            n = n.addChild(suffix.charAt(i));
+        }
+        if (domain) {
+            n.domainId = Math.min(n.domainId, id);
+        } else {
+            n.plainId = Math.min(n.plainId, id);
+        }
+        ++size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the smallest id of the suffixes matching the input, or -1
+     */
+    int firstMatch(String input) {
+        int best = NONE;
+        Node n = root;
+        for (int i = input.length() - 1; ; --i) {
+            // the suffix input[i+1:] ends at n
+            if (n.plainId < best) {
+                best = n.plainId;
+            }
+            if (n.domainId < best) {
+                // equals, or the char before is a dot and there's something before the dot
+                if (i == -1 || (input.charAt(i) == '.' && i > 0)) {
+                    best = n.domainId;
+                }
+            }
+            if (i < 0) {
+                break;
+            }
+            n = n.child(input.charAt(i));
+            if (n == null) {
+                break;
+            }
+        }
+        return best == NONE ? -1 : best;
+    }
+}
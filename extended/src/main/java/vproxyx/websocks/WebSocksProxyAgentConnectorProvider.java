@@ -525,7 +525,7 @@ public class WebSocksProxyAgentConnectorProvider implements Socks5ConnectorProvi
             SSLEngine engine;
             String hostname = connector.getHostName();
             if (hostname == null) {
-                engine = WebSocksUtils.createEngine();
+                engine = WebSocksUtils.createEngine(connector.remote);
             } else {
                 engine = WebSocksUtils.createEngine(hostname, connector.remote.getPort());
             }
@@ -758,7 +758,8 @@ public class WebSocksProxyAgentConnectorProvider implements Socks5ConnectorProvi
         WebSocksUtils.agentDNSServer.resolve(address, new Callback<>() {
             @Override
             protected void onSucceeded(IP value) {
-                SSLEngine engine = WebSocksUtils.createEngine();
+                var remtoe = new IPPort(value, 443);
+                SSLEngine engine = WebSocksUtils.createEngine(remtoe);
                 engine.setUseClientMode(true);
                 SSLParameters params = new SSLParameters();
                 // we cannot get alpn from the accepted connection
@@ -767,7 +768,6 @@ public class WebSocksProxyAgentConnectorProvider implements Socks5ConnectorProvi
                 params.setApplicationProtocols(new String[]{"h2", "http/1.1"});
                 engine.setSSLParameters(params);
 
-                var remtoe = new IPPort(value, 443);
                 SSLUtils.SSLBufferPair pair = SSLUtils.genbuf(
                     engine,
                     RingBuffer.allocate(24576),
@@ -1,5 +1,6 @@
 package vproxyx.websocks;
 
+import vfd.IPPort;
 import vproxy.component.ssl.CertKey;
 import vproxy.util.CoreUtils;
 import vproxybase.connection.ConnectionOpts;
@@ -8,6 +9,7 @@ import vproxybase.util.LogType;
 import vproxybase.util.Logger;
 import vproxybase.util.RingBuffer;
 import vproxybase.util.nio.ByteArrayChannel;
+import vproxybase.util.ringbuffer.ssl.SSLSessionCache;
 import vproxybase.util.ringbuffer.ssl.VSSLContext;
 import vproxyx.websocks.ssl.AutoSignSSLContextHolder;
 
@@ -216,6 +218,13 @@ public class WebSocksUtils {
         return engine;
     }
 
+    // the remote address is used as the key of the client session cache, no hostname verification
+    public static SSLEngine createEngine(IPPort remote) {
+        SSLEngine engine = getSslContext().createSSLEngine(remote.getAddress().formatToIPString(), remote.getPort());
+        engine.setEnabledProtocols(new String[]{"TLSv1.2"});
+        return engine;
+    }
+
     public static SSLEngine createEngine(String host, int port) {
         SSLEngine engine = getSslContext().createSSLEngine(host, port);
         engine.setEnabledProtocols(new String[]{"TLSv1.2"});
@@ -245,8 +254,9 @@ public class WebSocksUtils {
         kms = kmf.getKeyManagers();
 
         try {
-            sslContext = SSLContext.getInstance("TLS");
+            sslContext = SSLSessionCache.newContext();
             sslContext.init(kms, null, null);
+            SSLSessionCache.configure(sslContext);
         } catch (KeyManagementException e) {
             sslContext = null;
             throw e;
@@ -287,8 +297,9 @@ public class WebSocksUtils {
         }
 
         try {
-            sslContext = SSLContext.getInstance("TLS");
+            sslContext = SSLSessionCache.newContext();
             sslContext.init(kms, tms, null);
+            SSLSessionCache.configure(sslContext);
         } catch (KeyManagementException e) {
             sslContext = null;
             throw e;
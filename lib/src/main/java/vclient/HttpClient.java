@@ -92,6 +92,10 @@ public interface HttpClient {
     class Options {
         public SSLContext sslContext;
         public String host;
+        public boolean keepAlive = true;
+        public int maxConnectionsPerHost = 8;
+        public int idleTimeout = 5_000;
+        public int maxPipelinedRequests = 1; // 1 means no pipelining
 
         public Options() {
         }
@@ -99,6 +103,10 @@ public interface HttpClient {
         public Options(Options that) {
             this.sslContext = that.sslContext;
             this.host = that.host;
+            this.keepAlive = that.keepAlive;
+            this.maxConnectionsPerHost = that.maxConnectionsPerHost;
+            this.idleTimeout = that.idleTimeout;
+            this.maxPipelinedRequests = that.maxPipelinedRequests;
         }
 
         public Options setSSLContext(SSLContext sslContext) {
@@ -110,5 +118,31 @@ public interface HttpClient {
             this.host = host;
             return this;
         }
+
+        public Options setKeepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Options setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+            if (maxConnectionsPerHost < 1) {
+                throw new IllegalArgumentException("maxConnectionsPerHost should be at least 1");
+            }
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public Options setIdleTimeout(int idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Options setMaxPipelinedRequests(int maxPipelinedRequests) {
+            if (maxPipelinedRequests < 1) {
+                throw new IllegalArgumentException("maxPipelinedRequests should be at least 1");
+            }
+            this.maxPipelinedRequests = maxPipelinedRequests;
+            return this;
+        }
     }
 }
@@ -11,6 +11,7 @@ import vproxybase.processor.http1.entity.Header;
 import vproxybase.processor.http1.entity.Request;
 import vproxybase.processor.http1.entity.Response;
 import vproxybase.selector.SelectorEventLoop;
+import vproxybase.selector.TimerEvent;
 import vproxybase.util.*;
 import vproxybase.util.nio.ByteArrayChannel;
 import vproxybase.util.ringbuffer.SSLUtils;
@@ -20,18 +21,26 @@ import javax.net.ssl.SNIHostName;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLParameters;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
+/**
+ * Connections are kept alive and reused by the following requests.<br>
+ * All connections of the client go to the same remote with the same SNI, so they are in one pool.
+ * When all connections are busy, a new connection is created if {@link Options#maxConnectionsPerHost}
+ * is not reached, otherwise the request is pipelined on the least busy connection if
+ * {@link Options#maxPipelinedRequests} allows, or waits for a connection to be released.<br>
+ * The pool is only accessed on the event loop thread.
+ */
 public class Http1ClientImpl implements HttpClient {
     private final IPPort remote;
     private final boolean noInputLoop;
     private NetEventLoop loop;
     private final int timeout;
     private final Options opts;
-    private boolean closed = false;
+    private volatile boolean closed = false;
+
+    private final List<PooledConnection> connections = new ArrayList<>();
+    private final Deque<PendingRequest> pending = new ArrayDeque<>();
 
     public Http1ClientImpl(IPPort remote, Options opts) {
         this(remote, null, 10_000, opts);
@@ -49,16 +58,18 @@ public class Http1ClientImpl implements HttpClient {
         noInputLoop = (loop == null);
     }
 
-    private void initLoop() {
+    private synchronized void initLoop() {
         if (loop != null) {
             return;
         }
+        NetEventLoop loop;
         try {
             loop = new NetEventLoop(SelectorEventLoop.open());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         loop.getSelectorEventLoop().loop(Thread::new);
+        this.loop = loop;
     }
 
     @Override
@@ -91,6 +102,7 @@ public class Http1ClientImpl implements HttpClient {
                         headers.put("host", opts.host);
                     }
                 }
+                boolean connectionClose = !opts.keepAlive || "close".equalsIgnoreCase(headers.get("connection"));
                 request.headers = new ArrayList<>(headers.size() + 2);
                 for (Map.Entry<String, String> entry : headers.entrySet()) {
                     request.headers.add(new Header(entry.getKey(), entry.getValue()));
@@ -104,116 +116,333 @@ public class Http1ClientImpl implements HttpClient {
                 }
                 assert Logger.lowLevelDebug("http client sending request to " + remote + " with " + request.toString());
 
-                ByteArray array = request.toByteArray();
-                ByteArrayChannel chnl = ByteArrayChannel.fromFull(array);
+                PendingRequest req = new PendingRequest(method, request.toByteArray(), connectionClose, handler);
 
                 initLoop();
+                loop.getSelectorEventLoop().runOnLoop(() -> dispatch(req));
+            }
+        };
+    }
 
-                try {
-                    RingBuffer in;
-                    RingBuffer out;
-                    if (opts.sslContext != null) {
-                        SSLEngine engine = opts.sslContext.createSSLEngine();
-                        engine.setUseClientMode(true);
-                        SSLParameters params = new SSLParameters();
-                        if (opts.host != null) {
-                            params.setServerNames(Collections.singletonList(new SNIHostName(opts.host)));
-                        }
-                        engine.setSSLParameters(params);
-                        SSLUtils.SSLBufferPair pair = SSLUtils.genbuf(engine, RingBuffer.allocate(24576), RingBuffer.allocate(24576), remote);
-                        in = pair.left;
-                        out = pair.right;
-                    } else {
-                        in = RingBuffer.allocate(1024);
-                        out = RingBuffer.allocate(1024);
+    private void dispatch(PendingRequest req) {
+        if (closed) {
+            req.cb.failed(new IOException("the http client is closed"));
+            return;
+        }
+        if (!tryDispatch(req)) {
+            assert Logger.lowLevelDebug("all connections to " + remote + " are busy, the request is pending");
+            pending.add(req);
+        }
+    }
+
+    private boolean tryDispatch(PendingRequest req) {
+        // use an idle connection
+        for (PooledConnection conn : connections) {
+            if (conn.reusable && conn.inflight.isEmpty()) {
+                conn.send(req);
+                return true;
+            }
+        }
+        // create a new connection
+        if (connections.size() < opts.maxConnectionsPerHost) {
+            PooledConnection conn;
+            try {
+                conn = newConnection();
+            } catch (IOException e) {
+                assert Logger.lowLevelDebug("http client failed to send request to " + remote + ", " + e);
+                req.cb.failed(e);
+                return true;
+            }
+            conn.send(req);
+            return true;
+        }
+        // pipeline on the least busy connection
+        // non-idempotent requests are never pipelined, rfc 7230 (6.3.2)
+        if (opts.maxPipelinedRequests > 1 && isIdempotent(req.method)) {
+            PooledConnection least = null;
+            for (PooledConnection conn : connections) {
+                if (conn.reusable && conn.inflight.size() < opts.maxPipelinedRequests && allIdempotent(conn.inflight)
+                    && (least == null || conn.inflight.size() < least.inflight.size())) {
+                    least = conn;
+                }
+            }
+            if (least != null) {
+                least.send(req);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void drainPending() {
+        while (!pending.isEmpty() && !closed) {
+            if (!tryDispatch(pending.peekFirst())) {
+                return;
+            }
+            pending.pollFirst();
+        }
+    }
+
+    private PooledConnection newConnection() throws IOException {
+        RingBuffer in;
+        RingBuffer out;
+        if (opts.sslContext != null) {
+            // create the engine with the peer host and port
+            // so that the session cached in the ssl context can be resumed
+            String peerHost = opts.host == null ? remote.getAddress().formatToIPString() : opts.host;
+            SSLEngine engine = opts.sslContext.createSSLEngine(peerHost, remote.getPort());
+            engine.setUseClientMode(true);
+            SSLParameters params = new SSLParameters();
+            if (opts.host != null) {
+                params.setServerNames(Collections.singletonList(new SNIHostName(opts.host)));
+            }
+            engine.setSSLParameters(params);
+            SSLUtils.SSLBufferPair pair = SSLUtils.genbuf(engine, RingBuffer.allocate(24576), RingBuffer.allocate(24576), remote);
+            in = pair.left;
+            out = pair.right;
+        } else {
+            in = RingBuffer.allocate(1024);
+            out = RingBuffer.allocate(1024);
+        }
+        ConnectableConnection connection = ConnectableConnection.create(remote, new ConnectionOpts().setTimeout(timeout), in, out);
+        PooledConnection conn = new PooledConnection(connection);
+        try {
+            loop.addConnectableConnection(connection, null, conn);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        connections.add(conn);
+        return conn;
+    }
+
+    private static boolean isIdempotent(HttpMethod method) {
+        return method != HttpMethod.POST && method != HttpMethod.PATCH && method != HttpMethod.CONNECT;
+    }
+
+    private static boolean allIdempotent(Collection<PendingRequest> requests) {
+        for (PendingRequest r : requests) {
+            if (!isIdempotent(r.method)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class PendingRequest {
+        final HttpMethod method;
+        final ByteArray bytes;
+        final boolean connectionClose;
+        final Callback<HttpResponse, IOException> cb;
+        boolean retried = false;
+
+        PendingRequest(HttpMethod method, ByteArray bytes, boolean connectionClose, ResponseHandler handler) {
+            this.method = method;
+            this.bytes = bytes;
+            this.connectionClose = connectionClose;
+            this.cb = new Callback<>() {
+                @Override
+                protected void onSucceeded(HttpResponse value) {
+                    assert Logger.lowLevelDebug("http request succeeded with: " + value);
+                    handler.accept(null, value);
+                }
+
+                @Override
+                protected void onFailed(IOException err) {
+                    assert Logger.lowLevelDebug("http request failed with err: " + err);
+                    handler.accept(err, null);
+                }
+            };
+        }
+    }
+
+    private class PooledConnection implements ConnectableConnectionHandler {
+        final ConnectableConnection connection;
+        final Deque<PendingRequest> inflight = new ArrayDeque<>();
+        private final Deque<ByteArrayChannel> toWrite = new ArrayDeque<>();
+        private HttpRespParser parser = new HttpRespParser(true, true);
+        private boolean connected = false;
+        private boolean receiving = false; // bytes of the first inflight response are received
+        private int served = 0;
+        boolean reusable = true;
+        private boolean removed = false;
+        private TimerEvent idleTimer;
+
+        PooledConnection(ConnectableConnection connection) {
+            this.connection = connection;
+        }
+
+        void send(PendingRequest req) {
+            if (idleTimer != null) {
+                idleTimer.cancel();
+                idleTimer = null;
+            }
+            inflight.add(req);
+            if (req.connectionClose) {
+                reusable = false;
+            }
+            toWrite.add(ByteArrayChannel.fromFull(req.bytes));
+            if (connected) {
+                write();
+            }
+        }
+
+        private void write() {
+            while (!toWrite.isEmpty()) {
+                ByteArrayChannel chnl = toWrite.peekFirst();
+                connection.getOutBuffer().storeBytesFrom(chnl);
+                if (chnl.used() != 0) {
+                    return; // wait for the next writable event
+                }
+                toWrite.pollFirst();
+            }
+        }
+
+        private void release() {
+            if (!reusable || closed) {
+                remove(null);
+                connection.close();
+                return;
+            }
+            assert Logger.lowLevelDebug("connection " + connection + " is released to the pool");
+            idleTimer = loop.getSelectorEventLoop().delay(opts.idleTimeout, () -> {
+                idleTimer = null;
+                if (inflight.isEmpty() && !removed) {
+                    assert Logger.lowLevelDebug("idle connection " + connection + " is evicted from the pool");
+                    remove(null);
+                    connection.close();
+                }
+            });
+            drainPending();
+        }
+
+        // remove from the pool, retry or fail the requests which are not responded
+        private void remove(IOException err) {
+            if (removed) {
+                return;
+            }
+            removed = true;
+            reusable = false;
+            connections.remove(this);
+            if (idleTimer != null) {
+                idleTimer.cancel();
+                idleTimer = null;
+            }
+            boolean first = true;
+            for (PendingRequest req : inflight) {
+                // a request can be sent again if the connection is closed before any byte of its response is received,
+                // and the connection was used by other requests, which means the remote might have closed it as idle
+                boolean nothingReceived = !first || !receiving;
+                boolean canRetry = nothingReceived && (served > 0 || !first) && !req.retried && isIdempotent(req.method);
+                first = false;
+                if (canRetry && !closed) {
+                    assert Logger.lowLevelDebug("retry the request on another connection");
+                    req.retried = true;
+                    dispatch(req);
+                } else {
+                    req.cb.failed(err == null ? new IOException("connection closed before receiving the response") : err);
+                }
+            }
+            inflight.clear();
+            drainPending();
+        }
+
+        private boolean keepAlive(Response resp) {
+            String connectionHeader = null;
+            boolean hasLength = false;
+            if (resp.headers != null) {
+                for (Header h : resp.headers) {
+                    if (h.key.equalsIgnoreCase("connection")) {
+                        connectionHeader = h.value;
+                    } else if (h.key.equalsIgnoreCase("content-length") || h.key.equalsIgnoreCase("transfer-encoding")) {
+                        hasLength = true;
                     }
-                    loop.addConnectableConnection(
-                        ConnectableConnection.create(remote, new ConnectionOpts().setTimeout(timeout), in, out),
-                        null,
-                        new ConnectableConnectionHandler() {
-                            private final HttpRespParser parser = new HttpRespParser(true);
-                            private final Callback<HttpResponse, IOException> cb = new Callback<>() {
-                                @Override
-                                protected void onSucceeded(HttpResponse value) {
-                                    assert Logger.lowLevelDebug("http request succeeded with: " + value);
-                                    handler.accept(null, value);
-                                }
-
-                                @Override
-                                protected void onFailed(IOException err) {
-                                    assert Logger.lowLevelDebug("http request failed with err: " + err);
-                                    handler.accept(err, null);
-                                }
-                            };
-
-                            private void write(ConnectionHandlerContext ctx) {
-                                ctx.connection.getOutBuffer().storeBytesFrom(chnl);
-                            }
-
-                            @Override
-                            public void connected(ConnectableConnectionHandlerContext ctx) {
-                                // write data when connected
-                                write(ctx);
-                            }
-
-                            @Override
-                            public void readable(ConnectionHandlerContext ctx) {
-                                int res = parser.feed(ctx.connection.getInBuffer());
-                                if (res == -1) {
-                                    String msg = parser.getErrorMessage();
-                                    if (msg == null) {
-                                        // want more data
-                                        return;
-                                    }
-                                    // error, close connection
-                                    ctx.connection.close();
-                                    cb.failed(new IOException("external data is not HTTP/1.x format"));
-                                    return;
-                                }
-                                Response resp = parser.getResult();
-                                cb.succeeded(new HttpResponseImpl(resp));
-                                ctx.connection.close();
-                            }
-
-                            @Override
-                            public void writable(ConnectionHandlerContext ctx) {
-                                write(ctx);
-                            }
-
-                            @Override
-                            public void exception(ConnectionHandlerContext ctx, IOException err) {
-                                cb.failed(err);
-                                ctx.connection.close(true);
-                            }
-
-                            @Override
-                            public void remoteClosed(ConnectionHandlerContext ctx) {
-                                ctx.connection.close();
-                                closed(ctx);
-                            }
-
-                            @Override
-                            public void closed(ConnectionHandlerContext ctx) {
-                                if (!cb.isCalled()) {
-                                    cb.failed(new IOException("connection closed before receiving the response"));
-                                }
-                            }
-
-                            @Override
-                            public void removed(ConnectionHandlerContext ctx) {
-                                ctx.connection.close();
-                                if (!cb.isCalled()) {
-                                    cb.failed(new IOException("removed from event loop"));
-                                }
-                            }
-                        }
-                    );
-                } catch (IOException e) {
-                    assert Logger.lowLevelDebug("http client failed to send request to " + remote + ", " + e);
-                    handler.accept(e, null);
                 }
             }
-        };
+            if (!hasLength && resp.statusCode != 204 && resp.statusCode != 304 && resp.statusCode >= 200) {
+                return false; // the body ends when the connection closes
+            }
+            if ("HTTP/1.0".equals(resp.version)) {
+                return "keep-alive".equalsIgnoreCase(connectionHeader);
+            }
+            return !"close".equalsIgnoreCase(connectionHeader);
+        }
+
+        @Override
+        public void connected(ConnectableConnectionHandlerContext ctx) {
+            connected = true;
+            // write data when connected
+            write();
+        }
+
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+            while (ctx.connection.getInBuffer().used() != 0) {
+                PendingRequest req = inflight.peekFirst();
+                if (req == null) {
+                    // no request is waiting for the data
+                    remove(null);
+                    ctx.connection.close();
+                    return;
+                }
+                receiving = true;
+                int res = parser.feed(ctx.connection.getInBuffer());
+                if (res == -1) {
+                    String msg = parser.getErrorMessage();
+                    if (msg == null) {
+                        // want more data
+                        return;
+                    }
+                    // error, close connection
+                    remove(new IOException("external data is not HTTP/1.x format"));
+                    ctx.connection.close();
+                    return;
+                }
+                Response resp = parser.getResult();
+                parser = new HttpRespParser(true, true);
+                receiving = false;
+                ++served;
+                inflight.pollFirst();
+                if (!keepAlive(resp)) {
+                    reusable = false;
+                }
+                req.cb.succeeded(new HttpResponseImpl(resp));
+                if (removed) {
+                    return;
+                }
+            }
+            if (inflight.isEmpty()) {
+                release();
+            }
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+            write();
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+            remove(err);
+            ctx.connection.close(true);
+        }
+
+        @Override
+        public void remoteClosed(ConnectionHandlerContext ctx) {
+            ctx.connection.close();
+            closed(ctx);
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+            remove(null);
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+            ctx.connection.close();
+            remove(new IOException("removed from event loop"));
+        }
     }
 
     @Override
@@ -222,6 +451,19 @@ public class Http1ClientImpl implements HttpClient {
             return;
         }
         closed = true;
+        if (loop == null) {
+            return;
+        }
+        loop.getSelectorEventLoop().runOnLoop(() -> {
+            for (PooledConnection conn : new ArrayList<>(connections)) {
+                conn.connection.close();
+                conn.remove(new IOException("the http client is closed"));
+            }
+            PendingRequest req;
+            while ((req = pending.pollFirst()) != null) {
+                req.cb.failed(new IOException("the http client is closed"));
+            }
+        });
         if (noInputLoop) {
             // should close the input loop because it's created by the lib
             loop.getSelectorEventLoop().nextTick(() -> {
@@ -15,8 +15,9 @@ public class RoutingContext {
     private final Map<String, String> query;
     private final Map<String, String> headers;
     private final ByteArray body;
-    private final Map<String, String> params = new HashMap<>();
-    private final Map<StorageKey, Object> storage = new HashMap<>();
+    // created when used, most requests do not have params or storage
+    private Map<String, String> params = null;
+    private Map<StorageKey, Object> storage = null;
     private final HttpResponse response;
     private final HandlerChain chain;
 
@@ -53,20 +54,32 @@ public class RoutingContext {
     }
 
     public RoutingContext putParam(String key, String value) {
+        if (params == null) {
+            params = new HashMap<>();
+        }
         params.put(key, value);
         return this;
     }
 
     public String param(String key) {
+        if (params == null) {
+            return null;
+        }
         return params.get(key);
     }
 
     @SuppressWarnings("unchecked")
     public <T> T get(StorageKey<T> key) {
+        if (storage == null) {
+            return null;
+        }
         return (T) storage.get(key);
     }
 
     public <T> RoutingContext put(StorageKey<T> key, T value) {
+        if (storage == null) {
+            storage = new HashMap<>();
+        }
         storage.put(key, value);
         return this;
     }
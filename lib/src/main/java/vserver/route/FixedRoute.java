@@ -12,6 +12,10 @@ public class FixedRoute implements Route {
         this.route = route;
     }
 
+    public String getRoute() {
+        return route;
+    }
+
     @Override
     public Route next() {
         return next;
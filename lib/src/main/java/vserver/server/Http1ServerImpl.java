@@ -17,20 +17,18 @@ import vproxybase.protocol.ProtocolServerHandler;
 import vproxybase.selector.SelectorEventLoop;
 import vproxybase.util.*;
 import vserver.*;
-import vserver.route.WildcardRoute;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static vserver.HttpMethod.ALL_METHODS;
 
 public class Http1ServerImpl implements HttpServer {
     private boolean started = false;
     private boolean closed = false;
-    private final Map<HttpMethod, Tree<Route, RoutingHandler>> routes = new HashMap<>(HttpMethod.values().length) {{
+    private final Map<HttpMethod, Router> routes = new EnumMap<>(HttpMethod.class) {{
         for (HttpMethod m : HttpMethod.values()) {
-            put(m, new Tree<>());
+            put(m, new Router(Http1ServerImpl.this::handle404));
         }
     }};
     private NetEventLoop loop;
@@ -46,25 +44,9 @@ public class Http1ServerImpl implements HttpServer {
         noInputLoop = loop == null;
     }
 
-    private void record(Tree<Route, RoutingHandler> tree, Route route, RoutingHandler handler) {
-        if (route == null) {
-            tree.leaf(handler);
-            return;
-        }
-        var last = tree.lastBranch();
-        if (last != null && last.data.currentSame(route)) {
-            // can use the last node
-            record(last, route.next(), handler);
-            return;
-        }
-        // must be new route
-        var br = tree.branch(route);
-        record(br, route.next(), handler);
-    }
-
     private void record(HttpMethod[] methods, Route route, RoutingHandler handler) {
         for (HttpMethod m : methods) {
-            record(routes.get(m), route, handler);
+            routes.get(m).add(route, handler);
         }
     }
 
@@ -83,6 +65,9 @@ public class Http1ServerImpl implements HttpServer {
         }
         started = true;
         record(ALL_METHODS, Route.create("/*"), this::handle404);
+        for (Router r : routes.values()) {
+            r.compile();
+        }
     }
 
     public void listen(ServerSock server) throws IOException {
@@ -94,11 +79,23 @@ public class Http1ServerImpl implements HttpServer {
 
         ProtocolServerHandler.apply(loop, server,
             new ProtocolServerConfig().setInBufferSize(4096).setOutBufferSize(4096),
-            new HttpProtocolHandler(true) {
+            new HttpProtocolHandler(true, true) {
+                @Override
+                public void init(ProtocolHandlerContext<HttpContext> ctx) {
+                    ctx.data = new ServerHttpContext(ctx);
+                }
+
                 @Override
                 protected void request(ProtocolHandlerContext<HttpContext> ctx) {
                     handle(ctx);
                 }
+
+                @Override
+                protected void writeError(ProtocolHandlerContext<HttpContext> ctx, byte[] response) {
+                    ResponseQueue.Slot slot = ((ServerHttpContext) ctx.data).responses.next();
+                    slot.write(response);
+                    slot.end();
+                }
             });
     }
 
@@ -150,7 +147,70 @@ public class Http1ServerImpl implements HttpServer {
         loop.getSelectorEventLoop().loop(Thread::new);
     }
 
-    private void sendResponse(ProtocolHandlerContext<HttpContext> _pctx, Response response) {
+    private static class ServerHttpContext extends HttpContext {
+        final ResponseQueue responses;
+
+        ServerHttpContext(ProtocolHandlerContext<HttpContext> pctx) {
+            responses = new ResponseQueue(pctx);
+        }
+    }
+
+    /**
+     * Responses of one connection in the order of the requests.<br>
+     * Pipelined requests are handled at the same time and may finish in any order,
+     * so a response is held until all responses before it are written.
+     */
+    private static class ResponseQueue {
+        private final ProtocolHandlerContext<HttpContext> pctx;
+        private final Deque<Slot> slots = new ArrayDeque<>();
+
+        ResponseQueue(ProtocolHandlerContext<HttpContext> pctx) {
+            this.pctx = pctx;
+        }
+
+        synchronized Slot next() {
+            Slot slot = new Slot();
+            slots.add(slot);
+            return slot;
+        }
+
+        class Slot {
+            private final List<byte[]> pending = new LinkedList<>();
+            private boolean ended = false;
+
+            void write(byte[] bytes) {
+                synchronized (ResponseQueue.this) {
+                    if (slots.peekFirst() == this) {
+                        pctx.write(bytes);
+                    } else {
+                        pending.add(bytes);
+                    }
+                }
+            }
+
+            void end() {
+                synchronized (ResponseQueue.this) {
+                    if (ended) {
+                        return;
+                    }
+                    ended = true;
+                    Slot head;
+                    while ((head = slots.peekFirst()) != null && head.ended) {
+                        slots.pollFirst();
+                        head = slots.peekFirst();
+                        if (head != null) {
+                            for (byte[] bytes : head.pending) {
+                                pctx.write(bytes);
+                            }
+                            head.pending.clear();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void sendResponse(ResponseQueue.Slot slot, Response response) {
         if (response.headers == null) {
             response.headers = new ArrayList<>(2);
             // may add
@@ -191,12 +251,13 @@ public class Http1ServerImpl implements HttpServer {
                 response.headers.add(new Header("Content-Length", Integer.toString(response.body.length())));
             }
         }
-        _pctx.write(response.toByteArray().toJavaArray());
+        slot.write(response.toByteArray().toJavaArray());
     }
 
     private void handle(ProtocolHandlerContext<HttpContext> _pctx) {
         Request request = _pctx.data.result;
-        RoutingContext[] ctx = new RoutingContext[1];
+        ResponseQueue.Slot slot = ((ServerHttpContext) _pctx.data).responses.next();
+        final RoutingContext ctx;
         {
             final HttpMethod method;
             final Map<String, String> headers = new HashMap<>();
@@ -204,33 +265,21 @@ public class Http1ServerImpl implements HttpServer {
             final Map<String, String> query = new HashMap<>();
             final ByteArray body;
             final HttpResponse response;
-            final HandlerChain chain;
+            final Router.Chain chain;
 
-            final List<String> paths;
-            { // paths and query
+            { // query
                 if (uri == null) {
                     Response resp = new Response();
                     resp.statusCode = 400;
                     resp.reason = "Bad Request";
                     resp.body = ByteArray.from("Bad Request: invalid uri\r\n".getBytes());
-                    sendResponse(_pctx, resp);
+                    sendResponse(slot, resp);
+                    slot.end();
                     return;
                 }
-                String path = uri;
-                String queryPart = "";
-                if (path.contains("?")) {
-                    queryPart = path.substring(path.indexOf('?') + 1);
-                    path = path.substring(0, path.indexOf('?'));
-                }
-                paths = Arrays.stream(path.split("/")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
-                var queryList = Arrays.stream(queryPart.split("&")).filter(s -> !s.isBlank()).collect(Collectors.toList());
-                for (var qkv : queryList) {
-                    if (qkv.indexOf('=') == -1) {
-                        query.put(qkv, "");
-                    } else {
-                        int idx = qkv.indexOf('=');
-                        query.put(qkv.substring(0, idx), qkv.substring(idx + 1));
-                    }
+                int idx = uri.indexOf('?');
+                if (idx != -1) {
+                    parseQuery(uri, idx + 1, query);
                 }
             }
 
@@ -242,7 +291,8 @@ public class Http1ServerImpl implements HttpServer {
                     resp.statusCode = 400;
                     resp.reason = "Bad Request";
                     resp.body = ByteArray.from("Bad Request: invalid method\r\n".getBytes());
-                    sendResponse(_pctx, resp);
+                    sendResponse(slot, resp);
+                    slot.end();
                     return;
                 }
             }
@@ -252,7 +302,8 @@ public class Http1ServerImpl implements HttpServer {
                     resp.statusCode = 400;
                     resp.reason = "Bad Request";
                     resp.body = ByteArray.from("Bad Request: invalid uri\r\n".getBytes());
-                    sendResponse(_pctx, resp);
+                    sendResponse(slot, resp);
+                    slot.end();
                     return;
                 }
             }
@@ -345,7 +396,7 @@ public class Http1ServerImpl implements HttpServer {
                         }
                         headersSent = true;
                         allowChunked = true;
-                        sendResponse(_pctx, response);
+                        sendResponse(slot, response);
                         return this;
                     }
 
@@ -368,7 +419,8 @@ public class Http1ServerImpl implements HttpServer {
                         }
                         isEnd = true;
                         response.body = body;
-                        sendResponse(_pctx, response);
+                        sendResponse(slot, response);
+                        slot.end();
                     }
 
                     @Override
@@ -379,27 +431,59 @@ public class Http1ServerImpl implements HttpServer {
                         Chunk c = new Chunk();
                         c.size = chunk.length();
                         c.content = chunk;
-                        _pctx.write(c.toByteArray().toJavaArray());
+                        slot.write(c.toByteArray().toJavaArray());
+                        if (chunk.length() == 0) {
+                            // the last chunk
+                            slot.end();
+                        }
                         return this;
                     }
                 };
             }
             { // chain
-                var list = buildHandlerChain(routes.get(method), paths).iterator();
-                chain = () -> {
-                    var tup = list.next();
-                    tup.left.forEach(pre -> pre.accept(ctx[0])); // pre process
-                    tup.right.accept(ctx[0]);
-                };
+                chain = routes.get(method).match(uri);
             }
 
             // build ctx
-            ctx[0] = new RoutingContext(_pctx.connection.remote, _pctx.connection.getLocal(), method, uri, query, headers, body, response, chain);
+            ctx = new RoutingContext(_pctx.connection.remote, _pctx.connection.getLocal(), method, uri, query, headers, body, response, chain);
+            chain.setContext(ctx);
+        }
+        ctx.next();
+    }
+
+    private static void parseQuery(String uri, int from, Map<String, String> query) {
+        int len = uri.length();
+        int start = from;
+        while (start < len) {
+            int end = uri.indexOf('&', start);
+            if (end == -1) {
+                end = len;
+            }
+            if (!isBlank(uri, start, end)) {
+                int eq = uri.indexOf('=', start);
+                if (eq == -1 || eq > end) {
+                    query.put(uri.substring(start, end), "");
+                } else {
+                    query.put(uri.substring(start, eq), uri.substring(eq + 1, end));
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    private static boolean isBlank(String s, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (!Character.isWhitespace(s.charAt(i))) {
+                return false;
+            }
         }
-        ctx[0].next();
+        return true;
     }
 
     private static String unescape(String uri) {
+        if (uri.indexOf('%') == -1) {
+            return uri;
+        }
         byte[] input = uri.getBytes();
         int idx = 0;
         byte[] result = new byte[input.length];
@@ -414,10 +498,8 @@ public class Http1ServerImpl implements HttpServer {
                     result[idx++] = b;
                 }
             } else {
-                int n;
-                try {
-                    n = Integer.parseInt("" + c, 16);
-                } catch (NumberFormatException ignore) {
+                int n = Character.digit(c, 16);
+                if (n == -1) {
                     assert Logger.lowLevelDebug("escaped uri part not number: " + c);
                     return null;
                 }
@@ -437,52 +519,4 @@ public class Http1ServerImpl implements HttpServer {
             return null;
         }
     }
-
-    // return: list<tuple<list<preHandlers>, actualHandler>>
-    // the preHandlers are constructed in this method, and actualHandlers are user defined
-    private List<Tuple<List<RoutingHandler>, RoutingHandler>> buildHandlerChain(Tree<Route, RoutingHandler> tree, List<String> paths) {
-        var ls = new LinkedList<Tuple<List<RoutingHandler>, RoutingHandler>>();
-        var pre = Collections.<RoutingHandler>emptyList();
-        if (paths.isEmpty()) {
-            // special handling for paths.isEmpty condition
-            // which means the request path is `/`
-            for (var h : tree.leafData()) {
-                // definitely no data to fill, so preHandlers can be empty
-                ls.add(new Tuple<>(Collections.emptyList(), h));
-            }
-            // also 404 should be added
-            ls.add(new Tuple<>(Collections.emptyList(), this::handle404));
-        } else {
-            buildHandlerChain(ls, pre, tree, paths, 0);
-        }
-        assert !ls.isEmpty(); // 404 handler would had already been added
-        return ls;
-    }
-
-    private void buildHandlerChain(List<Tuple<List<RoutingHandler>, RoutingHandler>> ret,
-                                   List<RoutingHandler> preHandlers,
-                                   Tree<Route, RoutingHandler> tree,
-                                   List<String> paths,
-                                   int pathIdx) {
-        if (pathIdx >= paths.size()) {
-            return;
-        }
-        String path = paths.get(pathIdx);
-        boolean isLast = pathIdx + 1 == paths.size();
-        for (var br : tree.branches()) {
-            RoutingHandler preHandler = rctx -> br.data.fill(rctx, path);
-            if (br.data.match(path)) {
-                var newPathIdx = pathIdx + 1;
-                var newPreHandlers = new AppendingList<>(preHandlers, preHandler);
-
-                if (isLast || br.data instanceof WildcardRoute) {
-                    for (var h : br.leafData()) {
-                        ret.add(new Tuple<>(newPreHandlers, h));
-                    }
-                }
-
-                buildHandlerChain(ret, newPreHandlers, br, paths, newPathIdx);
-            }
-        }
-    }
 }
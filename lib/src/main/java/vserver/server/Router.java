@@ -0,0 +1,385 @@
+package vserver.server;
+
+import vproxybase.util.Tree;
+import vserver.HandlerChain;
+import vserver.Route;
+import vserver.RoutingContext;
+import vserver.RoutingHandler;
+import vserver.route.FixedRoute;
+import vserver.route.VariableRoute;
+import vserver.route.WildcardRoute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Routes of one http method.<br>
+ * Routes are recorded into a tree in the order they are registered, and the tree is compiled into
+ * a segment tree before the server starts. Fixed segments of a node are looked up in a hash table,
+ * so the cost of matching does not grow with the number of routes.<br>
+ * The handlers are called in the same order as the recorded tree is traversed: depth first,
+ * and handlers of a node before handlers of its branches.<br>
+ * The path is matched by offsets of the segments in the uri, strings are only created for the filled params.
+ */
+public class Router {
+    private final Tree<Route, RoutingHandler> tree = new Tree<>();
+    private final CompiledRoute notFound;
+    private Node root = null;
+
+    /**
+     * @param notFound the handler appended to the chain when the request path is `/`
+     */
+    public Router(RoutingHandler notFound) {
+        this.notFound = new CompiledRoute(Integer.MAX_VALUE, new Route[0], notFound);
+    }
+
+    public void add(Route route, RoutingHandler handler) {
+        if (root != null) {
+            throw new IllegalStateException("This router is already compiled");
+        }
+        record(tree, route, handler);
+    }
+
+    private void record(Tree<Route, RoutingHandler> tree, Route route, RoutingHandler handler) {
+        if (route == null) {
+            tree.leaf(handler);
+            return;
+        }
+        var last = tree.lastBranch();
+        if (last != null && last.data.currentSame(route)) {
+            // can use the last node
+            record(last, route.next(), handler);
+            return;
+        }
+        // must be new route
+        var br = tree.branch(route);
+        record(br, route.next(), handler);
+    }
+
+    public void compile() {
+        if (root != null) {
+            return;
+        }
+        Node root = new Node(false);
+        compile(root, tree, new ArrayList<>(), new int[]{0});
+        this.root = root;
+    }
+
+    private void compile(Node root, Tree<Route, RoutingHandler> tree, List<Route> segments, int[] index) {
+        for (var h : tree.leafData()) {
+            Route[] segs = segments.toArray(new Route[0]);
+            insert(root, new CompiledRoute(index[0]++, segs, h));
+        }
+        for (var br : tree.branches()) {
+            segments.add(br.data);
+            compile(root, br, segments, index);
+            segments.remove(segments.size() - 1);
+        }
+    }
+
+    private static void insert(Node root, CompiledRoute route) {
+        Node node = root;
+        for (Route r : route.segments) {
+            if (r instanceof FixedRoute) {
+                node = node.fixedChild(((FixedRoute) r).getRoute());
+            } else if (r instanceof VariableRoute) {
+                if (node.variable == null) {
+                    node.variable = new Node(false);
+                }
+                node = node.variable;
+            } else if (r instanceof WildcardRoute) {
+                if (node.wildcard == null) {
+                    node.wildcard = new Node(true);
+                }
+                node = node.wildcard;
+            } else {
+                node = node.customChild(r);
+            }
+        }
+        node.routes = Arrays.copyOf(node.routes, node.routes.length + 1);
+        node.routes[node.routes.length - 1] = route;
+    }
+
+    /**
+     * @param uri the unescaped uri, may contain the query part
+     * @return handlers matching the path of the uri
+     */
+    public Chain match(String uri) {
+        if (root == null) {
+            throw new IllegalStateException("This router is not compiled yet");
+        }
+        Chain chain = new Chain(uri);
+        collect(root, 0, chain);
+        // keep the order of the recorded tree
+        CompiledRoute[] routes = chain.routes;
+        for (int i = 1; i < chain.size; ++i) {
+            CompiledRoute r = routes[i];
+            int j = i - 1;
+            while (j >= 0 && routes[j].index > r.index) {
+                routes[j + 1] = routes[j];
+                --j;
+            }
+            routes[j + 1] = r;
+        }
+        if (chain.segmentCount == 0) {
+            chain.add(notFound);
+        }
+        return chain;
+    }
+
+    private static void collect(Node node, int depth, Chain chain) {
+        int count = chain.segmentCount;
+        if (depth == count || node.isWildcard) {
+            // a wildcard matches all remaining segments
+            for (CompiledRoute r : node.routes) {
+                chain.add(r);
+            }
+        }
+        if (depth == count) {
+            return;
+        }
+        if (node.fixed != null) {
+            Node n = node.fixed.get(chain.uri, chain.segmentStart(depth), chain.segmentEnd(depth));
+            if (n != null) {
+                collect(n, depth + 1, chain);
+            }
+        }
+        if (node.variable != null) {
+            collect(node.variable, depth + 1, chain);
+        }
+        if (node.wildcard != null) {
+            collect(node.wildcard, depth + 1, chain);
+        }
+        if (node.custom != null) {
+            String seg = chain.segment(depth);
+            for (int i = 0; i < node.custom.length; ++i) {
+                if (node.customRoutes[i].match(seg)) {
+                    collect(node.custom[i], depth + 1, chain);
+                }
+            }
+        }
+    }
+
+    private static class CompiledRoute {
+        final int index; // position of the handler in the recorded tree
+        final Route[] segments;
+        final int[] fillIndexes; // indexes of the segments which need to fill the context
+        final RoutingHandler handler;
+
+        CompiledRoute(int index, Route[] segments, RoutingHandler handler) {
+            this.index = index;
+            this.segments = segments;
+            this.handler = handler;
+            int n = 0;
+            int[] fill = new int[segments.length];
+            for (int i = 0; i < segments.length; ++i) {
+                Route r = segments[i];
+                if (!(r instanceof FixedRoute) && !(r instanceof WildcardRoute)) {
+                    fill[n++] = i;
+                }
+            }
+            this.fillIndexes = Arrays.copyOf(fill, n);
+        }
+    }
+
+    private static class Node {
+        final boolean isWildcard;
+        CompiledRoute[] routes = new CompiledRoute[0];
+        FixedTable fixed;
+        Node variable;
+        Node wildcard;
+        Route[] customRoutes;
+        Node[] custom;
+
+        Node(boolean isWildcard) {
+            this.isWildcard = isWildcard;
+        }
+
+        Node fixedChild(String seg) {
+            if (fixed == null) {
+                fixed = new FixedTable();
+            }
+            Node n = fixed.get(seg, 0, seg.length());
+            if (n == null) {
+                n = new Node(false);
+                fixed.put(seg, n);
+            }
+            return n;
+        }
+
+        Node customChild(Route r) {
+            if (custom == null) {
+                customRoutes = new Route[0];
+                custom = new Node[0];
+            }
+            for (int i = 0; i < customRoutes.length; ++i) {
+                if (customRoutes[i].currentSame(r)) {
+                    return custom[i];
+                }
+            }
+            Node n = new Node(false);
+            customRoutes = Arrays.copyOf(customRoutes, customRoutes.length + 1);
+            customRoutes[customRoutes.length - 1] = r;
+            custom = Arrays.copyOf(custom, custom.length + 1);
+            custom[custom.length - 1] = n;
+            return n;
+        }
+    }
+
+    /**
+     * Open addressing hash table, looked up with a region of the uri.
+     */
+    private static class FixedTable {
+        private String[] keys = new String[4];
+        private Node[] values = new Node[4];
+        private int size = 0;
+
+        private static int hash(String s, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; ++i) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+
+        Node get(String s, int from, int to) {
+            int len = to - from;
+            int mask = keys.length - 1;
+            for (int i = hash(s, from, to) & mask; ; i = (i + 1) & mask) {
+                String k = keys[i];
+                if (k == null) {
+                    return null;
+                }
+                if (k.length() == len && s.regionMatches(from, k, 0, len)) {
+                    return values[i];
+                }
+            }
+        }
+
+        void put(String key, Node value) {
+            if ((size + 1) * 2 > keys.length) {
+                String[] oldKeys = keys;
+                Node[] oldValues = values;
+                keys = new String[oldKeys.length * 2];
+                values = new Node[oldValues.length * 2];
+                for (int i = 0; i < oldKeys.length; ++i) {
+                    if (oldKeys[i] != null) {
+                        insert(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            insert(key, value);
+            ++size;
+        }
+
+        private void insert(String key, Node value) {
+            int mask = keys.length - 1;
+            int i = hash(key, 0, key.length()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+    }
+
+    /**
+     * The matched handlers of one request.
+     */
+    public static class Chain implements HandlerChain {
+        private final String uri;
+        private int[] segments = new int[8]; // start and end of each segment
+        private int segmentCount = 0;
+        private CompiledRoute[] routes = new CompiledRoute[4];
+        private int size = 0;
+        private int next = 0;
+        private RoutingContext ctx;
+
+        Chain(String uri) {
+            this.uri = uri;
+            int end = uri.indexOf('?');
+            if (end == -1) {
+                end = uri.length();
+            }
+            int i = 0;
+            while (i < end) {
+                if (uri.charAt(i) == '/') {
+                    ++i;
+                    continue;
+                }
+                int s = i;
+                while (i < end && uri.charAt(i) != '/') {
+                    ++i;
+                }
+                int e = i;
+                // same as String.trim()
+                while (s < e && uri.charAt(s) <= ' ') {
+                    ++s;
+                }
+                while (e > s && uri.charAt(e - 1) <= ' ') {
+                    --e;
+                }
+                if (s == e) {
+                    continue;
+                }
+                if (segmentCount * 2 == segments.length) {
+                    segments = Arrays.copyOf(segments, segments.length * 2);
+                }
+                segments[segmentCount * 2] = s;
+                segments[segmentCount * 2 + 1] = e;
+                ++segmentCount;
+            }
+        }
+
+        private void add(CompiledRoute r) {
+            if (size == routes.length) {
+                routes = Arrays.copyOf(routes, routes.length * 2);
+            }
+            routes[size++] = r;
+        }
+
+        private int segmentStart(int idx) {
+            return segments[idx * 2];
+        }
+
+        private int segmentEnd(int idx) {
+            return segments[idx * 2 + 1];
+        }
+
+        private String segment(int idx) {
+            return uri.substring(segmentStart(idx), segmentEnd(idx));
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public RoutingHandler handler(int idx) {
+            if (idx >= size) {
+                throw new IndexOutOfBoundsException("idx=" + idx + ", size=" + size);
+            }
+            return routes[idx].handler;
+        }
+
+        /**
+         * Must be called before the chain is used
+         */
+        public void setContext(RoutingContext ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            CompiledRoute r = routes[next++];
+            for (int idx : r.fillIndexes) {
+                r.segments[idx].fill(ctx, segment(idx));
+            }
+            r.handler.accept(ctx);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package vproxy.bench;
+
+import vproxyx.websocks.ABP;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Time of one lookup (ns) in the compiled ABP matcher, compared with checking the rules one by one.<br>
+ * Uses a gfwlist file (base64, as downloaded) if given, otherwise generates a list with a similar size and composition:
+ * java -cp ... vproxy.bench.ABPBenchmark [gfwlist.txt]
+ */
+public class ABPBenchmark {
+    private static final int DOMAINS = 2000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Random rand = new Random(1);
+        String rules;
+        if (args.length > 0) {
+            String base64 = String.join("", Files.readAllLines(Path.of(args[0]))).trim();
+            rules = new String(Base64.getDecoder().decode(base64));
+        } else {
+            rules = generate(rand);
+        }
+
+        long start = System.nanoTime();
+        ABP abp = new ABP("bench", false);
+        abp.addRule(rules);
+        System.out.println("compiled " + abp.ruleCount() + " rules in " + ((System.nanoTime() - start) / 1_000_000) + "ms");
+        List<Predicate<String>> linear = linear(rules);
+
+        // domains matching some rules, and domains matching nothing which have to go through all rules
+        List<String> hits = new ArrayList<>();
+        List<String> misses = new ArrayList<>();
+        String[] lines = rules.split("\n");
+        while (hits.size() < DOMAINS) {
+            String line = lines[rand.nextInt(lines.length)];
+            if (line.startsWith("||")) {
+                hits.add("www." + line.substring(2));
+            }
+        }
+        while (misses.size() < DOMAINS) {
+            misses.add(randomLabel(rand) + "." + randomLabel(rand) + ".com");
+        }
+
+        // matching rules are logged, do not print them
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (int r = 0; r < ROUNDS; ++r) {
+            out.println("round " + r + ":"
+                + " hit: compiled ns=" + compiled(abp, hits) + " linear ns=" + linear(linear, hits)
+                + ", miss: compiled ns=" + compiled(abp, misses) + " linear ns=" + linear(linear, misses));
+        }
+        System.exit(0);
+    }
+
+    private static long compiled(ABP abp, List<String> domains) {
+        int blocked = 0;
+        long start = System.nanoTime();
+        for (String d : domains) {
+            if (abp.block(d)) {
+                ++blocked;
+            }
+        }
+        long cost = (System.nanoTime() - start) / domains.size();
+        assert blocked == 0 || blocked == domains.size();
+        return cost;
+    }
+
+    private static long linear(List<Predicate<String>> linear, List<String> domains) {
+        long start = System.nanoTime();
+        for (String d : domains) {
+            for (Predicate<String> p : linear) {
+                if (p.test(d)) {
+                    break;
+                }
+            }
+        }
+        return (System.nanoTime() - start) / domains.size();
+    }
+
+    // roughly the composition of gfwlist: mostly domain rules, some url rules, keywords, whitelist and regexps
+    private static String generate(Random rand) {
+        StringBuilder sb = new StringBuilder("[AutoProxy 0.2.9]\n! generated\n");
+        String[] tlds = {"com", "net", "org", "io", "tw", "hk", "jp"};
+        for (int i = 0; i < 6000; ++i) {
+            String domain = randomLabel(rand) + "." + tlds[rand.nextInt(tlds.length)];
+            int kind = rand.nextInt(100);
+            if (kind < 70) {
+                sb.append("||").append(domain);
+            } else if (kind < 85) {
+                sb.append("|http://").append(domain).append("/").append(randomLabel(rand));
+            } else if (kind < 93) {
+                sb.append(".").append(domain);
+            } else if (kind < 96) {
+                sb.append(randomLabel(rand));
+            } else if (kind < 99) {
+                sb.append("@@||").append(domain);
+            } else {
+                sb.append("/^https?:\\/\\/[^\\/]+").append(randomLabel(rand)).append("\\.(.*)/");
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static String randomLabel(Random rand) {
+        int len = 4 + rand.nextInt(10);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < len; ++i) {
+            sb.append((char) ('a' + rand.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    // checks every rule in order, only used to compare, whitelist rules are ignored
+    private static List<Predicate<String>> linear(String rules) {
+        List<Predicate<String>> ls = new ArrayList<>();
+        for (String line : rules.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("!") || line.startsWith("[") || line.startsWith("@@")) {
+                continue;
+            }
+            if (line.startsWith("||")) {
+                String host = host(line.substring(2));
+                String addDot = "." + host;
+                ls.add(s -> s.equals(host) || (s.endsWith(addDot) && s.length() > addDot.length()));
+            } else if (line.startsWith("|")) {
+                String host = host(line.substring(1));
+                ls.add(s -> s.equals(host));
+            } else if (line.startsWith("/") && line.endsWith("/")) {
+                Pattern p = Pattern.compile(line.substring(1, line.length() - 1));
+                ls.add(s -> p.matcher(s).matches() || p.matcher("http://" + s).matches() || p.matcher("https://" + s).matches());
+            } else {
+                String host = host(line);
+                ls.add(s -> s.contains(host));
+            }
+        }
+        return ls;
+    }
+
+    private static String host(String uri) {
+        if (uri.contains("://")) {
+            uri = uri.substring(uri.indexOf("://") + 3);
+        }
+        if (uri.contains("/")) {
+            uri = uri.substring(0, uri.indexOf("/"));
+        }
+        return uri;
+    }
+}
@@ -0,0 +1,92 @@
+package vproxy.bench;
+
+import vproxybase.component.svrgroup.ConsistentHash;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compare lookup cost and key disruption of the hashing methods of ServerGroup.<br>
+ * Run with: java -cp ... vproxy.bench.ConsistentHashBenchmark [servers]
+ */
+public class ConsistentHashBenchmark {
+    private static final int KEYS = 1_000_000;
+    private static final int ROUNDS = 10;
+
+    private static int sdbm(byte[] bytes) {
+        int hash = 0;
+        for (byte aByte : bytes) {
+            hash = (aByte) + (hash << 6) + (hash << 16) - hash;
+        }
+        hash = Math.abs(hash);
+        if (hash < 0) {
+            hash = 0;
+        }
+        return hash;
+    }
+
+    public static void main(String[] args) {
+        int servers = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        String[] keys = new String[servers];
+        int[] weights = new int[servers];
+        for (int i = 0; i < servers; ++i) {
+            keys[i] = "server" + i;
+            weights[i] = 10;
+        }
+        byte[][] ips = new byte[KEYS][];
+        Random rand = new Random();
+        for (int i = 0; i < KEYS; ++i) {
+            ips[i] = new byte[4];
+            rand.nextBytes(ips[i]);
+        }
+
+        long start = System.nanoTime();
+        ConsistentHash maglev = ConsistentHash.maglev(keys, weights);
+        System.out.println("maglev build: " + (System.nanoTime() - start) / 1000 + "us");
+        start = System.nanoTime();
+        ConsistentHash ring = ConsistentHash.ring(keys, weights);
+        System.out.println("ringhash build: " + (System.nanoTime() - start) / 1000 + "us");
+
+        for (int r = 0; r < ROUNDS; ++r) {
+            long sum = 0;
+            start = System.nanoTime();
+            for (byte[] ip : ips) {
+                sum += sdbm(ip) % servers;
+            }
+            long mod = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] ip : ips) {
+                sum += maglev.lookup(ConsistentHash.hash(ip));
+            }
+            long mag = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (byte[] ip : ips) {
+                sum += ring.lookup(ConsistentHash.hash(ip));
+            }
+            long rin = System.nanoTime() - start;
+            System.out.println("round " + r + ": ns/op modulo=" + (mod / (double) KEYS)
+                + " maglev=" + (mag / (double) KEYS)
+                + " ringhash=" + (rin / (double) KEYS)
+                + " (" + sum + ")");
+        }
+
+        // disruption when one server is removed
+        String[] keys2 = Arrays.copyOf(keys, servers - 1);
+        int[] weights2 = Arrays.copyOf(weights, servers - 1);
+        ConsistentHash maglev2 = ConsistentHash.maglev(keys2, weights2);
+        ConsistentHash ring2 = ConsistentHash.ring(keys2, weights2);
+        int modChanged = 0;
+        int magChanged = 0;
+        int ringChanged = 0;
+        for (byte[] ip : ips) {
+            int h = ConsistentHash.hash(ip);
+            if (sdbm(ip) % servers != sdbm(ip) % (servers - 1)) ++modChanged;
+            if (maglev.lookup(h) != maglev2.lookup(h)) ++magChanged;
+            if (ring.lookup(h) != ring2.lookup(h)) ++ringChanged;
+        }
+        System.out.println("remapped keys after removing one server (ideal " + (100.0 / servers) + "%):");
+        System.out.println("modulo:   " + (100.0 * modChanged / KEYS) + "%");
+        System.out.println("maglev:   " + (100.0 * magChanged / KEYS) + "%");
+        System.out.println("ringhash: " + (100.0 * ringChanged / KEYS) + "%");
+    }
+}
@@ -0,0 +1,101 @@
+package vproxy.bench;
+
+import vfd.IPPort;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.dns.DNSServer;
+import vproxybase.component.check.CheckProtocol;
+import vproxybase.component.check.HealthCheckConfig;
+import vproxybase.component.elgroup.EventLoopGroup;
+import vproxybase.component.svrgroup.Method;
+import vproxybase.component.svrgroup.ServerGroup;
+import vproxybase.dns.*;
+import vproxybase.util.AnnotationKeys;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queries per second of A and SRV questions answered from the rrsets of a dns server.<br>
+ * java -cp ... vproxy.bench.DNSServerBenchmark [clients]
+ */
+public class DNSServerBenchmark {
+    private static final int port = 18053;
+    private static final int SECONDS = 5;
+    private static final int ROUNDS = 3;
+
+    private static byte[] query(DNSType type) {
+        DNSPacket p = new DNSPacket();
+        p.id = 1;
+        p.isResponse = false;
+        p.opcode = DNSPacket.Opcode.QUERY;
+        p.rd = true;
+        p.rcode = DNSPacket.RCode.NoError;
+        DNSQuestion q = new DNSQuestion();
+        q.qname = "example.com";
+        q.qtype = type;
+        q.qclass = DNSClass.IN;
+        p.questions.add(q);
+        return p.toByteArray().toJavaArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+
+        EventLoopGroup elg = new EventLoopGroup("elg");
+        elg.add("el");
+        ServerGroup sg = new ServerGroup("sg", elg, new HealthCheckConfig(400, 24 * 60 * 60 * 1000, 2, 3, CheckProtocol.none), Method.wrr);
+        sg.setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, "example.com"));
+        for (int i = 1; i <= 4; ++i) {
+            sg.add("svr" + i, new IPPort("10.0.0." + i, 80), 10);
+        }
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        Upstream ups = new Upstream("ups");
+        ups.add(sg, 10);
+        DNSServer dnsServer = new DNSServer("dns", new IPPort("127.0.0.1", port), elg, ups, 60, SecurityGroup.allowAll());
+        dnsServer.start();
+
+        InetAddress addr = InetAddress.getByName("127.0.0.1");
+        for (DNSType type : new DNSType[]{DNSType.A, DNSType.SRV}) {
+            byte[] req = query(type);
+            for (int r = 0; r < ROUNDS; ++r) {
+                LongAdder done = new LongAdder();
+                LongAdder failed = new LongAdder();
+                long deadline = System.currentTimeMillis() + SECONDS * 1000;
+                Thread[] threads = new Thread[clients];
+                for (int i = 0; i < clients; ++i) {
+                    threads[i] = new Thread(() -> {
+                        byte[] buf = new byte[4096];
+                        try (DatagramSocket sock = new DatagramSocket()) {
+                            sock.setSoTimeout(1000);
+                            while (System.currentTimeMillis() < deadline) {
+                                sock.send(new DatagramPacket(req, req.length, addr, port));
+                                try {
+                                    sock.receive(new DatagramPacket(buf, buf.length));
+                                    done.increment();
+                                } catch (Exception e) {
+                                    failed.increment();
+                                }
+                            }
+                        } catch (Exception e) {
+                            failed.increment();
+                        }
+                    });
+                    threads[i].start();
+                }
+                for (Thread t : threads) {
+                    t.join();
+                }
+                System.out.println(type + " round " + r + ": qps=" + (done.sum() / SECONDS) + " (failed " + failed.sum() + ")");
+            }
+        }
+
+        dnsServer.stop();
+        elg.close();
+    }
+}
@@ -0,0 +1,99 @@
+package vproxy.bench;
+
+import vfd.DatagramFD;
+import vfd.FDProvider;
+import vfd.IP;
+import vfd.IPPort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Packets per second over loopback, one datagram per call vs recvmmsg/sendmmsg batches.<br>
+ * Use -Dvfd=posix to run with the native implementation.<br>
+ * Run with: java -cp ... vproxy.bench.DatagramBatchBenchmark [batch] [payload]
+ */
+public class DatagramBatchBenchmark {
+    private static final int PACKETS = 2_000_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int batch = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int payload = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        DatagramFD server = FDProvider.get().openDatagramFD();
+        server.configureBlocking(false);
+        server.bind(new IPPort(IP.from("127.0.0.1"), 0));
+        DatagramFD client = FDProvider.get().openDatagramFD();
+        client.configureBlocking(false);
+        client.bind(new IPPort(IP.from("127.0.0.1"), 0));
+        IPPort serverAddress = server.getLocalAddress();
+
+        ByteBuffer[] sndBufs = new ByteBuffer[batch];
+        ByteBuffer[] rcvBufs = new ByteBuffer[batch];
+        IPPort[] remotes = new IPPort[batch];
+        IPPort[] rcvRemotes = new IPPort[batch];
+        for (int i = 0; i < batch; ++i) {
+            sndBufs[i] = ByteBuffer.allocateDirect(payload);
+            rcvBufs[i] = ByteBuffer.allocateDirect(2048);
+            remotes[i] = serverAddress;
+        }
+
+        for (int r = 0; r < ROUNDS; ++r) {
+            long start = System.nanoTime();
+            long lost = run(false, client, server, sndBufs, remotes, rcvBufs, rcvRemotes);
+            long single = System.nanoTime() - start;
+            start = System.nanoTime();
+            lost += run(true, client, server, sndBufs, remotes, rcvBufs, rcvRemotes);
+            long batched = System.nanoTime() - start;
+            System.out.println("round " + r + ": kpps single=" + (PACKETS * 1_000_000L / single)
+                + " batch(" + batch + ")=" + (PACKETS * 1_000_000L / batched)
+                + " (lost " + lost + ")");
+        }
+        server.close();
+        client.close();
+    }
+
+    private static long run(boolean useBatch, DatagramFD client, DatagramFD server,
+                            ByteBuffer[] sndBufs, IPPort[] remotes,
+                            ByteBuffer[] rcvBufs, IPPort[] rcvRemotes) throws IOException {
+        int batch = sndBufs.length;
+        long lost = 0;
+        for (int done = 0; done < PACKETS; done += batch) {
+            for (ByteBuffer b : sndBufs) {
+                b.limit(b.capacity()).position(0);
+            }
+            int sent;
+            if (useBatch) {
+                sent = client.send(sndBufs, remotes, batch);
+            } else {
+                sent = 0;
+                for (int i = 0; i < batch; ++i) {
+                    if (client.send(sndBufs[i], remotes[i]) > 0) {
+                        ++sent;
+                    }
+                }
+            }
+            int received = 0;
+            int idle = 0;
+            while (received < sent && idle < 1000) {
+                int n;
+                if (useBatch) {
+                    n = server.receive(rcvBufs, rcvRemotes);
+                } else {
+                    n = 0;
+                    while (n < batch && server.receive(rcvBufs[n]) != null) {
+                        ++n;
+                    }
+                }
+                for (int i = 0; i < n; ++i) {
+                    rcvBufs[i].clear();
+                }
+                received += n;
+                idle = n == 0 ? idle + 1 : 0;
+            }
+            lost += batch - received;
+        }
+        return lost;
+    }
+}
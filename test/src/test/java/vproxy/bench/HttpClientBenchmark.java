@@ -0,0 +1,88 @@
+package vproxy.bench;
+
+import vclient.HttpClient;
+import vfd.IP;
+import vfd.IPPort;
+import vserver.HttpServer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sequential and concurrent requests from HttpClient to a local vserver instance,
+ * with and without the keep-alive pool:
+ * java -cp ... vproxy.bench.HttpClientBenchmark [requests of each case]
+ */
+public class HttpClientBenchmark {
+    private static final int port = 19280;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        HttpServer server = HttpServer.create();
+        server.get("/hello", rctx -> rctx.response().end("hello"));
+        server.listen(port, "127.0.0.1");
+
+        for (int round = 0; round < 2; ++round) {
+            System.out.println("round " + round);
+            sequential("no keep-alive", new HttpClient.Options().setKeepAlive(false), n / 10);
+            sequential("keep-alive", new HttpClient.Options(), n);
+            concurrent("no keep-alive, 32 concurrent", new HttpClient.Options().setKeepAlive(false), n / 10, 32);
+            concurrent("keep-alive 8 conns, 32 concurrent", new HttpClient.Options().setMaxConnectionsPerHost(8), n, 32);
+            concurrent("keep-alive 2 conns pipelining 16, 32 concurrent", new HttpClient.Options()
+                .setMaxConnectionsPerHost(2).setMaxPipelinedRequests(16), n, 32);
+        }
+        server.close();
+        System.exit(0);
+    }
+
+    private static HttpClient client(HttpClient.Options opts) {
+        return HttpClient.to(new IPPort(IP.from("127.0.0.1"), port), opts);
+    }
+
+    private static void sequential(String name, HttpClient.Options opts, int n) throws Exception {
+        HttpClient client = client(opts);
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < n; ++i) {
+            CountDownLatch latch = new CountDownLatch(1);
+            client.get("/hello").send((err, resp) -> {
+                if (err != null) {
+                    failed.incrementAndGet();
+                }
+                latch.countDown();
+            });
+            latch.await();
+        }
+        report(name, n, failed.get(), System.nanoTime() - start);
+        client.close();
+    }
+
+    private static void concurrent(String name, HttpClient.Options opts, int n, int concurrency) throws Exception {
+        HttpClient client = client(opts);
+        AtomicInteger failed = new AtomicInteger();
+        Semaphore sem = new Semaphore(concurrency);
+        CountDownLatch latch = new CountDownLatch(n);
+        long start = System.nanoTime();
+        for (int i = 0; i < n; ++i) {
+            sem.acquire();
+            client.get("/hello").send((err, resp) -> {
+                if (err != null) {
+                    failed.incrementAndGet();
+                }
+                sem.release();
+                latch.countDown();
+            });
+        }
+        latch.await();
+        report(name, n, failed.get(), System.nanoTime() - start);
+        client.close();
+    }
+
+    private static void report(String name, int n, int failed, long nanos) {
+        System.out.println("  " + name + ": " + n + " requests, " + failed + " failed, "
+            + String.format("%.0f", n / (nanos / 1e9)) + " req/s, "
+            + String.format("%.1f", nanos / 1000.0 / n) + " us per request");
+    }
+}
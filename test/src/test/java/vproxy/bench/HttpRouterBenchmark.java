@@ -0,0 +1,76 @@
+package vproxy.bench;
+
+import vserver.HttpMethod;
+import vserver.Route;
+import vserver.RoutingContext;
+import vserver.RoutingHandler;
+import vserver.server.Router;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Cost and allocation of matching and dispatching requests with 1k routes
+ * mixing fixed, variable and wildcard segments:
+ * java -cp ... vproxy.bench.HttpRouterBenchmark [requests of each round]
+ */
+public class HttpRouterBenchmark {
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        RoutingHandler next = RoutingContext::next;
+        RoutingHandler end = rctx -> sink += rctx.uri().length();
+        Router router = new Router(end);
+        router.add(Route.create("/api/*"), next);
+        int resources = 333;
+        for (int i = 0; i < resources; ++i) {
+            router.add(Route.create("/api/v1/res" + i), end);
+            router.add(Route.create("/api/v1/res" + i + "/:id"), end);
+            router.add(Route.create("/api/v1/res" + i + "/:id/*"), end);
+        }
+        router.add(Route.create("/*"), end);
+        router.compile();
+
+        Random rand = new Random(1);
+        String[] paths = new String[1024];
+        for (int i = 0; i < paths.length; ++i) {
+            int r = rand.nextInt(resources);
+            switch (rand.nextInt(4)) {
+                case 0:
+                    paths[i] = "/api/v1/res" + r;
+                    break;
+                case 1:
+                    paths[i] = "/api/v1/res" + r + "/" + rand.nextInt(10000);
+                    break;
+                case 2:
+                    paths[i] = "/api/v1/res" + r + "/" + rand.nextInt(10000) + "/detail?x=" + i;
+                    break;
+                default:
+                    paths[i] = "/not/found/" + i;
+            }
+        }
+
+        long tid = Thread.currentThread().getId();
+        for (int round = 0; round < 5; ++round) {
+            long allocBefore = mx.getThreadAllocatedBytes(tid);
+            long start = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+                String path = paths[i & (paths.length - 1)];
+                Router.Chain chain = router.match(path);
+                RoutingContext ctx = new RoutingContext(null, null, HttpMethod.GET, path,
+                    Collections.emptyMap(), Collections.emptyMap(), null, null, chain);
+                chain.setContext(ctx);
+                ctx.next();
+            }
+            long cost = System.nanoTime() - start;
+            long alloc = mx.getThreadAllocatedBytes(tid) - allocBefore;
+            System.out.println("round " + round + ": ns per request=" + ((double) cost / n)
+                + " allocated bytes per request=" + ((double) alloc / n));
+        }
+        System.out.println(sink);
+    }
+}
@@ -0,0 +1,166 @@
+package vproxy.bench;
+
+import vfd.EventSet;
+import vfd.IP;
+import vfd.IPPort;
+import vfd.ServerSocketFD;
+import vfd.SocketFD;
+import vproxybase.selector.Handler;
+import vproxybase.selector.HandlerContext;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.selector.wrap.kcp.KCPFDs;
+import vproxybase.selector.wrap.kcp.KCPServerSocketFD;
+import vproxybase.selector.wrap.kcp.KCPSocketFD;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Clock calls and cpu time of the event loop with many kcp sessions, where only a few of them are active.<br>
+ * Before the scheduler, every session is clocked every clockInterval (5ms by default) no matter it's idle or not:
+ * java -cp ... vproxy.bench.KcpClockBenchmark [sessions] [active]
+ */
+public class KcpClockBenchmark {
+    private static final int SECONDS = 5;
+
+    private static class Echo implements Handler<SocketFD> {
+        @Override
+        public void accept(HandlerContext<SocketFD> ctx) {
+        }
+
+        @Override
+        public void connected(HandlerContext<SocketFD> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<SocketFD> ctx) {
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            try {
+                ctx.getChannel().read(buf);
+                buf.flip();
+                ctx.getChannel().write(buf);
+            } catch (IOException e) {
+                ctx.remove();
+            }
+        }
+
+        @Override
+        public void writable(HandlerContext<SocketFD> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<SocketFD> ctx) {
+        }
+    }
+
+    private static class Acceptor implements Handler<ServerSocketFD> {
+        private final SelectorEventLoop loop;
+
+        Acceptor(SelectorEventLoop loop) {
+            this.loop = loop;
+        }
+
+        @Override
+        public void accept(HandlerContext<ServerSocketFD> ctx) {
+            try {
+                SocketFD fd;
+                while ((fd = ctx.getChannel().accept()) != null) {
+                    loop.add(fd, EventSet.read(), null, new Echo());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void connected(HandlerContext<ServerSocketFD> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<ServerSocketFD> ctx) {
+        }
+
+        @Override
+        public void writable(HandlerContext<ServerSocketFD> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<ServerSocketFD> ctx) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int active = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        Thread[] loopThread = new Thread[1];
+        loop.loop(r -> loopThread[0] = new Thread(r, "EventLoop"));
+        while (loopThread[0] == null || !loopThread[0].isAlive()) {
+            Thread.sleep(1);
+        }
+
+        KCPServerSocketFD server = KCPFDs.getDefault().openServerSocketFD(loop);
+        server.bind(new IPPort(IP.from("127.0.0.1"), 0));
+        IPPort address = server.getLocalAddress();
+        List<KCPSocketFD> clients = new ArrayList<>();
+        CompletableFuture<Void> setup = new CompletableFuture<>();
+        loop.runOnLoop(() -> {
+            try {
+                loop.add(server, EventSet.read(), null, new Acceptor(loop));
+                for (int i = 0; i < sessions; ++i) {
+                    KCPSocketFD client = KCPFDs.getClientDefault().openSocketFD(loop);
+                    client.connect(address);
+                    loop.add(client, EventSet.read(), null, new Echo() {
+                        @Override
+                        public void readable(HandlerContext<SocketFD> ctx) {
+                            try {
+                                ctx.getChannel().read(ByteBuffer.allocate(4096));
+                            } catch (IOException e) {
+                                ctx.remove();
+                            }
+                        }
+                    });
+                    client.write(ByteBuffer.wrap("hello".getBytes())); // establish the server side session
+                    clients.add(client);
+                }
+                setup.complete(null);
+            } catch (Throwable t) {
+                setup.completeExceptionally(t);
+            }
+        });
+        setup.get();
+        Thread.sleep(1000); // wait for all handshakes
+
+        long clockBefore = loop.arqUDPScheduler.getClockCount();
+        long cpuBefore = mx.getThreadCpuTime(loopThread[0].getId());
+        long end = System.currentTimeMillis() + SECONDS * 1000;
+        byte[] payload = new byte[1024];
+        while (System.currentTimeMillis() < end) {
+            loop.runOnLoop(() -> {
+                for (int i = 0; i < active; ++i) {
+                    try {
+                        clients.get(i).write(ByteBuffer.wrap(payload));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            Thread.sleep(10);
+        }
+        long clocks = loop.arqUDPScheduler.getClockCount() - clockBefore;
+        long cpu = mx.getThreadCpuTime(loopThread[0].getId()) - cpuBefore;
+        long periodic = 2L * sessions * SECONDS * 1000 / 5; // both sides, clockInterval of the default options
+        System.out.println("sessions=" + sessions + " active=" + active +
+            " clocks/s=" + (clocks / SECONDS) +
+            " (periodic clocks/s=" + (periodic / SECONDS) + ")" +
+            " loop cpu ms/s=" + (cpu / SECONDS / 1_000_000));
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,189 @@
+package vproxy.bench;
+
+import vfd.EventSet;
+import vfd.IP;
+import vfd.IPPort;
+import vfd.ServerSocketFD;
+import vfd.SocketFD;
+import vproxybase.selector.Handler;
+import vproxybase.selector.HandlerContext;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.selector.wrap.kcp.KCPFDs;
+import vproxybase.selector.wrap.kcp.KCPServerSocketFD;
+import vproxybase.selector.wrap.kcp.KCPSocketFD;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Bytes allocated on the event loop thread and gc count while transferring data over a loopback kcp pair:
+ * java -cp ... vproxy.bench.KcpGcBenchmark [seconds of each round]
+ */
+public class KcpGcBenchmark {
+    private static final int CHUNK = 16384;
+
+    private static volatile long received = 0;
+
+    private static class Sink implements Handler<SocketFD> {
+        private final ByteBuffer buf = ByteBuffer.allocate(65536);
+
+        @Override
+        public void accept(HandlerContext<SocketFD> ctx) {
+        }
+
+        @Override
+        public void connected(HandlerContext<SocketFD> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<SocketFD> ctx) {
+            while (true) {
+                buf.clear();
+                int n;
+                try {
+                    n = ctx.getChannel().read(buf);
+                } catch (IOException e) {
+                    ctx.remove();
+                    return;
+                }
+                if (n <= 0) {
+                    return;
+                }
+                received += n;
+            }
+        }
+
+        @Override
+        public void writable(HandlerContext<SocketFD> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<SocketFD> ctx) {
+        }
+    }
+
+    private static class Source implements Handler<SocketFD> {
+        private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+        void send(HandlerContext<SocketFD> ctx) {
+            while (true) {
+                chunk.clear();
+                int n;
+                try {
+                    n = ctx.getChannel().write(chunk);
+                } catch (IOException e) {
+                    ctx.remove();
+                    return;
+                }
+                if (n == 0) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void accept(HandlerContext<SocketFD> ctx) {
+        }
+
+        @Override
+        public void connected(HandlerContext<SocketFD> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<SocketFD> ctx) {
+        }
+
+        @Override
+        public void writable(HandlerContext<SocketFD> ctx) {
+            send(ctx);
+        }
+
+        @Override
+        public void removed(HandlerContext<SocketFD> ctx) {
+        }
+    }
+
+    private static class Acceptor implements Handler<ServerSocketFD> {
+        private final SelectorEventLoop loop;
+
+        Acceptor(SelectorEventLoop loop) {
+            this.loop = loop;
+        }
+
+        @Override
+        public void accept(HandlerContext<ServerSocketFD> ctx) {
+            try {
+                SocketFD fd;
+                while ((fd = ctx.getChannel().accept()) != null) {
+                    loop.add(fd, EventSet.read(), null, new Sink());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void connected(HandlerContext<ServerSocketFD> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<ServerSocketFD> ctx) {
+        }
+
+        @Override
+        public void writable(HandlerContext<ServerSocketFD> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<ServerSocketFD> ctx) {
+        }
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += gc.getCollectionCount();
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        Thread[] loopThread = new Thread[1];
+        loop.loop(r -> loopThread[0] = new Thread(r, "EventLoop"));
+        while (loopThread[0] == null || !loopThread[0].isAlive()) {
+            Thread.sleep(1);
+        }
+
+        KCPServerSocketFD server = KCPFDs.getDefault().openServerSocketFD(loop);
+        server.bind(new IPPort(IP.from("127.0.0.1"), 0));
+        KCPSocketFD client = KCPFDs.getDefault().openSocketFD(loop);
+        client.connect(server.getLocalAddress());
+        loop.runOnLoop(() -> {
+            try {
+                loop.add(server, EventSet.read(), null, new Acceptor(loop));
+                loop.add(client, EventSet.write(), null, new Source());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+
+        for (int round = 0; round < 3; ++round) {
+            long receivedBefore = received;
+            long allocBefore = mx.getThreadAllocatedBytes(loopThread[0].getId());
+            long gcBefore = gcCount();
+            Thread.sleep(seconds * 1000L);
+            long bytes = received - receivedBefore;
+            long alloc = mx.getThreadAllocatedBytes(loopThread[0].getId()) - allocBefore;
+            System.out.println("round " + round + ": " +
+                "KB/s=" + (bytes / 1024 / seconds) +
+                " allocated bytes per KB=" + (bytes == 0 ? 0 : alloc * 1024 / bytes) +
+                " gc=" + (gcCount() - gcBefore));
+        }
+        System.exit(0);
+    }
+}
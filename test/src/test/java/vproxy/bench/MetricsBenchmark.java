@@ -0,0 +1,48 @@
+package vproxy.bench;
+
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Cost and allocation of recording histograms and counters on an event loop:
+ * java -cp ... vproxy.bench.MetricsBenchmark [records of each round]
+ */
+public class MetricsBenchmark {
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Histogram histogram = Metrics.histogram("bench_metrics_seconds", "bench", 1e-6);
+        Counter counter = Metrics.counter("bench_metrics_total", "bench");
+
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "EventLoop"));
+
+        for (int round = 0; round < 5; ++round) {
+            CompletableFuture<long[]> f = new CompletableFuture<>();
+            loop.runOnLoop(() -> {
+                long tid = Thread.currentThread().getId();
+                long allocBefore = mx.getThreadAllocatedBytes(tid);
+                long start = System.nanoTime();
+                long v = 1;
+                for (int i = 0; i < n; ++i) {
+                    v = v * 6364136223846793005L + 1442695040888963407L;
+                    histogram.record((v >>> 40) & 0xfffff);
+                    counter.inc();
+                }
+                long cost = System.nanoTime() - start;
+                f.complete(new long[]{cost, mx.getThreadAllocatedBytes(tid) - allocBefore});
+            });
+            long[] res = f.get();
+            System.out.println("round " + round + ": ns per record=" + ((double) res[0] / n) + " allocated bytes=" + res[1]);
+        }
+        long start = System.nanoTime();
+        String text = Metrics.scrape();
+        System.out.println("scrape: " + text.length() + " chars in " + ((System.nanoTime() - start) / 1000) + "us");
+        System.exit(0);
+    }
+}
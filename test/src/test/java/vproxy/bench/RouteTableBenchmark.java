@@ -0,0 +1,73 @@
+package vproxy.bench;
+
+import vfd.IP;
+import vproxybase.util.Network;
+import vswitch.RouteTable;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compare RouteTable.lookup with a linear scan over the rules, with 10/1k/100k routes.<br>
+ * Run with: java -cp ... vproxy.bench.RouteTableBenchmark
+ */
+public class RouteTableBenchmark {
+    private static final int LOOKUPS = 1_000_000;
+    private static final int ROUNDS = 3;
+
+    private static RouteTable.RouteRule linear(List<RouteTable.RouteRule> rules, IP ip) {
+        for (RouteTable.RouteRule r : rules) {
+            if (r.rule.contains(ip)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int routes : new int[]{10, 1_000, 100_000}) {
+            Random rand = new Random(1);
+            RouteTable table = new RouteTable();
+            long start = System.nanoTime();
+            int added = 0;
+            while (added < routes) {
+                byte[] ip = new byte[4];
+                rand.nextBytes(ip);
+                int maskInt = 16 + rand.nextInt(17);
+                byte[] mask = Network.parseMask(maskInt);
+                Network.eraseToNetwork(ip, mask);
+                try {
+                    table.addRule(new RouteTable.RouteRule("r" + added, new Network(ip, mask), added));
+                } catch (Exception e) {
+                    continue; // duplicated
+                }
+                ++added;
+            }
+            System.out.println(routes + " routes: build " + (System.nanoTime() - start) / 1_000_000 + "ms");
+
+            List<RouteTable.RouteRule> rules = table.getRules();
+            IP[] ips = new IP[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; ++i) {
+                byte[] b = new byte[4];
+                rand.nextBytes(b);
+                ips[i] = IP.from(b);
+            }
+            int linearLookups = LOOKUPS / Math.max(1, routes / 100); // the linear scan is too slow for large tables
+            for (int r = 0; r < ROUNDS; ++r) {
+                int hit = 0;
+                start = System.nanoTime();
+                for (IP ip : ips) {
+                    if (table.lookup(ip) != null) ++hit;
+                }
+                long trie = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < linearLookups; ++i) {
+                    if (linear(rules, ips[i]) != null) ++hit;
+                }
+                long lin = System.nanoTime() - start;
+                System.out.println("  round " + r + ": ns/lookup trie=" + (trie / (double) LOOKUPS)
+                    + " linear=" + (lin / (double) linearLookups) + " (" + hit + ")");
+            }
+        }
+    }
+}
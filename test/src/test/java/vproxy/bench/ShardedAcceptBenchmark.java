@@ -0,0 +1,96 @@
+package vproxy.bench;
+
+import vfd.IPPort;
+import vproxy.component.app.TcpLB;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.test.tool.IdServer;
+import vproxybase.Config;
+import vproxybase.component.check.HealthCheckConfig;
+import vproxybase.component.elgroup.EventLoopGroup;
+import vproxybase.component.svrgroup.Method;
+import vproxybase.component.svrgroup.ServerGroup;
+import vproxybase.connection.NetEventLoop;
+import vproxybase.selector.SelectorEventLoop;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Short connections per second through a tcp lb,
+ * with one acceptor loop handing connections to the worker loops,
+ * or with a reuseport listener on each worker loop.<br>
+ * Run twice to compare: java -DshardedAccept=off|on -cp ... vproxy.bench.ShardedAcceptBenchmark [workers] [clients]
+ */
+public class ShardedAcceptBenchmark {
+    private static final int lbPort = 18090;
+    private static final int backendPort = 19090;
+    private static final int SECONDS = 5;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : workers * 4;
+
+        SelectorEventLoop backendLoop = SelectorEventLoop.open();
+        backendLoop.loop(r -> new Thread(r, "backend"));
+        new IdServer("x", new NetEventLoop(backendLoop), backendPort);
+
+        EventLoopGroup acceptor = new EventLoopGroup("acceptor");
+        acceptor.add("acceptor0");
+        EventLoopGroup worker = new EventLoopGroup("worker");
+        for (int i = 0; i < workers; ++i) {
+            worker.add("worker" + i);
+        }
+        ServerGroup sg = new ServerGroup("sg", worker, new HealthCheckConfig(400, 24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.add("backend", new IPPort("127.0.0.1", backendPort), 10);
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        Upstream ups = new Upstream("ups");
+        ups.add(sg, 10);
+        TcpLB lb = new TcpLB("lb", acceptor, worker, new IPPort("127.0.0.1", lbPort), ups,
+            Config.tcpTimeout, 4096, 4096, new SecurityGroup("secg", true));
+        lb.start();
+
+        String mode = lb.listenerGroup() == worker ? "sharded" : "acceptor/worker";
+        System.out.println("mode=" + mode + " workers=" + workers + " clients=" + clients);
+
+        for (int r = 0; r < ROUNDS; ++r) {
+            LongAdder done = new LongAdder();
+            LongAdder failed = new LongAdder();
+            long deadline = System.currentTimeMillis() + SECONDS * 1000;
+            Thread[] threads = new Thread[clients];
+            for (int i = 0; i < clients; ++i) {
+                threads[i] = new Thread(() -> {
+                    while (System.currentTimeMillis() < deadline) {
+                        try (Socket sock = new Socket("127.0.0.1", lbPort)) {
+                            OutputStream os = sock.getOutputStream();
+                            InputStream is = sock.getInputStream();
+                            os.write('a');
+                            if (is.read() == 'x') {
+                                done.increment();
+                            } else {
+                                failed.increment();
+                            }
+                        } catch (Exception e) {
+                            failed.increment();
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            System.out.println("round " + r + ": conn/s=" + (done.sum() / SECONDS) + " (failed " + failed.sum() + ")");
+        }
+
+        lb.destroy();
+        acceptor.close();
+        worker.close();
+        backendLoop.close();
+    }
+}
@@ -0,0 +1,142 @@
+package vproxy.bench;
+
+import vfd.IPPort;
+import vproxy.component.app.TcpLB;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.ssl.CertKey;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.test.cases.TestSSL;
+import vproxy.test.tool.IdServer;
+import vproxybase.Config;
+import vproxybase.component.check.HealthCheckConfig;
+import vproxybase.component.elgroup.EventLoopGroup;
+import vproxybase.component.svrgroup.Method;
+import vproxybase.component.svrgroup.ServerGroup;
+import vproxybase.connection.NetEventLoop;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.util.metrics.Metrics;
+import vproxybase.util.ringbuffer.ssl.VSSLContext;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Full tls handshakes per second through a tls tcp lb, every connection does a new handshake
+ * and sends one byte to the backend.<br>
+ * The threads started by the process and the ssl task metrics are printed after each round:
+ * java [-DsslTaskThreads=n] [-DsslTaskQueueSize=n] -cp ... vproxy.bench.TLSHandshakeBenchmark [workers] [clients]
+ */
+public class TLSHandshakeBenchmark {
+    private static final int lbPort = 18091;
+    private static final int backendPort = 19091;
+    private static final int SECONDS = 5;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : workers * 16;
+
+        SelectorEventLoop backendLoop = SelectorEventLoop.open();
+        backendLoop.loop(r -> new Thread(r, "backend"));
+        new IdServer("x", new NetEventLoop(backendLoop), backendPort);
+
+        EventLoopGroup acceptor = new EventLoopGroup("acceptor");
+        acceptor.add("acceptor0");
+        EventLoopGroup worker = new EventLoopGroup("worker");
+        for (int i = 0; i < workers; ++i) {
+            worker.add("worker" + i);
+        }
+        ServerGroup sg = new ServerGroup("sg", worker, new HealthCheckConfig(400, 24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.add("backend", new IPPort("127.0.0.1", backendPort), 10);
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        Upstream ups = new Upstream("ups");
+        ups.add(sg, 10);
+
+        VSSLContext sslContext = new VSSLContext();
+        CertKey ck = new CertKey("ck", new String[]{TestSSL.TEST_CERT}, TestSSL.TEST_KEY);
+        ck.setInto(sslContext);
+        TcpLB lb = new TcpLB("lb", acceptor, worker, new IPPort("127.0.0.1", lbPort), ups,
+            Config.tcpTimeout, 24576, 24576, "tcp", sslContext, new CertKey[]{ck}, new SecurityGroup("secg", true));
+        lb.start();
+
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+
+        ThreadMXBean threadMX = ManagementFactory.getThreadMXBean();
+        System.out.println("workers=" + workers + " clients=" + clients
+            + " sslTaskThreads=" + Config.sslTaskThreads + " sslTaskQueueSize=" + Config.sslTaskQueueSize);
+
+        for (int r = 0; r < ROUNDS; ++r) {
+            LongAdder done = new LongAdder();
+            LongAdder failed = new LongAdder();
+            long startedThreadsBefore = threadMX.getTotalStartedThreadCount();
+            threadMX.resetPeakThreadCount();
+            long deadline = System.currentTimeMillis() + SECONDS * 1000;
+            Thread[] threads = new Thread[clients];
+            for (int i = 0; i < clients; ++i) {
+                threads[i] = new Thread(() -> {
+                    while (System.currentTimeMillis() < deadline) {
+                        try (SSLSocket sock = (SSLSocket) clientContext.getSocketFactory().createSocket("127.0.0.1", lbPort)) {
+                            sock.startHandshake();
+                            OutputStream os = sock.getOutputStream();
+                            InputStream is = sock.getInputStream();
+                            os.write('a');
+                            os.flush();
+                            if (is.read() == 'x') {
+                                done.increment();
+                            } else {
+                                failed.increment();
+                            }
+                            // make sure the next connection does a full handshake
+                            sock.getSession().invalidate();
+                        } catch (Exception e) {
+                            failed.increment();
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            long startedThreads = threadMX.getTotalStartedThreadCount() - startedThreadsBefore - clients;
+            System.out.println("round " + r + ": handshakes/s=" + (done.sum() / SECONDS) + " (failed " + failed.sum() + ")"
+                + " threads started by the server=" + startedThreads
+                + " peak threads=" + threadMX.getPeakThreadCount());
+        }
+        for (String line : Metrics.scrape().split("\n")) {
+            if (line.startsWith("vproxy_ssl_task") || line.startsWith("vproxy_accept_paused")) {
+                System.out.println("  " + line);
+            }
+        }
+
+        lb.destroy();
+        acceptor.close();
+        worker.close();
+        backendLoop.close();
+        System.exit(0);
+    }
+}
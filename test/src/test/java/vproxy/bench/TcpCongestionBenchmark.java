@@ -0,0 +1,29 @@
+package vproxy.bench;
+
+import vproxy.test.tool.TcpLinkSimulator;
+
+/**
+ * Throughput of the vswitch tcp sender over emulated links with different delays and loss rates.<br>
+ * The link is simulated in virtual time, so the result does not depend on the machine:
+ * java -cp ... vproxy.bench.TcpCongestionBenchmark [bandwidthMbps] [megabytes]
+ */
+public class TcpCongestionBenchmark {
+    public static void main(String[] args) {
+        int bandwidth = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int[] delays = {1, 10, 50};
+        double[] lossRates = {0, 0.001, 0.01, 0.03};
+
+        for (int delay : delays) {
+            // the queue holds one bdp
+            int queue = Math.max(64 * 1024, bandwidth * 1000 / 8 * delay * 2);
+            for (double loss : lossRates) {
+                for (boolean cubic : new boolean[]{false, true}) {
+                    var result = new TcpLinkSimulator(delay, loss, bandwidth, queue, 1, cubic).transfer(megabytes * 1024L * 1024);
+                    System.out.println("rtt=" + (delay * 2) + "ms loss=" + loss + " bandwidth=" + bandwidth + "Mbps "
+                        + (cubic ? "cubic:   " : "newreno: ") + result);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package vproxy.bench;
+
+import vproxybase.Config;
+import vproxybase.util.TimeElem;
+import vproxybase.util.TimeQueue;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Timer churn with 1M live timers: each operation resets (cancel and push again) a random timer,
+ * which is what idle timeouts of connections do, and the clock moves forward 1ms every 1000 operations.<br>
+ * The timing wheel is compared with a PriorityQueue, which is how TimeQueue was implemented before.<br>
+ * Run with: java -cp ... vproxy.bench.TimeQueueBenchmark [timers]
+ */
+public class TimeQueueBenchmark {
+    private static final int OPS = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    private static class HeapElem implements Comparable<HeapElem> {
+        final long triggerTime;
+
+        HeapElem(long triggerTime) {
+            this.triggerTime = triggerTime;
+        }
+
+        @Override
+        public int compareTo(HeapElem o) {
+            return Long.compare(triggerTime, o.triggerTime);
+        }
+    }
+
+    public static void main(String[] args) {
+        int timers = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random rand = new Random(1);
+        int[] timeouts = new int[timers];
+        int[] picks = new int[OPS];
+        for (int i = 0; i < timers; ++i) {
+            timeouts[i] = 1000 + rand.nextInt(60_000);
+        }
+        for (int i = 0; i < OPS; ++i) {
+            picks[i] = rand.nextInt(timers);
+        }
+
+        for (int r = 0; r < ROUNDS; ++r) {
+            Config.currentTimestamp = 1_000_000_000L;
+            TimeQueue<Integer> wheel = new TimeQueue<>();
+            @SuppressWarnings("unchecked")
+            TimeElem<Integer>[] wheelElems = new TimeElem[timers];
+            long start = System.nanoTime();
+            for (int i = 0; i < timers; ++i) {
+                wheelElems[i] = wheel.push(timeouts[i], i);
+            }
+            long wheelFill = System.nanoTime() - start;
+            long expired = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < OPS; ++i) {
+                int n = picks[i];
+                wheelElems[n].removeSelf();
+                wheelElems[n] = wheel.push(timeouts[n], n);
+                if (i % 1000 == 0) {
+                    ++Config.currentTimestamp;
+                    int len = wheel.expire();
+                    for (int j = 0; j < len; ++j) {
+                        int e = wheel.pop();
+                        wheelElems[e] = wheel.push(timeouts[e], e);
+                        ++expired;
+                    }
+                }
+            }
+            long wheelChurn = System.nanoTime() - start;
+
+            Config.currentTimestamp = 1_000_000_000L;
+            PriorityQueue<HeapElem> heap = new PriorityQueue<>();
+            HeapElem[] heapElems = new HeapElem[timers];
+            start = System.nanoTime();
+            for (int i = 0; i < timers; ++i) {
+                heapElems[i] = new HeapElem(Config.currentTimestamp + timeouts[i]);
+                heap.add(heapElems[i]);
+            }
+            long heapFill = System.nanoTime() - start;
+            // PriorityQueue.remove(Object) is a linear scan, so only a small part of the operations are run
+            int heapOps = OPS / 1000;
+            start = System.nanoTime();
+            for (int i = 0; i < heapOps; ++i) {
+                int n = picks[i];
+                heap.remove(heapElems[n]);
+                heapElems[n] = new HeapElem(Config.currentTimestamp + timeouts[n]);
+                heap.add(heapElems[n]);
+                while (!heap.isEmpty() && heap.peek().triggerTime <= Config.currentTimestamp) {
+                    heap.poll();
+                    ++expired;
+                }
+            }
+            long heapChurn = System.nanoTime() - start;
+
+            System.out.println("round " + r + ": fill ms wheel=" + wheelFill / 1_000_000 + " heap=" + heapFill / 1_000_000
+                + ", ns/reset wheel=" + (wheelChurn / (double) OPS)
+                + " heap=" + (heapChurn / (double) heapOps)
+                + " (" + expired + ")");
+        }
+    }
+}
@@ -2516,10 +2516,13 @@ public class CI {
         System.out.println("dns:" + pretty);
         assertEquals(JSON.parse(dnsResp).pretty(), pretty);
 
-        var elResp = "{ \"name\": \"" + el0 + "\" }";
-        pretty = requestApi(HttpMethod.GET, "/event-loop-group/" + elg + "/event-loop/" + el0 + "/detail").pretty();
-        System.out.println("event-loop: " + pretty);
-        assertEquals(JSON.parse(elResp).pretty(), pretty);
+        var elDetail = (JSON.Object) requestApi(HttpMethod.GET, "/event-loop-group/" + elg + "/event-loop/" + el0 + "/detail");
+        System.out.println("event-loop: " + elDetail.pretty());
+        assertEquals(el0, elDetail.getString("name"));
+        assertTrue(elDetail.getLong("rounds") > 0);
+        assertTrue(elDetail.containsKey("saturation"));
+        assertTrue(elDetail.containsKey("maxSelectedKeys"));
+        assertTrue(elDetail.containsKey("slowCallbacks"));
 
         var elgResp = "{\n" +
             "    \"name\": \"" + elg + "\",\n" +
@@ -15,6 +15,8 @@ public class Entities {
         wrr,
         wlc,
         source,
+        maglev,
+        ringhash,
     }
 
     enum Protocol {
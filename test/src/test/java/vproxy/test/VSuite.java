@@ -21,6 +21,28 @@ import vproxy.test.cases.*;
     TestPacket.class,
     TestRouteTable.class,
     TestTCP.class,
+    TestHintIndex.class,
+    TestConsistentHash.class,
+    TestDirectBufferPool.class,
+    TestTimeQueue.class,
+    TestDatagramBatch.class,
+    TestPipeRingBuffer.class,
+    TestScatterGather.class,
+    TestDNSRecursiveCache.class,
+    TestDNSServerRRSets.class,
+    TestHttp2HPack.class,
+    TestArqUDPScheduler.class,
+    TestKcpRecycler.class,
+    TestMetrics.class,
+    TestEventLoopProfiler.class,
+    TestHttpServerRouter.class,
+    TestHttpClientPool.class,
+    TestStreamedFDScheduler.class,
+    TestSSLTaskExecutor.class,
+    TestSSLContextHolder.class,
+    TestSSLSessionResumption.class,
+    TestABP.class,
+    TestTcpCongestion.class,
 
     AfterAll.class
 })
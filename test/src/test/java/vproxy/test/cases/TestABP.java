@@ -0,0 +1,148 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxyx.websocks.ABP;
+import vproxyx.websocks.ConfigLoader;
+import vproxyx.websocks.DomainChecker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestABP {
+    private static ABP abp(boolean defaultBlock, String... rules) {
+        ABP abp = new ABP("test", defaultBlock);
+        abp.addRule(String.join("\n", rules));
+        return abp;
+    }
+
+    @Test
+    public void matchingSpecificURI() {
+        ABP abp = abp(false, "||example.com", "||http://foo.com/path");
+        assertTrue(abp.block("example.com"));
+        assertTrue(abp.block("a.example.com"));
+        assertTrue(abp.block("a.b.example.com"));
+        assertFalse(abp.block("badexample.com"));
+        assertFalse(abp.block("example.com.cn"));
+        assertFalse(abp.block(".example.com"));
+        assertTrue(abp.block("foo.com"));
+        assertTrue(abp.block("www.foo.com"));
+    }
+
+    @Test
+    public void matchingFromBeginning() {
+        ABP abp = abp(false, "|http://exact.com/path");
+        assertTrue(abp.block("exact.com"));
+        assertFalse(abp.block("a.exact.com"));
+        assertFalse(abp.block("exact.com.cn"));
+    }
+
+    @Test
+    public void simple() {
+        ABP abp = abp(false, "keyword", ".dot-start.net", "x.com/path");
+        assertTrue(abp.block("keyword.com"));
+        assertTrue(abp.block("a-keyword-b.org"));
+        assertTrue(abp.block("www.dot-start.net"));
+        assertFalse(abp.block("dot-start.net"));
+        assertTrue(abp.block("abcx.com"));
+        assertFalse(abp.block("keywor.d"));
+    }
+
+    @Test
+    public void regexp() {
+        ABP abp = abp(false, "/^https?:\\/\\/[^\\/]+blogspot\\.(.*)/", "@@/^[a-z]+\\.white\\.org$/");
+        assertTrue(abp.block("test.blogspot.com"));
+        assertFalse(abp.block("blogspot.com"));
+        assertFalse(abp.block("abc.white.org"));
+    }
+
+    @Test
+    public void firstMatchDecides() {
+        ABP abp = abp(false,
+            "@@||white.example.com",
+            "||example.com",
+            "@@|www.google.",
+            "google",
+            "@@mail",
+            "||mail.example.com");
+        assertFalse(abp.block("white.example.com"));
+        assertFalse(abp.block("a.white.example.com"));
+        assertTrue(abp.block("black.example.com"));
+        // the block rule is added before the whitelist
+        assertTrue(abp.block("mail.example.com"));
+        assertFalse(abp.block("www.google.com"));
+        assertTrue(abp.block("google.com"));
+        assertTrue(abp.block("mail.google.com"));
+        assertFalse(abp.block("mail.yahoo.com"));
+        assertFalse(abp.block("other.net"));
+
+        abp = abp(true, "@@||white.example.com", "/.*black.*/");
+        assertFalse(abp.block("white.example.com"));
+        assertTrue(abp.block("black.com"));
+        // default
+        assertTrue(abp.block("example.com"));
+    }
+
+    @Test
+    public void whitelistSpecificURIOnlyMatchesTheDomain() {
+        ABP abp = abp(false, "@@||white.com", "google");
+        assertFalse(abp.block("white.com"));
+        assertFalse(abp.block("google.white.com"));
+        assertTrue(abp.block("google.com"));
+    }
+
+    @Test
+    public void commentsAndBase64() {
+        ABP abp = new ABP("test", false);
+        abp.addBase64(Base64.getEncoder().encodeToString((
+            "[AutoProxy 0.2.9]\n" +
+            "! comment\n" +
+            "\n" +
+            "||example.com\n" +
+            "|http://exact.com\n").getBytes()));
+        assertEquals(2, abp.ruleCount());
+        assertTrue(abp.block("a.example.com"));
+        assertTrue(abp.block("exact.com"));
+    }
+
+    @Test
+    public void compiledDomainCheckers() throws Exception {
+        File abpFile = File.createTempFile("abp", ".txt");
+        abpFile.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(abpFile)) {
+            fos.write(Base64.getEncoder().encode("@@||white.abp.com\n||abp.com\n".getBytes()));
+        }
+        File conf = File.createTempFile("websocks", ".conf");
+        conf.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(conf)) {
+            fos.write(("" +
+                "proxy.domain.list.start\n" +
+                "example.com\n" +
+                "/.*\\.regex\\.org$/\n" +
+                ":8443\n" +
+                "[" + abpFile.getAbsolutePath() + "]\n" +
+                "proxy.domain.list.end\n").getBytes());
+        }
+        ConfigLoader loader = new ConfigLoader();
+        loader.load(conf.getAbsolutePath());
+        List<DomainChecker> checkers = loader.getDomains().get("DEFAULT");
+        assertEquals(1, checkers.size());
+        DomainChecker chk = checkers.get(0);
+
+        for (int i = 0; i < 2; ++i) { // the second time hits the cache
+            assertTrue(chk.needProxy("example.com", 80));
+            // suffix rules are not aligned to labels
+            assertTrue(chk.needProxy("badexample.com", 80));
+            assertTrue(chk.needProxy("a.regex.org", 80));
+            assertTrue(chk.needProxy("a.abp.com", 80));
+            assertFalse(chk.needProxy("white.abp.com", 80));
+            assertFalse(chk.needProxy("other.net", 80));
+            assertTrue(chk.needProxy("other.net", 8443));
+        }
+        // compiled once, all users share the same checker and its cache
+        assertSame(chk, loader.getDomains().get("DEFAULT").get(0));
+    }
+}
@@ -0,0 +1,230 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.EventSet;
+import vfd.IP;
+import vfd.IPPort;
+import vfd.ServerSocketFD;
+import vfd.SocketFD;
+import vproxybase.selector.Handler;
+import vproxybase.selector.HandlerContext;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.selector.wrap.kcp.KCPFDs;
+import vproxybase.selector.wrap.kcp.KCPServerSocketFD;
+import vproxybase.selector.wrap.kcp.KCPSocketFD;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestArqUDPScheduler {
+    private SelectorEventLoop loop;
+    private KCPServerSocketFD server;
+    private KCPSocketFD client;
+    private final StringBuilder received = new StringBuilder();
+
+    @Before
+    public void setUp() throws Exception {
+        loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "EventLoop"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // the virtual fds release themselves through the selector, close them before the loop
+        onLoop(() -> {
+            if (client != null) {
+                client.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+            return null;
+        });
+        Thread t = loop.runningThread;
+        loop.runOnLoop(() -> {
+            try {
+                loop.close();
+            } catch (IOException e) {
+                fail(e.toString());
+            }
+        });
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    private <T> T onLoop(CallableOnLoop<T> c) throws Exception {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        loop.runOnLoop(() -> {
+            try {
+                f.complete(c.call());
+            } catch (Throwable t) {
+                f.completeExceptionally(t);
+            }
+        });
+        return f.get(2, TimeUnit.SECONDS);
+    }
+
+    interface CallableOnLoop<T> {
+        T call() throws Exception;
+    }
+
+    private void waitFor(CallableOnLoop<Boolean> cond) throws Exception {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!onLoop(cond)) {
+            assertTrue("timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class EchoHandler implements Handler<SocketFD> {
+        @Override
+        public void accept(HandlerContext<SocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void connected(HandlerContext<SocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void readable(HandlerContext<SocketFD> ctx) {
+            ByteBuffer buf = ByteBuffer.allocate(1024);
+            try {
+                ctx.getChannel().read(buf);
+                buf.flip();
+                ctx.getChannel().write(buf);
+            } catch (IOException e) {
+                ctx.remove();
+            }
+        }
+
+        @Override
+        public void writable(HandlerContext<SocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void removed(HandlerContext<SocketFD> ctx) {
+            // ignore
+        }
+    }
+
+    private class ClientHandler implements Handler<SocketFD> {
+        @Override
+        public void accept(HandlerContext<SocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void connected(HandlerContext<SocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void readable(HandlerContext<SocketFD> ctx) {
+            ByteBuffer buf = ByteBuffer.allocate(1024);
+            try {
+                ctx.getChannel().read(buf);
+            } catch (IOException e) {
+                ctx.remove();
+                return;
+            }
+            buf.flip();
+            byte[] b = new byte[buf.limit()];
+            buf.get(b);
+            received.append(new String(b));
+        }
+
+        @Override
+        public void writable(HandlerContext<SocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void removed(HandlerContext<SocketFD> ctx) {
+            // ignore
+        }
+    }
+
+    private IPPort startServer() throws Exception {
+        server = KCPFDs.getDefault().openServerSocketFD(loop);
+        server.bind(new IPPort(IP.from("127.0.0.1"), 0));
+        onLoop(() -> {
+            loop.add(server, EventSet.read(), null, new Handler<ServerSocketFD>() {
+                @Override
+                public void accept(HandlerContext<ServerSocketFD> ctx) {
+                    try {
+                        SocketFD accepted = ctx.getChannel().accept();
+                        if (accepted != null) {
+                            loop.add(accepted, EventSet.read(), null, new EchoHandler());
+                        }
+                    } catch (IOException e) {
+                        fail(e.toString());
+                    }
+                }
+
+                @Override
+                public void connected(HandlerContext<ServerSocketFD> ctx) {
+                    // will not fire
+                }
+
+                @Override
+                public void readable(HandlerContext<ServerSocketFD> ctx) {
+                    // will not fire
+                }
+
+                @Override
+                public void writable(HandlerContext<ServerSocketFD> ctx) {
+                    // will not fire
+                }
+
+                @Override
+                public void removed(HandlerContext<ServerSocketFD> ctx) {
+                    // ignore
+                }
+            });
+            return null;
+        });
+        return server.getLocalAddress();
+    }
+
+    @Test
+    public void idleSessionsAreNotClocked() throws Exception {
+        IPPort address = startServer();
+        client = KCPFDs.getClientDefault().openSocketFD(loop);
+        client.connect(address);
+        onLoop(() -> {
+            loop.add(client, EventSet.read(), null, new ClientHandler());
+            return null;
+        });
+        assertEquals("nothing to send, so nothing is scheduled", 0, (int) onLoop(() -> loop.arqUDPScheduler.size()));
+
+        onLoop(() -> client.write(ByteBuffer.wrap("hello".getBytes())));
+        waitFor(() -> received.toString().equals("hello"));
+        onLoop(() -> client.write(ByteBuffer.wrap(" world".getBytes())));
+        waitFor(() -> received.toString().equals("hello world"));
+
+        // all data is acked, then the sessions stop being clocked
+        waitFor(() -> loop.arqUDPScheduler.size() == 0);
+        long count = onLoop(() -> loop.arqUDPScheduler.getClockCount());
+        assertTrue("the sessions should have been clocked", count > 0);
+        Thread.sleep(200);
+        assertEquals("idle sessions are not clocked", count, (long) onLoop(() -> loop.arqUDPScheduler.getClockCount()));
+
+        // removing the fd cancels the clock
+        assertEquals(0, (int) onLoop(() -> {
+            client.write(ByteBuffer.wrap("!".getBytes()));
+            assertEquals(1, loop.arqUDPScheduler.size());
+            loop.remove(client);
+            return loop.arqUDPScheduler.size();
+        }));
+    }
+}
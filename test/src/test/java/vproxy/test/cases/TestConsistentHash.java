@@ -0,0 +1,287 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vfd.IP;
+import vfd.IPPort;
+import vproxybase.component.check.CheckProtocol;
+import vproxybase.component.check.HealthCheckConfig;
+import vproxybase.component.elgroup.EventLoopGroup;
+import vproxybase.component.svrgroup.ConsistentHash;
+import vproxybase.component.svrgroup.Method;
+import vproxybase.component.svrgroup.ServerGroup;
+import vproxybase.component.svrgroup.SvrHandleConnector;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestConsistentHash {
+    private static final int SERVERS = 10;
+    private static final int KEYS = 100_000;
+
+    private static byte[][] keys() {
+        Random rand = new Random(1);
+        byte[][] keys = new byte[KEYS][];
+        for (int i = 0; i < KEYS; ++i) {
+            byte[] b = new byte[4];
+            rand.nextBytes(b);
+            keys[i] = b;
+        }
+        return keys;
+    }
+
+    private static String[] servers(int n) {
+        String[] ret = new String[n];
+        for (int i = 0; i < n; ++i) {
+            ret[i] = "server" + i;
+        }
+        return ret;
+    }
+
+    private static int[] weights(int n) {
+        int[] ret = new int[n];
+        Arrays.fill(ret, 10);
+        return ret;
+    }
+
+    // the same as ServerGroup.SOURCE
+    private static int sdbm(byte[] bytes) {
+        int hash = 0;
+        for (byte aByte : bytes) {
+            hash = (aByte) + (hash << 6) + (hash << 16) - hash;
+        }
+        hash = Math.abs(hash);
+        if (hash < 0) {
+            hash = 0;
+        }
+        return hash;
+    }
+
+    private static String[] modulo(String[] servers, byte[][] keys) {
+        String[] ret = new String[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            ret[i] = servers[sdbm(keys[i]) % servers.length];
+        }
+        return ret;
+    }
+
+    private static String[] table(BiFunction<String[], int[], ConsistentHash> f, String[] servers, byte[][] keys) {
+        ConsistentHash h = f.apply(servers, weights(servers.length));
+        String[] ret = new String[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            ret[i] = servers[h.lookup(ConsistentHash.hash(keys[i]))];
+        }
+        return ret;
+    }
+
+    private static double disruption(String[] before, String[] after) {
+        int changed = 0;
+        for (int i = 0; i < before.length; ++i) {
+            if (!before[i].equals(after[i])) {
+                ++changed;
+            }
+        }
+        return changed / (double) before.length;
+    }
+
+    private static String[] removeOne(String[] servers) {
+        String[] ret = new String[servers.length - 1];
+        System.arraycopy(servers, 0, ret, 0, 3);
+        System.arraycopy(servers, 4, ret, 3, servers.length - 4);
+        return ret;
+    }
+
+    private void check(BiFunction<String[], int[], ConsistentHash> f, double maxMovedRatio) {
+        byte[][] keys = keys();
+        String[] all = servers(SERVERS);
+        String[] removed = removeOne(all);
+
+        double mod = disruption(modulo(all, keys), modulo(removed, keys));
+        double consistent = disruption(table(f, all, keys), table(f, removed, keys));
+        // ideal disruption is 1/N
+        double ideal = 1.0 / SERVERS;
+
+        assertTrue("modulo disruption " + mod + " should be much more than ideal", mod > ideal * 5);
+        assertTrue("consistent hash disruption " + consistent + " should be close to ideal", consistent < ideal * 1.5);
+
+        // keys that were not on the removed server should stay where they were,
+        // maglev moves a small part of them (about 2% with 10 servers), the ring moves none
+        String[] before = table(f, all, keys);
+        String[] after = table(f, removed, keys);
+        int moved = 0;
+        int kept = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (before[i].equals(all[3])) {
+                continue;
+            }
+            ++kept;
+            if (!after[i].equals(before[i])) {
+                ++moved;
+            }
+        }
+        assertTrue("moved " + moved + "/" + kept + " keys which were not on the removed server", moved <= kept * maxMovedRatio);
+    }
+
+    private void checkBalance(BiFunction<String[], int[], ConsistentHash> f, double maxDeviation) {
+        byte[][] keys = keys();
+        String[] all = servers(SERVERS);
+        ConsistentHash h = f.apply(all, weights(SERVERS));
+        int[] counts = new int[SERVERS];
+        for (byte[] k : keys) {
+            counts[h.lookup(ConsistentHash.hash(k))] += 1;
+        }
+        double expected = KEYS / (double) SERVERS;
+        for (int c : counts) {
+            assertTrue("unbalanced: " + Arrays.toString(counts), Math.abs(c - expected) / expected < maxDeviation);
+        }
+    }
+
+    @Test
+    public void maglevDisruption() {
+        check(ConsistentHash::maglev, 0.05);
+    }
+
+    @Test
+    public void ringDisruption() {
+        check(ConsistentHash::ring, 0);
+    }
+
+    @Test
+    public void maglevBalance() {
+        checkBalance(ConsistentHash::maglev, 0.1);
+    }
+
+    @Test
+    public void ringBalance() {
+        checkBalance(ConsistentHash::ring, 0.35);
+    }
+
+    @Test
+    public void weight() {
+        String[] servers = {"a", "b"};
+        byte[][] keys = keys();
+        for (ConsistentHash h : new ConsistentHash[]{
+            ConsistentHash.maglev(servers, new int[]{10, 30}),
+            ConsistentHash.ring(servers, new int[]{10, 30})}) {
+            int a = 0;
+            for (byte[] k : keys) {
+                if (h.lookup(ConsistentHash.hash(k)) == 0) {
+                    ++a;
+                }
+            }
+            double ratio = a / (double) KEYS;
+            assertTrue("ratio " + ratio, ratio > 0.15 && ratio < 0.35);
+        }
+    }
+
+    @Test
+    public void heavyWeight() {
+        String[] servers = {"a", "b"};
+        byte[][] keys = keys();
+        // {100, 1000} fits in the vnode budget, {1000, 10000} has to be scaled down
+        for (int[] weights : new int[][]{{100, 1000}, {1000, 10000}}) {
+            ConsistentHash h = ConsistentHash.ring(servers, weights);
+            int a = 0;
+            for (byte[] k : keys) {
+                if (h.lookup(ConsistentHash.hash(k)) == 0) {
+                    ++a;
+                }
+            }
+            double ratio = a / (double) KEYS;
+            assertTrue("ratio " + ratio + " for " + Arrays.toString(weights), ratio > 0.06 && ratio < 0.12);
+        }
+    }
+
+    private static final int SOURCES = 2048;
+
+    // the server port each source should be dispatched to with the given servers
+    private static int[] expectedPorts(String[] aliases, int[] weights, int[] ports) {
+        ConsistentHash h = ConsistentHash.ring(aliases, weights);
+        int[] ret = new int[SOURCES];
+        for (int i = 0; i < SOURCES; ++i) {
+            ret[i] = ports[h.lookup(ConsistentHash.hash(source(i).getAddress().getAddress()))];
+        }
+        return ret;
+    }
+
+    private static IPPort source(int i) {
+        return new IPPort(IP.from(new byte[]{10, 0, (byte) (i >> 8), (byte) i}), 80);
+    }
+
+    // the table is rebuilt asynchronously, so wait until every source is dispatched as expected
+    private static void waitForTable(ServerGroup group, int[] expected) throws Exception {
+        int mismatch = -1;
+        for (int round = 0; round < 100; ++round) {
+            mismatch = -1;
+            for (int i = 0; i < SOURCES; ++i) {
+                SvrHandleConnector c = group.next(source(i));
+                if (c == null || c.remote.getPort() != expected[i]) {
+                    mismatch = i;
+                    break;
+                }
+            }
+            if (mismatch == -1) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        SvrHandleConnector c = group.next(source(mismatch));
+        assertNotNull("no server for " + source(mismatch), c);
+        assertEquals("server for " + source(mismatch), expected[mismatch], c.remote.getPort());
+    }
+
+    @Test
+    public void serverGroupRebuild() throws Exception {
+        EventLoopGroup elg = new EventLoopGroup("elg");
+        ServerGroup group = null;
+        ServerSocket[] listeners = new ServerSocket[3];
+        try {
+            elg.add("el0");
+            int[] ports = new int[listeners.length];
+            for (int i = 0; i < listeners.length; ++i) {
+                listeners[i] = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+                ports[i] = listeners[i].getLocalPort();
+            }
+            group = new ServerGroup("sg0", elg, new HealthCheckConfig(500, 100, 1, 100, CheckProtocol.tcp), Method.ringhash);
+            group.add("a", new IPPort("127.0.0.1", ports[0]), 10);
+            group.add("b", new IPPort("127.0.0.1", ports[1]), 10);
+            ServerGroup.ServerHandle c = group.add("c", new IPPort("127.0.0.1", ports[2]), 10);
+
+            // built when the servers become healthy
+            int[] all = expectedPorts(new String[]{"a", "b", "c"}, new int[]{10, 10, 10}, ports);
+            waitForTable(group, all);
+
+            // rebuilt when weight changes
+            c.setWeight(1000);
+            waitForTable(group, expectedPorts(new String[]{"a", "b", "c"}, new int[]{10, 10, 1000}, ports));
+            c.setWeight(10);
+            waitForTable(group, all);
+
+            // rebuilt when a server is removed, sources on the other servers stay where they were
+            group.remove("b");
+            int[] removed = expectedPorts(new String[]{"a", "c"}, new int[]{10, 10}, new int[]{ports[0], ports[2]});
+            waitForTable(group, removed);
+            for (int i = 0; i < SOURCES; ++i) {
+                if (all[i] != ports[1]) {
+                    assertEquals("source " + source(i) + " moved", all[i], removed[i]);
+                }
+            }
+        } finally {
+            if (group != null) {
+                group.clear();
+            }
+            elg.close();
+            for (ServerSocket s : listeners) {
+                if (s != null) {
+                    s.close();
+                }
+            }
+        }
+    }
+}
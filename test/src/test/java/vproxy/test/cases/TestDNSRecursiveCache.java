@@ -0,0 +1,266 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vfd.IPPort;
+import vproxy.dns.DNSRecursiveCache;
+import vproxybase.dns.*;
+import vproxybase.dns.rdata.A;
+import vproxybase.util.ByteArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestDNSRecursiveCache {
+    // the global timestamp is updated by other event loops in the suite, use a private clock
+    private long now = 1_000_000_000L;
+
+    private static DNSPacket query(int id, String name, DNSType type) {
+        DNSPacket p = new DNSPacket();
+        p.id = id;
+        p.isResponse = false;
+        p.opcode = DNSPacket.Opcode.QUERY;
+        p.rd = true;
+        p.rcode = DNSPacket.RCode.NoError;
+        DNSQuestion q = new DNSQuestion();
+        q.qname = name;
+        q.qtype = type;
+        q.qclass = DNSClass.IN;
+        p.questions.add(q);
+        return p;
+    }
+
+    private static DNSPacket ednsQuery(int id, String name, DNSType type, boolean dnssecOk) {
+        DNSPacket p = query(id, name, type);
+        DNSResource opt = new DNSResource();
+        opt.name = "";
+        opt.type = DNSType.OPT;
+        opt.clazz = DNSClass.NOT_CLASS;
+        opt.ttl = dnssecOk ? 0x8000 : 0;
+        opt.rdataBytes = ByteArray.allocate(0);
+        p.additionalResources.add(opt);
+        return p;
+    }
+
+    private static ByteArray header(int id, int rcode, int an, int ns) {
+        ByteArray h = ByteArray.allocate(12);
+        h.int16(0, id);
+        h.int16(2, 0x8180 | rcode); // QR RD RA
+        h.int16(4, 1);
+        h.int16(6, an);
+        h.int16(8, ns);
+        h.int16(10, 0);
+        return h;
+    }
+
+    private static ByteArray question(String name, int type) {
+        ByteArray tc = ByteArray.allocate(4);
+        tc.int16(0, type);
+        tc.int16(2, 1);
+        return Formatter.formatDomainName(name).concat(tc);
+    }
+
+    // the name is compressed as a pointer to the question
+    private static ByteArray answerA(int ttl, int a, int b, int c, int d) {
+        ByteArray r = ByteArray.allocate(16);
+        r.int16(0, 0xc00c);
+        r.int16(2, 1);
+        r.int16(4, 1);
+        r.int32(6, ttl);
+        r.int16(10, 4);
+        r.set(12, (byte) a).set(13, (byte) b).set(14, (byte) c).set(15, (byte) d);
+        return r;
+    }
+
+    private static ByteArray soa(int ttl, int minimum) {
+        ByteArray mname = Formatter.formatDomainName("ns.example.com");
+        ByteArray rname = Formatter.formatDomainName("admin.example.com");
+        ByteArray nums = ByteArray.allocate(20);
+        nums.int32(0, 2020010101).int32(4, 7200).int32(8, 3600).int32(12, 1209600).int32(16, minimum);
+        ByteArray rdata = mname.concat(rname).concat(nums);
+        ByteArray r = ByteArray.allocate(12);
+        r.int16(0, 0xc00c);
+        r.int16(2, 6);
+        r.int16(4, 1);
+        r.int32(6, ttl);
+        r.int16(10, rdata.length());
+        return r.concat(rdata);
+    }
+
+    private static DNSPacket parse(ByteArray bytes) throws Exception {
+        List<DNSPacket> packets = Formatter.parsePackets(bytes);
+        assertEquals(1, packets.size());
+        return packets.get(0);
+    }
+
+    private static DNSPacket positiveResponse() throws Exception {
+        return parse(header(999, 0, 2, 0)
+            .concat(question("example.com", 1))
+            .concat(answerA(300, 1, 2, 3, 4))
+            .concat(answerA(60, 5, 6, 7, 8)));
+    }
+
+    @Test
+    public void positive() throws Exception {
+        DNSRecursiveCache cache = new DNSRecursiveCache(16, () -> now);
+        DNSRecursiveCache.Key key = DNSRecursiveCache.keyOf(query(1, "Example.com.", DNSType.A));
+        assertNotNull(key);
+        assertNull(cache.lookup(key, 1));
+        assertTrue(cache.await(key, new DNSRecursiveCache.Waiter(query(1, "example.com", DNSType.A), new IPPort("127.0.0.1", 1))));
+        assertEquals(1, cache.complete(key, positiveResponse()).size());
+        assertEquals(1, cache.size());
+
+        now += 10_000;
+        byte[] bytes = cache.lookup(key, 12345);
+        assertNotNull(bytes);
+        DNSPacket resp = parse(ByteArray.from(bytes));
+        assertEquals(12345, resp.id);
+        assertEquals(2, resp.answers.size());
+        assertEquals(290, resp.answers.get(0).ttl);
+        assertEquals(50, resp.answers.get(1).ttl);
+        assertEquals("example.com.", resp.answers.get(1).name);
+        assertEquals("5.6.7.8", ((A) resp.answers.get(1).rdata).address.formatToIPString());
+
+        // the same name with different case hits the same entry
+        assertNotNull(cache.lookup(DNSRecursiveCache.keyOf(query(2, "EXAMPLE.COM", DNSType.A)), 2));
+        // different type does not
+        assertNull(cache.lookup(DNSRecursiveCache.keyOf(query(3, "example.com", DNSType.AAAA)), 3));
+
+        // expires with the min ttl
+        now += 50_000;
+        assertNull(cache.lookup(key, 4));
+        assertEquals(0, cache.size());
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void negative() throws Exception {
+        DNSRecursiveCache cache = new DNSRecursiveCache(16, () -> now);
+        DNSRecursiveCache.Key key = DNSRecursiveCache.keyOf(query(1, "nonexist.example.com", DNSType.A));
+        cache.await(key, new DNSRecursiveCache.Waiter(query(1, "nonexist.example.com", DNSType.A), new IPPort("127.0.0.1", 1)));
+        DNSPacket nx = parse(header(1, 3, 0, 1)
+            .concat(question("nonexist.example.com", 1))
+            .concat(soa(3600, 900)));
+        cache.complete(key, nx);
+        assertEquals(1, cache.size());
+        List<DNSRecursiveCache.CachedResponse> entries = new ArrayList<>();
+        cache.copyEntries(entries);
+        assertTrue(entries.get(0).isNegative());
+        assertEquals(900, entries.get(0).ttlLeft());
+
+        DNSPacket resp = parse(ByteArray.from(cache.lookup(key, 7)));
+        assertEquals(DNSPacket.RCode.NameError, resp.rcode);
+        assertEquals(1, resp.nameServers.size());
+
+        now += 900_000;
+        assertNull(cache.lookup(key, 8));
+
+        // NODATA without SOA is not cached
+        DNSRecursiveCache.Key key2 = DNSRecursiveCache.keyOf(query(1, "example.com", DNSType.AAAA));
+        cache.await(key2, new DNSRecursiveCache.Waiter(query(1, "example.com", DNSType.AAAA), new IPPort("127.0.0.1", 1)));
+        cache.complete(key2, parse(header(1, 0, 0, 0).concat(question("example.com", 28))));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        DNSRecursiveCache cache = new DNSRecursiveCache(16, () -> now);
+        DNSRecursiveCache.Key key = DNSRecursiveCache.keyOf(query(1, "example.com", DNSType.A));
+        assertTrue(cache.await(key, new DNSRecursiveCache.Waiter(query(1, "example.com", DNSType.A), new IPPort("127.0.0.1", 1))));
+        assertFalse(cache.await(key, new DNSRecursiveCache.Waiter(query(2, "example.com", DNSType.A), new IPPort("127.0.0.1", 2))));
+        assertFalse(cache.await(key, new DNSRecursiveCache.Waiter(query(3, "example.com", DNSType.A), new IPPort("127.0.0.1", 3))));
+        assertEquals(2, cache.getCoalesceCount());
+
+        List<DNSRecursiveCache.Waiter> waiters = cache.complete(key, null);
+        assertEquals(3, waiters.size());
+        assertEquals(1, waiters.get(0).request.id);
+        assertEquals(3, waiters.get(2).request.id);
+        assertEquals("failed lookups are not cached", 0, cache.size());
+
+        // not in flight anymore
+        assertTrue(cache.await(key, new DNSRecursiveCache.Waiter(query(4, "example.com", DNSType.A), new IPPort("127.0.0.1", 4))));
+        assertEquals(1, cache.complete(key, positiveResponse()).size());
+        assertEquals(1, cache.size());
+    }
+
+    // udp payload size 4096, DO=1
+    private static ByteArray opt() {
+        ByteArray r = ByteArray.allocate(11);
+        r.set(0, (byte) 0);
+        r.int16(1, 41);
+        r.int16(3, 4096);
+        r.int32(5, 0x8000);
+        r.int16(9, 0);
+        return r;
+    }
+
+    @Test
+    public void ednsIsPartOfTheKey() throws Exception {
+        DNSRecursiveCache cache = new DNSRecursiveCache(16, () -> now);
+        DNSRecursiveCache.Key ednsKey = DNSRecursiveCache.keyOf(ednsQuery(1, "example.com", DNSType.A, true));
+        DNSRecursiveCache.Key plainKey = DNSRecursiveCache.keyOf(query(2, "example.com", DNSType.A));
+        assertTrue(ednsKey.edns);
+        assertTrue(ednsKey.dnssecOk);
+        assertFalse(plainKey.edns);
+        assertNotEquals(ednsKey, plainKey);
+        assertNotEquals(ednsKey, DNSRecursiveCache.keyOf(ednsQuery(3, "example.com", DNSType.A, false)));
+
+        // the plain query is not coalesced into the edns lookup
+        assertTrue(cache.await(ednsKey, new DNSRecursiveCache.Waiter(ednsQuery(1, "example.com", DNSType.A, true), new IPPort("127.0.0.1", 1))));
+        assertTrue(cache.await(plainKey, new DNSRecursiveCache.Waiter(query(2, "example.com", DNSType.A), new IPPort("127.0.0.1", 2))));
+
+        ByteArray h = header(1, 0, 1, 0);
+        h.int16(10, 1);
+        DNSPacket ednsResp = parse(h.concat(question("example.com", 1)).concat(answerA(60, 1, 2, 3, 4)).concat(opt()));
+        assertEquals(1, cache.complete(ednsKey, ednsResp).size());
+        assertEquals(1, cache.size());
+
+        // the edns answer is replayed only to edns clients
+        assertNull(cache.lookup(plainKey, 2));
+        DNSPacket resp = parse(ByteArray.from(cache.lookup(DNSRecursiveCache.keyOf(ednsQuery(4, "example.com", DNSType.A, true)), 4)));
+        assertEquals(1, resp.additionalResources.size());
+        assertEquals(DNSType.OPT, resp.additionalResources.get(0).type);
+
+        assertEquals(1, cache.complete(plainKey, positiveResponse()).size());
+        assertEquals(2, cache.size());
+        resp = parse(ByteArray.from(cache.lookup(plainKey, 5)));
+        assertEquals(2, resp.answers.size());
+        assertTrue(resp.additionalResources.isEmpty());
+    }
+
+    @Test
+    public void notCacheable() {
+        assertNull(DNSRecursiveCache.keyOf(query(1, "example.com", DNSType.ANY)));
+        assertNull(DNSRecursiveCache.keyOf(query(1, "example.com", DNSType.OTHER)));
+        DNSPacket p = query(1, "example.com", DNSType.A);
+        p.opcode = DNSPacket.Opcode.STATUS;
+        assertNull(DNSRecursiveCache.keyOf(p));
+    }
+
+    @Test
+    public void lruAndRemove() throws Exception {
+        DNSRecursiveCache cache = new DNSRecursiveCache(2, () -> now);
+        String[] names = {"a.example.com", "b.example.com", "c.example.com"};
+        DNSRecursiveCache.Key[] keys = new DNSRecursiveCache.Key[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            keys[i] = DNSRecursiveCache.keyOf(query(1, names[i], DNSType.A));
+            cache.await(keys[i], new DNSRecursiveCache.Waiter(query(1, names[i], DNSType.A), new IPPort("127.0.0.1", 1)));
+            cache.complete(keys[i], parse(header(1, 0, 1, 0).concat(question(names[i], 1)).concat(answerA(60, 1, 1, 1, 1))));
+            if (i == 1) {
+                assertNotNull(cache.lookup(keys[0], 1)); // a is recently used
+            }
+        }
+        assertEquals(2, cache.size());
+        assertNotNull(cache.lookup(keys[0], 1));
+        assertNull("b is evicted", cache.lookup(keys[1], 1));
+        assertNotNull(cache.lookup(keys[2], 1));
+
+        cache.remove("C.example.com.");
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,144 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.IPPort;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.dns.DNSServer;
+import vproxybase.component.check.CheckProtocol;
+import vproxybase.component.check.HealthCheckConfig;
+import vproxybase.component.elgroup.EventLoopGroup;
+import vproxybase.component.svrgroup.Method;
+import vproxybase.component.svrgroup.ServerGroup;
+import vproxybase.dns.Formatter;
+import vproxybase.dns.*;
+import vproxybase.dns.rdata.A;
+import vproxybase.dns.rdata.SRV;
+import vproxybase.util.AnnotationKeys;
+import vproxybase.util.ByteArray;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestDNSServerRRSets {
+    private static final int port = 30053;
+
+    private EventLoopGroup elg;
+    private ServerGroup group;
+    private DNSServer dnsServer;
+    private DatagramSocket client;
+
+    @Before
+    public void setUp() throws Exception {
+        elg = new EventLoopGroup("elg0");
+        elg.add("el0");
+        group = new ServerGroup("sg0", elg, new HealthCheckConfig(400, 24 * 60 * 60 * 1000, 2, 3, CheckProtocol.none), Method.wrr);
+        group.setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, "example.com"));
+        group.add("svr0", new IPPort("10.0.0.1", 80), 10);
+        group.add("svr1", new IPPort("10.0.0.2", 80), 10);
+        for (ServerGroup.ServerHandle h : group.getServerHandles()) {
+            h.healthy = true;
+        }
+        Upstream ups = new Upstream("ups0");
+        ups.add(group, 10);
+        dnsServer = new DNSServer("dns0", new IPPort("127.0.0.1", port), elg, ups, 60, SecurityGroup.allowAll());
+        dnsServer.start();
+
+        client = new DatagramSocket();
+        client.setSoTimeout(2000);
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        if (dnsServer != null) {
+            dnsServer.stop();
+        }
+        if (elg != null) {
+            elg.close();
+        }
+    }
+
+    private DNSPacket query(int id, boolean rd, String name, DNSType type) throws Exception {
+        DNSPacket p = new DNSPacket();
+        p.id = id;
+        p.isResponse = false;
+        p.opcode = DNSPacket.Opcode.QUERY;
+        p.rd = rd;
+        p.rcode = DNSPacket.RCode.NoError;
+        DNSQuestion q = new DNSQuestion();
+        q.qname = name;
+        q.qtype = type;
+        q.qclass = DNSClass.IN;
+        p.questions.add(q);
+
+        byte[] req = p.toByteArray().toJavaArray();
+        client.send(new DatagramPacket(req, req.length, InetAddress.getByName("127.0.0.1"), port));
+        byte[] buf = new byte[4096];
+        DatagramPacket recv = new DatagramPacket(buf, buf.length);
+        client.receive(recv);
+        List<DNSPacket> packets = Formatter.parsePackets(ByteArray.from(Arrays.copyOf(buf, recv.getLength())));
+        assertEquals(1, packets.size());
+        DNSPacket resp = packets.get(0);
+        assertEquals(id, resp.id);
+        assertEquals(rd, resp.rd);
+        assertTrue(resp.isResponse);
+        return resp;
+    }
+
+    @Test
+    public void address() throws Exception {
+        Set<String> addresses = new HashSet<>();
+        for (int i = 0; i < 6; ++i) {
+            DNSPacket resp = query(100 + i, i % 2 == 0, "example.com", DNSType.A);
+            assertEquals(1, resp.answers.size());
+            assertEquals(60, resp.answers.get(0).ttl);
+            addresses.add(((A) resp.answers.get(0).rdata).address.formatToIPString());
+        }
+        assertEquals("the servers are selected for each query", Set.of("10.0.0.1", "10.0.0.2"), addresses);
+
+        group.getServerHandles().get(0).healthy = false;
+        for (int i = 0; i < 4; ++i) {
+            DNSPacket resp = query(200 + i, true, "example.com", DNSType.A);
+            assertEquals("10.0.0.2", ((A) resp.answers.get(0).rdata).address.formatToIPString());
+        }
+
+        dnsServer.ttl = 30;
+        assertEquals(30, query(300, true, "example.com", DNSType.A).answers.get(0).ttl);
+    }
+
+    private static List<String> srvAnswers(DNSPacket resp) {
+        List<String> ret = new ArrayList<>();
+        for (DNSResource r : resp.answers) {
+            SRV srv = (SRV) r.rdata;
+            ret.add(srv.target + ":" + srv.port + "/" + srv.weight);
+        }
+        return ret;
+    }
+
+    @Test
+    public void srv() throws Exception {
+        assertEquals(List.of("10.0.0.1.:80/10", "10.0.0.2.:80/10"), srvAnswers(query(1, true, "example.com", DNSType.SRV)));
+        assertEquals(List.of("10.0.0.1.:80/10", "10.0.0.2.:80/10"), srvAnswers(query(2, false, "example.com", DNSType.SRV)));
+
+        ServerGroup.ServerHandle svr1 = group.getServerHandles().get(1);
+        svr1.healthy = false;
+        assertEquals(List.of("10.0.0.1.:80/10"), srvAnswers(query(3, true, "example.com", DNSType.SRV)));
+
+        svr1.healthy = true;
+        svr1.setWeight(5);
+        assertEquals(List.of("10.0.0.1.:80/10", "10.0.0.2.:80/5"), srvAnswers(query(4, true, "example.com", DNSType.SRV)));
+
+        group.add("svr2", new IPPort("10.0.0.3", 80), 10);
+        group.getServerHandles().get(2).healthy = true;
+        assertEquals(List.of("10.0.0.1.:80/10", "10.0.0.2.:80/5", "10.0.0.3.:80/10"), srvAnswers(query(5, true, "example.com", DNSType.SRV)));
+    }
+}
@@ -0,0 +1,143 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.DatagramFD;
+import vfd.FDProvider;
+import vfd.IP;
+import vfd.IPPort;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.selector.wrap.udp.BatchedSendDatagramFD;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class TestDatagramBatch {
+    private DatagramFD server;
+    private DatagramFD client;
+    private IPPort serverAddress;
+    private IPPort clientAddress;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FDProvider.get().openDatagramFD();
+        server.configureBlocking(false);
+        server.bind(new IPPort(IP.from("127.0.0.1"), 0));
+        serverAddress = server.getLocalAddress();
+        client = FDProvider.get().openDatagramFD();
+        client.configureBlocking(false);
+        client.bind(new IPPort(IP.from("127.0.0.1"), 0));
+        clientAddress = client.getLocalAddress();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        client.close();
+    }
+
+    private static ByteBuffer[] buffers(int n, boolean direct) {
+        ByteBuffer[] bufs = new ByteBuffer[n];
+        for (int i = 0; i < n; ++i) {
+            bufs[i] = direct ? ByteBuffer.allocateDirect(64) : ByteBuffer.allocate(64);
+        }
+        return bufs;
+    }
+
+    private List<String> receiveAll(int expected, boolean direct) throws Exception {
+        ByteBuffer[] bufs = buffers(16, direct);
+        IPPort[] remotes = new IPPort[bufs.length];
+        List<String> received = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (received.size() < expected && System.currentTimeMillis() < deadline) {
+            int n = server.receive(bufs, remotes);
+            if (n == 0) {
+                Thread.sleep(1);
+                continue;
+            }
+            for (int i = 0; i < n; ++i) {
+                assertEquals(clientAddress, remotes[i]);
+                bufs[i].flip();
+                byte[] b = new byte[bufs[i].limit()];
+                bufs[i].get(b);
+                received.add(new String(b));
+                bufs[i].clear();
+            }
+        }
+        return received;
+    }
+
+    private void sendBatch(int count, boolean direct) throws Exception {
+        ByteBuffer[] bufs = buffers(count, direct);
+        IPPort[] remotes = new IPPort[count];
+        for (int i = 0; i < count; ++i) {
+            bufs[i].put(("msg" + i).getBytes()).flip();
+            remotes[i] = serverAddress;
+        }
+        int sent = 0;
+        while (sent < count) {
+            ByteBuffer[] rest = new ByteBuffer[count - sent];
+            System.arraycopy(bufs, sent, rest, 0, rest.length);
+            sent += client.send(rest, remotes, rest.length);
+        }
+        for (ByteBuffer b : bufs) {
+            assertEquals("the buffers should be consumed", 0, b.remaining());
+        }
+    }
+
+    private static List<String> expected(int count) {
+        List<String> ls = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            ls.add("msg" + i);
+        }
+        return ls;
+    }
+
+    @Test
+    public void batchDirect() throws Exception {
+        sendBatch(100, true);
+        assertEquals(expected(100), receiveAll(100, true));
+        ByteBuffer[] bufs = buffers(4, true);
+        assertEquals("nothing more to receive", 0, server.receive(bufs, new IPPort[4]));
+    }
+
+    @Test
+    public void batchHeap() throws Exception {
+        sendBatch(40, false);
+        assertEquals(expected(40), receiveAll(40, false));
+    }
+
+    @Test
+    public void batchedSendFD() throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "EventLoop"));
+        try {
+            BatchedSendDatagramFD batched = new BatchedSendDatagramFD(client, loop, 8);
+            CompletableFuture<Integer> pending = new CompletableFuture<>();
+            loop.runOnLoop(() -> {
+                try {
+                    for (int i = 0; i < 20; ++i) {
+                        ByteBuffer buf = ByteBuffer.wrap(("msg" + i).getBytes());
+                        assertEquals(buf.limit(), batched.send(buf, serverAddress));
+                        assertEquals("the source buffer is consumed", 0, buf.remaining());
+                    }
+                    // the full batches are flushed when sending
+                    pending.complete(batched.pending());
+                } catch (Throwable t) {
+                    pending.completeExceptionally(t);
+                }
+            });
+            assertEquals(4, pending.get().intValue());
+            // the rest are flushed in the next round of the loop
+            assertEquals(expected(20), receiveAll(20, true));
+            assertEquals(0, batched.pending());
+        } finally {
+            loop.close();
+        }
+    }
+}
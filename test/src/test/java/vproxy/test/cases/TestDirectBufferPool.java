@@ -0,0 +1,172 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.util.RingBuffer;
+import vproxybase.util.nio.ByteArrayChannel;
+import vproxybase.util.ringbuffer.DirectBufferPool;
+import vproxybase.util.ringbuffer.SimpleRingBuffer;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class TestDirectBufferPool {
+    private SelectorEventLoop loop;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "EventLoop"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loop.close();
+    }
+
+    private <T> T onLoop(Supplier<T> f) throws Exception {
+        CompletableFuture<T> fu = new CompletableFuture<>();
+        loop.runOnLoop(() -> {
+            try {
+                fu.complete(f.get());
+            } catch (Throwable t) {
+                fu.completeExceptionally(t);
+            }
+        });
+        return fu.get();
+    }
+
+    private DirectBufferPool.Stat stat(int segmentSize) {
+        List<DirectBufferPool.Stat> stats = loop.bufferPool.stats();
+        for (DirectBufferPool.Stat s : stats) {
+            if (s.segmentSize == segmentSize) {
+                return s;
+            }
+        }
+        throw new AssertionError("size class " + segmentSize + " not found in " + stats);
+    }
+
+    @Test
+    public void notPooledOutsideEventLoop() {
+        SimpleRingBuffer buf = RingBuffer.allocateDirectPooled(16384);
+        assertFalse(buf.isPooled());
+        assertEquals(16384, buf.capacity());
+        buf.clean();
+    }
+
+    @Test
+    public void leaseAndReturn() throws Exception {
+        SimpleRingBuffer a = onLoop(() -> RingBuffer.allocateDirectPooled(16384));
+        SimpleRingBuffer b = onLoop(() -> RingBuffer.allocateDirectPooled(10000));
+        SimpleRingBuffer c = onLoop(() -> RingBuffer.allocateDirectPooled(1024 * 1024));
+        assertTrue(a.isPooled());
+        assertTrue(b.isPooled());
+        assertFalse("too large to be pooled", c.isPooled());
+        assertEquals(16384, a.capacity());
+        assertEquals("capacity is not changed by the size class", 10000, b.capacity());
+
+        DirectBufferPool.Stat s = stat(16384);
+        assertEquals(2, s.leased);
+        assertEquals(s.total - 2, s.free);
+        assertEquals(2, s.highWater);
+
+        // return from a non event loop thread
+        a.clean();
+        b.clean();
+        c.clean();
+        s = stat(16384);
+        assertEquals(0, s.leased);
+        assertEquals(s.total, s.free);
+        assertEquals(2, s.highWater);
+
+        // the returned segments are reused
+        int total = s.total;
+        SimpleRingBuffer d = onLoop(() -> RingBuffer.allocateDirectPooled(16384));
+        assertTrue(d.isPooled());
+        assertEquals(total, stat(16384).total);
+        onLoop(() -> {
+            d.clean();
+            return null;
+        });
+        assertEquals(0, stat(16384).leased);
+    }
+
+    @Test
+    public void defragment() throws Exception {
+        SimpleRingBuffer buf = onLoop(() -> RingBuffer.allocateDirectPooled(8192));
+        byte[] bytes = new byte[8000];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) i;
+        }
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(bytes));
+        buf.writeTo(ByteArrayChannel.fromEmpty(4000), 4000);
+        onLoop(() -> {
+            buf.defragment();
+            return null;
+        });
+        assertTrue(buf.isPooled());
+        assertEquals(1, stat(8192).leased);
+
+        ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(4000);
+        buf.writeTo(chnl, 4000);
+        byte[] result = chnl.getBytes();
+        for (int i = 0; i < result.length; ++i) {
+            assertEquals((byte) (i + 4000), result[i]);
+        }
+        buf.clean();
+        assertEquals(0, stat(8192).leased);
+    }
+
+    @Test
+    public void lazyAttach() throws Exception {
+        SimpleRingBuffer buf = onLoop(() -> RingBuffer.allocateDirectLazy(16384));
+        assertTrue(buf.isPooled());
+        assertTrue(buf.isDetached());
+        assertEquals(16384, buf.free());
+        assertEquals(0, stat(16384).leased);
+
+        // nothing to write, the memory is not leased
+        assertEquals(0, buf.writeTo(ByteArrayChannel.fromEmpty(100)));
+        assertTrue(buf.isDetached());
+
+        // storing data leases the memory
+        int stored = onLoop(() -> buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{1, 2, 3})));
+        assertEquals(3, stored);
+        assertFalse(buf.isDetached());
+        assertEquals(1, stat(16384).leased);
+
+        // cannot detach when there's data
+        assertFalse(onLoop(buf::detach));
+        ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(3);
+        buf.writeTo(chnl);
+        assertArrayEquals(new byte[]{1, 2, 3}, chnl.getBytes());
+
+        // drained
+        assertTrue(onLoop(buf::detach));
+        assertTrue(buf.isDetached());
+        assertEquals(0, stat(16384).leased);
+
+        buf.clean();
+        assertEquals(0, stat(16384).leased);
+    }
+
+    @Test
+    public void lazyBufferLeasesFromTheStoringLoop() throws Exception {
+        // created on another thread, e.g. the acceptor loop
+        SimpleRingBuffer buf = RingBuffer.allocateDirectLazy(16384);
+        assertTrue(buf.isDetached());
+        assertEquals(0, stat(16384).leased);
+
+        int stored = onLoop(() -> buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{1, 2, 3})));
+        assertEquals(3, stored);
+        assertEquals(1, stat(16384).leased);
+
+        buf.clean();
+        assertEquals(0, stat(16384).leased);
+    }
+}
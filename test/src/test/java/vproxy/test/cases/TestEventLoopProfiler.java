@@ -0,0 +1,137 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.test.tool.DirectCloseServer;
+import vproxybase.connection.NetEventLoop;
+import vproxybase.selector.EventLoopProfiler;
+import vproxybase.selector.SelectorEventLoop;
+
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class TestEventLoopProfiler {
+    private static final int port = 19180;
+
+    private SelectorEventLoop loop;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "profiler-loop"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Thread t = loop.runningThread;
+        loop.close();
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    private static class SlowTask implements Runnable {
+        private final CountDownLatch latch;
+
+        SlowTask(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                latch.await();
+            } catch (InterruptedException ignore) {
+            }
+        }
+    }
+
+    @Test
+    public void runOnLoopAndSlowCallbacks() throws Exception {
+        CountDownLatch block = new CountDownLatch(1);
+        loop.runOnLoop(new SlowTask(block));
+        Thread.sleep(50);
+
+        // the loop is blocked by the slow task
+        EventLoopProfiler.Stat stat = loop.profiler.stat();
+        assertTrue(stat.toString(), stat.blockedMillis >= 40);
+
+        // queue tasks while the loop is blocked
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; ++i) {
+            loop.runOnLoop(done::countDown);
+        }
+        block.countDown();
+        done.await();
+        Thread.sleep(50);
+
+        stat = loop.profiler.stat();
+        assertTrue(stat.toString(), stat.rounds >= 2);
+        assertTrue(stat.toString(), stat.maxRunOnLoopDepth >= 5);
+        assertTrue(stat.toString(), stat.maxBusyMicros >= 40_000);
+        assertTrue(stat.toString(), stat.runOnLoopMicros >= 40_000);
+        assertTrue(stat.toString(), stat.selectMicros > 0);
+        assertTrue(stat.toString(), stat.saturation() > 0 && stat.saturation() < 1);
+        assertEquals(stat.toString(), 0, stat.blockedMillis);
+
+        List<EventLoopProfiler.CallbackStat> slow = loop.profiler.slowCallbacks(10);
+        assertFalse(slow.isEmpty());
+        assertEquals(SlowTask.class, slow.get(0).cls);
+        assertEquals(1, slow.get(0).count());
+        assertTrue(slow.get(0).toString(), slow.get(0).maxMicros() >= 40_000);
+
+        assertEquals(1, loop.profiler.slowCallbacks(1).size());
+    }
+
+    @Test
+    public void timerBacklog() throws Exception {
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        loop.runOnLoop(() -> {
+            for (int i = 0; i < 3; ++i) {
+                loop.delay(1, done::countDown);
+            }
+        });
+        loop.runOnLoop(new SlowTask(block));
+        Thread.sleep(20);
+        block.countDown();
+        done.await();
+        Thread.sleep(20);
+
+        EventLoopProfiler.Stat stat = loop.profiler.stat();
+        assertTrue(stat.toString(), stat.maxTimerBacklog >= 3);
+    }
+
+    @Test
+    public void delegatedHandlers() throws Exception {
+        NetEventLoop netLoop = new NetEventLoop(loop);
+        new DirectCloseServer(netLoop, port);
+
+        for (int i = 0; i < 3; ++i) {
+            try (Socket sock = new Socket("127.0.0.1", port)) {
+                //noinspection ResultOfMethodCallIgnored
+                sock.getInputStream().read();
+            }
+        }
+        Thread.sleep(50);
+
+        EventLoopProfiler.Stat stat = loop.profiler.stat();
+        assertTrue(stat.toString(), stat.selectedKeys >= 3);
+        assertTrue(stat.toString(), stat.maxSelectedKeys >= 1);
+
+        // the callbacks are recorded with the actual server handler, not the one of NetEventLoop
+        boolean found = false;
+        for (EventLoopProfiler.CallbackStat s : loop.profiler.slowCallbacks(10)) {
+            assertNotEquals(s.toString(), NetEventLoop.class, s.cls.getEnclosingClass());
+            if (s.cls.getName().equals(DirectCloseServer.class.getName() + "$CloseHandler")) {
+                found = true;
+                assertTrue(s.toString(), s.count() >= 3);
+            }
+        }
+        assertTrue(loop.profiler.slowCallbacks(10).toString(), found);
+    }
+}
@@ -0,0 +1,94 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxybase.processor.Hint;
+import vproxybase.processor.HintIndex;
+import vproxybase.util.AnnotationKeys;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestHintIndex {
+    private static Map<String, String> anno(String host, String port, String uri) {
+        Map<String, String> m = new HashMap<>();
+        if (host != null) m.put(AnnotationKeys.ServerGroup_HintHost, host);
+        if (port != null) m.put(AnnotationKeys.ServerGroup_HintPort, port);
+        if (uri != null) m.put(AnnotationKeys.ServerGroup_HintUri, uri);
+        return m;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Integer linearSearch(List<Map<String, String>> annos, Hint hint) {
+        int level = 0;
+        Integer lastMax = null;
+        for (int i = 0; i < annos.size(); ++i) {
+            int l = hint.matchLevel(annos.get(i));
+            if (l > level) {
+                level = l;
+                lastMax = i;
+            }
+        }
+        return lastMax;
+    }
+
+    private static HintIndex<Integer> build(List<Map<String, String>> annos) {
+        List<HintIndex.Entry<Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < annos.size(); ++i) {
+            entries.add(HintIndex.entry(i, annos.get(i)));
+        }
+        return new HintIndex<>(entries);
+    }
+
+    @Test
+    public void simple() {
+        List<Map<String, String>> annos = Arrays.asList(
+            anno("example.com", null, null),
+            anno("a.example.com", null, null),
+            anno("example.com", null, "/api"),
+            anno("*", null, null),
+            anno(null, "8080", "/"),
+            anno("example.com", "443", "/api/v1")
+        );
+        HintIndex<Integer> index = build(annos);
+        assertEquals(Integer.valueOf(0), index.search(new Hint("example.com")));
+        assertEquals(Integer.valueOf(1), index.search(new Hint("a.example.com")));
+        assertEquals(Integer.valueOf(0), index.search(new Hint("b.example.com")));
+        assertEquals(Integer.valueOf(2), index.search(new Hint("example.com", "/api/x")));
+        assertEquals(Integer.valueOf(5), index.search(new Hint("example.com", 443, "/api/v1/x")));
+        assertEquals(Integer.valueOf(2), index.search(new Hint("example.com", 80, "/api/v1/x")));
+        assertEquals(Integer.valueOf(3), index.search(new Hint("other.com")));
+        assertEquals(Integer.valueOf(4), index.search(new Hint(null, 8080, "/x")));
+        assertNull(index.search(new Hint(null, 80, "/x")));
+    }
+
+    @Test
+    public void sameAsMatchLevel() {
+        String[] hosts = {null, "*", "", "com", "example.com", "a.example.com", "b.a.example.com", "xample.com", ".com", "test.com"};
+        String[] ports = {null, "80", "443"};
+        String[] uris = {null, "*", "", "/", "/a", "/a/b", "/a/bc", "/ab", "/b", "*x"};
+        String[] hintHosts = {null, "*", "", "com", "example.com", "a.example.com", "b.a.example.com", "c.b.a.example.com",
+            "xample.com", "e.com", "x.test.com", ".com", "x.*", "www.example.com:80"};
+        String[] hintUris = {null, "*", "", "/", "/a", "/a/b", "/a/b/c", "/a/bc", "/abc", "/b?x=1", "/c", "*x", "/a/"};
+
+        Random rand = new Random(1);
+        for (int round = 0; round < 300; ++round) {
+            int n = rand.nextInt(12) + 1;
+            List<Map<String, String>> annos = new ArrayList<>(n);
+            for (int i = 0; i < n; ++i) {
+                annos.add(anno(hosts[rand.nextInt(hosts.length)],
+                    ports[rand.nextInt(ports.length)],
+                    uris[rand.nextInt(uris.length)]));
+            }
+            HintIndex<Integer> index = build(annos);
+            for (String h : hintHosts) {
+                for (String u : hintUris) {
+                    for (Hint hint : new Hint[]{new Hint(h, u), new Hint(h, 80, u), new Hint(h, 8080, u)}) {
+                        assertEquals(annos + " " + hint, linearSearch(annos, hint), index.search(hint));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package vproxy.test.cases;
+
+import com.twitter.hpack.Decoder;
+import com.twitter.hpack.Encoder;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.IPPort;
+import vproxybase.processor.Processor;
+import vproxybase.processor.http2.Http2Context;
+import vproxybase.processor.http2.Http2Processor;
+import vproxybase.processor.http2.Http2SubContext;
+import vproxybase.util.ByteArray;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestHttp2HPack {
+    private Http2Processor processor;
+    private Http2Context ctx;
+    private Http2SubContext front;
+    private final Encoder clientEncoder = new Encoder(4096);
+
+    static class Frame {
+        int type;
+        int flags;
+        int streamId;
+        ByteArray payload;
+    }
+
+    // feed the data and collect the data to send, like the lib does
+    private ByteArray drive(Http2SubContext sub, ByteArray input) throws Exception {
+        ByteArray out = null;
+        int off = 0;
+        while (off < input.length() || (sub.mode() == Processor.Mode.handle && sub.len() == 0)) {
+            int len = sub.len();
+            ByteArray data = input.sub(off, len);
+            off += len;
+            ByteArray ret;
+            if (sub.mode() == Processor.Mode.proxy) {
+                ret = data;
+                sub.proxyDone();
+            } else {
+                ret = sub.feed(data);
+            }
+            if (ret != null && ret.length() != 0) {
+                out = out == null ? ret : out.concat(ret);
+            }
+        }
+        return out;
+    }
+
+    private static ByteArray frame(int type, int flags, int streamId, ByteArray payload) {
+        ByteArray head = ByteArray.allocate(9);
+        head.int24(0, payload.length());
+        head.set(3, (byte) type);
+        head.set(4, (byte) flags);
+        head.int32(5, streamId);
+        return payload.length() == 0 ? head : head.concat(payload);
+    }
+
+    private static List<Frame> parseFrames(ByteArray bytes) {
+        List<Frame> frames = new ArrayList<>();
+        int off = 0;
+        while (off < bytes.length()) {
+            Frame f = new Frame();
+            int len = bytes.uint24(off);
+            f.type = bytes.uint8(off + 3);
+            f.flags = bytes.uint8(off + 4);
+            f.streamId = bytes.int32(off + 5);
+            f.payload = bytes.sub(off + 9, len);
+            frames.add(f);
+            off += 9 + len;
+        }
+        return frames;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        processor = new Http2Processor();
+        ctx = processor.init(new IPPort("1.2.3.4", 5678));
+        front = processor.initSub(ctx, 0, new IPPort("1.2.3.4", 5678));
+        drive(front, Http2SubContext.SEQ_PREFACE_MAGIC.concat(frame(4, 0, 0, ByteArray.allocate(0))));
+    }
+
+    private ByteArray encodeRequest(String[][] headers) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String[] h : headers) {
+            clientEncoder.encodeHeader(out, h[0].getBytes(), h[1].getBytes(), false);
+        }
+        return ByteArray.from(out.toByteArray());
+    }
+
+    private static String[][] request(String path) {
+        return new String[][]{
+            {":method", "POST"},
+            {":scheme", "http"},
+            {":path", path},
+            {":authority", "example.com"},
+            {"content-type", "application/grpc"},
+            {"grpc-metadata", "a-large-metadata-value-which-is-repeated-in-every-request-0123456789abcdefghijklmnopqrstuvwxyz"},
+        };
+    }
+
+    // send request headers from the frontend, and get frames sent to the backend
+    private ByteArray request(int streamId, Http2SubContext backend, String[][] headers, boolean endStream) throws Exception {
+        ByteArray block = encodeRequest(headers);
+        assertNull("headers are not sent before the backend is chosen",
+            drive(front, frame(1, 0x4 | (endStream ? 0x1 : 0), streamId, block)));
+        return processor.produceToBackend(ctx, front, backend);
+    }
+
+    private static List<String> decode(Decoder decoder, List<Frame> frames) throws Exception {
+        ByteArray block = null;
+        for (Frame f : frames) {
+            block = block == null ? f.payload : block.concat(f.payload);
+        }
+        List<String> headers = new ArrayList<>();
+        decoder.decode(new ByteArrayInputStream(block.toJavaArray()), (name, value, sensitive) -> headers.add(new String(name) + ": " + new String(value)));
+        assertFalse(decoder.endHeaderBlock());
+        return headers;
+    }
+
+    private static List<String> expected(String[][] headers) {
+        List<String> ret = new ArrayList<>();
+        for (String[] h : headers) {
+            ret.add(h[0] + ": " + h[1]);
+        }
+        ret.add("x-forwarded-for: 1.2.3.4");
+        ret.add("x-client-port: 5678");
+        return ret;
+    }
+
+    @Test
+    public void dynamicTablePerBackend() throws Exception {
+        Http2SubContext backend1 = processor.initSub(ctx, 1, new IPPort("127.0.0.1", 1));
+        Http2SubContext backend2 = processor.initSub(ctx, 2, new IPPort("127.0.0.1", 2));
+        Decoder decoder1 = new Decoder(65536, 4096);
+        Decoder decoder2 = new Decoder(65536, 4096);
+
+        List<Frame> first = parseFrames(request(1, backend1, request("/a"), false));
+        assertEquals(1, first.size());
+        assertEquals(1, first.get(0).type);
+        assertEquals(1, first.get(0).streamId);
+        assertEquals(0x4, first.get(0).flags);
+        assertEquals(expected(request("/a")), decode(decoder1, first));
+
+        List<Frame> second = parseFrames(request(3, backend1, request("/a"), true));
+        assertEquals("end stream is kept", 0x5, second.get(0).flags);
+        assertEquals(expected(request("/a")), decode(decoder1, second));
+        assertTrue("the headers are indexed: " + first.get(0).payload.length() + " -> " + second.get(0).payload.length(),
+            second.get(0).payload.length() * 4 < first.get(0).payload.length());
+
+        // another backend has its own table
+        List<Frame> third = parseFrames(request(5, backend2, request("/b"), false));
+        assertEquals(expected(request("/b")), decode(decoder2, third));
+        assertTrue(third.get(0).payload.length() > second.get(0).payload.length() * 4);
+
+        List<Frame> fourth = parseFrames(request(7, backend1, request("/b"), false));
+        assertEquals(expected(request("/b")), decode(decoder1, fourth));
+    }
+
+    @Test
+    public void backendHeaderTableSize() throws Exception {
+        Http2SubContext backend = processor.initSub(ctx, 1, new IPPort("127.0.0.1", 1));
+        ByteArray settings = ByteArray.allocate(6);
+        settings.int16(0, 1); // SETTINGS_HEADER_TABLE_SIZE
+        settings.int32(2, 0);
+        drive(backend, frame(4, 0, 0, settings));
+
+        Decoder decoder = new Decoder(65536, 4096);
+        List<Frame> first = parseFrames(request(1, backend, request("/a"), false));
+        assertEquals(expected(request("/a")), decode(decoder, first));
+        assertEquals("the block starts with a table size update", 0x20, first.get(0).payload.uint8(0));
+        assertEquals(0, decoder.getMaxHeaderTableSize());
+
+        List<Frame> second = parseFrames(request(3, backend, request("/a"), false));
+        assertEquals(expected(request("/a")), decode(decoder, second));
+        assertEquals("nothing is indexed", first.get(0).payload.length() - 1, second.get(0).payload.length());
+    }
+
+    @Test
+    public void largeBlock() throws Exception {
+        Http2SubContext backend = processor.initSub(ctx, 1, new IPPort("127.0.0.1", 1));
+        Decoder decoder = new Decoder(65536, 4096);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 4000; ++i) {
+            sb.append((char) ('a' + (i * 7 % 26))).append(i % 10);
+        }
+        String[][] headers = {
+            {":method", "GET"},
+            {":path", "/"},
+            {"x-large-0", sb.toString()},
+            {"x-large-1", sb.reverse().toString()},
+            {"x-large-2", sb.toString().toUpperCase()},
+        };
+
+        // the frontend sends the block in a HEADERS frame and a CONTINUATION frame
+        ByteArray block = encodeRequest(headers);
+        int half = block.length() / 2;
+        assertNull(drive(front, frame(1, 0x1, 1, block.sub(0, half))));
+        assertNull(drive(front, frame(9, 0x4, 1, block.sub(half, block.length() - half))));
+        List<Frame> frames = parseFrames(processor.produceToBackend(ctx, front, backend));
+
+        assertTrue(frames.size() > 1);
+        assertEquals(1, frames.get(0).type);
+        assertEquals(0x1, frames.get(0).flags);
+        for (int i = 1; i < frames.size(); ++i) {
+            assertEquals(9, frames.get(i).type);
+            assertEquals(1, frames.get(i).streamId);
+            assertEquals(i == frames.size() - 1 ? 0x4 : 0, frames.get(i).flags);
+        }
+        for (Frame f : frames) {
+            assertTrue(f.payload.length() <= 16384);
+        }
+        assertEquals(expected(headers), decode(decoder, frames));
+
+        assertNull("nothing more to send", processor.produceToBackend(ctx, front, backend));
+    }
+}
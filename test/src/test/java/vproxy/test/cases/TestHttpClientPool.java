@@ -0,0 +1,196 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vclient.HttpClient;
+import vclient.HttpResponse;
+import vfd.IP;
+import vfd.IPPort;
+import vproxybase.selector.SelectorEventLoop;
+import vserver.HttpServer;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestHttpClientPool {
+    private static final int port = 19182;
+
+    private HttpServer server;
+    private final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+    private HttpClient client;
+    private final AtomicInteger handling = new AtomicInteger();
+    private final AtomicInteger maxHandling = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create();
+        server.get("/hello", rctx -> {
+            remotePorts.add(rctx.getRemote().getPort());
+            rctx.response().end("hello");
+        });
+        server.get("/slow/:id", rctx -> {
+            remotePorts.add(rctx.getRemote().getPort());
+            String delay = rctx.query("delay");
+            SelectorEventLoop.current().delay(delay == null ? 50 : Integer.parseInt(delay), () -> rctx.response().end(rctx.param("id")));
+        });
+        server.pst("/slow/:id", rctx -> {
+            int n = handling.incrementAndGet();
+            maxHandling.accumulateAndGet(n, Math::max);
+            SelectorEventLoop.current().delay(50, () -> {
+                handling.decrementAndGet();
+                rctx.response().end(rctx.param("id"));
+            });
+        });
+        server.get("/close", rctx -> {
+            remotePorts.add(rctx.getRemote().getPort());
+            rctx.response().header("Connection", "close").end("bye");
+        });
+        server.listen(port, "127.0.0.1");
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        server.close();
+    }
+
+    private HttpClient client(HttpClient.Options opts) {
+        client = HttpClient.to(new IPPort(IP.from("127.0.0.1"), port), opts);
+        return client;
+    }
+
+    private static CompletableFuture<HttpResponse> get(HttpClient client, String uri) {
+        CompletableFuture<HttpResponse> f = new CompletableFuture<>();
+        client.get(uri).send((err, resp) -> {
+            if (err != null) {
+                f.completeExceptionally(err);
+            } else {
+                f.complete(resp);
+            }
+        });
+        return f;
+    }
+
+    @Test
+    public void keepAlive() throws Exception {
+        HttpClient client = client(new HttpClient.Options());
+        for (int i = 0; i < 5; ++i) {
+            HttpResponse resp = get(client, "/hello").get(5, TimeUnit.SECONDS);
+            assertEquals(200, resp.status());
+            assertEquals("hello", resp.bodyAsString());
+        }
+        assertEquals(1, remotePorts.size());
+    }
+
+    @Test
+    public void noKeepAlive() throws Exception {
+        HttpClient client = client(new HttpClient.Options().setKeepAlive(false));
+        for (int i = 0; i < 3; ++i) {
+            assertEquals("hello", get(client, "/hello").get(5, TimeUnit.SECONDS).bodyAsString());
+        }
+        assertEquals(3, remotePorts.size());
+    }
+
+    @Test
+    public void connectionClosedByResponse() throws Exception {
+        HttpClient client = client(new HttpClient.Options());
+        assertEquals("bye", get(client, "/close").get(5, TimeUnit.SECONDS).bodyAsString());
+        assertEquals("hello", get(client, "/hello").get(5, TimeUnit.SECONDS).bodyAsString());
+        assertEquals(2, remotePorts.size());
+    }
+
+    @Test
+    public void idleEviction() throws Exception {
+        HttpClient client = client(new HttpClient.Options().setIdleTimeout(100));
+        assertEquals("hello", get(client, "/hello").get(5, TimeUnit.SECONDS).bodyAsString());
+        assertEquals("hello", get(client, "/hello").get(5, TimeUnit.SECONDS).bodyAsString());
+        assertEquals(1, remotePorts.size());
+        Thread.sleep(300);
+        assertEquals("hello", get(client, "/hello").get(5, TimeUnit.SECONDS).bodyAsString());
+        assertEquals(2, remotePorts.size());
+    }
+
+    @Test
+    public void maxConnectionsPerHost() throws Exception {
+        HttpClient client = client(new HttpClient.Options().setMaxConnectionsPerHost(2));
+        List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            futures.add(get(client, "/slow/" + i));
+        }
+        for (int i = 0; i < 10; ++i) {
+            assertEquals("" + i, futures.get(i).get(5, TimeUnit.SECONDS).bodyAsString());
+        }
+        assertEquals(2, remotePorts.size());
+    }
+
+    @Test
+    public void pipelining() throws Exception {
+        HttpClient client = client(new HttpClient.Options().setMaxConnectionsPerHost(1).setMaxPipelinedRequests(4));
+        // make sure the connection is established
+        assertEquals("hello", get(client, "/hello").get(5, TimeUnit.SECONDS).bodyAsString());
+
+        // the handlers respond synchronously, the server answers pipelined requests in order
+        List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; ++i) {
+            futures.add(get(client, "/hello"));
+        }
+        for (int i = 0; i < 16; ++i) {
+            assertEquals("hello", futures.get(i).get(5, TimeUnit.SECONDS).bodyAsString());
+        }
+        assertEquals(1, remotePorts.size());
+
+        // the handlers respond asynchronously, the later requests finish first
+        futures.clear();
+        for (int i = 0; i < 4; ++i) {
+            futures.add(get(client, "/slow/" + i + "?delay=" + (200 - i * 50)));
+        }
+        for (int i = 0; i < 4; ++i) {
+            assertEquals("" + i, futures.get(i).get(5, TimeUnit.SECONDS).bodyAsString());
+        }
+        assertEquals(1, remotePorts.size());
+    }
+
+    @Test
+    public void noPipeliningForPost() throws Exception {
+        HttpClient client = client(new HttpClient.Options().setMaxConnectionsPerHost(1).setMaxPipelinedRequests(4));
+        List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            CompletableFuture<HttpResponse> f = new CompletableFuture<>();
+            client.pst("/slow/" + i).send((err, resp) -> {
+                if (err != null) {
+                    f.completeExceptionally(err);
+                } else {
+                    f.complete(resp);
+                }
+            });
+            futures.add(f);
+        }
+        for (int i = 0; i < 4; ++i) {
+            assertEquals("" + i, futures.get(i).get(5, TimeUnit.SECONDS).bodyAsString());
+        }
+        // the server never sees the next post before the previous one is answered
+        assertEquals(1, maxHandling.get());
+    }
+
+    @Test
+    public void closeClient() throws Exception {
+        HttpClient client = client(new HttpClient.Options());
+        assertEquals("hello", get(client, "/hello").get(5, TimeUnit.SECONDS).bodyAsString());
+        CompletableFuture<HttpResponse> f = get(client, "/slow/1");
+        client.close();
+        try {
+            f.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (java.util.concurrent.ExecutionException e) {
+            assertTrue(e.getCause() instanceof java.io.IOException);
+        }
+    }
+}
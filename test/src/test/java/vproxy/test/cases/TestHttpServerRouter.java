@@ -0,0 +1,270 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vclient.HttpClient;
+import vclient.HttpResponse;
+import vproxybase.util.Tree;
+import vproxybase.util.Tuple;
+import vserver.*;
+import vserver.route.WildcardRoute;
+import vserver.server.Router;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestHttpServerRouter {
+    private static final String[] VARIABLES = {"a", "b", "c"};
+
+    private static RoutingContext newCtx() {
+        Router router = new Router(notFound);
+        router.compile();
+        Router.Chain chain = router.match("/");
+        RoutingContext ctx = new RoutingContext(null, null, HttpMethod.GET, "/", Collections.emptyMap(), Collections.emptyMap(), null, null, chain);
+        chain.setContext(ctx);
+        return ctx;
+    }
+
+    // run all handlers in the chain, and return the handler ids with the params when each handler is called
+    private static List<String> run(Router router, String path) {
+        Router.Chain chain = router.match(path);
+        List<String> res = new ArrayList<>();
+        RoutingContext ctx = new RoutingContext(null, null, HttpMethod.GET, path, Collections.emptyMap(), Collections.emptyMap(), null, null, chain);
+        chain.setContext(ctx);
+        for (int i = 0; i < chain.size(); ++i) {
+            RoutingHandler h = chain.handler(i);
+            RecordHandler r = h instanceof RecordHandler ? (RecordHandler) h : null;
+            if (r != null) {
+                r.output = res;
+            }
+            chain.next();
+            if (r == null) {
+                res.add("404");
+            }
+        }
+        return res;
+    }
+
+    private static class RecordHandler implements RoutingHandler {
+        final String id;
+        List<String> output;
+
+        RecordHandler(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public void accept(RoutingContext rctx) {
+            StringBuilder sb = new StringBuilder(id);
+            for (String v : VARIABLES) {
+                sb.append(" ").append(v).append("=").append(rctx.param(v));
+            }
+            output.add(sb.toString());
+        }
+    }
+
+    private static final RoutingHandler notFound = rctx -> {
+    };
+
+    @Test
+    public void order() {
+        Router router = new Router(notFound);
+        router.add(Route.create("/api/*"), new RecordHandler("pre"));
+        router.add(Route.create("/api/v1/:a/:b"), new RecordHandler("var"));
+        router.add(Route.create("/api/v1/x/y"), new RecordHandler("fixed"));
+        router.add(Route.create("/api/v1/:a"), new RecordHandler("short"));
+        router.add(Route.create("/"), new RecordHandler("root"));
+        router.add(Route.create("/*"), notFound);
+        router.compile();
+
+        assertEquals(Arrays.asList(
+            "pre a=null b=null c=null",
+            "var a=x b=y c=null",
+            "fixed a=x b=y c=null",
+            "404"),
+            run(router, "/api/v1/x/y"));
+        assertEquals(Arrays.asList(
+            "pre a=null b=null c=null",
+            "short a=x b=null c=null",
+            "404"),
+            run(router, "/api/v1/x?a=1&b=2"));
+        assertEquals(Arrays.asList("root a=null b=null c=null", "404"), run(router, "/"));
+        assertEquals(Arrays.asList("root a=null b=null c=null", "404"), run(router, "//?x"));
+        assertEquals(Collections.singletonList("404"), run(router, "/x"));
+        // empty segments are ignored and segments are trimmed
+        assertEquals(Arrays.asList(
+            "pre a=null b=null c=null",
+            "short a=x b=null c=null",
+            "404"),
+            run(router, "//api/ v1 //x/"));
+
+        try {
+            router.add(Route.create("/late"), notFound);
+            fail();
+        } catch (IllegalStateException ignore) {
+        }
+    }
+
+    @Test
+    public void manyFixedRoutes() {
+        Router router = new Router(notFound);
+        for (int i = 0; i < 1000; ++i) {
+            router.add(Route.create("/r" + i + "/:a"), new RecordHandler("r" + i));
+        }
+        router.compile();
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(Collections.singletonList("r" + i + " a=" + i + " b=null c=null"), run(router, "/r" + i + "/" + i));
+        }
+        assertEquals(Collections.emptyList(), run(router, "/r1000/1"));
+        assertEquals(Collections.emptyList(), run(router, "/r1"));
+    }
+
+    @Test
+    public void randomAgainstReference() {
+        String[] segs = {"x", "y", "z", ":a", ":b", ":c", "*"};
+        String[] pathSegs = {"x", "y", "z", "w"};
+        Random rand = new Random(42);
+        for (int round = 0; round < 200; ++round) {
+            Router router = new Router(notFound);
+            Tree<Route, RoutingHandler> tree = new Tree<>();
+            int routeCount = 1 + rand.nextInt(30);
+            for (int i = 0; i < routeCount; ++i) {
+                StringBuilder sb = new StringBuilder();
+                int len = rand.nextInt(5);
+                for (int j = 0; j < len; ++j) {
+                    sb.append("/").append(segs[rand.nextInt(segs.length)]);
+                }
+                String path = sb.length() == 0 ? "/" : sb.toString();
+                RecordHandler h = new RecordHandler(i + ":" + path);
+                router.add(Route.create(path), h);
+                refRecord(tree, Route.create(path), h);
+            }
+            router.add(Route.create("/*"), notFound);
+            refRecord(tree, Route.create("/*"), notFound);
+            router.compile();
+
+            for (int p = 0; p < 50; ++p) {
+                StringBuilder sb = new StringBuilder();
+                int len = rand.nextInt(6);
+                List<String> paths = new ArrayList<>();
+                for (int j = 0; j < len; ++j) {
+                    String s = pathSegs[rand.nextInt(pathSegs.length)];
+                    paths.add(s);
+                    sb.append("/").append(s);
+                }
+                String path = sb.length() == 0 ? "/" : sb.toString();
+                List<String> expected = refRun(tree, paths);
+                assertEquals("path " + path, expected, run(router, path));
+            }
+        }
+    }
+
+    // the tree walking algorithm which the router replaces
+
+    private static void refRecord(Tree<Route, RoutingHandler> tree, Route route, RoutingHandler handler) {
+        if (route == null) {
+            tree.leaf(handler);
+            return;
+        }
+        var last = tree.lastBranch();
+        if (last != null && last.data.currentSame(route)) {
+            refRecord(last, route.next(), handler);
+            return;
+        }
+        refRecord(tree.branch(route), route.next(), handler);
+    }
+
+    private static List<String> refRun(Tree<Route, RoutingHandler> tree, List<String> paths) {
+        var ls = new ArrayList<Tuple<List<Tuple<Route, String>>, RoutingHandler>>();
+        if (paths.isEmpty()) {
+            for (var h : tree.leafData()) {
+                ls.add(new Tuple<>(Collections.emptyList(), h));
+            }
+            ls.add(new Tuple<>(Collections.emptyList(), notFound));
+        } else {
+            refBuild(ls, Collections.emptyList(), tree, paths, 0);
+        }
+        RoutingContext ctx = newCtx();
+        List<String> res = new ArrayList<>();
+        for (var tup : ls) {
+            for (var pre : tup.left) {
+                pre.left.fill(ctx, pre.right);
+            }
+            if (tup.right instanceof RecordHandler) {
+                ((RecordHandler) tup.right).output = res;
+                tup.right.accept(ctx);
+            } else {
+                res.add("404");
+            }
+        }
+        return res;
+    }
+
+    private static void refBuild(List<Tuple<List<Tuple<Route, String>>, RoutingHandler>> ret,
+                                 List<Tuple<Route, String>> pre,
+                                 Tree<Route, RoutingHandler> tree,
+                                 List<String> paths,
+                                 int pathIdx) {
+        if (pathIdx >= paths.size()) {
+            return;
+        }
+        String path = paths.get(pathIdx);
+        boolean isLast = pathIdx + 1 == paths.size();
+        for (var br : tree.branches()) {
+            if (br.data.match(path)) {
+                var newPre = new ArrayList<>(pre);
+                newPre.add(new Tuple<>(br.data, path));
+                if (isLast || br.data instanceof WildcardRoute) {
+                    for (var h : br.leafData()) {
+                        ret.add(new Tuple<>(newPre, h));
+                    }
+                }
+                refBuild(ret, newPre, br, paths, pathIdx + 1);
+            }
+        }
+    }
+
+    @Test
+    public void server() throws Exception {
+        int port = 19181;
+        HttpServer server = HttpServer.create();
+        server.all("/api/*", rctx -> {
+            rctx.response().header("x-pre", "1");
+            rctx.next();
+        });
+        server.get("/api/hello/:name", rctx -> rctx.response().end(
+            "hello " + rctx.param("name") + " " + rctx.query("x") + " " + rctx.query("y") + " " + rctx.query("z")));
+        server.listen(port, "127.0.0.1");
+        HttpClient client = HttpClient.to("127.0.0.1", port);
+        try {
+            CompletableFuture<HttpResponse> f = new CompletableFuture<>();
+            client.get("/api/hello/w%6Frld?x=1&y&&z=a=b").send((err, resp) -> {
+                if (err != null) {
+                    f.completeExceptionally(err);
+                } else {
+                    f.complete(resp);
+                }
+            });
+            HttpResponse resp = f.get(5, TimeUnit.SECONDS);
+            assertEquals(200, resp.status());
+            assertEquals("1", resp.header("x-pre"));
+            assertEquals("hello world 1  a=b", resp.bodyAsString());
+
+            CompletableFuture<HttpResponse> f2 = new CompletableFuture<>();
+            client.get("/api/hello").send((err, resp2) -> {
+                if (err != null) {
+                    f2.completeExceptionally(err);
+                } else {
+                    f2.complete(resp2);
+                }
+            });
+            resp = f2.get(5, TimeUnit.SECONDS);
+            assertEquals(404, resp.status());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxybase.selector.wrap.kcp.Kcp;
+import vproxybase.selector.wrap.kcp.mock.ByteBuf;
+import vproxybase.selector.wrap.kcp.mock.ByteBufAllocator;
+import vproxybase.selector.wrap.kcp.mock.Recycler;
+import vproxybase.util.nio.ByteArrayChannel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestKcpRecycler {
+    static class Obj {
+        final Recycler.Handle<Obj> handle;
+
+        Obj(Recycler.Handle<Obj> handle) {
+            this.handle = handle;
+        }
+    }
+
+    @Test
+    public void recycler() throws Exception {
+        Recycler<Obj> recycler = new Recycler<>() {
+            @Override
+            protected Obj newObject(Handle<Obj> handle) {
+                return new Obj(handle);
+            }
+        };
+        Obj a = recycler.get();
+        Obj b = recycler.get();
+        assertNotSame(a, b);
+        a.handle.recycle(a);
+        assertEquals(1, recycler.pooled());
+        assertSame(a, recycler.get());
+        assertEquals(0, recycler.pooled());
+
+        b.handle.recycle(b);
+        try {
+            b.handle.recycle(b);
+            fail();
+        } catch (IllegalStateException ignore) {
+        }
+        assertEquals(1, recycler.pooled());
+
+        // objects recycled on other threads are dropped
+        Obj c = recycler.get();
+        Thread t = new Thread(() -> c.handle.recycle(c));
+        t.start();
+        t.join();
+        assertEquals(0, recycler.pooled());
+    }
+
+    @Test
+    public void allocator() {
+        ByteBufAllocator allocator = new ByteBufAllocator();
+        byte[] arr = allocator.allocateArray(1250);
+        assertEquals(2048, arr.length);
+        allocator.releaseArray(arr);
+        assertEquals(1, allocator.pooledArrays());
+        assertSame(arr, allocator.allocateArray(1100));
+        assertEquals(0, allocator.pooledArrays());
+
+        allocator.releaseArray(new byte[1250]); // not from the pool
+        allocator.releaseArray(new byte[65536]); // too large
+        assertEquals(0, allocator.pooledArrays());
+    }
+
+    @Test
+    public void byteBuf() {
+        ByteBufAllocator allocator = new ByteBufAllocator();
+        ByteBuf buf = allocator.ioBuffer(20);
+        assertEquals(20, buf.maxCapacity());
+        buf.writeIntLE(0x01020304);
+        buf.writeByte(0xff);
+        buf.writeShortLE(0xfedc);
+        assertEquals(7, buf.readableBytes());
+        assertEquals(13, buf.maxWritableBytes());
+        assertArrayEquals(new byte[]{4, 3, 2, 1, (byte) 0xff, (byte) 0xdc, (byte) 0xfe}, buf.readableArray().toJavaArray());
+
+        assertEquals(0x01020304, buf.readIntLE());
+        assertEquals(0xff, buf.readUnsignedByte());
+        assertEquals(0xfedc, buf.readUnsignedShortLE());
+        try {
+            buf.readByte();
+            fail();
+        } catch (IndexOutOfBoundsException ignore) {
+        }
+
+        ByteBuf src = ByteBuf.wrap(new byte[]{1, 2, 3, 4, 5}, 1, 4);
+        buf.writeBytes(src, 3);
+        assertEquals(1, src.readableBytes());
+        // slices of a pooled buffer are copied
+        ByteBuf slice = buf.readRetainedSlice(2);
+        assertArrayEquals(new byte[]{2, 3}, slice.readableArray().toJavaArray());
+        buf.release();
+        slice.release();
+        assertEquals(2, allocator.pooledArrays());
+
+        // the emitted channel keeps the pooled array until it's given back
+        ByteBuf out = allocator.ioBuffer(10);
+        out.writeIntLE(7);
+        ByteArrayChannel chnl = out.detachToChannel();
+        assertEquals(4, chnl.used());
+        assertEquals(1, allocator.pooledArrays());
+        allocator.releaseArray(chnl.getBytes());
+        assertEquals(2, allocator.pooledArrays());
+    }
+
+    @Test
+    public void kcpPair() {
+        ArrayDeque<ByteArrayChannel> toB = new ArrayDeque<>();
+        ArrayDeque<ByteArrayChannel> toA = new ArrayDeque<>();
+        Kcp a = new Kcp(1, (data, kcp) -> toB.add(data.detachToChannel()));
+        Kcp b = new Kcp(1, (data, kcp) -> toA.add(data.detachToChannel()));
+        for (Kcp k : Arrays.asList(a, b)) {
+            k.setStream(true);
+            k.nodelay(true, 10, 2, true);
+            k.wndsize(128, 128);
+        }
+
+        byte[] data = new byte[200_000];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        List<Byte> received = new ArrayList<>();
+        int sent = 0;
+        long now = 0;
+        int pooledAfterWarmUp = -1;
+        while (received.size() < data.length) {
+            if (sent < data.length && a.waitSnd() < 64) {
+                int len = Math.min(3000, data.length - sent);
+                ByteBuf buf = ByteBuf.wrap(data, sent, len);
+                assertEquals(0, a.send(buf));
+                buf.release();
+                sent += len;
+            }
+            now += 10;
+            a.update(now);
+            b.update(now);
+            deliver(toB, b);
+            deliver(toA, a);
+            while (b.canRecv()) {
+                ByteBuf out = ByteBuf.wrapForWriting(new byte[b.peekAllSize()]);
+                while (b.canRecv() && b.peekSize() <= out.maxWritableBytes()) {
+                    assertTrue(b.recv(out) >= 0);
+                }
+                for (byte x : out.readableArray().toJavaArray()) {
+                    received.add(x);
+                }
+                out.release();
+            }
+            if (pooledAfterWarmUp == -1 && received.size() > data.length / 2) {
+                pooledAfterWarmUp = ByteBufAllocator.DEFAULT.pooledArrays();
+            }
+            assertTrue("the transfer should finish", now < 1_000_000);
+        }
+        for (int i = 0; i < data.length; ++i) {
+            assertEquals(data[i], (byte) received.get(i));
+        }
+        assertTrue("arrays are reused", pooledAfterWarmUp > 0);
+    }
+
+    private static void deliver(ArrayDeque<ByteArrayChannel> q, Kcp kcp) {
+        ByteArrayChannel chnl;
+        while ((chnl = q.poll()) != null) {
+            ByteBuf buf = ByteBuf.wrap(chnl);
+            assertEquals(0, kcp.input(buf));
+            buf.release();
+            ByteBufAllocator.DEFAULT.releaseArray(chnl.getBytes());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.util.metrics.Counter;
+import vproxybase.util.metrics.Histogram;
+import vproxybase.util.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class TestMetrics {
+    @Test
+    public void histogramQuantiles() {
+        Histogram h = Metrics.histogram("test_metrics_quantiles_seconds", "test", 1e-6);
+        for (int i = 1; i <= 10000; ++i) {
+            h.record(i);
+        }
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals(10000, s.count());
+        assertEquals(10000L * 10001 / 2, s.sum());
+        assertEquals(10000, s.max());
+        for (double q : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long expected = (long) (q * 10000);
+            long v = s.valueAtQuantile(q);
+            assertTrue("q=" + q + " v=" + v, v >= expected && v <= expected + expected / 16 + 1);
+        }
+        assertEquals(10000, s.valueAtQuantile(1));
+    }
+
+    @Test
+    public void histogramSmallAndLargeValues() {
+        Histogram h = Metrics.histogram("test_metrics_small_large", "test", 1);
+        for (int i = 0; i < 16; ++i) {
+            h.record(i);
+        }
+        Histogram.Snapshot s = h.snapshot();
+        for (int i = 0; i < 16; ++i) {
+            // small values are exact
+            assertEquals(i, s.valueAtQuantile((i + 1) / 16.0));
+        }
+
+        h.record(-1);
+        h.record(Long.MAX_VALUE);
+        s = h.snapshot();
+        assertEquals(18, s.count());
+        assertEquals(0, s.valueAtQuantile(0));
+        assertEquals(Histogram.MAX_VALUE, s.max());
+        assertEquals(Histogram.MAX_VALUE, s.valueAtQuantile(1));
+    }
+
+    @Test
+    public void mergeLoops() throws Exception {
+        Histogram h = Metrics.histogram("test_metrics_merge_seconds", "test", 1e-6);
+        Counter c = Metrics.counter("test_metrics_merge_total", "test");
+        List<SelectorEventLoop> loops = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            SelectorEventLoop loop = SelectorEventLoop.open();
+            loop.loop(Thread::new);
+            loops.add(loop);
+        }
+        CountDownLatch latch = new CountDownLatch(loops.size());
+        for (int i = 0; i < loops.size(); ++i) {
+            int n = i + 1;
+            loops.get(i).runOnLoop(() -> {
+                for (int j = 0; j < 1000; ++j) {
+                    h.record(n * 100);
+                    c.inc();
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        // not running on a loop
+        h.record(1000);
+        c.add(5);
+
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals(3001, s.count());
+        assertEquals(1000 * (100 + 200 + 300) + 1000, s.sum());
+        assertEquals(1000, s.max());
+        assertEquals(3005, c.get());
+
+        for (SelectorEventLoop loop : loops) {
+            loop.close();
+        }
+    }
+
+    private static void runOnNewLoop(Runnable r) throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        loop.loop(Thread::new);
+        CountDownLatch latch = new CountDownLatch(1);
+        loop.runOnLoop(() -> {
+            r.run();
+            latch.countDown();
+        });
+        latch.await();
+        loop.close();
+    }
+
+    @Test
+    public void closedLoopsAreFolded() throws Exception {
+        Histogram h = Metrics.histogram("test_metrics_fold_seconds", "test", 1e-6);
+        Counter c = Metrics.counter("test_metrics_fold_total", "test");
+        for (int i = 1; i <= 5; ++i) {
+            int n = i;
+            // the slots of the closed loops are reused by the next ones
+            runOnNewLoop(() -> {
+                h.record(n * 10);
+                c.add(n);
+            });
+        }
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals(5, s.count());
+        assertEquals(150, s.sum());
+        assertEquals(50, s.max());
+        assertEquals(15, c.get());
+
+        // closing a loop which never runs releases the slot as well
+        SelectorEventLoop.open().close();
+    }
+
+    @Test
+    public void unregister() {
+        Counter a = Metrics.counter("test_metrics_unregister_total", "test", "k", "a");
+        a.add(2);
+        assertTrue(Metrics.scrape().contains("test_metrics_unregister_total{k=\"a\"} 2\n"));
+        Metrics.unregister(a);
+        assertFalse(Metrics.scrape().contains("test_metrics_unregister_total{k=\"a\"}"));
+        Counter b = Metrics.counter("test_metrics_unregister_total", "test", "k", "a");
+        assertNotSame(a, b);
+        assertEquals(0, b.get());
+    }
+
+    @Test
+    public void registry() {
+        Counter a = Metrics.counter("test_metrics_registry_total", "test", "k", "a");
+        Counter b = Metrics.counter("test_metrics_registry_total", "test", "k", "b");
+        assertNotSame(a, b);
+        assertSame(a, Metrics.counter("test_metrics_registry_total", "test", "k", "a"));
+        try {
+            Metrics.histogram("test_metrics_registry_total", "test", 1, "k", "c");
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+        try {
+            Metrics.counter("test_metrics_registry_total", "test", "k", null);
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void scrape() {
+        Counter a = Metrics.counter("test_metrics_scrape_total", "scrape test", "k", "a\"b");
+        Counter b = Metrics.counter("test_metrics_scrape_total", "scrape test", "k", "c");
+        a.add(3);
+        b.inc();
+        Histogram h = Metrics.histogram("test_metrics_scrape_seconds", "scrape test", 1e-3);
+        h.record(2000);
+
+        String text = Metrics.scrape();
+        assertTrue(text, text.contains("" +
+            "# HELP test_metrics_scrape_seconds scrape test\n" +
+            "# TYPE test_metrics_scrape_seconds summary\n" +
+            "test_metrics_scrape_seconds{quantile=\"0.5\"} 2.0\n" +
+            "test_metrics_scrape_seconds{quantile=\"0.9\"} 2.0\n" +
+            "test_metrics_scrape_seconds{quantile=\"0.99\"} 2.0\n" +
+            "test_metrics_scrape_seconds{quantile=\"0.999\"} 2.0\n" +
+            "test_metrics_scrape_seconds_sum 2.0\n" +
+            "test_metrics_scrape_seconds_count 1\n" +
+            "# HELP test_metrics_scrape_total scrape test\n" +
+            "# TYPE test_metrics_scrape_total counter\n" +
+            "test_metrics_scrape_total{k=\"a\\\"b\"} 3\n" +
+            "test_metrics_scrape_total{k=\"c\"} 1\n"));
+        // metrics of the event loops are registered
+        assertTrue(text.contains("# TYPE vproxy_event_loop_timer_lag_seconds summary\n"));
+    }
+}
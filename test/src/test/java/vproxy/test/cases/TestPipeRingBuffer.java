@@ -0,0 +1,175 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.FDProvider;
+import vfd.IPPort;
+import vfd.ServerSocketFD;
+import vfd.SocketFD;
+import vfd.posix.SplicePipe;
+import vproxybase.util.RingBufferETHandler;
+import vproxybase.util.ringbuffer.PipeRingBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+// requires -Dvfd=posix on linux, skipped otherwise
+public class TestPipeRingBuffer {
+    private static final int port = 30080;
+
+    private ServerSocketFD server;
+    private Socket clientA;
+    private Socket clientB;
+    private SocketFD fdA;
+    private SocketFD fdB;
+    private PipeRingBuffer buf;
+    private int readableET = 0;
+    private int writableET = 0;
+
+    private SocketFD accept(Socket[] client) throws IOException {
+        client[0] = new Socket("127.0.0.1", port);
+        SocketFD fd = server.accept();
+        assertNotNull(fd);
+        fd.configureBlocking(false);
+        return fd;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = FDProvider.get().getProvided().openServerSocketFD();
+        server.bind(new IPPort("127.0.0.1", port));
+        Socket[] c = new Socket[1];
+        fdA = accept(c);
+        clientA = c[0];
+        fdB = accept(c);
+        clientB = c[0];
+        Assume.assumeTrue("splice is not supported", SplicePipe.supported(fdA));
+
+        buf = PipeRingBuffer.open(fdA, 16384);
+        buf.addHandler(new RingBufferETHandler() {
+            @Override
+            public void readableET() {
+                ++readableET;
+            }
+
+            @Override
+            public void writableET() {
+                ++writableET;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server == null) {
+            return;
+        }
+        server.close();
+        if (buf != null) {
+            buf.clean();
+        }
+        for (Socket s : new Socket[]{clientA, clientB}) {
+            if (s != null) s.close();
+        }
+        if (fdA != null) fdA.close();
+        if (fdB != null) fdB.close();
+    }
+
+    private static byte[] readFully(InputStream is, int len) throws IOException {
+        byte[] b = new byte[len];
+        int off = 0;
+        while (off < len) {
+            int n = is.read(b, off, len - off);
+            if (n < 0) break;
+            off += n;
+        }
+        return b;
+    }
+
+    @Test
+    public void simple() throws Exception {
+        byte[] data = new byte[10000];
+        new Random(1).nextBytes(data);
+        clientA.getOutputStream().write(data);
+
+        int total = 0;
+        while (total < data.length) {
+            int n = buf.storeBytesFrom(fdA);
+            assertTrue(n >= 0);
+            total += n;
+        }
+        assertEquals(data.length, buf.used());
+        assertEquals(16384 - data.length, buf.free());
+        assertEquals(1, readableET);
+        // the fd is drained but the pipe is not full
+        assertEquals(0, buf.storeBytesFrom(fdA));
+        assertEquals(16384 - data.length, buf.free());
+
+        assertEquals(data.length, buf.writeTo(fdB));
+        assertEquals(0, buf.used());
+        assertEquals(0, writableET);
+        assertArrayEquals(data, readFully(clientB.getInputStream(), data.length));
+
+        clientA.shutdownOutput();
+        int n;
+        do {
+            n = buf.storeBytesFrom(fdA);
+        } while (n == 0);
+        assertEquals(-1, n);
+    }
+
+    @Test
+    public void backpressure() throws Exception {
+        byte[] data = new byte[8 * 1024 * 1024];
+        new Random(2).nextBytes(data);
+        Thread writer = new Thread(() -> {
+            try {
+                clientA.getOutputStream().write(data);
+            } catch (IOException ignore) {
+            }
+        });
+        writer.start();
+
+        // clientB does not read, the pipe will be full
+        long transferred = 0;
+        long start = System.currentTimeMillis();
+        while (buf.free() != 0) {
+            buf.storeBytesFrom(fdA);
+            transferred += buf.writeTo(fdB);
+            assertTrue("the buffer should become full", System.currentTimeMillis() - start < 10_000);
+        }
+        assertEquals("nothing can be stored when the buffer is full", 0, buf.storeBytesFrom(fdA));
+        int writableBefore = writableET;
+
+        byte[] recv = new byte[data.length];
+        Thread reader = new Thread(() -> {
+            try {
+                byte[] b = readFully(clientB.getInputStream(), data.length);
+                System.arraycopy(b, 0, recv, 0, b.length);
+            } catch (IOException ignore) {
+            }
+        });
+        reader.start();
+
+        start = System.currentTimeMillis();
+        while (transferred < data.length) {
+            int n = buf.writeTo(fdB);
+            transferred += n;
+            if (buf.free() != 0) {
+                buf.storeBytesFrom(fdA);
+            }
+            assertTrue("transferring timeout", System.currentTimeMillis() - start < 10_000);
+        }
+        assertTrue("writable should be triggered when the full buffer is written out", writableET > writableBefore);
+        reader.join();
+        writer.join();
+        assertTrue(Arrays.equals(data, recv));
+    }
+}
@@ -5,11 +5,14 @@ import vfd.IP;
 import vproxybase.util.Network;
 import vswitch.RouteTable;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class TestRouteTable {
     private Network getNetwork(String s) {
@@ -44,4 +47,111 @@ public class TestRouteTable {
         var actual = table.getRules().stream().map(x -> x.rule.toString()).collect(Collectors.toList());
         assertEquals(expect, actual);
     }
+
+    // the linear implementation which RouteTable should behave the same as
+    private static void referenceAdd(List<RouteTable.RouteRule> rules, RouteTable.RouteRule r) {
+        int similarRule = -1;
+        for (int i = 0; i < rules.size(); ++i) {
+            RouteTable.RouteRule ri = rules.get(i);
+            if (ri.rule.contains(r.rule) || r.rule.contains(ri.rule)) {
+                similarRule = i;
+                break;
+            }
+        }
+        if (similarRule == -1) {
+            rules.add(r);
+            return;
+        }
+        int insertIndex = 0;
+        for (int i = similarRule; i < rules.size(); ++i) {
+            RouteTable.RouteRule curr = rules.get(i);
+            RouteTable.RouteRule next = (i + 1) < rules.size() ? rules.get(i + 1) : null;
+            if (curr.rule.contains(r.rule)) {
+                insertIndex = i;
+                break;
+            }
+            if (r.rule.contains(curr.rule)) {
+                if (next == null) {
+                    insertIndex = i + 1;
+                    break;
+                }
+                if (r.rule.contains(next.rule)) {
+                    continue;
+                }
+                if (next.rule.contains(r.rule)) {
+                    insertIndex = i + 1;
+                    break;
+                }
+            }
+            insertIndex = i + 1;
+            break;
+        }
+        rules.add(insertIndex, r);
+    }
+
+    private static RouteTable.RouteRule referenceLookup(List<RouteTable.RouteRule> rules, IP ip) {
+        for (RouteTable.RouteRule r : rules) {
+            if (r.rule.contains(ip)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] randomBytes(Random rand, int len) {
+        byte[] b = new byte[len];
+        rand.nextBytes(b);
+        b[0] = 10; // make the networks overlap more
+        return b;
+    }
+
+    private static Network randomNetwork(Random rand, int len) {
+        byte[] ip = randomBytes(rand, len);
+        int maskInt = 8 + rand.nextInt(len * 8 - 8 + 1);
+        byte[] mask = Network.parseMask(maskInt);
+        Network.eraseToNetwork(ip, mask);
+        return new Network(ip, mask);
+    }
+
+    @Test
+    public void sameAsLinearLookup() throws Exception {
+        Random rand = new Random(1);
+        for (int family : new int[]{4, 16}) {
+            RouteTable table = new RouteTable();
+            List<RouteTable.RouteRule> reference = new ArrayList<>();
+            for (int n = 0; n < 2000; ++n) {
+                if (!reference.isEmpty() && rand.nextInt(4) == 0) {
+                    var toRemove = reference.remove(rand.nextInt(reference.size()));
+                    table.delRule(toRemove.alias);
+                } else {
+                    Network net = randomNetwork(rand, family);
+                    if (reference.stream().anyMatch(r -> r.rule.equals(net))) {
+                        continue;
+                    }
+                    var rule = new RouteTable.RouteRule("r" + n, net, n);
+                    table.addRule(rule);
+                    referenceAdd(reference, rule);
+                }
+                if (n % 100 == 0) {
+                    assertEquals(reference, table.getRules());
+                }
+                for (int i = 0; i < 20; ++i) {
+                    byte[] bytes = randomBytes(rand, family);
+                    if (!reference.isEmpty() && i % 2 == 0) {
+                        // generate an ip inside one of the rules
+                        Network net = reference.get(rand.nextInt(reference.size())).rule;
+                        byte[] netBytes = net.getRawIpBytes();
+                        int mask = net.getMask();
+                        for (int b = 0; b < mask; ++b) {
+                            int bit = (netBytes[b / 8] >> (7 - b % 8)) & 1;
+                            bytes[b / 8] = (byte) ((bytes[b / 8] & ~(1 << (7 - b % 8))) | (bit << (7 - b % 8)));
+                        }
+                    }
+                    IP ip = IP.from(bytes);
+                    assertSame(referenceLookup(reference, ip), table.lookup(ip));
+                }
+            }
+            assertEquals(reference, table.getRules());
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package vproxy.test.cases;
+
+import org.junit.Before;
+import org.junit.Test;
+import vproxybase.util.ringbuffer.ssl.SSLContextHolder;
+
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayInputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class TestSSLContextHolder {
+    // CN=a.vproxy.test, SAN: *.a.vproxy.test, a.vproxy.test
+    private static final String CERT_A = "" +
+        "-----BEGIN CERTIFICATE-----\n" +
+        "MIIBsTCCAVigAwIBAgIUX7Z1LdLUHrH4T2yLv4cRFfEVKdswCgYIKoZIzj0EAwIw\n" +
+        "GDEWMBQGA1UEAwwNYS52cHJveHkudGVzdDAgFw0yNjEwMTgxMzQ0MDJaGA8yMTI2\n" +
+        "MDkyNDEzNDQwMlowGDEWMBQGA1UEAwwNYS52cHJveHkudGVzdDBZMBMGByqGSM49\n" +
+        "AgEGCCqGSM49AwEHA0IABKI98U9o4b/qiBwLt6GLSTpOqs8zfm7IOHNvHe0EIaQ0\n" +
+        "9kEJHsGNH29RtEDuvi4xd7po39sS7KzWFVmknmk14hyjfjB8MB0GA1UdDgQWBBSS\n" +
+        "hqmoDC1sSuamSK92Al+hT1qw3zAfBgNVHSMEGDAWgBSShqmoDC1sSuamSK92Al+h\n" +
+        "T1qw3zAPBgNVHRMBAf8EBTADAQH/MCkGA1UdEQQiMCCCDyouYS52cHJveHkudGVz\n" +
+        "dIINYS52cHJveHkudGVzdDAKBggqhkjOPQQDAgNHADBEAiBg/BT/di22nQoDCpBF\n" +
+        "FpeWyHT7FJpT6E7oHjEMO5mPWgIgCcEjC/Ugc5wBscJW3hGMRgpzG05pMr8xWvb/\n" +
+        "ciQB9DY=\n" +
+        "-----END CERTIFICATE-----\n";
+    // CN=b.vproxy.test, SAN: *.vproxy.test, x.a.vproxy.test
+    private static final String CERT_B = "" +
+        "-----BEGIN CERTIFICATE-----\n" +
+        "MIIBsTCCAVigAwIBAgIUS4BdKtn+aQ3jBra+8ILVfhrAhU0wCgYIKoZIzj0EAwIw\n" +
+        "GDEWMBQGA1UEAwwNYi52cHJveHkudGVzdDAgFw0yNjEwMTgxMzQ0MDJaGA8yMTI2\n" +
+        "MDkyNDEzNDQwMlowGDEWMBQGA1UEAwwNYi52cHJveHkudGVzdDBZMBMGByqGSM49\n" +
+        "AgEGCCqGSM49AwEHA0IABCmg+22k0YytePvQnbucUmxcNGbK9/GrircyY/f4aglp\n" +
+        "ICFP3q+Zid1YtQ3INCQY1zaCXUDmAFYi+t7Zg5nsevOjfjB8MB0GA1UdDgQWBBTf\n" +
+        "C6yfevi5557p602EDUJ2FlnmCzAfBgNVHSMEGDAWgBTfC6yfevi5557p602EDUJ2\n" +
+        "FlnmCzAPBgNVHRMBAf8EBTADAQH/MCkGA1UdEQQiMCCCDSoudnByb3h5LnRlc3SC\n" +
+        "D3guYS52cHJveHkudGVzdDAKBggqhkjOPQQDAgNHADBEAiAo/6T5Kr8A6Nks91qY\n" +
+        "zhcThxc/JuUUxZII5bdXv3OATwIgbp4cxBA0UZv8ZnGHD7D5dPWCg4VytSlJKxO4\n" +
+        "MvgWZkg=\n" +
+        "-----END CERTIFICATE-----\n";
+    // CN=MAIL.vproxy.test, SAN: IMAP.vproxy.test
+    private static final String CERT_UPPER_CASE = "" +
+        "-----BEGIN CERTIFICATE-----\n" +
+        "MIIBqjCCAVCgAwIBAgIUOkpxk3KSLNwgMyTaK0bCVVjjCg0wCgYIKoZIzj0EAwIw\n" +
+        "GzEZMBcGA1UEAwwQTUFJTC52cHJveHkudGVzdDAgFw0yNjEwMTgxNDI5MDNaGA8y\n" +
+        "MTI2MDkyNDE0MjkwM1owGzEZMBcGA1UEAwwQTUFJTC52cHJveHkudGVzdDBZMBMG\n" +
+        "ByqGSM49AgEGCCqGSM49AwEHA0IABGVkRgqNBSX5bwowDkpXZ+zY/z2H9lDSIBZs\n" +
+        "hcVnmOVTXmuRpOcTZFJ2aElwMLSL39CZT72FGo5rX8kV2i0nZsSjcDBuMB0GA1Ud\n" +
+        "DgQWBBQ0jrVR4UghICJAcCBTtACA3asFwDAfBgNVHSMEGDAWgBQ0jrVR4UghICJA\n" +
+        "cCBTtACA3asFwDAPBgNVHRMBAf8EBTADAQH/MBsGA1UdEQQUMBKCEElNQVAudnBy\n" +
+        "b3h5LnRlc3QwCgYIKoZIzj0EAwIDSAAwRQIgVrGg7aIkFGXbMqmSab0imcZxNSEg\n" +
+        "+DbWIISNtl3wyOECIQCsKqwD9HXUoYXaPZw1PznR9SVyENIXmaLr0QRNuN/p4A==\n" +
+        "-----END CERTIFICATE-----\n";
+
+    private static class Holder extends SSLContextHolder {
+        SSLContext find(String sni) {
+            return chooseNoDefault(sni);
+        }
+    }
+
+    private Holder holder;
+    private SSLContext ctxA;
+    private SSLContext ctxB;
+
+    private static X509Certificate cert(String pem) throws Exception {
+        CertificateFactory f = CertificateFactory.getInstance("X.509");
+        return (X509Certificate) f.generateCertificate(new ByteArrayInputStream(pem.getBytes()));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        holder = new Holder();
+        // the contexts are only used as the result of choosing, no need to init
+        ctxA = SSLContext.getInstance("TLS");
+        ctxB = SSLContext.getInstance("TLS");
+        holder.add(ctxA, new X509Certificate[]{cert(CERT_A)});
+        holder.add(ctxB, new X509Certificate[]{cert(CERT_B)});
+    }
+
+    @Test
+    public void exact() {
+        assertSame(ctxA, holder.find("a.vproxy.test"));
+        assertSame(ctxB, holder.find("b.vproxy.test"));
+        assertSame(ctxA, holder.find("A.vProxy.TEST"));
+    }
+
+    @Test
+    public void upperCaseNamesInTurkishLocale() throws Exception {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            SSLContext ctx = SSLContext.getInstance("TLS");
+            holder.add(ctx, new X509Certificate[]{cert(CERT_UPPER_CASE)});
+            assertSame(ctx, holder.find("mail.vproxy.test"));
+            assertSame(ctx, holder.find("imap.vproxy.test"));
+            assertSame(ctx, holder.find("IMAP.vproxy.test"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void wildcard() {
+        assertSame(ctxA, holder.find("y.a.vproxy.test"));
+        assertSame(ctxB, holder.find("c.vproxy.test"));
+        // wildcard matches only one label
+        assertNull(holder.find("vproxy.test"));
+        assertNull(holder.find("z.y.vproxy.test"));
+        assertNull(holder.find(".vproxy.test"));
+    }
+
+    @Test
+    public void exactBeforeWildcard() {
+        // *.a.vproxy.test in the first cert, x.a.vproxy.test in the second
+        assertSame(ctxB, holder.find("x.a.vproxy.test"));
+    }
+
+    @Test
+    public void defaultCert() {
+        assertSame(ctxA, holder.choose("unknown.example.com"));
+        assertSame(ctxA, holder.choose(null));
+        assertNull(holder.find(null));
+    }
+
+    @Test
+    public void removeAndNegativeCache() throws Exception {
+        assertNull(holder.find("unknown.example.com"));
+        assertNull(holder.find("unknown.example.com"));
+
+        holder.remove(ctxB);
+        assertNull(holder.find("c.vproxy.test"));
+        assertSame(ctxA, holder.find("x.a.vproxy.test"));
+        // only one left, always use it
+        assertSame(ctxA, holder.choose("c.vproxy.test"));
+
+        // the negative cache is dropped when certs are added
+        assertNull(holder.find("b.vproxy.test"));
+        holder.add(ctxB, new X509Certificate[]{cert(CERT_B)});
+        assertSame(ctxB, holder.find("b.vproxy.test"));
+    }
+
+    @Test
+    public void manySNIs() {
+        for (int i = 0; i < 100_000; ++i) {
+            assertNull(holder.find("host" + i + ".example.com"));
+        }
+        assertSame(ctxB, holder.find("host.vproxy.test"));
+    }
+}
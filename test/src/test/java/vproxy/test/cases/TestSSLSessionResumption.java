@@ -0,0 +1,146 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.IPPort;
+import vproxy.component.app.TcpLB;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.ssl.CertKey;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.test.tool.IdServer;
+import vproxybase.Config;
+import vproxybase.component.check.HealthCheckConfig;
+import vproxybase.component.elgroup.EventLoopGroup;
+import vproxybase.component.svrgroup.Method;
+import vproxybase.component.svrgroup.ServerGroup;
+import vproxybase.connection.NetEventLoop;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.util.ringbuffer.ssl.SSLHandshakeMetrics;
+import vproxybase.util.ringbuffer.ssl.SSLSessionCache;
+import vproxybase.util.ringbuffer.ssl.VSSLContext;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.*;
+
+public class TestSSLSessionResumption {
+    private static final int lbPort = 18092;
+    private static final int backendPort = 19092;
+
+    private SelectorEventLoop backendLoop;
+    private EventLoopGroup acceptor;
+    private EventLoopGroup worker;
+    private TcpLB lb;
+    private VSSLContext sslContext;
+
+    @Before
+    public void setUp() throws Exception {
+        backendLoop = SelectorEventLoop.open();
+        backendLoop.loop(r -> new Thread(r, "backend"));
+        new IdServer("x", new NetEventLoop(backendLoop), backendPort);
+
+        acceptor = new EventLoopGroup("acceptor");
+        acceptor.add("acceptor0");
+        worker = new EventLoopGroup("worker");
+        // sessions are shared between event loops
+        worker.add("worker0");
+        worker.add("worker1");
+        ServerGroup sg = new ServerGroup("sg", worker, new HealthCheckConfig(400, 24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.add("backend", new IPPort("127.0.0.1", backendPort), 10);
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        Upstream ups = new Upstream("ups");
+        ups.add(sg, 10);
+
+        sslContext = new VSSLContext();
+        CertKey ck = new CertKey("ck", new String[]{TestSSL.TEST_CERT}, TestSSL.TEST_KEY);
+        ck.setInto(sslContext);
+        lb = new TcpLB("test-ssl-resumption", acceptor, worker, new IPPort("127.0.0.1", lbPort), ups,
+            Config.tcpTimeout, 16384, 16384, "tcp", sslContext, new CertKey[]{ck}, new SecurityGroup("secg", true));
+        lb.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        lb.destroy();
+        acceptor.close();
+        worker.close();
+        backendLoop.close();
+    }
+
+    private static SSLContext clientContext() throws Exception {
+        SSLContext ctx = SSLSessionCache.newContext();
+        ctx.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return SSLSessionCache.configure(ctx);
+    }
+
+    private static void request(SSLContext ctx, String protocol) throws Exception {
+        try (SSLSocket sock = (SSLSocket) ctx.getSocketFactory().createSocket("127.0.0.1", lbPort)) {
+            sock.setEnabledProtocols(new String[]{protocol});
+            sock.startHandshake();
+            OutputStream os = sock.getOutputStream();
+            InputStream is = sock.getInputStream();
+            os.write('a');
+            os.flush();
+            // tls 1.3 tickets are received after the handshake, so read the response before closing
+            assertEquals('x', is.read());
+        }
+    }
+
+    private void resume(String protocol) throws Exception {
+        SSLHandshakeMetrics metrics = SSLHandshakeMetrics.of("test-ssl-resumption");
+        long full = metrics.full();
+        long resumed = metrics.resumed();
+
+        SSLContext ctx = clientContext();
+        for (int i = 0; i < 5; ++i) {
+            request(ctx, protocol);
+        }
+        assertEquals(1, metrics.full() - full);
+        assertEquals(4, metrics.resumed() - resumed);
+
+        // another client does not have the session
+        request(clientContext(), protocol);
+        assertEquals(2, metrics.full() - full);
+        assertEquals(4, metrics.resumed() - resumed);
+    }
+
+    @Test
+    public void resumeTLS12() throws Exception {
+        resume("TLSv1.2");
+    }
+
+    @Test
+    public void resumeTLS13() throws Exception {
+        resume("TLSv1.3");
+    }
+
+    @Test
+    public void cacheIsBounded() throws Exception {
+        CertKey ck = new CertKey("ck", new String[]{TestSSL.TEST_CERT}, TestSSL.TEST_KEY);
+        SSLContext ctx = ck.buildSSLContext();
+        assertEquals(Config.sslSessionCacheSize, ctx.getServerSessionContext().getSessionCacheSize());
+        assertEquals(Config.sslSessionTimeout, ctx.getServerSessionContext().getSessionTimeout());
+    }
+}
@@ -0,0 +1,85 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxybase.util.ringbuffer.ssl.SSLTaskExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestSSLTaskExecutor {
+    @Test
+    public void boundedThreadsAndCallerRuns() throws Exception {
+        SSLTaskExecutor executor = new SSLTaskExecutor("test-ssl-task", 2, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(7);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Runnable blocking = () -> {
+            int n = running.incrementAndGet();
+            maxRunning.accumulateAndGet(n, Math::max);
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+            running.decrementAndGet();
+            done.countDown();
+        };
+
+        // 2 running and 4 queued
+        for (int i = 0; i < 6; ++i) {
+            executor.execute(blocking);
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while (running.get() < 2) {
+            assertTrue("timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(2, executor.threads());
+        assertEquals(4, executor.queued());
+        assertTrue(executor.isSaturated());
+
+        // the queue is full, the task runs on the caller thread
+        Thread caller = Thread.currentThread();
+        Thread[] ranOn = new Thread[1];
+        executor.execute(() -> {
+            ranOn[0] = Thread.currentThread();
+            done.countDown();
+        });
+        assertSame(caller, ranOn[0]);
+
+        release.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+        assertEquals(0, executor.queued());
+        assertFalse(executor.isSaturated());
+    }
+
+    @Test
+    public void exceptionDoesNotKillThreads() throws Exception {
+        SSLTaskExecutor executor = new SSLTaskExecutor("test-ssl-task", 1, 4);
+        executor.execute(() -> {
+            throw new RuntimeException("expected");
+        });
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(latch::countDown);
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(1, executor.threads());
+    }
+
+    @Test
+    public void invalidArguments() {
+        try {
+            new SSLTaskExecutor("x", 0, 1);
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+        try {
+            new SSLTaskExecutor("x", 1, 0);
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxybase.util.RingBuffer;
+import vproxybase.util.nio.ByteArrayChannel;
+import vproxybase.util.ringbuffer.SimpleRingBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestScatterGather {
+    // records how many calls are made
+    static class VectorChannel implements GatheringByteChannel, ScatteringByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        int writeLimit = Integer.MAX_VALUE;
+        byte[] toRead = new byte[0];
+        int readOff = 0;
+        int readLimit = Integer.MAX_VALUE;
+        int calls = 0;
+        int vectorCalls = 0;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            ++vectorCalls;
+            long total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                total += doWrite(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            ++calls;
+            return doWrite(src);
+        }
+
+        private int doWrite(ByteBuffer src) {
+            int n = Math.min(src.remaining(), writeLimit - written.size());
+            for (int i = 0; i < n; ++i) {
+                written.write(src.get());
+            }
+            return n;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            ++vectorCalls;
+            if (readOff == toRead.length) {
+                return -1;
+            }
+            long total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                total += doRead(dsts[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts) {
+            return read(dsts, 0, dsts.length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            ++calls;
+            if (readOff == toRead.length) {
+                return -1;
+            }
+            return doRead(dst);
+        }
+
+        private int doRead(ByteBuffer dst) {
+            int n = Math.min(dst.remaining(), Math.min(toRead.length, readLimit) - readOff);
+            dst.put(toRead, readOff, n);
+            readOff += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static byte[] bytes(int from, int len) {
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            b[i] = (byte) (from + i);
+        }
+        return b;
+    }
+
+    // make a buffer with capacity 16, containing bytes [8, 22) and ePos before sPos
+    private static SimpleRingBuffer wrappedBuffer() {
+        SimpleRingBuffer buf = RingBuffer.allocateDirect(16);
+        assertEquals(12, buf.storeBytesFrom(ByteArrayChannel.fromFull(bytes(0, 12))));
+        assertEquals(8, buf.writeTo(ByteArrayChannel.fromEmpty(8)));
+        assertEquals(10, buf.storeBytesFrom(ByteArrayChannel.fromFull(bytes(12, 10))));
+        assertEquals(14, buf.used());
+        return buf;
+    }
+
+    @Test
+    public void gatheringWrite() throws Exception {
+        SimpleRingBuffer buf = wrappedBuffer();
+        VectorChannel chnl = new VectorChannel();
+        assertEquals(14, buf.writeTo(chnl));
+        assertEquals(1, chnl.vectorCalls);
+        assertEquals(0, chnl.calls);
+        assertArrayEquals(bytes(8, 14), chnl.written.toByteArray());
+        assertEquals(0, buf.used());
+        assertEquals(16, buf.free());
+
+        // the cursors are reset
+        assertEquals(16, buf.storeBytesFrom(ByteArrayChannel.fromFull(bytes(0, 16))));
+        assertArrayEquals(bytes(0, 16), buf.getBytes());
+    }
+
+    @Test
+    public void gatheringWritePartial() throws Exception {
+        SimpleRingBuffer buf = wrappedBuffer();
+        VectorChannel chnl = new VectorChannel();
+        chnl.writeLimit = 3; // only a part of the tail
+        assertEquals(3, buf.writeTo(chnl));
+        assertArrayEquals(bytes(11, 11), buf.getBytes());
+
+        chnl.writeLimit = 7; // the rest of the tail and a part of the head
+        assertEquals(4, buf.writeTo(chnl));
+        assertArrayEquals(bytes(15, 7), buf.getBytes());
+
+        // not wrapped anymore
+        chnl.writeLimit = Integer.MAX_VALUE;
+        assertEquals(7, buf.writeTo(chnl));
+        assertArrayEquals(bytes(8, 14), chnl.written.toByteArray());
+        assertEquals(0, buf.used());
+    }
+
+    @Test
+    public void gatheringWriteMaxBytes() throws Exception {
+        SimpleRingBuffer buf = wrappedBuffer();
+        VectorChannel chnl = new VectorChannel();
+        // the tail has 8 bytes, so 10 bytes require both parts
+        assertEquals(10, buf.writeTo(chnl, 10));
+        assertEquals(1, chnl.vectorCalls);
+        assertArrayEquals(bytes(8, 10), chnl.written.toByteArray());
+        assertArrayEquals(bytes(18, 4), buf.getBytes());
+
+        // within the tail, no need to gather
+        buf = wrappedBuffer();
+        chnl = new VectorChannel();
+        assertEquals(5, buf.writeTo(chnl, 5));
+        assertEquals(0, chnl.vectorCalls);
+        assertEquals(1, chnl.calls);
+    }
+
+    @Test
+    public void scatteringRead() throws Exception {
+        SimpleRingBuffer buf = RingBuffer.allocateDirect(16);
+        assertEquals(10, buf.storeBytesFrom(ByteArrayChannel.fromFull(bytes(0, 10))));
+        assertEquals(6, buf.writeTo(ByteArrayChannel.fromEmpty(6)));
+        // free space is [10, 16) and [0, 6)
+
+        VectorChannel chnl = new VectorChannel();
+        chnl.toRead = bytes(10, 20);
+        assertEquals(12, buf.storeBytesFrom(chnl));
+        assertEquals(1, chnl.vectorCalls);
+        assertEquals(0, chnl.calls);
+        assertEquals(0, buf.free());
+        assertArrayEquals(bytes(6, 16), buf.getBytes());
+
+        // EOF
+        SimpleRingBuffer buf2 = RingBuffer.allocateDirect(16);
+        buf2.storeBytesFrom(ByteArrayChannel.fromFull(bytes(0, 10)));
+        buf2.writeTo(ByteArrayChannel.fromEmpty(6));
+        assertEquals(-1, buf2.storeBytesFrom(new VectorChannel()));
+        assertEquals(4, buf2.used());
+    }
+
+    @Test
+    public void scatteringReadPartial() throws Exception {
+        SimpleRingBuffer buf = RingBuffer.allocateDirect(16);
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(bytes(0, 10)));
+        buf.writeTo(ByteArrayChannel.fromEmpty(6));
+
+        VectorChannel chnl = new VectorChannel();
+        chnl.toRead = bytes(10, 3); // only a part of the tail
+        assertEquals(3, buf.storeBytesFrom(chnl));
+        assertArrayEquals(bytes(6, 7), buf.getBytes());
+
+        chnl.toRead = bytes(13, 5); // the rest of the tail and a part of the head
+        chnl.readOff = 0;
+        assertEquals(5, buf.storeBytesFrom(chnl));
+        assertArrayEquals(bytes(6, 12), buf.getBytes());
+        assertEquals(4, buf.free());
+    }
+
+    @Test
+    public void randomStoreAndWrite() throws Exception {
+        Random rand = new Random(1);
+        SimpleRingBuffer buf = RingBuffer.allocateDirect(64);
+        VectorChannel in = new VectorChannel();
+        in.toRead = new byte[100000];
+        rand.nextBytes(in.toRead);
+        VectorChannel out = new VectorChannel();
+        out.writeLimit = 0;
+        while (out.written.size() < in.toRead.length) {
+            in.readLimit = in.readOff + rand.nextInt(80);
+            buf.storeBytesFrom(in);
+            out.writeLimit = out.written.size() + rand.nextInt(80);
+            buf.writeTo(out);
+        }
+        assertArrayEquals(in.toRead, out.written.toByteArray());
+        assertTrue(in.vectorCalls > 0);
+        assertTrue(out.vectorCalls > 0);
+    }
+}
@@ -0,0 +1,429 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.EventSet;
+import vfd.IP;
+import vfd.IPPort;
+import vfd.ServerSocketFD;
+import vfd.SocketFD;
+import vproxybase.selector.Handler;
+import vproxybase.selector.HandlerContext;
+import vproxybase.selector.SelectorEventLoop;
+import vproxybase.selector.wrap.h2streamed.H2StreamedClientFDs;
+import vproxybase.selector.wrap.h2streamed.H2StreamedServerFDs;
+import vproxybase.selector.wrap.kcp.KCPFDs;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestStreamedFDScheduler {
+    private static final int port = 19183;
+
+    private SelectorEventLoop loop;
+    private H2StreamedClientFDs clientFDs;
+    // server side streams, the first byte decides how the data is handled
+    private final List<ServerStream> serverStreams = new ArrayList<>();
+    // stop reading bulk streams on server side after the first read
+    private boolean pauseBulk = false;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "EventLoop"));
+        IPPort address = new IPPort(IP.from("127.0.0.1"), port);
+        // the port of the previous case might not be released yet on a busy machine
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                onLoop(() -> {
+                    KCPFDs kcpFDs = KCPFDs.getFast3();
+                    H2StreamedServerFDs serverFDs = new H2StreamedServerFDs(kcpFDs, loop, address);
+                    ServerSocketFD server = serverFDs.openServerSocketFD(loop);
+                    try {
+                        server.bind(address);
+                    } catch (IOException e) {
+                        server.close();
+                        throw e;
+                    }
+                    loop.add(server, EventSet.read(), null, new ServerHandler());
+                    clientFDs = new H2StreamedClientFDs(kcpFDs, loop, address);
+                    return null;
+                });
+                break;
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof BindException) || System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+        waitFor(() -> {
+            try {
+                clientFDs.openSocketFD(loop).close();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // the virtual fds are not thread safe, close them on the loop thread
+        Thread t = loop.runningThread;
+        loop.runOnLoop(() -> {
+            try {
+                loop.close();
+            } catch (IOException e) {
+                fail(e.toString());
+            }
+        });
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    private <T> T onLoop(CallableOnLoop<T> c) throws Exception {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        loop.runOnLoop(() -> {
+            try {
+                f.complete(c.call());
+            } catch (Throwable t) {
+                f.completeExceptionally(t);
+            }
+        });
+        return f.get(2, TimeUnit.SECONDS);
+    }
+
+    interface CallableOnLoop<T> {
+        T call() throws Exception;
+    }
+
+    private void waitFor(CallableOnLoop<Boolean> cond) throws Exception {
+        waitFor(cond, 5000);
+    }
+
+    private void waitFor(CallableOnLoop<Boolean> cond, int timeout) throws Exception {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!onLoop(cond)) {
+            assertTrue("timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class ServerStream {
+        final SocketFD fd;
+        byte type = 0;
+        long received = 0;
+        boolean verified = true;
+
+        ServerStream(SocketFD fd) {
+            this.fd = fd;
+        }
+    }
+
+    private static byte bulkByte(long idx) {
+        return (byte) ('B' + idx % 17);
+    }
+
+    private abstract static class SocketHandler implements Handler<SocketFD> {
+        @Override
+        public void accept(HandlerContext<SocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void connected(HandlerContext<SocketFD> ctx) {
+            writable(ctx);
+        }
+
+        @Override
+        public void readable(HandlerContext<SocketFD> ctx) {
+            // ignore
+        }
+
+        @Override
+        public void writable(HandlerContext<SocketFD> ctx) {
+            // ignore
+        }
+
+        @Override
+        public void removed(HandlerContext<SocketFD> ctx) {
+            // ignore
+        }
+    }
+
+    private class ServerHandler implements Handler<ServerSocketFD> {
+        @Override
+        public void accept(HandlerContext<ServerSocketFD> ctx) {
+            while (true) {
+                SocketFD accepted;
+                try {
+                    accepted = ctx.getChannel().accept();
+                } catch (IOException e) {
+                    fail(e.toString());
+                    return;
+                }
+                if (accepted == null) {
+                    return;
+                }
+                ServerStream s = new ServerStream(accepted);
+                serverStreams.add(s);
+                try {
+                    loop.add(accepted, EventSet.read(), s, new ServerStreamHandler());
+                } catch (IOException e) {
+                    fail(e.toString());
+                }
+            }
+        }
+
+        @Override
+        public void connected(HandlerContext<ServerSocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void readable(HandlerContext<ServerSocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void writable(HandlerContext<ServerSocketFD> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void removed(HandlerContext<ServerSocketFD> ctx) {
+            // ignore
+        }
+    }
+
+    private class ServerStreamHandler extends SocketHandler {
+        private final ByteBuffer buf = ByteBuffer.allocate(16384);
+
+        @Override
+        public void readable(HandlerContext<SocketFD> ctx) {
+            ServerStream s = (ServerStream) ctx.getAttachment();
+            while (true) {
+                buf.clear();
+                int n;
+                try {
+                    n = s.fd.read(buf);
+                } catch (IOException e) {
+                    ctx.remove();
+                    return;
+                }
+                if (n <= 0) {
+                    if (n < 0) {
+                        ctx.remove();
+                    }
+                    return;
+                }
+                buf.flip();
+                if (s.type == 0) {
+                    s.type = buf.get(0);
+                }
+                if (s.type == 'P') {
+                    // echo
+                    try {
+                        s.fd.write(buf);
+                    } catch (IOException e) {
+                        fail(e.toString());
+                    }
+                } else {
+                    for (int i = 0; i < n; ++i) {
+                        if (buf.get(i) != bulkByte(s.received + i)) {
+                            s.verified = false;
+                        }
+                    }
+                }
+                s.received += n;
+                if (s.type != 'P' && pauseBulk) {
+                    loop.rmOps(s.fd, EventSet.read());
+                    return;
+                }
+            }
+        }
+    }
+
+    private class BulkHandler extends SocketHandler {
+        final ByteBuffer buf = ByteBuffer.allocate(65536);
+        long sent = 0;
+        boolean stop = false;
+
+        @Override
+        public void writable(HandlerContext<SocketFD> ctx) {
+            while (!stop) {
+                buf.clear();
+                for (int i = 0; i < buf.capacity(); ++i) {
+                    buf.put(i, bulkByte(sent + i));
+                }
+                int n;
+                try {
+                    n = ctx.getChannel().write(buf);
+                } catch (IOException e) {
+                    fail(e.toString());
+                    return;
+                }
+                sent += n;
+                if (n == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private class PingHandler extends SocketHandler {
+        final List<Long> latencies = new ArrayList<>();
+        private long sentTs = 0;
+        boolean stop = false;
+
+        @Override
+        public void connected(HandlerContext<SocketFD> ctx) {
+            ping(ctx.getChannel());
+        }
+
+        private void ping(SocketFD fd) {
+            sentTs = System.nanoTime();
+            try {
+                fd.write(ByteBuffer.wrap("PING".getBytes()));
+            } catch (IOException e) {
+                fail(e.toString());
+            }
+        }
+
+        @Override
+        public void readable(HandlerContext<SocketFD> ctx) {
+            SocketFD fd = ctx.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(16);
+            try {
+                fd.read(buf);
+            } catch (IOException e) {
+                ctx.remove();
+                return;
+            }
+            if (buf.position() < 4) {
+                return;
+            }
+            latencies.add((System.nanoTime() - sentTs) / 1_000_000);
+            if (!stop) {
+                loop.delay(10, () -> ping(fd));
+            }
+        }
+    }
+
+    private SocketFD connect(Handler<SocketFD> handler) throws Exception {
+        return onLoop(() -> {
+            SocketFD fd = clientFDs.openSocketFD(loop);
+            fd.connect(new IPPort(IP.from("127.0.0.1"), port));
+            loop.add(fd, EventSet.readwrite(), null, handler);
+            return fd;
+        });
+    }
+
+    private ServerStream serverStream(int idx) throws Exception {
+        waitFor(() -> serverStreams.size() > idx && serverStreams.get(idx).type != 0);
+        return onLoop(() -> serverStreams.get(idx));
+    }
+
+    private static long p50(List<Long> latencies) {
+        latencies = new ArrayList<>(latencies);
+        latencies.sort(Long::compare);
+        return latencies.get(latencies.size() / 2);
+    }
+
+    @Test
+    public void interactiveLatencyUnderBulkTransfer() throws Exception {
+        // latency without load
+        PingHandler ping = new PingHandler();
+        connect(ping);
+        waitFor(() -> ping.latencies.size() >= 20);
+        long idleP50 = onLoop(() -> p50(ping.latencies));
+
+        BulkHandler bulk = new BulkHandler();
+        connect(bulk);
+        ServerStream bulkStream = serverStream(1);
+        // let the bulk transfer fill the queues
+        waitFor(() -> bulkStream.received > 1024 * 1024);
+
+        onLoop(() -> {
+            ping.latencies.clear();
+            return null;
+        });
+        long startTs = System.nanoTime();
+        long startReceived = onLoop(() -> bulkStream.received);
+        // the pings take a few seconds, more on a busy machine
+        waitFor(() -> ping.latencies.size() >= 50, 30_000);
+        long received = onLoop(() -> bulkStream.received);
+        long elapsedMs = (System.nanoTime() - startTs) / 1_000_000;
+        onLoop(() -> {
+            bulk.stop = true;
+            ping.stop = true;
+            return null;
+        });
+        // at most one send window (256KB) of the bulk stream is on the way,
+        // the ping would wait that long if it were queued behind the bulk data
+        double bytesPerMs = (received - startReceived) / (double) Math.max(1, elapsedMs);
+        long windowDrainMs = (long) (256 * 1024 / bytesPerMs);
+
+        List<Long> latencies = onLoop(() -> new ArrayList<>(ping.latencies));
+        long p50 = p50(latencies);
+        long max = latencies.stream().max(Long::compare).orElse(0L);
+        System.out.println("ping latency without load: p50=" + idleP50 + "ms; under bulk transfer: p50=" + p50 + "ms, max=" + max + "ms"
+            + ", bulk received " + received + " bytes, one window of bulk data takes " + windowDrainMs + "ms to drain");
+        assertTrue("bulk transfer should keep going", received > 2 * 1024 * 1024);
+        // the bound scales with the speed of the machine, unlike the latency in milliseconds
+        assertTrue("p50 = " + p50 + ", window drain = " + windowDrainMs, p50 < windowDrainMs * 2);
+        assertTrue(onLoop(() -> bulkStream.verified));
+    }
+
+    @Test
+    public void sendWindowLimitsUnreadStream() throws Exception {
+        onLoop(() -> pauseBulk = true);
+        BulkHandler bulk = new BulkHandler();
+        connect(bulk);
+        ServerStream bulkStream = serverStream(0);
+
+        // the bulk stream stops when the window and the local queue are used up
+        long sent = -1;
+        while (true) {
+            Thread.sleep(200);
+            long s = onLoop(() -> bulk.sent);
+            if (s == sent) {
+                break;
+            }
+            sent = s;
+        }
+        // the server reads only one chunk which is not enough for a window update
+        assertTrue("sent = " + sent, sent <= 256 * 1024);
+        assertTrue("sent = " + sent, sent > 64 * 1024);
+
+        // other streams are not affected
+        PingHandler ping = new PingHandler();
+        connect(ping);
+        waitFor(() -> ping.latencies.size() >= 3);
+        onLoop(() -> ping.stop = true);
+
+        // the window is granted after the data is read
+        onLoop(() -> {
+            pauseBulk = false;
+            loop.addOps(bulkStream.fd, EventSet.read());
+            return null;
+        });
+        long before = sent;
+        waitFor(() -> bulk.sent > before + 1024 * 1024);
+        onLoop(() -> bulk.stop = true);
+        waitFor(() -> bulkStream.received == bulk.sent);
+        assertTrue(onLoop(() -> bulkStream.verified));
+    }
+}
@@ -0,0 +1,235 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vfd.IPPort;
+import vpacket.conntrack.tcp.*;
+import vproxy.test.tool.TcpLinkSimulator;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestTcpCongestion {
+    private static TcpEntry established(int mss) {
+        TcpEntry tcp = new TcpEntry(null, new IPPort("12.34.56.78", 1234), new IPPort("98.76.54.32", 5678), 12345);
+        tcp.setState(TcpState.ESTABLISHED);
+        tcp.sendingQueue.init(65535, mss, 1, false);
+        return tcp;
+    }
+
+    private static int total(List<Segment> segments) {
+        int n = 0;
+        for (Segment s : segments) {
+            n += s.data.length();
+        }
+        return n;
+    }
+
+    @Test
+    public void rto() {
+        RttEstimator rtt = new RttEstimator();
+        assertEquals(TcpEntry.RTO_INIT, rtt.getRto());
+        rtt.sample(100);
+        assertEquals(100, rtt.getSrtt());
+        assertEquals(50, rtt.getRttvar());
+        assertEquals(300, rtt.getRto());
+        rtt.sample(100);
+        assertEquals(100, rtt.getSrtt());
+        assertEquals(250, rtt.getRto());
+
+        rtt.backoff();
+        assertEquals(500, rtt.getRto());
+        rtt.backoff();
+        assertEquals(1000, rtt.getRto());
+        rtt.resetBackoff();
+        assertEquals(250, rtt.getRto());
+        for (int i = 0; i < 20; ++i) {
+            rtt.backoff();
+        }
+        assertEquals(TcpEntry.RTO_MAX, rtt.getRto());
+
+        rtt = new RttEstimator();
+        rtt.sample(1);
+        assertEquals(TcpEntry.RTO_MIN, rtt.getRto());
+    }
+
+    @Test
+    public void slowStartAndAvoidance() {
+        CongestionControl cc = new CongestionControl(1000, 0, false);
+        assertEquals(10000, cc.getCwnd());
+        cc.onAck(1000, 1000, 9000, 0, 10);
+        assertEquals(11000, cc.getCwnd());
+
+        cc.onTimeout(20000, 1000, false);
+        assertEquals(10000, cc.getSsthresh());
+        assertEquals(1000, cc.getCwnd());
+        // timing out again does not reduce the ssthresh
+        cc.onTimeout(1000, 1000, true);
+        assertEquals(10000, cc.getSsthresh());
+
+        for (int i = 0; i < 9; ++i) {
+            cc.onAck(1000, 2000 + i * 1000, 0, 0, 10);
+        }
+        assertEquals(10000, cc.getCwnd());
+        // one mss per window
+        for (int i = 0; i < 9; ++i) {
+            cc.onAck(1000, 20000 + i * 1000, 0, 0, 10);
+        }
+        assertEquals(10000, cc.getCwnd());
+        cc.onAck(1000, 30000, 0, 0, 10);
+        assertEquals(11000, cc.getCwnd());
+    }
+
+    @Test
+    public void cubicGrowsBackToTheLastMax() {
+        CongestionControl cc = new CongestionControl(1000, 0, true);
+        for (int i = 0; i < 90; ++i) {
+            cc.onAck(1000, (i + 1) * 1000, 0, 0, 10);
+        }
+        assertEquals(100_000, cc.getCwnd());
+        for (int i = 0; i < 3; ++i) {
+            cc.onDupAck(90_000, 100_000, 190_000);
+        }
+        assertEquals(70_000, cc.getSsthresh());
+        cc.onAck(100_000, 190_000, 70_000, 0, 10);
+        assertFalse(cc.isInRecovery());
+        assertEquals(70_000, cc.getCwnd());
+
+        // cubic grows by time, k = cbrt(30 / 0.4) = 4.2s,
+        // the rtt is long enough to stay out of the tcp-friendly region
+        long ack = 190_000;
+        long now = 0;
+        while (now <= 4200) {
+            int cwnd = cc.getCwnd();
+            for (int i = 0; i < cwnd / 1000; ++i) {
+                ack += 1000;
+                cc.onAck(1000, ack, cwnd, now, 100);
+            }
+            now += 100;
+        }
+        assertTrue("" + cc.getCwnd(), cc.getCwnd() >= 95_000 && cc.getCwnd() <= 100_000);
+        // and then probes for more
+        while (now <= 6000) {
+            int cwnd = cc.getCwnd();
+            for (int i = 0; i < cwnd / 1000; ++i) {
+                ack += 1000;
+                cc.onAck(1000, ack, cwnd, now, 100);
+            }
+            now += 100;
+        }
+        assertTrue("" + cc.getCwnd(), cc.getCwnd() > 101_000);
+    }
+
+    @Test
+    public void fastRetransmitAndRecovery() {
+        TcpEntry tcp = established(1000);
+        var q = tcp.sendingQueue;
+        long seq = q.getLatestSeq();
+        q.apiWrite(ByteBuffer.wrap(new byte[50000]));
+
+        // initial window
+        assertEquals(10000, total(q.fetch(0)));
+        assertTrue(q.fetch(0).isEmpty());
+        assertFalse(q.ack(seq + 1000, 65535, false, 10));
+        assertEquals(2000, total(q.fetch(10)));
+        assertEquals(seq + 12000, q.getFetchSeq());
+
+        // the segment at seq + 1000 is lost
+        assertFalse(q.ack(seq + 1000, 65535, false, 10));
+        assertFalse(q.ack(seq + 1000, 65535, true, 10)); // with data
+        assertFalse(q.ack(seq + 1000, 65535, false, 10));
+        assertTrue(q.ack(seq + 1000, 65535, false, 10));
+        assertTrue(q.getCongestionControl().isInRecovery());
+        assertEquals(5500, q.getCongestionControl().getSsthresh());
+        assertEquals(5500 + 3000, q.getCongestionWindow());
+        Segment s = q.retransmit();
+        assertEquals(seq + 1000, s.seqBeginInclusive);
+        assertEquals(1000, s.data.length());
+
+        // partial ack
+        assertTrue(q.ack(seq + 5000, 65535, false, 20));
+        assertEquals(seq + 5000, q.retransmit().seqBeginInclusive);
+        // full ack
+        assertFalse(q.ack(seq + 12000, 65535, false, 30));
+        assertFalse(q.getCongestionControl().isInRecovery());
+        assertEquals(1000, q.getCongestionWindow());
+        // the retransmitted segment is not used for rtt, the first segment is
+        assertEquals(10, q.getRttEstimator().getSrtt());
+    }
+
+    @Test
+    public void timeoutGoesBackN() {
+        TcpEntry tcp = established(1000);
+        var q = tcp.sendingQueue;
+        long seq = q.getLatestSeq();
+        q.apiWrite(ByteBuffer.wrap(new byte[50000]));
+        assertEquals(10000, total(q.fetch(0)));
+        assertTrue(q.hasDataInFlight());
+
+        q.timeout();
+        assertEquals(1, q.getRetransmissionCount());
+        assertEquals(2 * TcpEntry.RTO_INIT, q.getRto());
+        assertEquals(1000, q.getCongestionWindow());
+        assertEquals(5000, q.getCongestionControl().getSsthresh());
+        var segments = q.fetch(0);
+        assertEquals(1, segments.size());
+        assertEquals(seq, segments.get(0).seqBeginInclusive);
+
+        assertFalse(q.ack(seq + 1000, 65535, false, 100));
+        assertEquals(0, q.getRetransmissionCount());
+        assertEquals(TcpEntry.RTO_INIT, q.getRto());
+        // karn's algorithm
+        assertEquals(-1, q.getRttEstimator().getSrtt());
+        segments = q.fetch(100);
+        assertEquals(2, segments.size());
+        assertEquals(seq + 1000, segments.get(0).seqBeginInclusive);
+    }
+
+    @Test
+    public void sillyWindowAvoidance() {
+        TcpEntry tcp = established(1000);
+        var q = tcp.sendingQueue;
+        q.init(10500, 1000, 1, false);
+        long seq = q.getLatestSeq();
+        q.apiWrite(ByteBuffer.wrap(new byte[20000]));
+        assertEquals(10000, total(q.fetch(0)));
+        q.ack(seq + 1000, 10500, false, 0);
+        // 1500 bytes allowed, wait for a full segment for the last 500 bytes
+        assertEquals(1000, total(q.fetch(0)));
+        assertTrue(q.fetch(0).isEmpty());
+        q.ack(seq + 1500, 10500, false, 0);
+        assertEquals(1000, total(q.fetch(0)));
+
+        // the window is smaller than mss
+        tcp = established(1000);
+        q = tcp.sendingQueue;
+        q.init(300, 1000, 1, false);
+        q.apiWrite(ByteBuffer.wrap(new byte[5000]));
+        assertEquals(300, total(q.fetch(0)));
+    }
+
+    @Test
+    public void windowIsScaled() {
+        TcpEntry tcp = new TcpEntry(null, new IPPort("12.34.56.78", 1234), new IPPort("98.76.54.32", 5678), 12345);
+        tcp.setState(TcpState.ESTABLISHED);
+        tcp.sendingQueue.init(65535, 1360, 64);
+        tcp.sendingQueue.ack(tcp.sendingQueue.getAckSeq(), 16384);
+        assertEquals(16384 * 64, tcp.sendingQueue.getWindow());
+    }
+
+    @Test
+    public void lossyLink() {
+        for (boolean cubic : new boolean[]{false, true}) {
+            var result = new TcpLinkSimulator(10, 0.01, 100, 256 * 1024, 1, cubic).transfer(4 * 1024 * 1024);
+            assertTrue(result.toString(), result.finished);
+            assertTrue(result.toString(), result.fastRetransmits > 0);
+            // about 6.6Mbps expected by 1.22 * mss / (rtt * sqrt(loss))
+            assertTrue(result.toString(), result.mbps() > 3);
+            assertEquals(20, result.srtt);
+        }
+        var result = new TcpLinkSimulator(1, 0, 100, 64 * 1024, 1, true).transfer(16 * 1024 * 1024);
+        assertTrue(result.toString(), result.finished);
+        assertTrue(result.toString(), result.mbps() > 80);
+    }
+}
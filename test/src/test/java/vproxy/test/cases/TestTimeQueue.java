@@ -0,0 +1,137 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxybase.util.TimeElem;
+import vproxybase.util.TimeQueue;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestTimeQueue {
+    // the global timestamp is updated by other event loops in the suite, use a private clock
+    private long now = 1_000_000_007L; // not aligned to any wheel slot
+
+    private List<Integer> popAll(TimeQueue<Integer> queue) {
+        List<Integer> ret = new ArrayList<>();
+        int n = queue.expire();
+        for (int i = 0; i < n; ++i) {
+            Integer e = queue.pop();
+            assertNotNull(e);
+            ret.add(e);
+        }
+        assertNull(queue.pop());
+        return ret;
+    }
+
+    @Test
+    public void simple() {
+        TimeQueue<Integer> queue = new TimeQueue<>(() -> now);
+        assertTrue(queue.isEmpty());
+        assertEquals(Integer.MAX_VALUE, queue.nextTime());
+
+        queue.push(0, 0);
+        queue.push(10, 10);
+        queue.push(300, 300);
+        queue.push(100_000, 100_000);
+        assertEquals(0, queue.nextTime());
+        assertEquals(List.of(0), popAll(queue));
+        assertEquals(10, queue.nextTime());
+
+        now += 9;
+        assertEquals(1, queue.nextTime());
+        assertEquals(List.of(), popAll(queue));
+        now += 1;
+        assertEquals(List.of(10), popAll(queue));
+
+        now += 290;
+        assertEquals(List.of(300), popAll(queue));
+        assertFalse(queue.isEmpty());
+
+        now += 100_000;
+        assertEquals(List.of(100_000), popAll(queue));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void remove() {
+        TimeQueue<Integer> queue = new TimeQueue<>(() -> now);
+        TimeElem<Integer> a = queue.push(5, 1);
+        TimeElem<Integer> b = queue.push(5, 2);
+        TimeElem<Integer> c = queue.push(5, 3);
+        TimeElem<Integer> far = queue.push(1_000_000, 4);
+        b.removeSelf();
+        far.removeSelf();
+        far.removeSelf(); // removing twice is ok
+
+        now += 5;
+        assertEquals(2, queue.expire());
+        // remove an expired element before it's popped
+        a.removeSelf();
+        assertEquals(List.of(3), popAll(queue));
+        c.removeSelf(); // already popped
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void randomAgainstReference() {
+        Random rand = new Random(7);
+        TimeQueue<Integer> queue = new TimeQueue<>(() -> now);
+        Map<Integer, Long> expected = new HashMap<>(); // id -> trigger time
+        Map<Integer, TimeElem<Integer>> elems = new HashMap<>();
+        int nextId = 0;
+        int[] ranges = {10, 300, 20_000, 2_000_000, 200_000_000};
+
+        for (int round = 0; round < 20_000; ++round) {
+            int pushes = rand.nextInt(5);
+            for (int i = 0; i < pushes; ++i) {
+                int timeout = rand.nextInt(ranges[rand.nextInt(ranges.length)]);
+                int id = nextId++;
+                elems.put(id, queue.push(timeout, id));
+                expected.put(id, now + timeout);
+            }
+            if (!elems.isEmpty() && rand.nextInt(3) == 0) {
+                // cancel a random element
+                int id = rand.nextInt(nextId);
+                TimeElem<Integer> e = elems.remove(id);
+                if (e != null) {
+                    e.removeSelf();
+                    expected.remove(id);
+                }
+            }
+
+            long min = Long.MAX_VALUE;
+            for (long t : expected.values()) {
+                min = Math.min(min, t);
+            }
+            int next = queue.nextTime();
+            if (min == Long.MAX_VALUE) {
+                assertEquals(Integer.MAX_VALUE, next);
+                assertTrue(queue.isEmpty());
+            } else {
+                assertTrue("nextTime " + next + " should not be later than the nearest timeout", next <= min - now);
+            }
+
+            // sometimes jump far away
+            if (rand.nextInt(1000) == 0) {
+                now += rand.nextInt(100_000_000);
+            } else {
+                now += rand.nextInt(Math.max(1, Math.min(next, 5_000)) + 1);
+            }
+
+            List<Integer> popped = popAll(queue);
+            long last = Long.MIN_VALUE;
+            for (int id : popped) {
+                Long trigger = expected.remove(id);
+                assertNotNull("element " + id + " should be popped only once and not after removed", trigger);
+                assertTrue("element " + id + " popped too early", trigger <= now);
+                assertTrue("elements are popped in time order", trigger >= last);
+                last = trigger;
+                elems.remove(id);
+            }
+            for (Map.Entry<Integer, Long> entry : expected.entrySet()) {
+                assertTrue("element " + entry.getKey() + " is not popped in time", entry.getValue() > now);
+            }
+        }
+    }
+}
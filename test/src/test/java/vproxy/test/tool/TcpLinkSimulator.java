@@ -0,0 +1,259 @@
+package vproxy.test.tool;
+
+import vfd.IPPort;
+import vpacket.conntrack.tcp.Segment;
+import vpacket.conntrack.tcp.TcpEntry;
+import vpacket.conntrack.tcp.TcpState;
+import vproxybase.util.ByteArray;
+
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Sends data with the sending queue of a {@link TcpEntry} over an emulated link, in virtual time.<br>
+ * The sender is driven the same way as vswitch.stack.L4: acks clock out new data,
+ * dup acks and partial acks retransmit the first unacked segment, and one retransmission timer uses the rto of the entry.
+ * The link has a one way delay, a bottleneck with a drop-tail queue, and random loss in both directions.
+ * The receiver keeps out-of-order segments and acks every segment immediately.
+ */
+public class TcpLinkSimulator {
+    private static final int MSS = 1360;
+    private static final int HEADER = 40;
+    private static final int WINDOW_SCALE = 64;
+    private static final int RCV_WINDOW = 65535 * WINDOW_SCALE;
+    private static final long MAX_TIME_US = 600L * 1000 * 1000;
+
+    public static class Result {
+        public final boolean finished;
+        public final long bytes;
+        public final long micros;
+        public final int fastRetransmits;
+        public final int timeouts;
+        public final int lost;
+        public final long srtt;
+        public final int rto;
+
+        Result(boolean finished, long bytes, long micros, int fastRetransmits, int timeouts, int lost, long srtt, int rto) {
+            this.finished = finished;
+            this.bytes = bytes;
+            this.micros = micros;
+            this.fastRetransmits = fastRetransmits;
+            this.timeouts = timeouts;
+            this.lost = lost;
+            this.srtt = srtt;
+            this.rto = rto;
+        }
+
+        public double mbps() {
+            return micros == 0 ? 0 : bytes * 8.0 / micros;
+        }
+
+        @Override
+        public String toString() {
+            return (finished ? "" : "UNFINISHED ") + String.format("%.2f", mbps()) + "Mbps"
+                + " time=" + (micros / 1000) + "ms"
+                + " fast-retransmits=" + fastRetransmits
+                + " timeouts=" + timeouts
+                + " lost=" + lost
+                + " srtt=" + srtt + "ms"
+                + " rto=" + rto + "ms";
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long order;
+        final Runnable r;
+
+        Event(long time, long order, Runnable r) {
+            this.time = time;
+            this.order = order;
+            this.r = r;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            if (time != o.time) {
+                return Long.compare(time, o.time);
+            }
+            return Long.compare(order, o.order);
+        }
+    }
+
+    private final int delayMicros;
+    private final double lossRate;
+    private final double bytesPerMicro;
+    private final int queueBytes;
+    private final Random rand;
+    private final boolean cubic;
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long order = 0;
+    private long now = 0; // us
+    private long linkFreeAt = 0;
+
+    private TcpEntry tcp;
+    private long timerGeneration = 0;
+    private boolean timerSet = false;
+    private long total;
+    private long written;
+    private long firstSeq;
+    private long expecting;
+    private final TreeMap<Long, ByteArray> outOfOrder = new TreeMap<>();
+    private int fastRetransmits;
+    private int timeouts;
+    private int lost;
+
+    /**
+     * @param delayMillis   one way delay
+     * @param lossRate      probability of dropping a packet, in both directions
+     * @param bandwidthMbps bandwidth of the bottleneck
+     * @param queueBytes    size of the drop-tail queue of the bottleneck
+     * @param seed          seed of the loss
+     * @param cubic         use cubic or newreno
+     */
+    public TcpLinkSimulator(int delayMillis, double lossRate, int bandwidthMbps, int queueBytes, long seed, boolean cubic) {
+        this.delayMicros = delayMillis * 1000;
+        this.lossRate = lossRate;
+        this.bytesPerMicro = bandwidthMbps / 8.0;
+        this.queueBytes = queueBytes;
+        this.rand = new Random(seed);
+        this.cubic = cubic;
+    }
+
+    public Result transfer(long bytes) {
+        tcp = new TcpEntry(null, new IPPort("10.0.0.1", 1234), new IPPort("10.0.0.2", 80), 1);
+        tcp.setState(TcpState.ESTABLISHED);
+        tcp.sendingQueue.init(65535, MSS, WINDOW_SCALE, cubic);
+        total = bytes;
+        firstSeq = tcp.sendingQueue.getLatestSeq();
+        expecting = firstSeq;
+
+        write();
+        while (!events.isEmpty() && expecting - firstSeq < total && now < MAX_TIME_US) {
+            Event e = events.poll();
+            now = e.time;
+            e.r.run();
+            write();
+        }
+        var rtt = tcp.sendingQueue.getRttEstimator();
+        return new Result(expecting - firstSeq == total, expecting - firstSeq, now,
+            fastRetransmits, timeouts, lost, rtt.getSrtt(), rtt.getRto());
+    }
+
+    private long nowMillis() {
+        return now / 1000;
+    }
+
+    private void schedule(long time, Runnable r) {
+        events.add(new Event(time, order++, r));
+    }
+
+    private static byte byteAt(long offset) {
+        return (byte) (offset * 31 + 7);
+    }
+
+    // the application writes as much as possible
+    private void write() {
+        if (written >= total || !tcp.sendingQueue.hasMoreSpace()) {
+            return;
+        }
+        int len = (int) Math.min(65536, total - written);
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            bytes[i] = byteAt(written + i);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        written += tcp.sendingQueue.apiWrite(buf);
+        transmit();
+    }
+
+    private void transmit() {
+        for (Segment s : tcp.sendingQueue.fetch(nowMillis())) {
+            sendData(s);
+        }
+        if (tcp.sendingQueue.hasDataInFlight()) {
+            if (!timerSet) {
+                timerSet = true;
+                long gen = ++timerGeneration;
+                schedule(now + tcp.sendingQueue.getRto() * 1000L, () -> {
+                    if (gen == timerGeneration) {
+                        timeout();
+                    }
+                });
+            }
+        } else {
+            cancelTimer();
+        }
+    }
+
+    private void cancelTimer() {
+        timerSet = false;
+        ++timerGeneration;
+    }
+
+    private void timeout() {
+        timerSet = false;
+        ++timeouts;
+        tcp.sendingQueue.timeout();
+        transmit();
+    }
+
+    private void onAck(long ack) {
+        long lastAckSeq = tcp.sendingQueue.getAckSeq();
+        if (tcp.sendingQueue.ack(ack, RCV_WINDOW / WINDOW_SCALE, false, nowMillis())) {
+            Segment s = tcp.sendingQueue.retransmit();
+            if (s != null) {
+                ++fastRetransmits;
+                sendData(s);
+            }
+        }
+        if (tcp.sendingQueue.getAckSeq() != lastAckSeq && tcp.sendingQueue.restartTimerOnAck()) {
+            cancelTimer();
+        }
+        transmit();
+    }
+
+    private void sendData(Segment s) {
+        int size = s.data.length() + HEADER;
+        long start = Math.max(now, linkFreeAt);
+        long queued = (long) ((start - now) * bytesPerMicro);
+        if (queued + size > queueBytes || rand.nextDouble() < lossRate) {
+            ++lost;
+            return;
+        }
+        linkFreeAt = start + (long) Math.ceil(size / bytesPerMicro);
+        schedule(linkFreeAt + delayMicros, () -> receive(s));
+    }
+
+    private void receive(Segment s) {
+        if (s.seqEndExclusive > expecting) {
+            if (s.seqBeginInclusive > expecting) {
+                outOfOrder.putIfAbsent(s.seqBeginInclusive, s.data);
+            } else {
+                deliver(s.seqBeginInclusive, s.data);
+                while (!outOfOrder.isEmpty() && outOfOrder.firstKey() <= expecting) {
+                    var e = outOfOrder.pollFirstEntry();
+                    deliver(e.getKey(), e.getValue());
+                }
+            }
+        }
+        long ack = expecting;
+        if (rand.nextDouble() < lossRate) {
+            ++lost;
+            return;
+        }
+        schedule(now + delayMicros, () -> onAck(ack));
+    }
+
+    private void deliver(long seq, ByteArray data) {
+        for (int i = (int) (expecting - seq); i < data.length(); ++i) {
+            if (data.get(i) != byteAt(expecting - firstSeq)) {
+                throw new IllegalStateException("data corrupted at " + (expecting - firstSeq));
+            }
+            ++expecting;
+        }
+    }
+}